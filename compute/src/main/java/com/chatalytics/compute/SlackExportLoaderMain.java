@@ -0,0 +1,53 @@
+package com.chatalytics.compute;
+
+import com.chatalytics.compute.backfill.SlackExportLoader;
+import com.chatalytics.compute.backfill.SlackExportLoader.MentionCounts;
+import com.chatalytics.compute.db.dao.ChatAlyticsDAOFactory;
+import com.chatalytics.core.CommonCLIBuilder;
+import com.chatalytics.core.config.ChatAlyticsConfig;
+import com.chatalytics.core.util.YamlUtils;
+import com.google.common.collect.Lists;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.Options;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+
+/**
+ * Entry point for bulk loading Slack export ZIP files into the database. The files to load are
+ * passed as arguments after the options.
+ */
+public class SlackExportLoaderMain {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SlackExportLoaderMain.class);
+
+    public static void main(String[] args) throws IOException {
+
+        Options opts = CommonCLIBuilder.getCommonOptions();
+        CommandLine cli = CommonCLIBuilder.parseOptions(SlackExportLoaderMain.class, args, opts);
+        String configName = CommonCLIBuilder.getConfigOption(cli);
+        if (cli.getArgs().length == 0) {
+            throw new IllegalArgumentException("No Slack export files to load");
+        }
+
+        LOG.info("Loading config {}", configName);
+        ChatAlyticsConfig config = YamlUtils.readChatAlyticsConfig(configName);
+
+        List<Path> exportFiles = Lists.newArrayListWithCapacity(cli.getArgs().length);
+        for (String exportFile : cli.getArgs()) {
+            exportFiles.add(Paths.get(exportFile));
+        }
+        try (SlackExportLoader loader = new SlackExportLoader(config)) {
+            MentionCounts counts = loader.load(exportFiles);
+            LOG.info("Loaded {} messages. Skipped {}", counts.getMessages(),
+                     counts.getSkippedMessages());
+        } finally {
+            ChatAlyticsDAOFactory.closeEntityManagerFactory();
+        }
+    }
+}
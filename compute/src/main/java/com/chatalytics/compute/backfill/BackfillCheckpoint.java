@@ -0,0 +1,155 @@
+package com.chatalytics.compute.backfill;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+import org.joda.time.Interval;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Records the {@link BackfillSlice}s of a backfill run that are done, so that a backfill that
+ * crashed can resume without fetching them again. The checkpoint is a text file whose first line
+ * is the interval of the run and every other line is the key of a completed slice. A checkpoint
+ * left behind by a run over a different interval is discarded.
+ * <p/>
+ * Runs without an end date end at the time they start, so a run that resumes has to reuse the
+ * interval of the checkpoint, which is returned by {@link #readRunInterval(Path)}, to skip the
+ * slices that are done.
+ */
+public class BackfillCheckpoint implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(BackfillCheckpoint.class);
+
+    private final Path path;
+    private final Set<String> completedSlices;
+    private final BufferedWriter writer;
+
+    /**
+     * Opens the checkpoint at <code>path</code> for a run over <code>runInterval</code>
+     *
+     * @param path
+     *            The checkpoint file
+     * @param runInterval
+     *            The interval of the backfill run
+     * @throws IOException
+     *             If the checkpoint can't be read or created
+     */
+    public BackfillCheckpoint(Path path, Interval runInterval) throws IOException {
+        this.path = path;
+        Set<String> completedSlices = Sets.newHashSet();
+        if (Files.exists(path)) {
+            List<String> lines = Files.readAllLines(path, StandardCharsets.UTF_8);
+            Optional<Interval> checkpointInterval = parseRunInterval(lines);
+            if (checkpointInterval.isPresent()
+                    && checkpointInterval.get().getStartMillis() == runInterval.getStartMillis()
+                    && checkpointInterval.get().getEndMillis() == runInterval.getEndMillis()) {
+                for (String line : lines.subList(1, lines.size())) {
+                    if (!line.isEmpty()) {
+                        completedSlices.add(line);
+                    }
+                }
+                LOG.info("Resuming backfill of {} with {} completed slices", runInterval,
+                         completedSlices.size());
+            } else {
+                LOG.info("Discarding checkpoint of a different backfill run at {}", path);
+            }
+        }
+        this.completedSlices = completedSlices;
+
+        Path parent = path.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        // the new checkpoint replaces the old one at once, so a crash while it's written can't
+        // lose the slices that were done
+        List<String> lines = Lists.newArrayListWithCapacity(completedSlices.size() + 1);
+        lines.add(runInterval.toString());
+        lines.addAll(completedSlices);
+        Path tempPath = path.resolveSibling(path.getFileName() + ".tmp");
+        Files.write(tempPath, lines, StandardCharsets.UTF_8);
+        Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING,
+                   StandardCopyOption.ATOMIC_MOVE);
+        this.writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8,
+                                              StandardOpenOption.APPEND);
+    }
+
+    /**
+     * @param path
+     *            The checkpoint file
+     * @return The interval of the run that left the checkpoint or absent if there's no checkpoint
+     * @throws IOException
+     *             If the checkpoint can't be read
+     */
+    public static Optional<Interval> readRunInterval(Path path) throws IOException {
+        if (!Files.exists(path)) {
+            return Optional.absent();
+        }
+        return parseRunInterval(Files.readAllLines(path, StandardCharsets.UTF_8));
+    }
+
+    private static Optional<Interval> parseRunInterval(List<String> lines) {
+        if (lines.isEmpty()) {
+            return Optional.absent();
+        }
+        try {
+            return Optional.of(Interval.parse(lines.get(0)));
+        } catch (IllegalArgumentException e) {
+            LOG.warn("Can't parse the interval of the backfill checkpoint. {}", e.getMessage());
+            return Optional.absent();
+        }
+    }
+
+    /**
+     * @return The keys of the slices that were completed by this run
+     */
+    public Set<String> getCompletedSlices() {
+        return ImmutableSet.copyOf(completedSlices);
+    }
+
+    /**
+     * Marks a slice as completed
+     *
+     * @param slice
+     *            The completed slice
+     * @throws IOException
+     *             If the checkpoint can't be written
+     */
+    public void complete(BackfillSlice slice) throws IOException {
+        String key = slice.getKey();
+        if (completedSlices.add(key)) {
+            writer.write(key);
+            writer.newLine();
+            writer.flush();
+        }
+    }
+
+    /**
+     * Closes and deletes the checkpoint once the run is done
+     *
+     * @throws IOException
+     *             If the checkpoint can't be deleted
+     */
+    public void delete() throws IOException {
+        close();
+        Files.deleteIfExists(path);
+    }
+
+    @Override
+    public void close() throws IOException {
+        writer.close();
+    }
+}
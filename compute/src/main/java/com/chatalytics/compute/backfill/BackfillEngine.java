@@ -0,0 +1,297 @@
+package com.chatalytics.compute.backfill;
+
+import com.chatalytics.compute.chat.dao.IChatApiDAO;
+import com.chatalytics.compute.chat.dao.IChatApiDAO.MessagePageHandler;
+import com.chatalytics.core.model.data.Message;
+import com.chatalytics.core.model.data.Room;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.RateLimiter;
+
+import org.joda.time.Interval;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Fetches the message history of many rooms concurrently. The interval to backfill is cut into
+ * slices of a fixed length that start at the beginning of the interval, and every room and slice
+ * is a unit of work. Rooms are split in halves on a {@link ForkJoinPool} until every task is a
+ * single slice, so idle workers steal the slices of large rooms from busy ones. Slices from before
+ * a room was created are skipped.
+ * <p/>
+ * Every auth token has its own DAO and its own rate limiter. A slice is fetched with the first
+ * token that has budget left and waits on one of the tokens if none of them has. Every following
+ * page of the slice is charged to the same token.
+ * <p/>
+ * Slices are fetched a page at a time and every page is handed to a {@link SliceHandler} on the
+ * thread that called {@link #backfill}, which makes it safe to emit them from a storm spout.
+ * Workers block when the handler falls behind, so only a few pages are held in memory.
+ */
+public class BackfillEngine implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(BackfillEngine.class);
+    private static final long RESULT_POLL_MS = 100;
+
+    private final List<IChatApiDAO> chatApiDaos;
+    private final List<RateLimiter> rateLimiters;
+    private final AtomicInteger nextToken;
+    private final long sliceMillis;
+    private final int maxPendingSlices;
+    private final ForkJoinPool workerPool;
+
+    /**
+     * Handler that gets called for every page of messages that was fetched
+     */
+    public interface SliceHandler {
+
+        /**
+         * @param slice
+         *            The slice the messages belong to
+         * @param messages
+         *            A page of messages of the room in the slice
+         */
+        void onMessages(BackfillSlice slice, List<Message> messages);
+
+        /**
+         * Called after every page of a slice has been handed to {@link #onMessages}
+         *
+         * @param slice
+         *            The slice that is done
+         */
+        void onSliceDone(BackfillSlice slice);
+    }
+
+    /**
+     * @param chatApiDaos
+     *            One DAO for every auth token
+     * @param requestsPerSecondPerToken
+     *            The rate limit of every token
+     * @param workers
+     *            The number of slices fetched at the same time
+     * @param sliceMillis
+     *            The length of a slice
+     */
+    public BackfillEngine(List<IChatApiDAO> chatApiDaos, double requestsPerSecondPerToken,
+                          int workers, long sliceMillis) {
+        Preconditions.checkArgument(!chatApiDaos.isEmpty(), "Need at least one chat API DAO");
+        Preconditions.checkArgument(sliceMillis > 0, "Slices have to be longer than 0ms");
+        this.chatApiDaos = ImmutableList.copyOf(chatApiDaos);
+        this.rateLimiters = Lists.newArrayListWithCapacity(chatApiDaos.size());
+        for (int i = 0; i < chatApiDaos.size(); i++) {
+            rateLimiters.add(RateLimiter.create(requestsPerSecondPerToken));
+        }
+        this.nextToken = new AtomicInteger();
+        this.sliceMillis = sliceMillis;
+        this.maxPendingSlices = workers * 2;
+        this.workerPool = new ForkJoinPool(workers);
+    }
+
+    /**
+     * Fetches every slice of every room that's not already completed and calls the
+     * <code>handler</code> for every page as they're fetched. Blocks until all the slices are done.
+     *
+     * @param rooms
+     *            The rooms to backfill
+     * @param interval
+     *            The interval to backfill
+     * @param completedSlices
+     *            Keys of slices that were already done and should be skipped
+     * @param handler
+     *            The handler to call for every fetched slice
+     * @return True if every slice was fetched and handled, false otherwise
+     * @throws InterruptedException
+     *             If the thread got interrupted while waiting for slices
+     */
+    public boolean backfill(Collection<Room> rooms, Interval interval, Set<String> completedSlices,
+                            SliceHandler handler) throws InterruptedException {
+        BlockingQueue<SliceResult> results = new ArrayBlockingQueue<>(maxPendingSlices);
+        int numSlices = (int) Math.max(1, (interval.toDurationMillis() + sliceMillis - 1)
+            / sliceMillis);
+        List<RoomTask> roomTasks = Lists.newArrayListWithCapacity(rooms.size());
+        for (Room room : rooms) {
+            int firstSlice = getFirstSlice(room, interval);
+            if (firstSlice < numSlices) {
+                roomTasks.add(new RoomTask(room, interval, firstSlice, numSlices, completedSlices,
+                                           results));
+            }
+        }
+        LOG.info("Backfilling {} slices of {} rooms", numSlices, rooms.size());
+        ForkJoinTask<?> allRooms = workerPool.submit(() -> ForkJoinTask.invokeAll(roomTasks));
+
+        Set<String> failedSlices = Sets.newHashSet();
+        int handledSlices = 0;
+        while (true) {
+            SliceResult result = results.poll(RESULT_POLL_MS, TimeUnit.MILLISECONDS);
+            if (result == null) {
+                if (allRooms.isDone() && results.isEmpty()) {
+                    break;
+                }
+                continue;
+            }
+            if (result.error != null) {
+                LOG.error("Could not backfill {}", result.slice, result.error);
+                failedSlices.add(result.slice.getKey());
+                continue;
+            }
+            if (failedSlices.contains(result.slice.getKey())) {
+                continue;
+            }
+            try {
+                if (result.done) {
+                    handler.onSliceDone(result.slice);
+                    if (++handledSlices % 100 == 0) {
+                        LOG.info("Backfilled {} slices", handledSlices);
+                    }
+                } else {
+                    handler.onMessages(result.slice, result.messages);
+                }
+            } catch (RuntimeException e) {
+                LOG.error("Could not handle {}", result.slice, e);
+                failedSlices.add(result.slice.getKey());
+            }
+        }
+        if (allRooms.isCompletedAbnormally()) {
+            LOG.error("Backfill did not complete", allRooms.getException());
+            return false;
+        }
+        return failedSlices.isEmpty();
+    }
+
+    /**
+     * Slices that end before the room was created don't have any messages
+     *
+     * @return The index of the first slice that may have messages of the room
+     */
+    private int getFirstSlice(Room room, Interval interval) {
+        if (room.getCreationDate() == null) {
+            return 0;
+        }
+        long millisBeforeCreation = room.getCreationDate().getMillis() - interval.getStartMillis();
+        return (int) Math.max(0, millisBeforeCreation / sliceMillis);
+    }
+
+    private void handOver(BlockingQueue<SliceResult> results, SliceResult result) {
+        try {
+            results.put(result);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while handing over " + result.slice, e);
+        }
+    }
+
+    /**
+     * Picks the first token, in round robin order, that has budget left. If none do, waits for
+     * budget on the next token in order.
+     *
+     * @return The index of the token to use
+     */
+    private int acquireToken() {
+        int numTokens = chatApiDaos.size();
+        int first = Math.floorMod(nextToken.getAndIncrement(), numTokens);
+        for (int i = 0; i < numTokens; i++) {
+            int token = (first + i) % numTokens;
+            if (rateLimiters.get(token).tryAcquire()) {
+                return token;
+            }
+        }
+        rateLimiters.get(first).acquire();
+        return first;
+    }
+
+    @Override
+    public void close() {
+        workerPool.shutdownNow();
+    }
+
+    /**
+     * Backfills the slices <code>[firstSlice, endSlice)</code> of a room, splitting them in halves
+     * until there's one slice per task
+     */
+    private class RoomTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 3618206125316870743L;
+
+        private final Room room;
+        private final Interval interval;
+        private final int firstSlice;
+        private final int endSlice;
+        private final Set<String> completedSlices;
+        private final BlockingQueue<SliceResult> results;
+
+        private RoomTask(Room room, Interval interval, int firstSlice, int endSlice,
+                         Set<String> completedSlices, BlockingQueue<SliceResult> results) {
+            this.room = room;
+            this.interval = interval;
+            this.firstSlice = firstSlice;
+            this.endSlice = endSlice;
+            this.completedSlices = completedSlices;
+            this.results = results;
+        }
+
+        @Override
+        protected void compute() {
+            if (endSlice - firstSlice > 1) {
+                int middle = (firstSlice + endSlice) >>> 1;
+                invokeAll(new RoomTask(room, interval, firstSlice, middle, completedSlices,
+                                       results),
+                          new RoomTask(room, interval, middle, endSlice, completedSlices,
+                                       results));
+                return;
+            }
+
+            long sliceStart = interval.getStartMillis() + firstSlice * sliceMillis;
+            long sliceEnd = Math.min(sliceStart + sliceMillis, interval.getEndMillis());
+            BackfillSlice slice = new BackfillSlice(room, new Interval(sliceStart, sliceEnd,
+                                                                       interval.getChronology()));
+            if (completedSlices.contains(slice.getKey())) {
+                return;
+            }
+
+            try {
+                int token = acquireToken();
+                RateLimiter rateLimiter = rateLimiters.get(token);
+                MessagePageHandler pageHandler = (messages, lastPage) -> {
+                    handOver(results, new SliceResult(slice, messages, false, null));
+                    if (!lastPage) {
+                        rateLimiter.acquire();
+                    }
+                };
+                chatApiDaos.get(token).getMessages(slice.getInterval().getStart(),
+                                                   slice.getInterval().getEnd(), room, pageHandler);
+                handOver(results, new SliceResult(slice, null, true, null));
+            } catch (RuntimeException e) {
+                handOver(results, new SliceResult(slice, null, false, e));
+            }
+        }
+    }
+
+    private static class SliceResult {
+
+        private final BackfillSlice slice;
+        private final List<Message> messages;
+        private final boolean done;
+        private final Exception error;
+
+        private SliceResult(BackfillSlice slice, List<Message> messages, boolean done,
+                            Exception error) {
+            this.slice = slice;
+            this.messages = messages;
+            this.done = done;
+            this.error = error;
+        }
+    }
+}
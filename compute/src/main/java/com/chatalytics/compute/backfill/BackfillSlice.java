@@ -0,0 +1,40 @@
+package com.chatalytics.compute.backfill;
+
+import com.chatalytics.core.model.data.Room;
+
+import org.joda.time.Interval;
+
+/**
+ * A unit of backfill work: the history of one room over one time slice
+ */
+public class BackfillSlice {
+
+    private final Room room;
+    private final Interval interval;
+
+    public BackfillSlice(Room room, Interval interval) {
+        this.room = room;
+        this.interval = interval;
+    }
+
+    public Room getRoom() {
+        return room;
+    }
+
+    public Interval getInterval() {
+        return interval;
+    }
+
+    /**
+     * @return A key that identifies the slice in a {@link BackfillCheckpoint}
+     */
+    public String getKey() {
+        return String.format("%s/%d-%d", room.getRoomId(), interval.getStartMillis(),
+                             interval.getEndMillis());
+    }
+
+    @Override
+    public String toString() {
+        return getKey();
+    }
+}
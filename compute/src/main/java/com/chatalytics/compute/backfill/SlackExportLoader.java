@@ -0,0 +1,489 @@
+package com.chatalytics.compute.backfill;
+
+import com.chatalytics.compute.db.dao.ChatAlyticsDAOFactory;
+import com.chatalytics.compute.db.dao.IEmojiDAO;
+import com.chatalytics.compute.db.dao.IEntityDAO;
+import com.chatalytics.compute.db.dao.IMessageSummaryDAO;
+import com.chatalytics.compute.entity.ChatEntityExtractor;
+import com.chatalytics.compute.storm.bolt.EmojiCounterBolt;
+import com.chatalytics.compute.storm.bolt.MessageSummaryBolt;
+import com.chatalytics.core.InputSourceType;
+import com.chatalytics.core.config.ChatAlyticsConfig;
+import com.chatalytics.core.emoji.EmojiScanner;
+import com.chatalytics.core.json.JsonObjectMapperFactory;
+import com.chatalytics.core.model.data.ChatEntity;
+import com.chatalytics.core.model.data.EmojiEntity;
+import com.chatalytics.core.model.data.FatMessage;
+import com.chatalytics.core.model.data.IMentionable;
+import com.chatalytics.core.model.data.Message;
+import com.chatalytics.core.model.data.MessageSummary;
+import com.chatalytics.core.model.data.MessageType;
+import com.chatalytics.core.model.data.Room;
+import com.chatalytics.core.model.data.User;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Objects;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Function;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Loads Slack export archives straight into the database without going through the storm
+ * topology. An export is a ZIP file with the users and channels of the team at its root and a
+ * directory for every channel that holds a JSON array of messages for every day.
+ * <p/>
+ * The day files of all the archives are read concurrently. They're split in halves on a
+ * {@link ForkJoinPool} until every task is a single file, and every message is streamed from the
+ * file with the Slack message deserializer and run through the same emoji, entity and summary
+ * logic as the bolts. Each task counts what it finds in memory by user, room, hour and value, the
+ * counts are merged as the tasks are joined and the final rows are persisted in bulk once every
+ * file is read, so the database sees one batched insert per row instead of a transaction per
+ * mention. Hours are the finest resolution the web resources query at, so counting by the hour of
+ * the configured time zone keeps every row inside the intervals it's queried with.
+ */
+public class SlackExportLoader implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SlackExportLoader.class);
+    private static final String USERS_FILE = "users.json";
+    private static final String CHANNELS_FILE = "channels.json";
+    private static final String GROUPS_FILE = "groups.json";
+    private static final String DAY_FILE_SUFFIX = ".json";
+
+    private final ObjectMapper objectMapper;
+    private final ObjectReader messageReader;
+    private final EmojiScanner emojiScanner;
+    private final ChatEntityExtractor entityExtractor;
+    private final IEmojiDAO emojiDao;
+    private final IEntityDAO entityDao;
+    private final IMessageSummaryDAO messageSummaryDao;
+    private final ForkJoinPool workerPool;
+    private final DateTimeZone timeZone;
+
+    public SlackExportLoader(ChatAlyticsConfig config) {
+        this(EmojiCounterBolt.createEmojiScanner(config),
+             ChatEntityExtractor.create(config.computeConfig),
+             ChatAlyticsDAOFactory.createEmojiDAO(config),
+             ChatAlyticsDAOFactory.createEntityDAO(config),
+             ChatAlyticsDAOFactory.createMessageSummaryDAO(config),
+             config.computeConfig.bulkLoadParallelism, DateTimeZone.forID(config.timeZone));
+    }
+
+    /**
+     * @param parallelism
+     *            The number of workers. 0 uses one worker per available processor
+     * @param timeZone
+     *            The time zone of the hours that mentions are counted by
+     */
+    @VisibleForTesting
+    protected SlackExportLoader(EmojiScanner emojiScanner, ChatEntityExtractor entityExtractor,
+                                IEmojiDAO emojiDao, IEntityDAO entityDao,
+                                IMessageSummaryDAO messageSummaryDao, int parallelism,
+                                DateTimeZone timeZone) {
+        this.objectMapper = JsonObjectMapperFactory.createObjectMapper(InputSourceType.SLACK);
+        this.messageReader = objectMapper.readerFor(Message.class);
+        this.emojiScanner = emojiScanner;
+        this.entityExtractor = entityExtractor;
+        this.emojiDao = emojiDao;
+        this.entityDao = entityDao;
+        this.messageSummaryDao = messageSummaryDao;
+        if (parallelism <= 0) {
+            parallelism = Runtime.getRuntime().availableProcessors();
+        }
+        this.workerPool = new ForkJoinPool(parallelism);
+        this.timeZone = timeZone;
+    }
+
+    /**
+     * Reads every message of the exports and persists the emojis, entities and message summaries
+     * found in them. Blocks until everything is persisted.
+     *
+     * @param exportFiles
+     *            The Slack export ZIP files
+     * @return The counts of what was loaded
+     * @throws IOException
+     *             If one of the exports can't be opened
+     */
+    public MentionCounts load(List<Path> exportFiles) throws IOException {
+        List<ZipFile> exports = Lists.newArrayListWithCapacity(exportFiles.size());
+        try {
+            List<DayFile> dayFiles = Lists.newArrayList();
+            for (Path exportFile : exportFiles) {
+                ZipFile export = new ZipFile(exportFile.toFile());
+                exports.add(export);
+                dayFiles.addAll(getDayFiles(export));
+            }
+            LOG.info("Loading {} day files from {} exports", dayFiles.size(), exportFiles.size());
+            long startMillis = System.currentTimeMillis();
+            MentionCounts counts = workerPool.invoke(new DayFilesTask(dayFiles, 0,
+                                                                      dayFiles.size()));
+            LOG.info("Read {} messages in {}ms. Skipped {}. Persisting {} emojis, {} entities and "
+                         + "{} message summaries", counts.messages,
+                     System.currentTimeMillis() - startMillis, counts.skippedMessages,
+                     counts.emojis.size(), counts.entities.size(), counts.messageSummaries.size());
+            persist(counts);
+            return counts;
+        } finally {
+            for (ZipFile export : exports) {
+                export.close();
+            }
+        }
+    }
+
+    /**
+     * Lists the day files of an export along with the users and rooms they refer to
+     */
+    private List<DayFile> getDayFiles(ZipFile export) throws IOException {
+        Map<String, User> users = Maps.newHashMap();
+        for (User user : readList(export, USERS_FILE, User.class)) {
+            users.put(user.getUserId(), user);
+        }
+        Map<String, Room> rooms = Maps.newHashMap();
+        for (Room room : readList(export, CHANNELS_FILE, Room.class)) {
+            rooms.put(room.getName(), room);
+        }
+        for (Room room : readList(export, GROUPS_FILE, Room.class)) {
+            rooms.put(room.getName(), room);
+        }
+
+        List<DayFile> dayFiles = Lists.newArrayList();
+        Enumeration<? extends ZipEntry> entries = export.entries();
+        while (entries.hasMoreElements()) {
+            ZipEntry entry = entries.nextElement();
+            String name = entry.getName();
+            int separator = name.lastIndexOf('/');
+            if (entry.isDirectory() || separator <= 0 || !name.endsWith(DAY_FILE_SUFFIX)) {
+                continue;
+            }
+            String roomName = name.substring(name.lastIndexOf('/', separator - 1) + 1, separator);
+            Room room = rooms.get(roomName);
+            if (room == null) {
+                LOG.warn("Can't find room {} in {}. Skipping {}", roomName, export.getName(),
+                         name);
+                continue;
+            }
+            dayFiles.add(new DayFile(export, entry, room, users));
+        }
+        return dayFiles;
+    }
+
+    /**
+     * Reads a file at the root of an export that holds a JSON array
+     *
+     * @return The elements of the array or an empty list if the export doesn't have the file
+     */
+    private <T> List<T> readList(ZipFile export, String fileName, Class<T> type)
+            throws IOException {
+        ZipEntry entry = export.getEntry(fileName);
+        if (entry == null) {
+            return ImmutableList.of();
+        }
+        try (InputStream in = export.getInputStream(entry)) {
+            return objectMapper.readValue(in, objectMapper.getTypeFactory()
+                                                          .constructCollectionType(List.class,
+                                                                                   type));
+        }
+    }
+
+    /**
+     * Streams the messages of a day file and counts what's found in them
+     */
+    private MentionCounts loadDayFile(DayFile dayFile) {
+        MentionCounts counts = new MentionCounts();
+        try (InputStream in = dayFile.export.getInputStream(dayFile.entry);
+                JsonParser jp = objectMapper.getFactory().createParser(in)) {
+            if (jp.nextToken() != JsonToken.START_ARRAY) {
+                LOG.warn("{} is not an array of messages. Skipping", dayFile);
+                return counts;
+            }
+            while (jp.nextToken() == JsonToken.START_OBJECT) {
+                Message message;
+                try {
+                    message = messageReader.readValue(jp);
+                } catch (JsonMappingException e) {
+                    // the deserializer reads the whole object before it rejects it
+                    LOG.debug("Skipping invalid message in {}. {}", dayFile, e.getMessage());
+                    counts.skippedMessages++;
+                    continue;
+                }
+                countMessage(message, dayFile, counts);
+            }
+        } catch (IOException e) {
+            LOG.error("Can't read {}. Skipping the rest of it", dayFile, e);
+        }
+        return counts;
+    }
+
+    private void countMessage(Message message, DayFile dayFile, MentionCounts counts) {
+        User user = dayFile.users.get(message.getFromUserId());
+        if (message.getType() == MessageType.UNKNOWN) {
+            counts.skippedMessages++;
+            return;
+        } else if (user == null && message.getType() == MessageType.BOT_MESSAGE) {
+            user = new User(message.getFromUserId(), null, false, false, true,
+                            message.getFromName(), message.getFromName(), null,
+                            DateTime.now(), null, null, null, null, null);
+        }
+        if (user == null) {
+            LOG.debug("Can't find user with userId: {}. Skipping", message.getFromUserId());
+            counts.skippedMessages++;
+            return;
+        }
+        FatMessage fatMessage = new FatMessage(message, user, dayFile.room);
+        counts.messages++;
+        long hourMillis = getHourMillis(message.getDate());
+        counts.add(counts.messageSummaries, MessageSummaryBolt.getMessageSummary(fatMessage),
+                   hourMillis);
+        for (EmojiEntity emoji : EmojiCounterBolt.getEmojisFromMessage(fatMessage, emojiScanner)) {
+            counts.add(counts.emojis, emoji, hourMillis);
+        }
+        for (ChatEntity entity : entityExtractor.extractEntities(fatMessage)) {
+            counts.add(counts.entities, entity, hourMillis);
+        }
+    }
+
+    /**
+     * @return The start of the hour of <code>date</code> in the configured time zone
+     */
+    private long getHourMillis(DateTime date) {
+        return date.withZone(timeZone).hourOfDay().roundFloorCopy().getMillis();
+    }
+
+    private void persist(MentionCounts counts) {
+        long startMillis = System.currentTimeMillis();
+        emojiDao.persistEmojis(counts.toRows(counts.emojis, key -> new EmojiEntity(
+            key.username, key.roomName, key.getMentionTime(), (String) key.value, key.occurrences,
+            key.bot)));
+        entityDao.persistEntities(counts.toRows(counts.entities, key -> new ChatEntity(
+            key.username, key.roomName, key.getMentionTime(), (String) key.value, key.occurrences,
+            key.bot)));
+        messageSummaryDao.persistMessageSummaries(counts.toRows(counts.messageSummaries,
+            key -> new MessageSummary(key.username, key.roomName, key.getMentionTime(),
+                                      (MessageType) key.value, key.occurrences, key.bot)));
+        LOG.info("Persisted the counts in {}ms", System.currentTimeMillis() - startMillis);
+    }
+
+    @Override
+    public void close() {
+        workerPool.shutdownNow();
+        entityExtractor.close();
+    }
+
+    /**
+     * Splits the day files in halves until every task is a single file and merges the counts of
+     * the halves when they're joined
+     */
+    private class DayFilesTask extends RecursiveTask<MentionCounts> {
+
+        private static final long serialVersionUID = 4436530232154312164L;
+        private final List<DayFile> dayFiles;
+        private final int from;
+        private final int to;
+
+        private DayFilesTask(List<DayFile> dayFiles, int from, int to) {
+            this.dayFiles = dayFiles;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected MentionCounts compute() {
+            if (to - from == 0) {
+                return new MentionCounts();
+            } else if (to - from == 1) {
+                return loadDayFile(dayFiles.get(from));
+            }
+            int middle = (from + to) >>> 1;
+            DayFilesTask left = new DayFilesTask(dayFiles, from, middle);
+            left.fork();
+            MentionCounts rightCounts = new DayFilesTask(dayFiles, middle, to).compute();
+            return MentionCounts.merge(left.join(), rightCounts);
+        }
+    }
+
+    /**
+     * A file with the messages of a room for a day
+     */
+    private static class DayFile {
+        private final ZipFile export;
+        private final ZipEntry entry;
+        private final Room room;
+        private final Map<String, User> users;
+
+        private DayFile(ZipFile export, ZipEntry entry, Room room, Map<String, User> users) {
+            this.export = export;
+            this.entry = entry;
+            this.room = room;
+            this.users = users;
+        }
+
+        @Override
+        public String toString() {
+            return export.getName() + "!" + entry.getName();
+        }
+    }
+
+    /**
+     * Counts of the values mentioned by users in rooms in the same hour. Every count becomes a
+     * single row.
+     */
+    public static class MentionCounts {
+
+        private final Map<MentionKey, MentionKey> emojis = Maps.newHashMap();
+        private final Map<MentionKey, MentionKey> entities = Maps.newHashMap();
+        private final Map<MentionKey, MentionKey> messageSummaries = Maps.newHashMap();
+        private long messages;
+        private long skippedMessages;
+
+        private void add(Map<MentionKey, MentionKey> counts, IMentionable<?> mention,
+                         long mentionTimeMillis) {
+            MentionKey key = new MentionKey(mention.getUsername(), mention.getRoomName(),
+                                            mentionTimeMillis, mention.getValue(), mention.isBot(),
+                                            mention.getOccurrences());
+            MentionKey existingKey = counts.putIfAbsent(key, key);
+            if (existingKey != null) {
+                existingKey.occurrences += key.occurrences;
+            }
+        }
+
+        /**
+         * Merges the smaller counts into the bigger ones
+         */
+        private static MentionCounts merge(MentionCounts counts, MentionCounts otherCounts) {
+            if (counts.size() < otherCounts.size()) {
+                return merge(otherCounts, counts);
+            }
+            mergeInto(counts.emojis, otherCounts.emojis);
+            mergeInto(counts.entities, otherCounts.entities);
+            mergeInto(counts.messageSummaries, otherCounts.messageSummaries);
+            counts.messages += otherCounts.messages;
+            counts.skippedMessages += otherCounts.skippedMessages;
+            return counts;
+        }
+
+        private static void mergeInto(Map<MentionKey, MentionKey> counts,
+                                      Map<MentionKey, MentionKey> otherCounts) {
+            for (MentionKey key : otherCounts.values()) {
+                MentionKey existingKey = counts.putIfAbsent(key, key);
+                if (existingKey != null) {
+                    existingKey.occurrences += key.occurrences;
+                }
+            }
+        }
+
+        private <T> List<T> toRows(Map<MentionKey, MentionKey> counts,
+                                   Function<MentionKey, T> rowFunction) {
+            List<T> rows = Lists.newArrayListWithCapacity(counts.size());
+            for (MentionKey key : counts.values()) {
+                rows.add(rowFunction.apply(key));
+            }
+            return rows;
+        }
+
+        private int size() {
+            return emojis.size() + entities.size() + messageSummaries.size();
+        }
+
+        /**
+         * @return The number of messages that were loaded
+         */
+        public long getMessages() {
+            return messages;
+        }
+
+        /**
+         * @return The number of messages that were skipped because their type or user is unknown
+         *         or they can't be parsed
+         */
+        public long getSkippedMessages() {
+            return skippedMessages;
+        }
+
+        /**
+         * @return The number of emoji rows
+         */
+        public int getEmojiRows() {
+            return emojis.size();
+        }
+
+        /**
+         * @return The number of entity rows
+         */
+        public int getEntityRows() {
+            return entities.size();
+        }
+
+        /**
+         * @return The number of message summary rows
+         */
+        public int getMessageSummaryRows() {
+            return messageSummaries.size();
+        }
+    }
+
+    /**
+     * Identifies a row. It also holds the number of occurrences of the row, which is not part of
+     * the identity, so a single map entry can be both the key and the count.
+     */
+    private static class MentionKey {
+        private final String username;
+        private final String roomName;
+        private final long mentionTimeMillis;
+        private final Object value;
+        private final boolean bot;
+        private int occurrences;
+
+        private MentionKey(String username, String roomName, long mentionTimeMillis,
+                           Object value, boolean bot, int occurrences) {
+            this.username = username;
+            this.roomName = roomName;
+            this.mentionTimeMillis = mentionTimeMillis;
+            this.value = value;
+            this.bot = bot;
+            this.occurrences = occurrences;
+        }
+
+        private DateTime getMentionTime() {
+            return new DateTime(mentionTimeMillis, DateTimeZone.UTC);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            } else if (!(obj instanceof MentionKey)) {
+                return false;
+            }
+            MentionKey other = (MentionKey) obj;
+            return mentionTimeMillis == other.mentionTimeMillis && bot == other.bot
+                && Objects.equal(value, other.value) && Objects.equal(username, other.username)
+                && Objects.equal(roomName, other.roomName);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(username, roomName, mentionTimeMillis, value, bot);
+        }
+    }
+}
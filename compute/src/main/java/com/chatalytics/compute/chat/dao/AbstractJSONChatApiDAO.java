@@ -1,12 +1,23 @@
 package com.chatalytics.compute.chat.dao;
 
+import com.chatalytics.compute.exception.ChatApiException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.annotations.VisibleForTesting;
-import com.sun.jersey.api.client.ClientResponse.Status;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.sun.jersey.api.client.ClientHandlerException;
+import com.sun.jersey.api.client.ClientResponse;
 import com.sun.jersey.api.client.UniformInterfaceException;
 import com.sun.jersey.api.client.WebResource;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.List;
-import java.util.Random;
 
 import javax.ws.rs.core.MediaType;
 
@@ -18,56 +29,178 @@ import javax.ws.rs.core.MediaType;
  */
 public abstract class AbstractJSONChatApiDAO implements IChatApiDAO {
 
+    private static final Logger LOG = LoggerFactory.getLogger(AbstractJSONChatApiDAO.class);
+
     private final List<String> authTokens;
     private final String authTokenParam;
-    private final Random rand;
+    private final ChatApiRetryPolicy retryPolicy;
 
-    protected AbstractJSONChatApiDAO(List<String> authTokens, String authTokenParam) {
+    protected AbstractJSONChatApiDAO(List<String> authTokens, String authTokenParam,
+                                     ChatApiRetryPolicy retryPolicy) {
         this.authTokens = authTokens;
         this.authTokenParam = authTokenParam;
-        this.rand = new Random(System.currentTimeMillis());
+        this.retryPolicy = retryPolicy;
     }
 
     /**
-     * Helper method for doing GETs with <code>retries</code> number of retries in case of 403
-     * errors.
+     * Helper method for doing GETs with up to <code>retries</code> retries. Forbidden, throttled
+     * and server error responses, as well as connection errors, are retried as the
+     * {@link ChatApiRetryPolicy} decides. The response body is not buffered, so callers should
+     * parse it as it streams in and close it when they're done, which also returns the connection
+     * to the keep-alive pool.
      *
      * @param resource
      *            The resource to GET data from
      * @param retries
-     *            The number of retries if a 403 is encountered.
-     * @return The JSON result string.
+     *            The number of times to retry a failed request. Can't be negative
+     * @return The JSON response body.
+     * @throws ChatApiException
+     *             If the request failed with an error that can't be retried, ran out of retries or
+     *             the circuit breaker of the endpoint is open
      */
     @VisibleForTesting
-    public String getJsonResultWithRetries(WebResource resource, int retries) {
-        resource = addTokenQueryParam(resource);
-        while (retries >= 0) {
-            try {
-                String jsonStr = resource.accept(MediaType.APPLICATION_JSON).get(String.class);
-                return jsonStr;
-            } catch (UniformInterfaceException e) {
-                if (e.getResponse().getStatus() == Status.FORBIDDEN.getStatusCode()) {
-                    retries--;
+    public InputStream getJsonStreamWithRetries(WebResource resource, int retries) {
+        Preconditions.checkArgument(retries >= 0, "The number of retries can't be negative");
+        String endpoint = resource.getURI().getPath();
+        boolean trial = retryPolicy.checkCircuit(endpoint);
+        try {
+            return getJsonStreamWithRetries(resource, retries, endpoint);
+        } finally {
+            // however the trial request ended, the circuit breaker must not keep waiting for it
+            if (trial) {
+                retryPolicy.endTrial(endpoint);
+            }
+        }
+    }
+
+    private InputStream getJsonStreamWithRetries(WebResource resource, int retries,
+                                                 String endpoint) {
+        ChatApiException failure = null;
+        try {
+            for (int attempt = 0; attempt <= retries; attempt++) {
+                String authToken = retryPolicy.acquireToken(authTokens);
+                WebResource tokenResource = resource;
+                if (authToken != null) {
+                    tokenResource = resource.queryParam(authTokenParam, authToken);
+                }
+                long retryAfterMillis = 0;
+                try {
+                    InputStream jsonStream = tokenResource.accept(MediaType.APPLICATION_JSON)
+                                                          .get(InputStream.class);
+                    retryPolicy.onSuccess(endpoint);
+                    return jsonStream;
+                } catch (UniformInterfaceException e) {
+                    ClientResponse response = e.getResponse();
+                    // release the connection so that it can be reused
+                    response.close();
+                    int status = response.getStatus();
+                    failure = new ChatApiException(endpoint, status,
+                                                   "Got status " + status + " from " + endpoint,
+                                                   e);
+                    if (!retryPolicy.isRetryable(status)) {
+                        break;
+                    }
+                    retryAfterMillis = ChatApiRetryPolicy.getRetryAfterMillis(response);
+                    if (retryPolicy.isThrottled(status) && authToken != null) {
+                        // the next attempt waits for this token only if no other token is left
+                        retryPolicy.coolDown(authToken,
+                                             Math.max(retryAfterMillis,
+                                                      retryPolicy.getBackoffMillis(attempt)));
+                        continue;
+                    }
+                } catch (ClientHandlerException e) {
+                    failure = new ChatApiException(endpoint, ChatApiException.NO_STATUS,
+                                                   "Could not get a response from " + endpoint, e);
+                }
+                if (attempt < retries) {
+                    retryPolicy.sleep(Math.max(retryAfterMillis,
+                                               retryPolicy.getBackoffMillis(attempt)));
                 }
             }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failure = new ChatApiException(endpoint, ChatApiException.NO_STATUS,
+                                           "Interrupted while retrying " + endpoint, e);
         }
-        return "{}";
+        retryPolicy.onFailure(endpoint, failure.getStatus());
+        LOG.error("Giving up on {}", endpoint, failure);
+        throw failure;
     }
 
     /**
-     * Helper method for adding the token query parameter.
+     * Helper method for deserializing a list of elements of type <code>T</code> straight from a
+     * response stream. The parser skips everything up to the list and binds its elements one at a
+     * time, so the response is never held in memory as a string or a tree. The stream is closed
+     * once the list is read.
      *
-     * @param resource
-     *            The resource to add the token parameter to.
-     * @return Returns a new resource with the token query parameter added.
+     * @param jsonStream
+     *            The API response stream
+     * @param listElements
+     *            The ordered elements to traverse down to get to the list of items of type
+     *            <code>T</code>. For example <code>[channel, members]</code> for a response like
+     *            <code>{"ok": true, "channel": {"id": "C1", "members": [...]}}</code>
+     * @param clazz
+     *            The class to deserialize
+     * @param objMapper
+     *            The JSON object mapper used to bind the elements
+     * @return A mutable list of elements of type <code>clazz</code>. The list is empty if the
+     *         response could not be parsed or does not contain the list.
+     */
+    protected <T> List<T> deserializeJsonStream(InputStream jsonStream, List<String> listElements,
+                                                Class<T> clazz, ObjectMapper objMapper) {
+        List<T> result = Lists.newArrayList();
+        try (JsonParser parser = objMapper.getFactory().createParser(jsonStream)) {
+            if (!moveToElement(parser, listElements)
+                    || parser.getCurrentToken() != JsonToken.START_ARRAY) {
+                return result;
+            }
+            while (parser.nextToken() != JsonToken.END_ARRAY) {
+                result.add(objMapper.readValue(parser, clazz));
+            }
+            return result;
+        } catch (IOException e) {
+            LOG.error("Got exception when trying to deserialize list of {}", clazz, e);
+            return Lists.newArrayList();
+        }
+    }
+
+    /**
+     * Moves the parser to the value of the last element of <code>elements</code>, skipping over
+     * every other field without binding it. The parser must not have been advanced yet.
+     *
+     * @param parser
+     *            The parser of a JSON object
+     * @param elements
+     *            The ordered elements to traverse down to
+     * @return True if the parser now points at the first token of the value, false if one of the
+     *         elements is missing
+     * @throws IOException
+     *             If the JSON is malformed
      */
-    private WebResource addTokenQueryParam(WebResource resource) {
-        if (authTokens == null || authTokens.isEmpty()) {
-            return resource;
+    protected static boolean moveToElement(JsonParser parser, List<String> elements)
+            throws IOException {
+        if (parser.nextToken() != JsonToken.START_OBJECT) {
+            return false;
+        }
+        for (String element : elements) {
+            if (parser.getCurrentToken() != JsonToken.START_OBJECT) {
+                return false;
+            }
+            boolean found = false;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String fieldName = parser.getCurrentName();
+                parser.nextToken();
+                if (element.equals(fieldName)) {
+                    found = true;
+                    break;
+                }
+                parser.skipChildren();
+            }
+            if (!found) {
+                return false;
+            }
         }
-        int tokenSize = authTokens.size();
-        String randomAuthToken = authTokens.get(rand.nextInt(tokenSize));
-        return resource.queryParam(authTokenParam, randomAuthToken);
+        return true;
     }
 
 }
@@ -0,0 +1,201 @@
+package com.chatalytics.compute.chat.dao;
+
+import com.chatalytics.core.config.WebConfig;
+import com.chatalytics.core.model.data.Message;
+import com.chatalytics.core.model.data.Room;
+import com.chatalytics.core.model.data.User;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Throwables;
+import com.google.common.base.Ticker;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+import org.joda.time.DateTime;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Caches the users, rooms and emojis of another {@link IChatApiDAO}, so that they're not fetched
+ * from the chat API on every call:
+ * <ul>
+ * <li>Once a value is older than its TTL it keeps being served while it's refreshed in the
+ * background. Values that are too stale are fetched again before they're served</li>
+ * <li>Concurrent calls that miss the cache wait for a single call to the chat API</li>
+ * <li>Users are also indexed by mention name and rooms by name, so that looking up one of them
+ * doesn't go through all of them</li>
+ * </ul>
+ * Messages and the users of a room are not cached.
+ */
+public class CachingChatApiDAO implements IChatApiDAO {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CachingChatApiDAO.class);
+    private static final String KEY = "all";
+
+    private final IChatApiDAO chatApiDao;
+    private final LoadingCache<String, UsersSnapshot> users;
+    private final LoadingCache<String, RoomsSnapshot> rooms;
+    private final LoadingCache<String, Map<String, String>> emojis;
+
+    public CachingChatApiDAO(IChatApiDAO chatApiDao, WebConfig config) {
+        this(chatApiDao,
+             TimeUnit.SECONDS.toMillis(config.chatApiUsersTtlSecs),
+             TimeUnit.SECONDS.toMillis(config.chatApiRoomsTtlSecs),
+             TimeUnit.SECONDS.toMillis(config.chatApiEmojisTtlSecs),
+             TimeUnit.SECONDS.toMillis(config.chatApiMaxStaleSecs),
+             Ticker.systemTicker(),
+             Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+                                                   .setDaemon(true)
+                                                   .setNameFormat("chat-api-cache-%d")
+                                                   .build()));
+    }
+
+    @VisibleForTesting
+    protected CachingChatApiDAO(IChatApiDAO chatApiDao, long usersTtlMs, long roomsTtlMs,
+                                long emojisTtlMs, long maxStaleMs, Ticker ticker,
+                                Executor refreshExecutor) {
+        this.chatApiDao = chatApiDao;
+        this.users = newCache(usersTtlMs, maxStaleMs, ticker, refreshExecutor,
+                              () -> new UsersSnapshot(chatApiDao.getUsers()));
+        this.rooms = newCache(roomsTtlMs, maxStaleMs, ticker, refreshExecutor,
+                              () -> new RoomsSnapshot(chatApiDao.getRooms()));
+        this.emojis = newCache(emojisTtlMs, maxStaleMs, ticker, refreshExecutor,
+                               () -> copyOrEmpty(chatApiDao.getEmojis()));
+    }
+
+    @Override
+    public Map<String, Room> getRooms() {
+        return get(rooms).roomsById;
+    }
+
+    /**
+     * @return A map of room names to {@link Room}s
+     */
+    public Map<String, Room> getRoomsByName() {
+        return get(rooms).roomsByName;
+    }
+
+    /**
+     * @return The {@link Room} with the given name or null if there is none
+     */
+    public Room getRoomByName(String name) {
+        return name == null ? null : getRoomsByName().get(name);
+    }
+
+    @Override
+    public Map<String, User> getUsers() {
+        return get(users).usersById;
+    }
+
+    /**
+     * @return A map of mention names to {@link User}s
+     */
+    public Map<String, User> getUsersByMentionName() {
+        return get(users).usersByMentionName;
+    }
+
+    /**
+     * @return The {@link User} with the given mention name or null if there is none
+     */
+    public User getUserByMentionName(String mentionName) {
+        return mentionName == null ? null : getUsersByMentionName().get(mentionName);
+    }
+
+    @Override
+    public Map<String, User> getUsersForRoom(Room room) {
+        return chatApiDao.getUsersForRoom(room);
+    }
+
+    @Override
+    public List<Message> getMessages(DateTime start, DateTime end, Room room) {
+        return chatApiDao.getMessages(start, end, room);
+    }
+
+    @Override
+    public void getMessages(DateTime start, DateTime end, Room room, MessagePageHandler handler) {
+        chatApiDao.getMessages(start, end, room, handler);
+    }
+
+    @Override
+    public Map<String, String> getEmojis() {
+        return get(emojis);
+    }
+
+    /**
+     * Builds a single entry cache that's refreshed in the background after <code>ttlMs</code> and
+     * expires after <code>ttlMs + maxStaleMs</code>. Failed refreshes are logged by the cache and
+     * the old value keeps being served.
+     */
+    private static <T> LoadingCache<String, T> newCache(long ttlMs, long maxStaleMs, Ticker ticker,
+                                                        Executor refreshExecutor,
+                                                        Supplier<T> loader) {
+        CacheLoader<String, T> cacheLoader = new CacheLoader<String, T>() {
+            @Override
+            public T load(String key) {
+                return loader.get();
+            }
+        };
+        return CacheBuilder.newBuilder()
+                           .ticker(ticker)
+                           .refreshAfterWrite(ttlMs, TimeUnit.MILLISECONDS)
+                           .expireAfterWrite(ttlMs + maxStaleMs, TimeUnit.MILLISECONDS)
+                           .build(CacheLoader.asyncReloading(cacheLoader, refreshExecutor));
+    }
+
+    private static <T> T get(LoadingCache<String, T> cache) {
+        try {
+            return cache.getUnchecked(KEY);
+        } catch (UncheckedExecutionException e) {
+            throw Throwables.propagate(e.getCause());
+        }
+    }
+
+    private static <K, V> Map<K, V> copyOrEmpty(Map<K, V> map) {
+        return map == null ? ImmutableMap.of() : ImmutableMap.copyOf(map);
+    }
+
+    private static class UsersSnapshot {
+        private final Map<String, User> usersById;
+        private final Map<String, User> usersByMentionName;
+
+        private UsersSnapshot(Map<String, User> users) {
+            this.usersById = copyOrEmpty(users);
+            Map<String, User> byMentionName = Maps.newHashMapWithExpectedSize(usersById.size());
+            for (User user : usersById.values()) {
+                if (user.getMentionName() != null) {
+                    byMentionName.put(user.getMentionName(), user);
+                }
+            }
+            this.usersByMentionName = ImmutableMap.copyOf(byMentionName);
+            LOG.debug("Cached {} users", usersById.size());
+        }
+    }
+
+    private static class RoomsSnapshot {
+        private final Map<String, Room> roomsById;
+        private final Map<String, Room> roomsByName;
+
+        private RoomsSnapshot(Map<String, Room> rooms) {
+            this.roomsById = copyOrEmpty(rooms);
+            Map<String, Room> byName = Maps.newHashMapWithExpectedSize(roomsById.size());
+            for (Room room : roomsById.values()) {
+                if (room.getName() != null) {
+                    byName.put(room.getName(), room);
+                }
+            }
+            this.roomsByName = ImmutableMap.copyOf(byName);
+            LOG.debug("Cached {} rooms", roomsById.size());
+        }
+    }
+}
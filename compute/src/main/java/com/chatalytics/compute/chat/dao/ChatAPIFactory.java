@@ -37,4 +37,16 @@ public class ChatAPIFactory {
                 + chatConfig.getClass().getSimpleName());
         }
     }
+
+    /**
+     * Returns an {@link IChatApiDAO} based on the type of the {@link ChatConfig} that caches users,
+     * rooms and emojis as configured in the {@link ChatAlyticsConfig#webConfig}
+     *
+     * @param config
+     *            The config to inspect
+     * @return A {@link CachingChatApiDAO}
+     */
+    public static CachingChatApiDAO getCachingChatApiDao(ChatAlyticsConfig config) {
+        return new CachingChatApiDAO(getChatApiDao(config), config.webConfig);
+    }
 }
@@ -0,0 +1,85 @@
+package com.chatalytics.compute.chat.dao;
+
+import com.chatalytics.core.config.ComputeConfig;
+import com.sun.jersey.api.client.Client;
+import com.sun.jersey.api.client.config.ClientConfig;
+import com.sun.jersey.api.client.config.DefaultClientConfig;
+import com.sun.jersey.api.client.filter.GZIPContentEncodingFilter;
+
+import org.apache.storm.task.TopologyContext;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Factory for the HTTP clients the chat API DAOs talk to the chat APIs with. Clients have connect
+ * and read timeouts, ask for gzip compressed responses and record per endpoint metrics in a
+ * {@link ChatApiMetricsFilter} that's shared by every client of the worker.
+ * <p/>
+ * Connections are kept alive and pooled by the JDK HTTP handler as long as response bodies are
+ * closed after they're read. The size of the pool can only be set once per JVM, before the first
+ * connection is made, so it's set by the first client that's created unless the
+ * <code>http.maxConnections</code> system property was already set.
+ */
+public class ChatApiClientFactory {
+
+    private static final String MAX_CONNECTIONS_PROPERTY = "http.maxConnections";
+    private static final ChatApiMetricsFilter METRICS_FILTER = new ChatApiMetricsFilter();
+    private static final AtomicBoolean METRICS_REGISTERED = new AtomicBoolean();
+
+    private ChatApiClientFactory() {
+        // hide constructor
+    }
+
+    /**
+     * @param config
+     *            The compute config with the HTTP settings of the chat API
+     * @return A new client for a chat API
+     */
+    public static Client createClient(ComputeConfig config) {
+        synchronized (ChatApiClientFactory.class) {
+            if (System.getProperty(MAX_CONNECTIONS_PROPERTY) == null) {
+                System.setProperty(MAX_CONNECTIONS_PROPERTY,
+                                   String.valueOf(config.apiMaxIdleConnections));
+            }
+        }
+        DefaultClientConfig clientConfig = new DefaultClientConfig();
+        clientConfig.getProperties().put(ClientConfig.PROPERTY_CONNECT_TIMEOUT,
+                                         config.apiConnectTimeoutMs);
+        clientConfig.getProperties().put(ClientConfig.PROPERTY_READ_TIMEOUT,
+                                         config.apiReadTimeoutMs);
+        Client client = Client.create(clientConfig);
+        // filters added last see the request first, so the metrics filter sees the compressed
+        // response before it gets decompressed
+        client.addFilter(METRICS_FILTER);
+        if (config.apiGzipEnabled) {
+            client.addFilter(new GZIPContentEncodingFilter(false));
+        }
+        return client;
+    }
+
+    /**
+     * @return The metrics of every chat API request made by the clients of this factory
+     */
+    public static ChatApiMetricsFilter getMetricsFilter() {
+        return METRICS_FILTER;
+    }
+
+    /**
+     * Registers the {@link #getMetricsFilter()} as a storm metric. The filter is shared by the
+     * whole worker and resets its counters when they're reported, so only the first component
+     * that calls this registers it and the rest are ignored.
+     *
+     * @param context
+     *            The topology context of the component
+     * @param bucketSecs
+     *            How often the metric is reported
+     * @return True if the metric was registered by this call
+     */
+    public static boolean registerMetrics(TopologyContext context, int bucketSecs) {
+        if (!METRICS_REGISTERED.compareAndSet(false, true)) {
+            return false;
+        }
+        context.registerMetric(ChatApiMetricsFilter.METRIC_NAME, METRICS_FILTER, bucketSecs);
+        return true;
+    }
+}
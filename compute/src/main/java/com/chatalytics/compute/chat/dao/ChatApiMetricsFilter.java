@@ -0,0 +1,156 @@
+package com.chatalytics.compute.chat.dao;
+
+import com.google.common.collect.Maps;
+import com.sun.jersey.api.client.ClientHandlerException;
+import com.sun.jersey.api.client.ClientRequest;
+import com.sun.jersey.api.client.ClientResponse;
+import com.sun.jersey.api.client.filter.ClientFilter;
+
+import org.apache.storm.metric.api.IMetric;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Records the number of requests, failed requests, latency and response bytes of every chat API
+ * endpoint. Endpoints are identified by the path of the request. The latency is the time until the
+ * response headers are received and the bytes are counted as the response body is read, before
+ * it's decompressed.
+ * <p/>
+ * The counters are reset every time the filter reports them as a storm metric, so it must only be
+ * registered once per worker. Use {@link ChatApiClientFactory#registerMetrics} for that.
+ */
+public class ChatApiMetricsFilter extends ClientFilter implements IMetric {
+
+    /**
+     * The name the filter is registered with as a storm metric
+     */
+    public static final String METRIC_NAME = "chat-api";
+
+    private final ConcurrentMap<String, EndpointMetrics> endpointMetrics;
+
+    public ChatApiMetricsFilter() {
+        this.endpointMetrics = Maps.newConcurrentMap();
+    }
+
+    @Override
+    public ClientResponse handle(ClientRequest request) throws ClientHandlerException {
+        EndpointMetrics metrics = getEndpointMetrics(request.getURI().getPath());
+        metrics.requests.increment();
+        long startNanos = System.nanoTime();
+        ClientResponse response;
+        try {
+            response = getNext().handle(request);
+        } catch (ClientHandlerException e) {
+            metrics.errors.increment();
+            throw e;
+        } finally {
+            metrics.latencyMillis.add(TimeUnit.NANOSECONDS.toMillis(System.nanoTime()
+                                                                    - startNanos));
+        }
+        if (response.getStatus() >= 400) {
+            metrics.errors.increment();
+        }
+        if (response.hasEntity()) {
+            response.setEntityInputStream(new CountingInputStream(response.getEntityInputStream(),
+                                                                  metrics.bytes));
+        }
+        return response;
+    }
+
+    private EndpointMetrics getEndpointMetrics(String endpoint) {
+        EndpointMetrics metrics = endpointMetrics.get(endpoint);
+        if (metrics == null) {
+            EndpointMetrics newMetrics = new EndpointMetrics();
+            metrics = endpointMetrics.putIfAbsent(endpoint, newMetrics);
+            if (metrics == null) {
+                metrics = newMetrics;
+            }
+        }
+        return metrics;
+    }
+
+    /**
+     * @return A map of <code>endpoint.counter</code> to the value of the counter since it was last
+     *         reset, where the counters are <code>requests</code>, <code>errors</code>,
+     *         <code>latencyMillis</code> and <code>bytes</code>
+     */
+    public Map<String, Long> getSnapshot() {
+        return snapshot(false);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * Returns the {@link #getSnapshot()} and resets the counters, so every report only has the
+     * requests made since the last one
+     */
+    @Override
+    public Object getValueAndReset() {
+        return snapshot(true);
+    }
+
+    private Map<String, Long> snapshot(boolean reset) {
+        Map<String, Long> result = Maps.newTreeMap();
+        for (Map.Entry<String, EndpointMetrics> entry : endpointMetrics.entrySet()) {
+            String endpoint = entry.getKey();
+            EndpointMetrics metrics = entry.getValue();
+            result.put(endpoint + ".requests", sum(metrics.requests, reset));
+            result.put(endpoint + ".errors", sum(metrics.errors, reset));
+            result.put(endpoint + ".latencyMillis", sum(metrics.latencyMillis, reset));
+            result.put(endpoint + ".bytes", sum(metrics.bytes, reset));
+        }
+        return result;
+    }
+
+    private static long sum(LongAdder counter, boolean reset) {
+        return reset ? counter.sumThenReset() : counter.sum();
+    }
+
+    private static class EndpointMetrics {
+        private final LongAdder requests = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+        private final LongAdder latencyMillis = new LongAdder();
+        private final LongAdder bytes = new LongAdder();
+    }
+
+    private static class CountingInputStream extends FilterInputStream {
+
+        private final LongAdder bytes;
+
+        private CountingInputStream(InputStream in, LongAdder bytes) {
+            super(in);
+            this.bytes = bytes;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                bytes.increment();
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+            if (read > 0) {
+                bytes.add(read);
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            bytes.add(skipped);
+            return skipped;
+        }
+    }
+}
@@ -0,0 +1,247 @@
+package com.chatalytics.compute.chat.dao;
+
+import com.chatalytics.compute.exception.ChatApiException;
+import com.chatalytics.core.config.ComputeConfig;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.sun.jersey.api.client.ClientResponse;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides how chat API requests are retried when they fail:
+ * <ul>
+ * <li>Failed requests are retried after an exponential backoff with full jitter, or after the
+ * <code>Retry-After</code> of the response if that's longer</li>
+ * <li>A throttled auth token cools down for the <code>Retry-After</code> of the response while the
+ * other tokens keep being used</li>
+ * <li>Every endpoint has a circuit breaker that opens after a number of consecutive server
+ * failures. While it's open requests to the endpoint fail right away, and once it's been open long
+ * enough a single trial request is let through to decide whether to close it again</li>
+ * </ul>
+ */
+public class ChatApiRetryPolicy {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ChatApiRetryPolicy.class);
+    private static final String RETRY_AFTER_HEADER = "Retry-After";
+    private static final int FORBIDDEN = 403;
+    private static final int TOO_MANY_REQUESTS = 429;
+    private static final int SERVER_ERROR = 500;
+
+    private final long backoffBaseMs;
+    private final long backoffMaxMs;
+    private final int circuitBreakerFailures;
+    private final long circuitBreakerOpenMs;
+    private final ConcurrentMap<String, CircuitBreaker> circuitBreakers;
+    private final ConcurrentMap<String, Long> tokenCooldowns;
+
+    public ChatApiRetryPolicy(ComputeConfig config) {
+        this(config.apiBackoffBaseMs, config.apiBackoffMaxMs, config.apiCircuitBreakerFailures,
+             config.apiCircuitBreakerOpenMs);
+    }
+
+    public ChatApiRetryPolicy(long backoffBaseMs, long backoffMaxMs, int circuitBreakerFailures,
+                              long circuitBreakerOpenMs) {
+        this.backoffBaseMs = backoffBaseMs;
+        this.backoffMaxMs = backoffMaxMs;
+        this.circuitBreakerFailures = circuitBreakerFailures;
+        this.circuitBreakerOpenMs = circuitBreakerOpenMs;
+        this.circuitBreakers = Maps.newConcurrentMap();
+        this.tokenCooldowns = Maps.newConcurrentMap();
+    }
+
+    /**
+     * @param status
+     *            The HTTP status of a failed response
+     * @return True if a request that failed with <code>status</code> is worth retrying. Forbidden
+     *         requests are retried since they may succeed with another token.
+     */
+    public boolean isRetryable(int status) {
+        return status == FORBIDDEN || status == TOO_MANY_REQUESTS || status >= SERVER_ERROR;
+    }
+
+    /**
+     * @param status
+     *            The HTTP status of a failed response
+     * @return True if the response means the token was throttled
+     */
+    public boolean isThrottled(int status) {
+        return status == TOO_MANY_REQUESTS;
+    }
+
+    /**
+     * @param attempt
+     *            The attempt that failed, starting from 0
+     * @return A random backoff between 0 and the exponential backoff of the attempt
+     */
+    public long getBackoffMillis(int attempt) {
+        long exponentialMs = backoffBaseMs << Math.min(attempt, 30);
+        long capMs = Math.min(backoffMaxMs, exponentialMs);
+        return ThreadLocalRandom.current().nextLong(capMs + 1);
+    }
+
+    /**
+     * @param response
+     *            A failed response
+     * @return The <code>Retry-After</code> of the response in milliseconds or 0 if it doesn't have
+     *         one in seconds
+     */
+    public static long getRetryAfterMillis(ClientResponse response) {
+        String retryAfter = response.getHeaders().getFirst(RETRY_AFTER_HEADER);
+        if (retryAfter == null) {
+            return 0;
+        }
+        try {
+            return TimeUnit.SECONDS.toMillis(Long.parseLong(retryAfter.trim()));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Stops using <code>token</code> for <code>millis</code>
+     */
+    public void coolDown(String token, long millis) {
+        long untilMillis = currentTimeMillis() + millis;
+        tokenCooldowns.merge(token, untilMillis, Math::max);
+        LOG.warn("Cooling down a throttled token for {}ms", millis);
+    }
+
+    /**
+     * Picks a random token out of the ones that are not cooling down. If all of them are, waits
+     * until the first one is done.
+     *
+     * @param tokens
+     *            The tokens to pick from
+     * @return A token or null if there are no tokens
+     * @throws InterruptedException
+     *             If the thread got interrupted while waiting for a token
+     */
+    public String acquireToken(List<String> tokens) throws InterruptedException {
+        if (tokens == null || tokens.isEmpty()) {
+            return null;
+        }
+        while (true) {
+            long nowMillis = currentTimeMillis();
+            long firstAvailableMillis = Long.MAX_VALUE;
+            List<String> available = Lists.newArrayListWithCapacity(tokens.size());
+            for (String token : tokens) {
+                Long cooldownMillis = tokenCooldowns.get(token);
+                if (cooldownMillis == null || cooldownMillis <= nowMillis) {
+                    available.add(token);
+                } else {
+                    firstAvailableMillis = Math.min(firstAvailableMillis, cooldownMillis);
+                }
+            }
+            if (!available.isEmpty()) {
+                return available.get(ThreadLocalRandom.current().nextInt(available.size()));
+            }
+            sleep(firstAvailableMillis - nowMillis);
+        }
+    }
+
+    /**
+     * Lets a request to <code>endpoint</code> through if its circuit breaker is closed, or if it's
+     * been open long enough and there is no trial request in flight. A trial request must call
+     * {@link #endTrial(String)} once it's done, however it ends.
+     *
+     * @return True if the request is the trial request of an open circuit breaker
+     * @throws ChatApiException
+     *             If the circuit breaker is open
+     */
+    public boolean checkCircuit(String endpoint) {
+        CircuitBreaker breaker = getCircuitBreaker(endpoint);
+        synchronized (breaker) {
+            if (breaker.consecutiveFailures < circuitBreakerFailures) {
+                return false;
+            }
+            if (breaker.trialInFlight || currentTimeMillis() < breaker.openUntilMillis) {
+                throw new ChatApiException(endpoint, ChatApiException.NO_STATUS,
+                                           "Circuit breaker is open for " + endpoint);
+            }
+            breaker.trialInFlight = true;
+            return true;
+        }
+    }
+
+    /**
+     * Lets another trial request through the circuit breaker of <code>endpoint</code>. Does
+     * nothing if the trial already ended with {@link #onSuccess(String)} or
+     * {@link #onFailure(String, int)}.
+     */
+    public void endTrial(String endpoint) {
+        CircuitBreaker breaker = getCircuitBreaker(endpoint);
+        synchronized (breaker) {
+            breaker.trialInFlight = false;
+        }
+    }
+
+    /**
+     * Closes the circuit breaker of <code>endpoint</code>
+     */
+    public void onSuccess(String endpoint) {
+        CircuitBreaker breaker = getCircuitBreaker(endpoint);
+        synchronized (breaker) {
+            breaker.consecutiveFailures = 0;
+            breaker.trialInFlight = false;
+        }
+    }
+
+    /**
+     * Records a request that failed for good. Only failures of the endpoint itself, server errors
+     * or no response at all, count towards opening its circuit breaker.
+     *
+     * @param endpoint
+     *            The endpoint of the request
+     * @param status
+     *            The status of the last response or {@link ChatApiException#NO_STATUS}
+     */
+    public void onFailure(String endpoint, int status) {
+        if (status != ChatApiException.NO_STATUS && status < SERVER_ERROR) {
+            onSuccess(endpoint);
+            return;
+        }
+        CircuitBreaker breaker = getCircuitBreaker(endpoint);
+        synchronized (breaker) {
+            breaker.trialInFlight = false;
+            breaker.consecutiveFailures++;
+            if (breaker.consecutiveFailures >= circuitBreakerFailures) {
+                breaker.openUntilMillis = currentTimeMillis() + circuitBreakerOpenMs;
+                LOG.error("Opening circuit breaker for {} after {} failures", endpoint,
+                          breaker.consecutiveFailures);
+            }
+        }
+    }
+
+    private CircuitBreaker getCircuitBreaker(String endpoint) {
+        return circuitBreakers.computeIfAbsent(endpoint, key -> new CircuitBreaker());
+    }
+
+    @VisibleForTesting
+    protected long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    /**
+     * Waits before retrying. Waits of 0ms or less return right away.
+     */
+    @VisibleForTesting
+    protected void sleep(long millis) throws InterruptedException {
+        if (millis > 0) {
+            Thread.sleep(millis);
+        }
+    }
+
+    private static class CircuitBreaker {
+        private int consecutiveFailures;
+        private long openUntilMillis;
+        private boolean trialInFlight;
+    }
+}
@@ -0,0 +1,220 @@
+package com.chatalytics.compute.chat.dao;
+
+import com.chatalytics.core.model.data.Room;
+import com.chatalytics.core.model.data.User;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.AbstractScheduledService;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * In memory directory of the users and rooms of a chat, so that incoming messages can be resolved
+ * without going to the chat API. The directory is loaded once with {@link #load()} and kept up to
+ * date with the <code>put</code> methods as the chat reports changes. While the service is running
+ * it also reconciles the directory with the chat API periodically, to catch any change that was
+ * missed. Changes that are put while a load is running are newer than what the load fetched, so
+ * they're kept.
+ * <p/>
+ * Lookups read an immutable snapshot and never block. Updates replace the snapshot, which is
+ * fine since users and rooms change a lot less often than they're looked up.
+ */
+public class ChatDirectory extends AbstractScheduledService {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ChatDirectory.class);
+
+    private final IChatApiDAO chatApiDao;
+    private final long reconcileIntervalSecs;
+    private final AtomicReference<Snapshot> snapshot;
+    // incremented by every put, so a load can tell which entries changed after it started
+    private final AtomicLong changeCount;
+
+    /**
+     * @param chatApiDao
+     *            The DAO to load the users and rooms from
+     * @param reconcileIntervalSecs
+     *            How often to reload the users and rooms while the service is running
+     */
+    public ChatDirectory(IChatApiDAO chatApiDao, long reconcileIntervalSecs) {
+        this.chatApiDao = chatApiDao;
+        this.reconcileIntervalSecs = reconcileIntervalSecs;
+        this.snapshot = new AtomicReference<>(new Snapshot(ImmutableMap.of(), ImmutableMap.of(),
+                                                           ImmutableMap.of(), ImmutableMap.of()));
+        this.changeCount = new AtomicLong();
+    }
+
+    /**
+     * Loads all the users and rooms from the chat API and replaces the contents of the directory.
+     * Users and rooms that were put after the load started are kept as they are, since the API
+     * may have returned an older version of them.
+     */
+    public void load() {
+        long loadStart = changeCount.get();
+        Map<String, User> users = chatApiDao.getUsers();
+        Map<String, Room> rooms = chatApiDao.getRooms();
+        Snapshot current;
+        Snapshot updated;
+        do {
+            current = snapshot.get();
+            updated = new Snapshot(merge(users, current.users, current.userChanges, loadStart),
+                                   merge(rooms, current.rooms, current.roomChanges, loadStart),
+                                   changedAfter(current.userChanges, loadStart),
+                                   changedAfter(current.roomChanges, loadStart));
+        } while (!snapshot.compareAndSet(current, updated));
+        LOG.info("Loaded {} users and {} rooms", users.size(), rooms.size());
+    }
+
+    /**
+     * @return The loaded entries, with the current version of every entry that changed after
+     *         <code>loadStart</code>
+     */
+    private static <T> ImmutableMap<String, T> merge(Map<String, T> loaded,
+                                                     ImmutableMap<String, T> current,
+                                                     ImmutableMap<String, Long> changes,
+                                                     long loadStart) {
+        Map<String, T> merged = Maps.newHashMap(loaded);
+        for (Map.Entry<String, Long> change : changes.entrySet()) {
+            if (change.getValue() > loadStart) {
+                merged.put(change.getKey(), current.get(change.getKey()));
+            }
+        }
+        return ImmutableMap.copyOf(merged);
+    }
+
+    /**
+     * @return The changes that happened after <code>loadStart</code>. Older ones are covered by
+     *         the load
+     */
+    private static ImmutableMap<String, Long> changedAfter(ImmutableMap<String, Long> changes,
+                                                           long loadStart) {
+        return ImmutableMap.copyOf(Maps.filterValues(changes, change -> change > loadStart));
+    }
+
+    @Override
+    protected void runOneIteration() {
+        try {
+            load();
+        } catch (RuntimeException e) {
+            LOG.error("Can't reconcile the chat directory. Will try again in {}s",
+                      reconcileIntervalSecs, e);
+        }
+    }
+
+    @Override
+    protected Scheduler scheduler() {
+        return Scheduler.newFixedDelaySchedule(reconcileIntervalSecs, reconcileIntervalSecs,
+                                               TimeUnit.SECONDS);
+    }
+
+    /**
+     * @return The user with the given ID or null if there's no such user
+     */
+    public User getUser(String userId) {
+        return userId == null ? null : snapshot.get().users.get(userId);
+    }
+
+    /**
+     * @return The room with the given ID or null if there's no such room
+     */
+    public Room getRoom(String roomId) {
+        return roomId == null ? null : snapshot.get().rooms.get(roomId);
+    }
+
+    /**
+     * Adds a user to the directory or replaces the existing user with the same ID
+     *
+     * @param user
+     *            The new or changed user
+     */
+    public void putUser(User user) {
+        long change = changeCount.incrementAndGet();
+        Snapshot current;
+        Snapshot updated;
+        do {
+            current = snapshot.get();
+            updated = new Snapshot(put(current.users, user.getUserId(), user), current.rooms,
+                                   put(current.userChanges, user.getUserId(), change),
+                                   current.roomChanges);
+        } while (!snapshot.compareAndSet(current, updated));
+    }
+
+    /**
+     * Adds a room to the directory or replaces the existing room with the same ID
+     *
+     * @param room
+     *            The new or changed room
+     */
+    public void putRoom(Room room) {
+        long change = changeCount.incrementAndGet();
+        Snapshot current;
+        Snapshot updated;
+        do {
+            current = snapshot.get();
+            updated = new Snapshot(current.users, put(current.rooms, room.getRoomId(), room),
+                                   current.userChanges,
+                                   put(current.roomChanges, room.getRoomId(), change));
+        } while (!snapshot.compareAndSet(current, updated));
+    }
+
+    /**
+     * @return A copy of <code>map</code> with <code>key</code> set to <code>value</code>
+     */
+    private static <T> ImmutableMap<String, T> put(ImmutableMap<String, T> map, String key,
+                                                   T value) {
+        Map<String, T> copy = Maps.newHashMap(map);
+        copy.put(key, value);
+        return ImmutableMap.copyOf(copy);
+    }
+
+    /**
+     * Renames a room that's already in the directory. Unknown rooms are ignored and will be picked
+     * up by the next reconciliation.
+     *
+     * @param roomId
+     *            The ID of the room
+     * @param name
+     *            The new name of the room
+     */
+    public void renameRoom(String roomId, String name) {
+        Room room = getRoom(roomId);
+        if (room == null) {
+            LOG.debug("Can't rename unknown room {}", roomId);
+            return;
+        }
+        putRoom(new Room(room.getRoomId(), name, room.getTopic(), room.getLastActiveDate(),
+                         room.getCreationDate(), room.getOwnerUserId(), room.isArchived(),
+                         room.isPrivateRoom(), room.getGuestAccessURL(), room.getXmppJid()));
+    }
+
+    public int getNumUsers() {
+        return snapshot.get().users.size();
+    }
+
+    public int getNumRooms() {
+        return snapshot.get().rooms.size();
+    }
+
+    private static class Snapshot {
+
+        private final ImmutableMap<String, User> users;
+        private final ImmutableMap<String, Room> rooms;
+        // the change count of the last put of every user and room put since the last load
+        private final ImmutableMap<String, Long> userChanges;
+        private final ImmutableMap<String, Long> roomChanges;
+
+        private Snapshot(ImmutableMap<String, User> users, ImmutableMap<String, Room> rooms,
+                         ImmutableMap<String, Long> userChanges,
+                         ImmutableMap<String, Long> roomChanges) {
+            this.users = users;
+            this.rooms = rooms;
+            this.userChanges = userChanges;
+            this.roomChanges = roomChanges;
+        }
+    }
+}
@@ -53,6 +53,25 @@ public interface IChatApiDAO {
      */
     List<Message> getMessages(DateTime start, DateTime end, Room room);
 
+    /**
+     * Gets the messages in a room for a particular date range one page at a time, so that callers
+     * can process messages while the rest are fetched and only one page is held in memory. The
+     * default implementation hands all the messages from
+     * {@link #getMessages(DateTime, DateTime, Room)} over as a single page.
+     *
+     * @param start
+     *            The start date time inclusive
+     * @param end
+     *            The end date time exclusive
+     * @param room
+     *            The room or which messages will be fetched from
+     * @param handler
+     *            Called with every page of messages, in the order they're fetched
+     */
+    default void getMessages(DateTime start, DateTime end, Room room, MessagePageHandler handler) {
+        handler.onPage(getMessages(start, end, room), true);
+    }
+
     /**
      * Gets all the emojis, including custom ones from the chat API
      *
@@ -60,4 +79,19 @@ public interface IChatApiDAO {
      */
     Map<String, String> getEmojis();
 
+    /**
+     * Handler that gets called for every page of messages fetched from the chat API
+     */
+    interface MessagePageHandler {
+
+        /**
+         * @param messages
+         *            The messages in the page
+         * @param lastPage
+         *            True if this is the last page. If false, the next page is fetched after the
+         *            handler returns
+         */
+        void onPage(List<Message> messages, boolean lastPage);
+    }
+
 }
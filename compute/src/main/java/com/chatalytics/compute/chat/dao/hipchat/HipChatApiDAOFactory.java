@@ -1,9 +1,9 @@
 package com.chatalytics.compute.chat.dao.hipchat;
 
+import com.chatalytics.compute.chat.dao.ChatApiClientFactory;
 import com.chatalytics.compute.chat.dao.IChatApiDAO;
 import com.chatalytics.core.config.ChatAlyticsConfig;
 import com.sun.jersey.api.client.Client;
-import com.sun.jersey.api.client.config.DefaultClientConfig;
 
 /**
  * Factory for getting an instance of the hipchat DAO.
@@ -21,8 +21,7 @@ public class HipChatApiDAOFactory {
 
     public static IChatApiDAO getHipChatApiDao(ChatAlyticsConfig config) {
         if (hipchatDaoImpl == null) {
-            DefaultClientConfig clientConfig = new DefaultClientConfig();
-            Client client = Client.create(clientConfig);
+            Client client = ChatApiClientFactory.createClient(config.computeConfig);
             hipchatDaoImpl = new JsonHipChatDAO(config, client);
         }
         return hipchatDaoImpl;
@@ -47,7 +47,8 @@ public class LocalChatDao implements IChatApiDAO {
         Random rand = new Random(seed);
         this.baseUrl = "http://localhost:" + config.webConfig.port;
 
-        this.users = createRandomUsers(localConfig.numUsers, rand);
+        int numBots = (int) Math.round(localConfig.numUsers * localConfig.botRatio);
+        this.users = createRandomUsers(localConfig.numUsers, numBots, rand);
         this.rooms = createRandomRooms(localConfig.numRooms, rand);
     }
 
@@ -95,21 +96,27 @@ public class LocalChatDao implements IChatApiDAO {
      * Creates random users that can be used for generating random messages
      *
      * @param numUsers The number of random users to create
+     * @param numBots How many of the users are bots
      * @return A map of user ID to random users
      */
-    private Map<String, User> createRandomUsers(int numUsers, Random rand) {
+    private Map<String, User> createRandomUsers(int numUsers, int numBots, Random rand) {
 
         Map<String, User> users = Maps.newHashMapWithExpectedSize(numUsers);
 
-        for (int i = 0; i < numUsers; i++) {
+        // IDs can collide with thousands of users, so keep going until there are enough
+        while (users.size() < numUsers) {
             String userId = RandomStringUtils.generateRandomAlphaNumericString(5, rand);
+            if (users.containsKey(userId)) {
+                continue;
+            }
             String emailId = RandomStringUtils.generateRandomAlphaNumericString(4, rand);
             String email = String.format("%s@email.com", emailId);
             String namePostfix = RandomStringUtils.generateRandomAlphaNumericString(4, rand);
             String name = String.format("name-%s", namePostfix);
             String mentionName = RandomStringUtils.generateRandomAlphaNumericString(6, rand);
 
-            User randomUser = new User(userId, email, false, false, false, name, mentionName,
+            boolean bot = users.size() < numBots;
+            User randomUser = new User(userId, email, false, false, bot, name, mentionName,
                                        baseUrl + PHOTO_PATH,
                                        DateTime.now(DateTimeZone.UTC),
                                        DateTime.now(DateTimeZone.UTC), null, null, "UTC", null);
@@ -130,8 +137,11 @@ public class LocalChatDao implements IChatApiDAO {
 
         Map<String, Room> rooms = Maps.newHashMapWithExpectedSize(numRooms);
 
-        for (int i = 0; i < numRooms; i++) {
+        while (rooms.size() < numRooms) {
             String roomId = RandomStringUtils.generateRandomAlphaNumericString(5, rand);
+            if (rooms.containsKey(roomId)) {
+                continue;
+            }
             String roomPostfix = RandomStringUtils.generateRandomAlphaNumericString(5, rand);
             String name = String.format("room-%s", roomPostfix);
             String ownerUserId =RandomStringUtils.generateRandomAlphaNumericString(5, rand);
@@ -1,6 +1,7 @@
 package com.chatalytics.compute.chat.dao.slack;
 
 import com.chatalytics.compute.chat.dao.AbstractJSONChatApiDAO;
+import com.chatalytics.compute.chat.dao.ChatApiRetryPolicy;
 import com.chatalytics.compute.chat.dao.IChatApiDAO;
 import com.chatalytics.compute.exception.NotConnectedException;
 import com.chatalytics.core.config.ChatAlyticsConfig;
@@ -9,9 +10,9 @@ import com.chatalytics.core.model.data.Message;
 import com.chatalytics.core.model.data.Room;
 import com.chatalytics.core.model.data.User;
 import com.chatalytics.core.model.slack.HistoryResult;
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.type.CollectionType;
 import com.fasterxml.jackson.databind.type.MapLikeType;
 import com.fasterxml.jackson.databind.type.TypeFactory;
 import com.google.common.collect.ImmutableList;
@@ -26,8 +27,8 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URI;
-import java.util.Collection;
 import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
@@ -50,7 +51,14 @@ public class JsonSlackDAO extends AbstractJSONChatApiDAO {
     private final boolean includeArchivedRooms;
 
     public JsonSlackDAO(ChatAlyticsConfig config, Client client) {
-        super(config.computeConfig.chatConfig.getAuthTokens(), AUTH_TOKEN_PARAM);
+        this(config, client, config.computeConfig.chatConfig.getAuthTokens());
+    }
+
+    /**
+     * Creates a DAO that only uses the given auth tokens instead of the ones in the config
+     */
+    public JsonSlackDAO(ChatAlyticsConfig config, Client client, List<String> authTokens) {
+        super(authTokens, AUTH_TOKEN_PARAM, new ChatApiRetryPolicy(config.computeConfig));
         this.resource = client.resource(config.computeConfig.chatConfig.getBaseAPIURL());
         this.apiRetries = config.computeConfig.apiRetries;
         this.objMapper = JsonObjectMapperFactory.createObjectMapper(config.inputType);
@@ -62,15 +70,17 @@ public class JsonSlackDAO extends AbstractJSONChatApiDAO {
     public Map<String, Room> getRooms() {
         WebResource roomResource = resource.path("channels.list");
         roomResource.queryParam("exclude_archived", includeArchivedRooms ? "0" : "1");
-        String jsonStr = getJsonResultWithRetries(roomResource, apiRetries);
-        Collection<Room> roomCol = deserializeJsonStr(jsonStr, "channels", Room.class, objMapper);
+        InputStream jsonStream = getJsonStreamWithRetries(roomResource, apiRetries);
+        List<Room> roomCol = deserializeJsonStream(jsonStream, ImmutableList.of("channels"),
+                                                   Room.class, objMapper);
 
         if (includePrivateRooms) {
             roomResource = resource.path("groups.list");
             roomResource.queryParam("exclude_archived", includeArchivedRooms ? "0" : "1");
-            jsonStr = getJsonResultWithRetries(roomResource, apiRetries);
-            Collection<Room> privateRoomCol = deserializeJsonStr(jsonStr, "groups", Room.class,
-                                                                 objMapper);
+            jsonStream = getJsonStreamWithRetries(roomResource, apiRetries);
+            List<Room> privateRoomCol = deserializeJsonStream(jsonStream,
+                                                              ImmutableList.of("groups"),
+                                                              Room.class, objMapper);
             roomCol.addAll(privateRoomCol);
         }
 
@@ -84,8 +94,9 @@ public class JsonSlackDAO extends AbstractJSONChatApiDAO {
     @Override
     public Map<String, User> getUsers() {
         WebResource userResource = resource.path("users.list");
-        String jsonStr = getJsonResultWithRetries(userResource, apiRetries);
-        Collection<User> userCol = deserializeJsonStr(jsonStr, "members", User.class, objMapper);
+        InputStream jsonStream = getJsonStreamWithRetries(userResource, apiRetries);
+        List<User> userCol = deserializeJsonStream(jsonStream, ImmutableList.of("members"),
+                                                   User.class, objMapper);
         Map<String, User> result = Maps.newHashMapWithExpectedSize(userCol.size());
         for (User user : userCol) {
             result.put(user.getUserId(), user);
@@ -106,21 +117,22 @@ public class JsonSlackDAO extends AbstractJSONChatApiDAO {
         }
         WebResource roomResource = resource.path(pathStr);
         roomResource = roomResource.queryParam("channel", room.getRoomId());
-        String jsonStr = getJsonResultWithRetries(roomResource, apiRetries);
-        Collection<String> userIdCol = deserializeJsonStr(jsonStr,
-                                                          Lists.newArrayList(listElem, "members"),
-                                                          String.class,
-                                                          objMapper);
+        InputStream jsonStream = getJsonStreamWithRetries(roomResource, apiRetries);
+        List<String> userIdCol = deserializeJsonStream(jsonStream,
+                                                       ImmutableList.of(listElem, "members"),
+                                                       String.class, objMapper);
         // get info for user IDs
         Map<String, User> result = Maps.newHashMapWithExpectedSize(userIdCol.size());
         for (String userId : userIdCol) {
             WebResource userResource = resource.path("users.info");
             userResource = userResource.queryParam("user", userId);
-            jsonStr = getJsonResultWithRetries(userResource, apiRetries);
-            try {
-                JsonNode jsonNode = objMapper.readTree(jsonStr);
-                jsonNode = jsonNode.get("user");
-                User user = objMapper.readValue(jsonNode.toString(), User.class);
+            try (JsonParser parser = objMapper.getFactory()
+                                              .createParser(getJsonStreamWithRetries(userResource,
+                                                                                     apiRetries))) {
+                if (!moveToElement(parser, ImmutableList.of("user"))) {
+                    throw new IOException("Response has no user");
+                }
+                User user = objMapper.readValue(parser, User.class);
                 result.put(user.getUserId(), user);
             } catch (IOException e) {
                 throw new RuntimeException("Can't deserialize user with ID:" + userId, e);
@@ -134,11 +146,9 @@ public class JsonSlackDAO extends AbstractJSONChatApiDAO {
      */
     public URI getRealtimeWebSocketURI() {
         WebResource rtmResource = resource.path("rtm.start");
-        String jsonStr = getJsonResultWithRetries(rtmResource, apiRetries);
-
         JsonNode tree;
-        try {
-            tree = objMapper.readTree(jsonStr);
+        try (InputStream jsonStream = getJsonStreamWithRetries(rtmResource, apiRetries)) {
+            tree = objMapper.readTree(jsonStream);
         } catch (IOException e) {
             throw new RuntimeException("Unable to parse realtime resource response", e);
 
@@ -155,6 +165,18 @@ public class JsonSlackDAO extends AbstractJSONChatApiDAO {
 
     @Override
     public List<Message> getMessages(DateTime start, DateTime end, Room room) {
+        List<Message> result = Lists.newArrayList();
+        getMessages(start, end, room, (messages, lastPage) -> result.addAll(messages));
+        return result;
+    }
+
+    /**
+     * Pages through the history of the room from the newest messages to the oldest ones, up to
+     * 1000 messages at a time. A page that can't be read fails the whole call, so callers never
+     * take a partial history for a complete one.
+     */
+    @Override
+    public void getMessages(DateTime start, DateTime end, Room room, MessagePageHandler handler) {
         String pathName;
         if (room.isPrivateRoom()) {
             pathName = "groups.history";
@@ -162,7 +184,6 @@ public class JsonSlackDAO extends AbstractJSONChatApiDAO {
             pathName = "channels.history";
         }
         WebResource historyResource = resource.path(pathName);
-        List<Message> result = Lists.newArrayList();
         boolean hasNext = true;
 
         String startMillisStr = formatDateTime(start);
@@ -177,25 +198,24 @@ public class JsonSlackDAO extends AbstractJSONChatApiDAO {
                                              .queryParam("inclusive", "0")
                                              .queryParam("count", "1000");
 
-            String jsonStr = getJsonResultWithRetries(historyResource, apiRetries);
-            try {
-                HistoryResult history = objMapper.readValue(jsonStr, HistoryResult.class);
-                if (history.getMessages().isEmpty()) {
-                    break;
-                }
-                result.addAll(history.getMessages());
-
+            HistoryResult history;
+            try (InputStream jsonStream = getJsonStreamWithRetries(historyResource, apiRetries)) {
+                history = objMapper.readValue(jsonStream, HistoryResult.class);
+            } catch (IOException e) {
+                throw new RuntimeException("Can't deserialize history of " + room.getRoomId(), e);
+            }
+            List<Message> messages = history.getMessages();
+            if (messages == null) {
+                throw new RuntimeException("Got history without messages for " + room.getRoomId());
+            }
+            hasNext = history.isHas_more() && !messages.isEmpty();
+            if (hasNext) {
                 Comparator<Message> comp = (msg1, msg2) -> msg1.getDate().compareTo(msg2.getDate());
-                DateTime earliestDate = history.getMessages().stream().min(comp).get().getDate();
-
-                hasNext = history.isHas_more();
+                DateTime earliestDate = messages.stream().min(comp).get().getDate();
                 endMillisStr = formatDateTime(earliestDate);
-            } catch (IOException e) {
-                LOG.error("Can't deserialize history", e);
-                return ImmutableList.of();
             }
+            handler.onPage(messages, !hasNext);
         }
-        return result;
     }
 
     /**
@@ -204,23 +224,16 @@ public class JsonSlackDAO extends AbstractJSONChatApiDAO {
     @Override
     public Map<String, String> getEmojis() {
         WebResource emojiResource = resource.path("emoji.list");
-        String jsonStr = getJsonResultWithRetries(emojiResource, apiRetries);
-        JsonNode node;
-        try {
-            node = objMapper.readTree(jsonStr);
-        } catch (IOException e) {
-            LOG.error("Can't read emoji result from chat API", e);
-            return ImmutableMap.of();
-        }
         TypeFactory typeFactory = objMapper.getTypeFactory();
         MapLikeType type = typeFactory.constructMapLikeType(Map.class, String.class, String.class);
 
-        try {
-            JsonNode emojiJson = node.get("emoji");
-            if (emojiJson == null) {
+        try (JsonParser parser = objMapper.getFactory()
+                                          .createParser(getJsonStreamWithRetries(emojiResource,
+                                                                                 apiRetries))) {
+            if (!moveToElement(parser, ImmutableList.of("emoji"))) {
                 return ImmutableMap.of();
             }
-            Map<String, String> apiResponse =  objMapper.readValue(emojiJson.toString(), type);
+            Map<String, String> apiResponse = objMapper.readValue(parser, type);
             for (Map.Entry<String, String> emojiEntry : apiResponse.entrySet()) {
                 String value = emojiEntry.getValue();
                 if (value.startsWith("alias:")) {
@@ -230,86 +243,11 @@ public class JsonSlackDAO extends AbstractJSONChatApiDAO {
             }
             return apiResponse;
         } catch (IOException e) {
-            LOG.error("Can't deserialize emojis");
+            LOG.error("Can't deserialize emojis", e);
             return ImmutableMap.of();
         }
     }
 
-    /**
-     * Helper method for deserializing lists of elements of type <code>T</code> from a response JSON
-     * string
-     *
-     * @param jsonStr
-     *            The API returned JSON string
-     * @param listElement
-     *            The element in the original response JSON string that contains the list of items
-     *            of type <code>T</code> to deserialize
-     * @param clazz
-     *            The class to deserialize
-     * @param objMapper
-     *            The JSON object mapper used to deserialize the JSON string.
-     * @return A collection of elements of type <code>clazz</code>.
-     */
-    private <T> Collection<T> deserializeJsonStr(String jsonStr, String listElement,
-                                                 Class<T> clazz,
-                                                 ObjectMapper objMapper) {
-        return deserializeJsonStr(jsonStr, Lists.newArrayList(listElement), clazz, objMapper);
-    }
-
-    /**
-     * Helper method for deserializing lists of elements of type <code>T</code> from a response JSON
-     * string
-     *
-     * @param jsonStr
-     *            The API returned JSON string
-     * @param listElements
-     *            A list of ordered elements in the original response JSON to traverse down to to
-     *            get to the element that contains the list of items of type <code>T</code> to
-     *            deserialize
-     *            <p/>
-     *            For example given the following JSON string
-     *
-     * <pre>
-     *            {
-     *                "someElement": {
-     *                    "someInnerElement": [
-     *                        {...},
-     *                        {...}
-     *                    ],
-     *                    "otherElement": "value"
-     *                }
-     *            }
-     * </pre>
-     *
-     *            If the collection of <code>T</code>s we were interested in were inside
-     *            <code>someInnerEllement</code> then the list would equal:
-     *            <code>[someElement, someInnterElement]</code>
-     * @param clazz
-     *            The class to deserialize The JSON object mapper used to deserialize the JSON
-     *            string.
-     * @return A collection of elements of type <code>clazz</code>.
-     */
-    private <T> Collection<T> deserializeJsonStr(String jsonStr, List<String> listElements,
-                                                 Class<T> clazz,
-                                                 ObjectMapper objMapper) {
-        TypeFactory typeFactory = objMapper.getTypeFactory();
-        CollectionType type = typeFactory.constructCollectionType(List.class, clazz);
-        try {
-            JsonNode jsonNode = objMapper.readTree(jsonStr);
-            // traverse down the order of elements until the desired one is reached
-            for (String jsonEl : listElements) {
-                jsonNode = jsonNode.get(jsonEl);
-                if (jsonNode == null) {
-                    return ImmutableList.of();
-                }
-            }
-            return objMapper.readValue(jsonNode.toString(), type);
-        } catch (IOException e) {
-            LOG.error("Got exception when trying to deserialize list of {}", clazz, e);
-            return ImmutableList.of();
-        }
-    }
-
     private String formatDateTime(DateTime date) {
         long millis = date.getMillis();
         return String.format("%s.%s", String.valueOf(millis / 1000), millis % 1000);
@@ -1,9 +1,13 @@
 package com.chatalytics.compute.chat.dao.slack;
 
+import com.chatalytics.compute.chat.dao.ChatApiClientFactory;
 import com.chatalytics.compute.chat.dao.IChatApiDAO;
 import com.chatalytics.core.config.ChatAlyticsConfig;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
 import com.sun.jersey.api.client.Client;
-import com.sun.jersey.api.client.config.DefaultClientConfig;
+
+import java.util.List;
 
 /**
  * Factory for getting an instance of the slack DAO.
@@ -21,10 +25,30 @@ public class SlackApiDAOFactory {
 
     public static IChatApiDAO getSlackApiDao(ChatAlyticsConfig config) {
         if (slackDaoImpl == null) {
-            DefaultClientConfig clientConfig = new DefaultClientConfig();
-            Client client = Client.create(clientConfig);
+            Client client = ChatApiClientFactory.createClient(config.computeConfig);
             slackDaoImpl = new JsonSlackDAO(config, client);
         }
         return slackDaoImpl;
     }
+
+    /**
+     * Creates a separate DAO for every auth token in the config so that the tokens can be rate
+     * limited independently. If there are no tokens the shared DAO is returned.
+     *
+     * @param config
+     *            The chatalytics config
+     * @return One DAO for every auth token
+     */
+    public static List<IChatApiDAO> getSlackApiDaoPerToken(ChatAlyticsConfig config) {
+        List<String> authTokens = config.computeConfig.chatConfig.getAuthTokens();
+        if (authTokens == null || authTokens.isEmpty()) {
+            return ImmutableList.of(getSlackApiDao(config));
+        }
+        Client client = ChatApiClientFactory.createClient(config.computeConfig);
+        List<IChatApiDAO> result = Lists.newArrayListWithCapacity(authTokens.size());
+        for (String authToken : authTokens) {
+            result.add(new JsonSlackDAO(config, client, ImmutableList.of(authToken)));
+        }
+        return result;
+    }
 }
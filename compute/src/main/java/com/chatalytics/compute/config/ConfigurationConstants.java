@@ -18,7 +18,12 @@ public enum ConfigurationConstants {
     /**
      * Property for storing the list of sentiment words
      */
-    SENTIMENT_WORDS("com.chatalytics.bolts.sentiment.words");
+    SENTIMENT_WORDS("com.chatalytics.bolts.sentiment.words"),
+
+    /**
+     * Property for the dictionary of terms matched by the gazetteer entity extractor
+     */
+    GAZETTEER_DICTIONARY("com.chatalytics.bolts.entities.gazetteer");
 
     public final String txt;
 
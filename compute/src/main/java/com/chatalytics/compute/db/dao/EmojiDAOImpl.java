@@ -7,6 +7,7 @@ import com.google.common.util.concurrent.AbstractIdleService;
 
 import org.joda.time.Interval;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 
@@ -34,6 +35,14 @@ public class EmojiDAOImpl extends AbstractIdleService implements IEmojiDAO {
         occurrenceStatsDAO.persistValue(emoji);
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void persistEmojis(Collection<EmojiEntity> emojis) {
+        occurrenceStatsDAO.persistValues(emojis);
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -7,6 +7,7 @@ import com.google.common.util.concurrent.AbstractIdleService;
 
 import org.joda.time.Interval;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 
@@ -34,6 +35,14 @@ public class EntityDAOImpl extends AbstractIdleService implements IEntityDAO {
         occurrenceStatsDAO.persistValue(entity);
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void persistEntities(Collection<ChatEntity> entities) {
+        occurrenceStatsDAO.persistValues(entities);
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -9,6 +9,7 @@ import com.google.common.util.concurrent.Service;
 
 import org.joda.time.Interval;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 
@@ -22,6 +23,14 @@ public interface IEmojiDAO extends Service {
      */
      void persistEmoji(EmojiEntity emoji);
 
+    /**
+     * Persists many emojis to the database in a single transaction
+     *
+     * @param emojis
+     *            The emojis to be persisted
+     */
+    void persistEmojis(Collection<EmojiEntity> emojis);
+
     /**
      * Gets an emoji from the database. Note that all fields in {@link EmojiEntity} need to be set.
      * Use {@link #getEmojiMentions(String, DateTime, DateTime)} if you want to get the total number
@@ -9,6 +9,7 @@ import com.google.common.util.concurrent.Service;
 
 import org.joda.time.Interval;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 
@@ -22,6 +23,14 @@ public interface IEntityDAO extends Service {
      */
     void persistEntity(ChatEntity entity);
 
+    /**
+     * Persists many entities to the database in a single transaction
+     *
+     * @param entities
+     *            The entities to be persisted
+     */
+    void persistEntities(Collection<ChatEntity> entities);
+
     /**
      * Gets an entity from the database. Note that all fields in entity need to be set. Use
      * {@link #getEntityMentions(String, DateTime, DateTime)} if you want to get the total number of
@@ -9,10 +9,12 @@ import org.joda.time.Interval;
 
 import java.io.Closeable;
 import java.io.Serializable;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 
 import javax.persistence.EntityExistsException;
+import javax.persistence.PersistenceException;
 
 /**
  * A general DAO for doing occurrence statistics on any type T. The type could be any arbitrary
@@ -35,6 +37,19 @@ public interface IMentionableDAO<K extends Serializable, T extends IMentionable<
      */
     void persistValue(T value);
 
+    /**
+     * Persists many values in a single transaction, writing them to the database in batches.
+     * Either all of the values are persisted or none of them are. Values whose user, room, time,
+     * value and bot flag are already stored are skipped, so persisting the same values again
+     * doesn't count them twice
+     *
+     * @param values
+     *            The values to be persisted
+     * @throws PersistenceException
+     *             if the values can't be persisted
+     */
+    void persistValues(Collection<T> values);
+
     /**
      * Gets a type <code>T</code> from the database. Note that all fields need to be set.
      *
@@ -8,6 +8,7 @@ import com.google.common.util.concurrent.Service;
 
 import org.joda.time.Interval;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 
@@ -21,6 +22,14 @@ public interface IMessageSummaryDAO extends Service {
      */
     void persistMessageSummary(MessageSummary messageSummary);
 
+    /**
+     * Persists many message summaries in a single transaction
+     *
+     * @param messageSummaries
+     *            The message summaries to persist
+     */
+    void persistMessageSummaries(Collection<MessageSummary> messageSummaries);
+
     /**
      * Retrieves a message summary
      *
@@ -10,6 +10,7 @@ import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 
 import org.joda.time.DateTime;
 import org.joda.time.Interval;
@@ -17,8 +18,11 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.function.Function;
 
 import javax.persistence.EntityExistsException;
@@ -54,6 +58,7 @@ public class MentionableDAO<K extends Serializable, T extends IMentionable<K>>
 
     private static final Logger LOG = LoggerFactory.getLogger(MentionableDAO.class);
     private static final String TYPE_COLUMN_NAME = "value";
+    private static final int PERSIST_BATCH_SIZE = 1000;
 
     private final Class<T> type;
     private final EntityManagerFactory entityManagerFactory;
@@ -89,6 +94,88 @@ public class MentionableDAO<K extends Serializable, T extends IMentionable<K>>
         closeEntityManager(entityManager);
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void persistValues(Collection<T> values) {
+        EntityManager entityManager = entityManagerFactory.createEntityManager();
+        EntityTransaction transaction = entityManager.getTransaction();
+        transaction.begin();
+        try {
+            // sorted by time so that every batch only has to look up the rows of a short interval
+            List<T> sortedValues = Lists.newArrayList(values);
+            sortedValues.sort((value1, value2) -> value1.getMentionTime()
+                                                        .compareTo(value2.getMentionTime()));
+            int skipped = 0;
+            for (List<T> batch : Lists.partition(sortedValues, PERSIST_BATCH_SIZE)) {
+                Set<List<Object>> existingKeys =
+                    getExistingKeys(entityManager, batch.get(0).getMentionTime(),
+                                    batch.get(batch.size() - 1).getMentionTime());
+                for (T value : batch) {
+                    if (existingKeys.add(getKey(value))) {
+                        entityManager.persist(value);
+                    } else {
+                        skipped++;
+                    }
+                }
+                // keep the persistence context small so the batches don't pile up in memory
+                entityManager.flush();
+                entityManager.clear();
+            }
+            transaction.commit();
+            if (skipped > 0) {
+                LOG.info("Skipped {} of {} values that were already stored", skipped,
+                         values.size());
+            }
+        } catch (PersistenceException e) {
+            LOG.error("Cannot store {} values. {}", values.size(), e.getMessage());
+            if (transaction.isActive()) {
+                transaction.rollback();
+            }
+            throw e;
+        } finally {
+            closeEntityManager(entityManager);
+        }
+    }
+
+    /**
+     * @return The keys of the rows mentioned from <code>start</code> to <code>end</code>, both
+     *         inclusive
+     * @see #getKey(IMentionable)
+     */
+    private Set<List<Object>> getExistingKeys(EntityManager entityManager, DateTime start,
+                                              DateTime end) {
+        CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+        CriteriaQuery<Tuple> query = cb.createTupleQuery();
+        Root<T> from = query.from(type);
+        Path<String> username = from.get("username");
+        Path<String> roomName = from.get("roomName");
+        Path<DateTime> mentionTime = from.get("mentionTime");
+        Path<K> value = from.get(TYPE_COLUMN_NAME);
+        Path<Boolean> isBot = from.get("bot");
+        query.multiselect(username, roomName, mentionTime, value, isBot);
+        query.where(cb.greaterThanOrEqualTo(mentionTime, start),
+                    cb.lessThanOrEqualTo(mentionTime, end));
+
+        Set<List<Object>> keys = Sets.newHashSet();
+        for (Tuple tuple : entityManager.createQuery(query).getResultList()) {
+            keys.add(Arrays.asList(tuple.get(username), tuple.get(roomName),
+                                   tuple.get(mentionTime).getMillis(), tuple.get(value),
+                                   tuple.get(isBot)));
+        }
+        return keys;
+    }
+
+    /**
+     * @return The user, room, time, value and bot flag of <code>value</code>, which identify the
+     *         row it's counted in
+     */
+    private List<Object> getKey(T value) {
+        return Arrays.asList(value.getUsername(), value.getRoomName(),
+                             value.getMentionTime().getMillis(), value.getValue(), value.isBot());
+    }
+
     /**
      * {@inheritDoc}
      */
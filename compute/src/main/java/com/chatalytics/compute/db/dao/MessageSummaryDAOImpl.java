@@ -7,6 +7,7 @@ import com.google.common.util.concurrent.AbstractIdleService;
 
 import org.joda.time.Interval;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 
@@ -31,6 +32,14 @@ public class MessageSummaryDAOImpl extends AbstractIdleService implements IMessa
         occurrenceStatsDAO.persistValue(messageSummary);
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void persistMessageSummaries(Collection<MessageSummary> messageSummaries) {
+        occurrenceStatsDAO.persistValues(messageSummaries);
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -0,0 +1,164 @@
+package com.chatalytics.compute.entity;
+
+import com.chatalytics.core.util.FlatTrie;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Queue;
+
+/**
+ * Compiled Aho-Corasick automaton that finds every occurrence of a set of terms in a single linear
+ * pass over the text. Matching is case insensitive. Once built the automaton is immutable and can
+ * be shared between threads.
+ * <p/>
+ * The goto function is a {@link FlatTrie} keyed by the lower case characters of the terms, so a
+ * transition is a binary search over a small range and matching doesn't allocate.
+ */
+public class AhoCorasickAutomaton {
+
+    private static final int ROOT = FlatTrie.ROOT;
+    private static final int NO_TERM = FlatTrie.NO_VALUE;
+    private static final int NO_STATE = FlatTrie.NO_STATE;
+
+    private final List<String> terms;
+    private final int[] termLengths;
+
+    // the value of a state is the term that ends there, or NO_TERM
+    private final FlatTrie gotoFn;
+    private final int[] failure;
+    // the closest state reachable through failure links that ends a term, or NO_STATE
+    private final int[] outputLink;
+
+    /**
+     * Handler that gets called for every match found in the text
+     */
+    public interface MatchHandler {
+
+        /**
+         * @param termIndex
+         *            The index of the matched term in {@link AhoCorasickAutomaton#getTerms()}
+         * @param start
+         *            The start offset of the match in the text, inclusive
+         * @param end
+         *            The end offset of the match in the text, exclusive
+         */
+        void onMatch(int termIndex, int start, int end);
+    }
+
+    private AhoCorasickAutomaton(List<String> terms, FlatTrie gotoFn, int[] failure,
+                                 int[] outputLink) {
+        this.terms = terms;
+        this.gotoFn = gotoFn;
+        this.failure = failure;
+        this.outputLink = outputLink;
+        this.termLengths = new int[terms.size()];
+        for (int i = 0; i < terms.size(); i++) {
+            termLengths[i] = terms.get(i).length();
+        }
+    }
+
+    /**
+     * Compiles an automaton for the given terms. Blank terms are ignored and terms that only differ
+     * in case are matched once, as the first one given.
+     *
+     * @param terms
+     *            The terms to match
+     * @return A compiled automaton
+     */
+    public static AhoCorasickAutomaton compile(Collection<String> terms) {
+        FlatTrie.Builder builder = new FlatTrie.Builder();
+        List<String> acceptedTerms = Lists.newArrayListWithExpectedSize(terms.size());
+        for (String term : terms) {
+            if (term == null || term.trim().isEmpty()) {
+                continue;
+            }
+            int[] keys = new int[term.length()];
+            for (int i = 0; i < keys.length; i++) {
+                keys[i] = Character.toLowerCase(term.charAt(i));
+            }
+            if (builder.add(keys, acceptedTerms.size())) {
+                acceptedTerms.add(term);
+            }
+        }
+        FlatTrie gotoFn = builder.build();
+
+        // breadth first computation of the failure and output links
+        int numStates = gotoFn.numStates();
+        int[] failure = new int[numStates];
+        int[] outputLink = new int[numStates];
+        Arrays.fill(outputLink, NO_STATE);
+        Queue<Integer> queue = new ArrayDeque<>();
+        for (int e = gotoFn.edgesStart(ROOT); e < gotoFn.edgesEnd(ROOT); e++) {
+            failure[gotoFn.getEdgeTarget(e)] = ROOT;
+            queue.add(gotoFn.getEdgeTarget(e));
+        }
+        while (!queue.isEmpty()) {
+            int state = queue.remove();
+            for (int e = gotoFn.edgesStart(state); e < gotoFn.edgesEnd(state); e++) {
+                int child = gotoFn.getEdgeTarget(e);
+                int ch = gotoFn.getEdgeKey(e);
+                int fallback = failure[state];
+                int target = gotoFn.next(fallback, ch);
+                while (target == NO_STATE && fallback != ROOT) {
+                    fallback = failure[fallback];
+                    target = gotoFn.next(fallback, ch);
+                }
+                failure[child] = target == NO_STATE ? ROOT : target;
+                int childFailure = failure[child];
+                outputLink[child] = gotoFn.getValue(childFailure) != NO_TERM
+                    ? childFailure
+                    : outputLink[childFailure];
+                queue.add(child);
+            }
+        }
+
+        return new AhoCorasickAutomaton(ImmutableList.copyOf(acceptedTerms), gotoFn, failure,
+                                        outputLink);
+    }
+
+    /**
+     * Scans <code>text</code> once and calls the <code>handler</code> for every occurrence of every
+     * term, including overlapping ones. Matches are reported in order of their end offset.
+     *
+     * @param text
+     *            The text to scan
+     * @param handler
+     *            The handler to call for each match
+     */
+    public void match(CharSequence text, MatchHandler handler) {
+        int state = ROOT;
+        int length = text.length();
+        for (int i = 0; i < length; i++) {
+            char ch = Character.toLowerCase(text.charAt(i));
+            int next = gotoFn.next(state, ch);
+            while (next == NO_STATE && state != ROOT) {
+                state = failure[state];
+                next = gotoFn.next(state, ch);
+            }
+            state = next == NO_STATE ? ROOT : next;
+
+            int outputState = gotoFn.getValue(state) != NO_TERM ? state : outputLink[state];
+            while (outputState != NO_STATE) {
+                int termIndex = gotoFn.getValue(outputState);
+                handler.onMatch(termIndex, i + 1 - termLengths[termIndex], i + 1);
+                outputState = outputLink[outputState];
+            }
+        }
+    }
+
+    /**
+     * @return The terms this automaton matches, in the order they were accepted
+     */
+    public List<String> getTerms() {
+        return terms;
+    }
+
+    public int numStates() {
+        return gotoFn.numStates();
+    }
+
+}
@@ -0,0 +1,62 @@
+package com.chatalytics.compute.entity;
+
+import com.google.common.collect.Lists;
+import com.google.common.io.Resources;
+
+import edu.stanford.nlp.ie.AbstractSequenceClassifier;
+import edu.stanford.nlp.ie.crf.CRFClassifier;
+import edu.stanford.nlp.ling.CoreLabel;
+import edu.stanford.nlp.util.Triple;
+
+import java.net.URL;
+import java.util.List;
+
+/**
+ * Extracts named entities using a CRF sequence classifier
+ */
+public class CRFEntityExtractor implements IEntityExtractor {
+
+    private static final int MAX_ENTITY_CHARS = 150;
+
+    private final AbstractSequenceClassifier<CoreLabel> classifier;
+
+    /**
+     * @param classifierStr
+     *            The classpath location of the serialized classifier to load
+     */
+    public CRFEntityExtractor(String classifierStr) {
+        this(getClassifier(classifierStr));
+    }
+
+    public CRFEntityExtractor(AbstractSequenceClassifier<CoreLabel> classifier) {
+        this.classifier = classifier;
+    }
+
+    /**
+     * Gets the classifier to use for parsing text
+     *
+     * @param classifierStr
+     *            The classpath location of the classifier to use
+     * @return The classifier to use for extracting entities.
+     */
+    private static AbstractSequenceClassifier<CoreLabel> getClassifier(String classifierStr) {
+        URL classifierURL = Resources.getResource(classifierStr);
+        return CRFClassifier.getClassifierNoExceptions(classifierURL.getPath());
+    }
+
+    @Override
+    public List<EntityMention> extractEntities(String message) {
+        List<Triple<String,Integer,Integer>> classification =
+            classifier.classifyToCharacterOffsets(message);
+        List<EntityMention> mentions = Lists.newArrayListWithCapacity(classification.size());
+        for (Triple<String, Integer, Integer> triple : classification) {
+            if (triple.third - triple.second > MAX_ENTITY_CHARS) {
+                continue;
+            }
+            mentions.add(new EntityMention(message.substring(triple.second, triple.third),
+                                           triple.second,
+                                           triple.third));
+        }
+        return mentions;
+    }
+}
@@ -0,0 +1,219 @@
+package com.chatalytics.compute.entity;
+
+import com.chatalytics.compute.config.ConfigurationConstants;
+import com.chatalytics.core.EntityExtractorType;
+import com.chatalytics.core.config.ComputeConfig;
+import com.chatalytics.core.model.data.ChatEntity;
+import com.chatalytics.core.model.data.FatMessage;
+import com.chatalytics.core.model.data.Message;
+import com.chatalytics.core.model.data.Room;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import java.io.Closeable;
+import java.net.URL;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Extracts the {@link ChatEntity}s of chat messages. Entities can be extracted with a CRF
+ * classifier, a dictionary backed gazetteer or both, depending on
+ * {@link ComputeConfig#entityExtractor}. When both are used and they find the same span of text,
+ * the gazetteer term is kept. Messages that can't contain any entities are caught by an
+ * {@link EntityPreFilter} and never reach the classifier.
+ * <p/>
+ * The extractor is thread safe, so one instance can be shared by many workers. It should be closed
+ * when it's no longer used, so that the gazetteer stops reloading its dictionary.
+ */
+public class ChatEntityExtractor implements Closeable {
+
+    private final IEntityExtractor crfExtractor;
+    private final IEntityExtractor gazetteerExtractor;
+    private final EntityPreFilter preFilter;
+    private final AtomicLong filteredMessages;
+    private final AtomicLong classifiedMessages;
+
+    /**
+     * @param crfExtractor
+     *            The CRF extractor or null if it's not used
+     * @param gazetteerExtractor
+     *            The gazetteer extractor or null if it's not used
+     * @param preFilter
+     *            The filter for messages that skip the CRF extractor or null to classify every
+     *            message
+     */
+    public ChatEntityExtractor(IEntityExtractor crfExtractor, IEntityExtractor gazetteerExtractor,
+                               EntityPreFilter preFilter) {
+        this.crfExtractor = crfExtractor;
+        this.gazetteerExtractor = gazetteerExtractor;
+        this.preFilter = preFilter;
+        this.filteredMessages = new AtomicLong();
+        this.classifiedMessages = new AtomicLong();
+    }
+
+    /**
+     * Closes the CRF and gazetteer extractors
+     */
+    @Override
+    public void close() {
+        if (crfExtractor != null) {
+            crfExtractor.close();
+        }
+        if (gazetteerExtractor != null) {
+            gazetteerExtractor.close();
+        }
+    }
+
+    /**
+     * Creates the extractors listed in the configuration
+     *
+     * @param computeConfig
+     *            The compute config
+     * @return The entity extractor
+     */
+    public static ChatEntityExtractor create(ComputeConfig computeConfig) {
+        EntityExtractorType extractorType = computeConfig.entityExtractor;
+        IEntityExtractor crfExtractor = null;
+        IEntityExtractor gazetteerExtractor = null;
+        EntityPreFilter preFilter = null;
+        if (extractorType.usesCRF()) {
+            crfExtractor = new CRFEntityExtractor(computeConfig.classifier);
+        }
+        if (extractorType.usesGazetteer()) {
+            gazetteerExtractor = getGazetteerExtractor(computeConfig);
+        }
+        if (computeConfig.entityPreFilterEnabled) {
+            preFilter = new EntityPreFilter(computeConfig.entityPreFilterMinTokens);
+        }
+        return new ChatEntityExtractor(crfExtractor, gazetteerExtractor, preFilter);
+    }
+
+    /**
+     * Gets the gazetteer extractor for the dictionary listed in the configuration
+     *
+     * @param computeConfig
+     *            The configuration containing the dictionary file and the reload interval
+     * @return The gazetteer extractor
+     */
+    private static IEntityExtractor getGazetteerExtractor(ComputeConfig computeConfig) {
+        String propertyName = ConfigurationConstants.GAZETTEER_DICTIONARY.txt;
+        String dictionaryFile = null;
+        if (computeConfig.filesToRead != null) {
+            dictionaryFile = computeConfig.filesToRead.get(propertyName);
+        }
+        if (dictionaryFile == null) {
+            throw new IllegalArgumentException("No gazetteer dictionary specified. Add one to "
+                + "filesToRead under " + propertyName);
+        }
+        long reloadIntervalMs =
+            TimeUnit.SECONDS.toMillis(computeConfig.gazetteerReloadIntervalSecs);
+        URL dictionaryURL = GazetteerEntityExtractor.resolveDictionary(dictionaryFile);
+        return new GazetteerEntityExtractor(dictionaryURL, reloadIntervalMs);
+    }
+
+    /**
+     * Given a message this method uses the extractors to extract entities.
+     *
+     * @param fatMessage
+     *            The message containing the text to parse.
+     * @return A list of entities from the text
+     */
+    public List<ChatEntity> extractEntities(FatMessage fatMessage) {
+
+        Message message = fatMessage.getMessage();
+        String messageStr = message.getMessage();
+
+        if (messageStr == null) {
+            return ImmutableList.of();
+        }
+
+        List<EntityMention> mentions = extractMentions(messageStr);
+        Map<String, ChatEntity> entities = Maps.newHashMapWithExpectedSize(mentions.size());
+
+        for (EntityMention mention : mentions) {
+            String entity = mention.getValue();
+            ChatEntity existingEntity = entities.remove(entity);
+            int occurrences;
+            if (existingEntity == null) {
+                occurrences = 1;
+            } else {
+                occurrences = existingEntity.getOccurrences() + 1;
+            }
+            Room room = fatMessage.getRoom();
+            String roomName = null;
+            if (room != null) {
+                roomName = room.getName();
+            }
+            entities.put(entity, new ChatEntity(fatMessage.getUser().getMentionName(),
+                                                roomName,
+                                                message.getDate(),
+                                                entity,
+                                                occurrences,
+                                                fatMessage.getUser().isBot()));
+
+        }
+
+        return Lists.newArrayList(entities.values());
+    }
+
+    /**
+     * Runs the configured extractors over the text of a message
+     *
+     * @param messageStr
+     *            The text of the message
+     * @return All the entity mentions found in the message
+     */
+    private List<EntityMention> extractMentions(String messageStr) {
+        List<EntityMention> gazetteerMentions = ImmutableList.of();
+        if (gazetteerExtractor != null) {
+            gazetteerMentions = gazetteerExtractor.extractEntities(messageStr);
+        }
+        if (crfExtractor == null) {
+            return gazetteerMentions;
+        }
+
+        if (preFilter != null && preFilter.shouldSkip(messageStr)) {
+            filteredMessages.incrementAndGet();
+            return gazetteerMentions;
+        }
+        classifiedMessages.incrementAndGet();
+        List<EntityMention> crfMentions = crfExtractor.extractEntities(messageStr);
+        if (gazetteerMentions.isEmpty()) {
+            return crfMentions;
+        }
+
+        List<EntityMention> mentions = Lists.newArrayList(gazetteerMentions);
+        for (EntityMention crfMention : crfMentions) {
+            if (!containsSpan(gazetteerMentions, crfMention)) {
+                mentions.add(crfMention);
+            }
+        }
+        return mentions;
+    }
+
+    private static boolean containsSpan(List<EntityMention> mentions, EntityMention mention) {
+        for (EntityMention other : mentions) {
+            if (other.getStart() == mention.getStart() && other.getEnd() == mention.getEnd()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return The number of messages the pre-filter kept from the classifier since the last call
+     */
+    public long getAndResetFilteredMessages() {
+        return filteredMessages.getAndSet(0);
+    }
+
+    /**
+     * @return The number of messages that went through the classifier since the last call
+     */
+    public long getAndResetClassifiedMessages() {
+        return classifiedMessages.getAndSet(0);
+    }
+}
@@ -0,0 +1,42 @@
+package com.chatalytics.compute.entity;
+
+/**
+ * A single mention of an entity in a chat message
+ */
+public class EntityMention {
+
+    private final String value;
+    private final int start;
+    private final int end;
+
+    /**
+     * @param value
+     *            The entity value to record
+     * @param start
+     *            The start offset of the mention in the message, inclusive
+     * @param end
+     *            The end offset of the mention in the message, exclusive
+     */
+    public EntityMention(String value, int start, int end) {
+        this.value = value;
+        this.start = start;
+        this.end = end;
+    }
+
+    public String getValue() {
+        return value;
+    }
+
+    public int getStart() {
+        return start;
+    }
+
+    public int getEnd() {
+        return end;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s[%d, %d)", value, start, end);
+    }
+}
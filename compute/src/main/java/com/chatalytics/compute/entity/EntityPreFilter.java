@@ -0,0 +1,91 @@
+package com.chatalytics.compute.entity;
+
+/**
+ * Cheap classifier that decides whether a chat message can possibly contain a named entity. Most
+ * chat messages are short acknowledgements, emoji-only posts, mentions or links and running them
+ * through a sequence classifier is wasted work. The filter walks the characters of the message
+ * once and doesn't allocate.
+ * <p/>
+ * A message is skipped when none of its tokens is a word, or when it has fewer than
+ * <code>minTokens</code> whitespace separated tokens and none of its words is capitalized, so short
+ * messages such as <code>Boston</code> are still classified. Emoji shortcodes
+ * (<code>:smile:</code>), mentions (<code>@user</code>, <code>&lt;@U123&gt;</code>), channel
+ * references and links are not considered words.
+ */
+public class EntityPreFilter {
+
+    private final int minTokens;
+
+    public EntityPreFilter(int minTokens) {
+        this.minTokens = minTokens;
+    }
+
+    /**
+     * @param message
+     *            The message text to inspect
+     * @return True if the message can't contain any entities and the classifier can be skipped
+     */
+    public boolean shouldSkip(String message) {
+        if (message == null) {
+            return true;
+        }
+        int length = message.length();
+        int numTokens = 0;
+        int numWordTokens = 0;
+        boolean capitalized = false;
+        int i = 0;
+        while (i < length) {
+            // skip over the whitespace before the token
+            while (i < length && Character.isWhitespace(message.charAt(i))) {
+                i++;
+            }
+            if (i >= length) {
+                break;
+            }
+            int tokenStart = i;
+            while (i < length && !Character.isWhitespace(message.charAt(i))) {
+                i++;
+            }
+            numTokens++;
+            if (isWordToken(message, tokenStart, i)) {
+                numWordTokens++;
+                capitalized |= Character.isUpperCase(message.charAt(tokenStart));
+            }
+        }
+        return numWordTokens == 0 || (numTokens < minTokens && !capitalized);
+    }
+
+    /**
+     * @return True if the token in <code>[start, end)</code> contains a letter and is not an emoji,
+     *         mention, channel reference or link
+     */
+    private boolean isWordToken(String message, int start, int end) {
+        char first = message.charAt(start);
+        char last = message.charAt(end - 1);
+        int length = end - start;
+
+        // slack markup: <@U123>, <#C123|general>, <!channel>, <http://...>
+        if (first == '<' || first == '@' || first == '#') {
+            return false;
+        }
+        // emoji shortcodes
+        if (first == ':' && last == ':' && length > 2) {
+            return false;
+        }
+        if (message.startsWith("http://", start) || message.startsWith("https://", start)
+                || message.startsWith("www.", start)) {
+            return false;
+        }
+
+        for (int i = start; i < end; i++) {
+            if (Character.isLetter(message.charAt(i))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public int getMinTokens() {
+        return minTokens;
+    }
+}
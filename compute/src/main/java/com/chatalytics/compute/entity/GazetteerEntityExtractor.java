@@ -0,0 +1,217 @@
+package com.chatalytics.compute.entity;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.io.Resources;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Extracts entities by exactly matching the terms of a curated dictionary, such as product,
+ * project or customer names. The dictionary is a text file with one term per line. Blank lines and
+ * lines starting with <code>#</code> are ignored.
+ * <p/>
+ * All the terms are compiled into an {@link AhoCorasickAutomaton} so a message is matched against
+ * the whole dictionary in one pass. Matches have to start and end on word boundaries and
+ * overlapping matches are resolved by keeping the leftmost longest one. Mentions are reported with
+ * the spelling used in the dictionary.
+ * <p/>
+ * Dictionaries can be read from the file system or from the classpath, including from inside a
+ * jar. A dictionary in the file system is checked for modifications every reload interval by a
+ * background thread, which recompiles it and swaps it in when it changes. Messages never wait for
+ * a reload and keep using the previous automaton until the new one is ready.
+ */
+public class GazetteerEntityExtractor implements IEntityExtractor {
+
+    private static final Logger LOG = LoggerFactory.getLogger(GazetteerEntityExtractor.class);
+
+    private static final Comparator<EntityMention> LEFTMOST_LONGEST =
+        Comparator.comparingInt(EntityMention::getStart)
+                  .thenComparing(Comparator.comparingInt(EntityMention::getEnd).reversed());
+
+    private final URL dictionaryURL;
+    private final Path dictionaryPath;
+    private final ScheduledExecutorService reloader;
+
+    private volatile AhoCorasickAutomaton automaton;
+    private long lastModifiedMs;
+
+    /**
+     * @param dictionaryURL
+     *            The dictionary to load terms from
+     * @param reloadIntervalMs
+     *            How often to check the dictionary for changes. Reloading is disabled if this
+     *            isn't positive or if the dictionary is not in the file system
+     */
+    public GazetteerEntityExtractor(URL dictionaryURL, long reloadIntervalMs) {
+        this.dictionaryURL = dictionaryURL;
+        this.dictionaryPath = toPath(dictionaryURL);
+        this.lastModifiedMs = getLastModifiedMs();
+        this.automaton = AhoCorasickAutomaton.compile(readTerms(dictionaryURL));
+        LOG.info("Loaded {} dictionary terms from {}", automaton.getTerms().size(), dictionaryURL);
+        if (reloadIntervalMs > 0 && dictionaryPath != null) {
+            this.reloader = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setDaemon(true)
+                                          .setNameFormat("gazetteer-reloader-%d")
+                                          .build());
+            reloader.scheduleWithFixedDelay(this::maybeReload, reloadIntervalMs, reloadIntervalMs,
+                                            TimeUnit.MILLISECONDS);
+        } else {
+            this.reloader = null;
+        }
+    }
+
+    /**
+     * Finds a dictionary by first looking for it in the file system and then in the classpath
+     *
+     * @param filename
+     *            The dictionary file name
+     * @return The URL of the dictionary
+     */
+    public static URL resolveDictionary(String filename) {
+        Path path = Paths.get(filename);
+        if (Files.isRegularFile(path)) {
+            try {
+                return path.toUri().toURL();
+            } catch (MalformedURLException e) {
+                throw new IllegalArgumentException("Can't read dictionary. Specified: " + filename,
+                                                   e);
+            }
+        }
+        try {
+            return Resources.getResource(filename);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Can't find dictionary. Specified: " + filename, e);
+        }
+    }
+
+    /**
+     * Stops reloading the dictionary
+     */
+    @Override
+    public void close() {
+        if (reloader != null) {
+            reloader.shutdownNow();
+        }
+    }
+
+    @Override
+    public List<EntityMention> extractEntities(String message) {
+        AhoCorasickAutomaton currentAutomaton = automaton;
+        List<String> terms = currentAutomaton.getTerms();
+        List<EntityMention> matches = Lists.newArrayList();
+        currentAutomaton.match(message, (termIndex, start, end) -> {
+            if (isWordBoundary(message, start - 1) && isWordBoundary(message, end)) {
+                matches.add(new EntityMention(terms.get(termIndex), start, end));
+            }
+        });
+        if (matches.size() <= 1) {
+            return matches;
+        }
+
+        Collections.sort(matches, LEFTMOST_LONGEST);
+        List<EntityMention> mentions = Lists.newArrayListWithCapacity(matches.size());
+        int lastEnd = 0;
+        for (EntityMention match : matches) {
+            if (match.getStart() >= lastEnd) {
+                mentions.add(match);
+                lastEnd = match.getEnd();
+            }
+        }
+        return mentions;
+    }
+
+    private static boolean isWordBoundary(String message, int index) {
+        return index < 0 || index >= message.length()
+            || !Character.isLetterOrDigit(message.charAt(index));
+    }
+
+    /**
+     * Recompiles the automaton if the dictionary changed since it was last loaded and swaps it in.
+     * If the dictionary can't be read the previous automaton is kept.
+     */
+    @VisibleForTesting
+    protected synchronized void maybeReload() {
+        long modifiedMs = getLastModifiedMs();
+        if (modifiedMs == lastModifiedMs) {
+            return;
+        }
+        try {
+            automaton = AhoCorasickAutomaton.compile(readTerms(dictionaryURL));
+            lastModifiedMs = modifiedMs;
+            LOG.info("Reloaded {} dictionary terms from {}", automaton.getTerms().size(),
+                     dictionaryURL);
+        } catch (RuntimeException e) {
+            LOG.error("Can't reload dictionary {}. Keeping the previous one", dictionaryURL, e);
+        }
+    }
+
+    /**
+     * @return The path of a dictionary in the file system or null if it's somewhere else, such as
+     *         inside a jar
+     */
+    private static Path toPath(URL dictionaryURL) {
+        if (!"file".equals(dictionaryURL.getProtocol())) {
+            return null;
+        }
+        try {
+            return Paths.get(dictionaryURL.toURI());
+        } catch (URISyntaxException e) {
+            return null;
+        }
+    }
+
+    private long getLastModifiedMs() {
+        if (dictionaryPath == null) {
+            return -1;
+        }
+        try {
+            return Files.getLastModifiedTime(dictionaryPath).toMillis();
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    private static List<String> readTerms(URL dictionaryURL) {
+        List<String> lines;
+        try {
+            lines = Resources.readLines(dictionaryURL, StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Can't read dictionary " + dictionaryURL, e);
+        }
+        ImmutableList.Builder<String> terms = ImmutableList.builder();
+        for (String line : lines) {
+            String term = line.trim();
+            if (term.isEmpty() || term.startsWith("#")) {
+                continue;
+            }
+            terms.add(term);
+        }
+        return terms.build();
+    }
+
+    /**
+     * @return The terms of the currently loaded dictionary
+     */
+    public List<String> getTerms() {
+        return automaton.getTerms();
+    }
+}
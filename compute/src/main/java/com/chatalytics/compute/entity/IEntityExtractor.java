@@ -0,0 +1,27 @@
+package com.chatalytics.compute.entity;
+
+import java.io.Closeable;
+import java.util.List;
+
+/**
+ * Interface for extracting entities out of the text of a chat message.
+ */
+public interface IEntityExtractor extends Closeable {
+
+    /**
+     * Extracts entities from a message. Every mention is returned separately so an entity that
+     * appears twice in the message will be in the result twice.
+     *
+     * @param message
+     *            The text of the message. Can't be null
+     * @return A list of entity mentions in the order they appear in the message
+     */
+    List<EntityMention> extractEntities(String message);
+
+    /**
+     * Releases the resources of the extractor. Extractors that don't hold any do nothing.
+     */
+    @Override
+    default void close() {}
+
+}
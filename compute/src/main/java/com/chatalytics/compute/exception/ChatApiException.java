@@ -0,0 +1,44 @@
+package com.chatalytics.compute.exception;
+
+/**
+ * Thrown when a chat API request fails for good, either because the error can't be retried, the
+ * retries ran out or the circuit breaker of the endpoint is open
+ */
+public class ChatApiException extends RuntimeException {
+
+    private static final long serialVersionUID = -2871593062755134129L;
+
+    /**
+     * The status when there was no HTTP response
+     */
+    public static final int NO_STATUS = -1;
+
+    private final String endpoint;
+    private final int status;
+
+    public ChatApiException(String endpoint, int status, String msg) {
+        super(msg);
+        this.endpoint = endpoint;
+        this.status = status;
+    }
+
+    public ChatApiException(String endpoint, int status, String msg, Throwable cause) {
+        super(msg, cause);
+        this.endpoint = endpoint;
+        this.status = status;
+    }
+
+    /**
+     * @return The path of the endpoint that failed
+     */
+    public String getEndpoint() {
+        return endpoint;
+    }
+
+    /**
+     * @return The HTTP status of the last response or {@link #NO_STATUS} if there was none
+     */
+    public int getStatus() {
+        return status;
+    }
+}
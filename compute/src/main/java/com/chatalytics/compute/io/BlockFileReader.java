@@ -0,0 +1,170 @@
+package com.chatalytics.compute.io;
+
+import com.google.common.collect.Lists;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reads back the records of a file written by a {@link BlockFileWriter}, one block at a time. A
+ * torn or corrupt block ends the file, since that's what a writer that crashed while writing it
+ * leaves behind. Records that can't be decoded are logged and skipped.
+ * <p/>
+ * The reader is not thread safe.
+ *
+ * @param <T>
+ *            The type of the records
+ */
+public class BlockFileReader<T> implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(BlockFileReader.class);
+    private static final int MAX_BLOCK_BYTES = 256 * 1024 * 1024;
+    private static final int READ_BUFFER_BYTES = 256 * 1024;
+
+    private final Path path;
+    private final IRecordCodec<T> codec;
+    private final DataInputStream in;
+    private final Inflater inflater;
+    private final CRC32 crc;
+
+    private byte[] block;
+    private byte[] compressed;
+
+    /**
+     * @param path
+     *            The file to read
+     * @param codec
+     *            Converts bytes back to records
+     * @throws IOException
+     *             If the file can't be opened or is not a block file
+     */
+    public BlockFileReader(Path path, IRecordCodec<T> codec) throws IOException {
+        this.path = path;
+        this.codec = codec;
+        this.in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path),
+                                                              READ_BUFFER_BYTES));
+        this.inflater = new Inflater(true);
+        this.crc = new CRC32();
+        this.block = new byte[0];
+        this.compressed = new byte[0];
+        try {
+            if (in.readInt() != BlockFileWriter.MAGIC) {
+                throw new IOException(path + " is not a block file");
+            }
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * Reads and decodes the next block
+     *
+     * @return The records of the block or null at the end of the file
+     * @throws IOException
+     *             If the file can't be read
+     */
+    public List<T> nextBlock() throws IOException {
+        int numRecords;
+        try {
+            numRecords = in.readInt();
+        } catch (EOFException e) {
+            return null;
+        }
+        int blockLength;
+        try {
+            blockLength = in.readInt();
+            int compressedLength = in.readInt();
+            int checksum = in.readInt();
+            if (numRecords < 0 || blockLength < 0 || blockLength > MAX_BLOCK_BYTES
+                    || compressedLength < 0 || compressedLength > MAX_BLOCK_BYTES) {
+                LOG.warn("Invalid block header in {}. Ignoring the rest of the file", path);
+                return null;
+            }
+            if (compressed.length < compressedLength) {
+                compressed = new byte[compressedLength];
+            }
+            in.readFully(compressed, 0, compressedLength);
+            crc.reset();
+            crc.update(compressed, 0, compressedLength);
+            if ((int) crc.getValue() != checksum) {
+                LOG.warn("Block checksum mismatch in {}. Ignoring the rest of the file", path);
+                return null;
+            }
+            inflate(compressedLength, blockLength);
+        } catch (EOFException e) {
+            LOG.warn("Torn block at the end of {}. Ignoring it", path);
+            return null;
+        } catch (DataFormatException e) {
+            LOG.warn("Can't inflate block in {}. Ignoring the rest of the file", path, e);
+            return null;
+        }
+        return decodeRecords(numRecords, blockLength);
+    }
+
+    private void inflate(int compressedLength, int blockLength) throws DataFormatException {
+        if (block.length < blockLength) {
+            block = new byte[blockLength];
+        }
+        inflater.reset();
+        inflater.setInput(compressed, 0, compressedLength);
+        int inflated = 0;
+        while (inflated < blockLength && !inflater.finished()) {
+            int bytes = inflater.inflate(block, inflated, blockLength - inflated);
+            if (bytes == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                break;
+            }
+            inflated += bytes;
+        }
+        if (inflated != blockLength) {
+            throw new DataFormatException("Inflated " + inflated + " bytes instead of "
+                + blockLength);
+        }
+    }
+
+    private List<T> decodeRecords(int numRecords, int blockLength) {
+        List<T> records =
+            Lists.newArrayListWithCapacity(Math.min(numRecords, blockLength / Integer.BYTES));
+        int position = 0;
+        for (int i = 0; i < numRecords && position + Integer.BYTES <= blockLength; i++) {
+            int length = ((block[position] & 0xFF) << 24) | ((block[position + 1] & 0xFF) << 16)
+                | ((block[position + 2] & 0xFF) << 8) | (block[position + 3] & 0xFF);
+            position += Integer.BYTES;
+            if (length < 0 || position + length > blockLength) {
+                LOG.warn("Invalid record length {} in {}. Skipping the rest of the block", length,
+                         path);
+                break;
+            }
+            try {
+                records.add(codec.decode(Arrays.copyOfRange(block, position, position + length)));
+            } catch (IOException e) {
+                LOG.error("Can't decode record in {}. Skipping", path, e);
+            }
+            position += length;
+        }
+        return records;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    @Override
+    public void close() throws IOException {
+        inflater.end();
+        in.close();
+    }
+}
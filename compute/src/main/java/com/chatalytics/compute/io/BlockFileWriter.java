@@ -0,0 +1,174 @@
+package com.chatalytics.compute.io;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes records to a new file in compressed blocks. Records are buffered until the block reaches
+ * <code>blockBytes</code> uncompressed, or until {@link #flush()} is called, and then the whole
+ * block is deflated and appended to the file. Compressing whole blocks instead of single records
+ * gets a much better ratio on small, similar records like chat messages.
+ * <p/>
+ * The file starts with {@link #MAGIC}. Every block is stored as the number of records in it, its
+ * uncompressed length, its compressed length, a CRC32 of the compressed bytes and the compressed
+ * bytes. Uncompressed, a block is every record stored as its length and its bytes. Files are read
+ * back with a {@link BlockFileReader}.
+ * <p/>
+ * The writer is not thread safe.
+ *
+ * @param <T>
+ *            The type of the records
+ */
+public class BlockFileWriter<T> implements Closeable {
+
+    /**
+     * The first bytes of every block file
+     */
+    public static final int MAGIC = 0x43484231;
+    /**
+     * The bytes before the compressed bytes of every block
+     */
+    public static final int BLOCK_HEADER_BYTES = 4 * Integer.BYTES;
+
+    private final Path path;
+    private final IRecordCodec<T> codec;
+    private final int blockBytes;
+    private final FileChannel channel;
+    private final Deflater deflater;
+    private final CRC32 crc;
+
+    private byte[] block;
+    private int blockLength;
+    private int blockRecords;
+    private byte[] compressed;
+    private long bytesWritten;
+
+    /**
+     * Creates the file at <code>path</code>. Existing files are never appended to.
+     *
+     * @param path
+     *            The file to create
+     * @param codec
+     *            Converts records to bytes
+     * @param blockBytes
+     *            The uncompressed size after which a block is written
+     * @throws IOException
+     *             If the file exists or can't be created
+     */
+    public BlockFileWriter(Path path, IRecordCodec<T> codec, int blockBytes) throws IOException {
+        this.path = path;
+        this.codec = codec;
+        this.blockBytes = blockBytes;
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW,
+                                        StandardOpenOption.WRITE);
+        this.deflater = new Deflater(Deflater.BEST_SPEED, true);
+        this.crc = new CRC32();
+        this.block = new byte[blockBytes + Integer.BYTES];
+        this.compressed = new byte[blockBytes + Integer.BYTES];
+
+        ByteBuffer magic = ByteBuffer.allocate(Integer.BYTES);
+        magic.putInt(MAGIC);
+        magic.flip();
+        writeFully(magic);
+    }
+
+    /**
+     * Adds a record to the current block and writes the block if it's full
+     *
+     * @param record
+     *            The record to append
+     * @throws IOException
+     *             If the record can't be encoded or the block can't be written
+     */
+    public void append(T record) throws IOException {
+        byte[] bytes = codec.encode(record);
+        int recordBytes = Integer.BYTES + bytes.length;
+        if (blockLength + recordBytes > block.length) {
+            block = Arrays.copyOf(block, Math.max(2 * block.length, blockLength + recordBytes));
+        }
+        block[blockLength] = (byte) (bytes.length >>> 24);
+        block[blockLength + 1] = (byte) (bytes.length >>> 16);
+        block[blockLength + 2] = (byte) (bytes.length >>> 8);
+        block[blockLength + 3] = (byte) bytes.length;
+        System.arraycopy(bytes, 0, block, blockLength + Integer.BYTES, bytes.length);
+        blockLength += recordBytes;
+        blockRecords++;
+        if (blockLength >= blockBytes) {
+            flush();
+        }
+    }
+
+    /**
+     * Compresses and writes the current block, even if it's not full
+     *
+     * @throws IOException
+     *             If the block can't be written
+     */
+    public void flush() throws IOException {
+        if (blockRecords == 0) {
+            return;
+        }
+        deflater.reset();
+        deflater.setInput(block, 0, blockLength);
+        deflater.finish();
+        int compressedLength = 0;
+        while (!deflater.finished()) {
+            if (compressedLength == compressed.length) {
+                compressed = Arrays.copyOf(compressed, 2 * compressed.length);
+            }
+            compressedLength += deflater.deflate(compressed, compressedLength,
+                                                 compressed.length - compressedLength);
+        }
+        crc.reset();
+        crc.update(compressed, 0, compressedLength);
+
+        ByteBuffer header = ByteBuffer.allocate(BLOCK_HEADER_BYTES);
+        header.putInt(blockRecords);
+        header.putInt(blockLength);
+        header.putInt(compressedLength);
+        header.putInt((int) crc.getValue());
+        header.flip();
+        writeFully(header);
+        writeFully(ByteBuffer.wrap(compressed, 0, compressedLength));
+
+        blockLength = 0;
+        blockRecords = 0;
+    }
+
+    /**
+     * @return The number of bytes written to the file so far, not counting the current block
+     */
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    private void writeFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            bytesWritten += channel.write(buffer);
+        }
+    }
+
+    /**
+     * Writes the current block and closes the file
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            deflater.end();
+            channel.close();
+        }
+    }
+}
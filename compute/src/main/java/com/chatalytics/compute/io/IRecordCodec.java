@@ -0,0 +1,17 @@
+package com.chatalytics.compute.io;
+
+import java.io.IOException;
+
+/**
+ * Converts records to and from bytes so they can be written to local files
+ *
+ * @param <T>
+ *            The type of the record
+ */
+public interface IRecordCodec<T> {
+
+    byte[] encode(T record) throws IOException;
+
+    T decode(byte[] bytes) throws IOException;
+
+}
@@ -0,0 +1,432 @@
+package com.chatalytics.compute.io;
+
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.zip.CRC32;
+
+/**
+ * Durable, append-only log of records. Every appended record gets an increasing offset. Once a
+ * record has been fully processed it's marked as complete, and the committed offset is the
+ * smallest offset that isn't complete yet. On startup every record from the committed offset on
+ * can be replayed, so records that were received but not processed before a crash aren't lost.
+ * <p/>
+ * Records are written sequentially to segment files named after the offset of their first record.
+ * Each record is stored as its length, a CRC32 of its bytes and the bytes. Writes are buffered and
+ * the journal is synced to disk once every <code>syncBatchSize</code> records, or when
+ * {@link #maybeSync()} is called and the last sync is older than <code>syncIntervalMs</code>.
+ * Torn records at the end of the last segment are truncated when the journal is opened. Segments
+ * that only contain committed records are deleted.
+ * <p/>
+ * The journal is thread safe.
+ *
+ * @param <T>
+ *            The type of the records
+ */
+public class Journal<T> implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(Journal.class);
+
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String COMMITTED_OFFSET_FILE = "committed";
+    private static final int RECORD_HEADER_BYTES = 2 * Integer.BYTES;
+    private static final int WRITE_BUFFER_BYTES = 64 * 1024;
+
+    private final Path directory;
+    private final IRecordCodec<T> codec;
+    private final long segmentBytes;
+    private final int syncBatchSize;
+    private final long syncIntervalMs;
+
+    private final NavigableMap<Long, Path> segments;
+    private final NavigableSet<Long> incompleteOffsets;
+    private final ByteBuffer writeBuffer;
+    private final CRC32 crc;
+
+    private FileChannel activeSegment;
+    private long activeSegmentBytes;
+    private long nextOffset;
+    private long persistedCommittedOffset;
+    private int unsyncedRecords;
+    private long lastSyncMs;
+
+    /**
+     * Handler that gets called for every replayed record
+     */
+    public interface ReplayHandler<T> {
+
+        void onRecord(long offset, T record);
+    }
+
+    /**
+     * Opens the journal in <code>directory</code>, creating it if needed. Records from the last
+     * committed offset on are considered incomplete until they're replayed and completed.
+     *
+     * @param directory
+     *            The directory of the journal
+     * @param codec
+     *            Converts records to and from bytes
+     * @param segmentBytes
+     *            The size after which a new segment is started
+     * @param syncBatchSize
+     *            The number of appended records after which the journal is synced
+     * @param syncIntervalMs
+     *            The maximum time appended records stay unsynced, as long as
+     *            {@link #maybeSync()} gets called
+     * @throws IOException
+     *             If the journal can't be read or opened for writing
+     */
+    public Journal(Path directory, IRecordCodec<T> codec, long segmentBytes, int syncBatchSize,
+                   long syncIntervalMs) throws IOException {
+        this.directory = directory;
+        this.codec = codec;
+        this.segmentBytes = segmentBytes;
+        this.syncBatchSize = syncBatchSize;
+        this.syncIntervalMs = syncIntervalMs;
+        this.segments = Maps.newTreeMap();
+        this.incompleteOffsets = Sets.newTreeSet();
+        this.writeBuffer = ByteBuffer.allocate(WRITE_BUFFER_BYTES);
+        this.crc = new CRC32();
+
+        Files.createDirectories(directory);
+        try (DirectoryStream<Path> segmentPaths =
+                Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path segmentPath : segmentPaths) {
+                segments.put(getBaseOffset(segmentPath), segmentPath);
+            }
+        }
+
+        long committedOffset = readCommittedOffset();
+        if (segments.isEmpty()) {
+            nextOffset = committedOffset;
+            openNewSegment();
+        } else {
+            Map.Entry<Long, Path> lastSegment = segments.lastEntry();
+            long validBytes = recoverSegment(lastSegment.getKey(), lastSegment.getValue());
+            activeSegment = FileChannel.open(lastSegment.getValue(), StandardOpenOption.WRITE);
+            activeSegment.truncate(validBytes);
+            activeSegment.position(validBytes);
+            activeSegmentBytes = validBytes;
+        }
+        if (committedOffset > nextOffset) {
+            LOG.warn("Journal ends at {} before the committed offset {}. Records were lost",
+                     nextOffset, committedOffset);
+            activeSegment.close();
+            nextOffset = committedOffset;
+            openNewSegment();
+        } else if (committedOffset < segments.firstKey()) {
+            committedOffset = segments.firstKey();
+        }
+        for (long offset = committedOffset; offset < nextOffset; offset++) {
+            incompleteOffsets.add(offset);
+        }
+        persistedCommittedOffset = committedOffset;
+        lastSyncMs = System.currentTimeMillis();
+        LOG.info("Opened journal {}. Committed offset {}, next offset {}", directory,
+                 committedOffset, nextOffset);
+    }
+
+    /**
+     * Reads through the last segment to find where the next record goes. Anything after the last
+     * record that can be read back intact is dropped.
+     *
+     * @return The number of valid bytes in the segment
+     */
+    private long recoverSegment(long baseOffset, Path segmentPath) {
+        long validBytes = 0;
+        long offset = baseOffset;
+        try (DataInputStream in = openSegment(segmentPath)) {
+            byte[] bytes;
+            while ((bytes = readRecord(in)) != null) {
+                validBytes += RECORD_HEADER_BYTES + bytes.length;
+                offset++;
+            }
+        } catch (IOException e) {
+            LOG.warn("Truncating torn record at offset {} in {}", offset, segmentPath);
+        }
+        nextOffset = offset;
+        return validBytes;
+    }
+
+    /**
+     * Appends a record to the journal. The record is incomplete until {@link #complete(long)} is
+     * called with its offset.
+     *
+     * @param record
+     *            The record to append
+     * @return The offset of the record
+     * @throws IOException
+     *             If the record can't be written
+     */
+    public synchronized long append(T record) throws IOException {
+        byte[] bytes = codec.encode(record);
+        int recordBytes = RECORD_HEADER_BYTES + bytes.length;
+        if (activeSegmentBytes > 0 && activeSegmentBytes + recordBytes > segmentBytes) {
+            rollSegment();
+        }
+        crc.reset();
+        crc.update(bytes, 0, bytes.length);
+        if (writeBuffer.remaining() < recordBytes) {
+            flushWriteBuffer();
+        }
+        if (writeBuffer.remaining() >= recordBytes) {
+            writeBuffer.putInt(bytes.length);
+            writeBuffer.putInt((int) crc.getValue());
+            writeBuffer.put(bytes);
+        } else {
+            ByteBuffer recordBuffer = ByteBuffer.allocate(recordBytes);
+            recordBuffer.putInt(bytes.length);
+            recordBuffer.putInt((int) crc.getValue());
+            recordBuffer.put(bytes);
+            recordBuffer.flip();
+            writeFully(recordBuffer);
+        }
+        activeSegmentBytes += recordBytes;
+
+        long offset = nextOffset++;
+        incompleteOffsets.add(offset);
+        if (++unsyncedRecords >= syncBatchSize) {
+            sync();
+        }
+        return offset;
+    }
+
+    /**
+     * Marks a record as completely processed
+     *
+     * @param offset
+     *            The offset of the record
+     */
+    public synchronized void complete(long offset) {
+        incompleteOffsets.remove(offset);
+    }
+
+    /**
+     * @return The smallest offset that hasn't been completed yet, or the next offset if every
+     *         record is complete
+     */
+    public synchronized long getCommittedOffset() {
+        return incompleteOffsets.isEmpty() ? nextOffset : incompleteOffsets.first();
+    }
+
+    public synchronized long getNextOffset() {
+        return nextOffset;
+    }
+
+    /**
+     * Writes buffered records to disk and forces them to the storage device
+     *
+     * @throws IOException
+     *             If the records can't be written
+     */
+    public synchronized void sync() throws IOException {
+        flushWriteBuffer();
+        activeSegment.force(false);
+        unsyncedRecords = 0;
+        lastSyncMs = System.currentTimeMillis();
+    }
+
+    /**
+     * Syncs unsynced records and persists the committed offset if the sync interval has passed.
+     * This should be called regularly, for example every time a spout is asked for a tuple.
+     *
+     * @throws IOException
+     *             If the journal can't be written
+     */
+    public synchronized void maybeSync() throws IOException {
+        if (System.currentTimeMillis() - lastSyncMs < syncIntervalMs) {
+            return;
+        }
+        if (unsyncedRecords > 0) {
+            sync();
+        } else {
+            lastSyncMs = System.currentTimeMillis();
+        }
+        commit();
+    }
+
+    /**
+     * Persists the committed offset and deletes the segments that only contain committed records
+     *
+     * @throws IOException
+     *             If the committed offset can't be written
+     */
+    public synchronized void commit() throws IOException {
+        long committedOffset = getCommittedOffset();
+        if (committedOffset == persistedCommittedOffset) {
+            return;
+        }
+        Path committedPath = directory.resolve(COMMITTED_OFFSET_FILE);
+        Path tempPath = directory.resolve(COMMITTED_OFFSET_FILE + ".tmp");
+        Files.write(tempPath, Long.toString(committedOffset).getBytes(StandardCharsets.UTF_8));
+        Files.move(tempPath, committedPath, StandardCopyOption.REPLACE_EXISTING,
+                   StandardCopyOption.ATOMIC_MOVE);
+        persistedCommittedOffset = committedOffset;
+
+        // a segment can go when the next one starts at or before the committed offset
+        while (segments.size() > 1) {
+            Map.Entry<Long, Path> firstSegment = segments.firstEntry();
+            if (segments.higherKey(firstSegment.getKey()) > committedOffset) {
+                break;
+            }
+            Files.deleteIfExists(firstSegment.getValue());
+            segments.remove(firstSegment.getKey());
+        }
+    }
+
+    /**
+     * Calls the handler for every record from the committed offset on, in order. Records that
+     * can't be decoded are logged and completed. This is meant to be called once, right after the
+     * journal is opened.
+     *
+     * @param handler
+     *            The handler to call for each record
+     * @throws IOException
+     *             If the journal can't be read
+     */
+    public synchronized void replay(ReplayHandler<T> handler) throws IOException {
+        flushWriteBuffer();
+        long committedOffset = getCommittedOffset();
+        Long firstSegment = segments.floorKey(committedOffset);
+        if (firstSegment == null) {
+            return;
+        }
+        long endOffset = nextOffset;
+        for (Map.Entry<Long, Path> segment : segments.tailMap(firstSegment, true).entrySet()) {
+            long offset = segment.getKey();
+            try (DataInputStream in = openSegment(segment.getValue())) {
+                byte[] bytes;
+                while (offset < endOffset && (bytes = readRecord(in)) != null) {
+                    if (offset >= committedOffset) {
+                        replayRecord(offset, bytes, handler);
+                    }
+                    offset++;
+                }
+            }
+        }
+    }
+
+    private void replayRecord(long offset, byte[] bytes, ReplayHandler<T> handler) {
+        T record;
+        try {
+            record = codec.decode(bytes);
+        } catch (IOException e) {
+            LOG.error("Can't decode journal record at offset {}. Skipping", offset, e);
+            complete(offset);
+            return;
+        }
+        handler.onRecord(offset, record);
+    }
+
+    /**
+     * Reads the next record of a segment
+     *
+     * @return The record bytes, or null at the end of the segment
+     * @throws IOException
+     *             If the record is torn or corrupt
+     */
+    private byte[] readRecord(DataInputStream in) throws IOException {
+        int length;
+        try {
+            length = in.readInt();
+        } catch (EOFException e) {
+            return null;
+        }
+        int checksum = in.readInt();
+        if (length < 0 || length > segmentBytes) {
+            throw new IOException("Invalid record length " + length);
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        crc.reset();
+        crc.update(bytes, 0, length);
+        if ((int) crc.getValue() != checksum) {
+            throw new IOException("Record checksum mismatch");
+        }
+        return bytes;
+    }
+
+    private void rollSegment() throws IOException {
+        sync();
+        activeSegment.close();
+        openNewSegment();
+    }
+
+    private void openNewSegment() throws IOException {
+        Path segmentPath = directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, nextOffset,
+                                                           SEGMENT_SUFFIX));
+        activeSegment = FileChannel.open(segmentPath, StandardOpenOption.CREATE,
+                                         StandardOpenOption.TRUNCATE_EXISTING,
+                                         StandardOpenOption.WRITE);
+        activeSegmentBytes = 0;
+        segments.put(nextOffset, segmentPath);
+    }
+
+    private void flushWriteBuffer() throws IOException {
+        writeBuffer.flip();
+        writeFully(writeBuffer);
+        writeBuffer.clear();
+    }
+
+    private void writeFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            activeSegment.write(buffer);
+        }
+    }
+
+    private DataInputStream openSegment(Path segmentPath) throws IOException {
+        InputStream in = Files.newInputStream(segmentPath);
+        return new DataInputStream(new BufferedInputStream(in));
+    }
+
+    private long readCommittedOffset() throws IOException {
+        Path committedPath = directory.resolve(COMMITTED_OFFSET_FILE);
+        if (!Files.exists(committedPath)) {
+            return 0;
+        }
+        String committedStr = new String(Files.readAllBytes(committedPath), StandardCharsets.UTF_8);
+        try {
+            return Long.parseLong(committedStr.trim());
+        } catch (NumberFormatException e) {
+            LOG.warn("Can't parse committed offset {}. Replaying everything", committedStr);
+            return 0;
+        }
+    }
+
+    private static long getBaseOffset(Path segmentPath) {
+        String fileName = segmentPath.getFileName().toString();
+        return Long.parseLong(fileName.substring(SEGMENT_PREFIX.length(),
+                                                 fileName.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    /**
+     * Syncs the journal, persists the committed offset and closes the active segment
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        sync();
+        commit();
+        activeSegment.close();
+    }
+}
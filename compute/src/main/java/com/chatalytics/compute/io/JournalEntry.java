@@ -0,0 +1,39 @@
+package com.chatalytics.compute.io;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * A record together with the offset it was given in a {@link Journal}
+ *
+ * @param <T>
+ *            The type of the record
+ */
+public class JournalEntry<T> {
+
+    /**
+     * Offset used for records that weren't journaled
+     */
+    public static final long NO_OFFSET = -1;
+
+    private final long offset;
+    private final T record;
+
+    @JsonCreator
+    public JournalEntry(@JsonProperty("offset") long offset, @JsonProperty("record") T record) {
+        this.offset = offset;
+        this.record = record;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    public T getRecord() {
+        return record;
+    }
+
+    public boolean isJournaled() {
+        return offset != NO_OFFSET;
+    }
+}
@@ -0,0 +1,45 @@
+package com.chatalytics.compute.io;
+
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+
+/**
+ * Record codec that writes records as JSON
+ *
+ * @param <T>
+ *            The type of the record
+ */
+public class JsonRecordCodec<T> implements IRecordCodec<T> {
+
+    private final ObjectMapper objectMapper;
+    private final JavaType recordType;
+
+    public JsonRecordCodec(ObjectMapper objectMapper, Class<T> recordClass) {
+        this(objectMapper, objectMapper.getTypeFactory().constructType(recordClass));
+    }
+
+    /**
+     * Use this for generic records, such as {@link JournalEntry}
+     *
+     * @param objectMapper
+     *            The object mapper to read and write JSON with
+     * @param recordType
+     *            The full type of the record
+     */
+    public JsonRecordCodec(ObjectMapper objectMapper, JavaType recordType) {
+        this.objectMapper = objectMapper;
+        this.recordType = recordType;
+    }
+
+    @Override
+    public byte[] encode(T record) throws IOException {
+        return objectMapper.writeValueAsBytes(record);
+    }
+
+    @Override
+    public T decode(byte[] bytes) throws IOException {
+        return objectMapper.readValue(bytes, recordType);
+    }
+}
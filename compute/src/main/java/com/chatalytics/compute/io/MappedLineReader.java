@@ -0,0 +1,114 @@
+package com.chatalytics.compute.io;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads the lines of a file through read-only memory mapped regions, so lines are read without a
+ * copy through the kernel or a read buffer. The file can keep growing while it's read: a line is
+ * only returned once its newline has been written, and the regions are mapped again from the
+ * current line when the file gets longer.
+ * <p/>
+ * The reader is not thread safe.
+ */
+public class MappedLineReader implements Closeable {
+
+    private static final byte NEWLINE = '\n';
+    private static final byte CARRIAGE_RETURN = '\r';
+
+    private final Path path;
+    private final FileChannel channel;
+    private final int mapRegionBytes;
+
+    private MappedByteBuffer region;
+    private long regionStart;
+    private long position;
+
+    /**
+     * @param path
+     *            The file to read
+     * @param mapRegionBytes
+     *            The size of the regions of the file that are mapped at a time. Longer lines get a
+     *            bigger region
+     * @throws IOException
+     *             If the file can't be opened
+     */
+    public MappedLineReader(Path path, int mapRegionBytes) throws IOException {
+        this.path = path;
+        this.channel = FileChannel.open(path, StandardOpenOption.READ);
+        this.mapRegionBytes = mapRegionBytes;
+    }
+
+    /**
+     * Reads the next line without its line terminator
+     *
+     * @param untilEndOfFile
+     *            If true, the bytes after the last newline are returned as a line once every
+     *            other line has been read. Otherwise they're left until their newline is written
+     * @return The bytes of the line or null if there is no complete line to read
+     * @throws IOException
+     *             If the file can't be read
+     */
+    public byte[] nextLine(boolean untilEndOfFile) throws IOException {
+        while (true) {
+            if (region != null) {
+                int start = (int) (position - regionStart);
+                for (int i = start; i < region.limit(); i++) {
+                    if (region.get(i) == NEWLINE) {
+                        byte[] line = copyLine(start, i);
+                        position = regionStart + i + 1;
+                        return line;
+                    }
+                }
+            }
+            long size = channel.size();
+            long mappedEnd = region == null ? position : regionStart + region.limit();
+            if (mappedEnd >= size) {
+                if (untilEndOfFile && position < size) {
+                    byte[] line = copyLine((int) (position - regionStart), region.limit());
+                    position = size;
+                    return line;
+                }
+                return null;
+            }
+            // map from the current line on, making the region bigger if the line doesn't fit
+            long length = Math.max(mapRegionBytes, mappedEnd - position + mapRegionBytes);
+            length = Math.min(Math.min(length, size - position), Integer.MAX_VALUE);
+            region = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+            regionStart = position;
+        }
+    }
+
+    private byte[] copyLine(int start, int end) {
+        if (end > start && region.get(end - 1) == CARRIAGE_RETURN) {
+            end--;
+        }
+        byte[] line = new byte[end - start];
+        ByteBuffer lineBuffer = region.duplicate();
+        lineBuffer.position(start);
+        lineBuffer.get(line);
+        return line;
+    }
+
+    /**
+     * @return True if every byte that's in the file right now has been read
+     */
+    public boolean isAtEnd() throws IOException {
+        return position >= channel.size();
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    @Override
+    public void close() throws IOException {
+        region = null;
+        channel.close();
+    }
+}
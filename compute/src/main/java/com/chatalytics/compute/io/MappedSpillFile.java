@@ -0,0 +1,239 @@
+package com.chatalytics.compute.io;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Append-only file of length prefixed records that is read back in the order it was written. The
+ * file is accessed through memory mapped regions so appending and reading a record doesn't make a
+ * system call. The read and write positions are kept in a header at the start of the file, so
+ * records that haven't been read yet survive a restart of the process.
+ * <p/>
+ * Once every record has been read the positions go back to the start of the file and the space is
+ * reused. The file is never shrunk. Regions are unmapped as soon as they're replaced, so they don't
+ * pile up until the garbage collector gets to them. This class is not thread safe, and none of its
+ * methods can be called after it's closed.
+ */
+public class MappedSpillFile implements Closeable {
+
+    private static final int HEADER_BYTES = 2 * Long.BYTES;
+    private static final int READ_POSITION_OFFSET = 0;
+    private static final int WRITE_POSITION_OFFSET = Long.BYTES;
+    private static final int LENGTH_BYTES = Integer.BYTES;
+
+    private final Path path;
+    private final FileChannel channel;
+    private final int mapRegionBytes;
+
+    private MappedByteBuffer header;
+    private MappedByteBuffer writeRegion;
+    private MappedByteBuffer readRegion;
+    private long readRegionStart;
+    private long readPosition;
+    private long writePosition;
+    private long unreadRecords;
+
+    /**
+     * Opens a spill file, creating it if it doesn't exist. Unread records of an existing file are
+     * kept.
+     *
+     * @param path
+     *            The file to open
+     * @param mapRegionBytes
+     *            How many bytes to map at a time. Records larger than this get their own region
+     * @throws IOException
+     *             If the file can't be opened or mapped
+     */
+    public MappedSpillFile(Path path, int mapRegionBytes) throws IOException {
+        this.path = path;
+        this.mapRegionBytes = mapRegionBytes;
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                                        StandardOpenOption.WRITE);
+        boolean existing = channel.size() >= HEADER_BYTES;
+        this.header = channel.map(MapMode.READ_WRITE, 0, HEADER_BYTES);
+        if (existing) {
+            readPosition = header.getLong(READ_POSITION_OFFSET);
+            writePosition = header.getLong(WRITE_POSITION_OFFSET);
+        }
+        if (!existing || readPosition < HEADER_BYTES || readPosition > writePosition
+                || writePosition > channel.size()) {
+            resetPositions();
+        } else {
+            unreadRecords = countRecords(readPosition, writePosition);
+        }
+    }
+
+    /**
+     * Walks the length prefixes of the records between <code>start</code> and <code>end</code>
+     *
+     * @return The number of records in that range
+     */
+    private long countRecords(long start, long end) throws IOException {
+        long count = 0;
+        long position = start;
+        while (position < end) {
+            int length = mapForRead(position, LENGTH_BYTES).getInt();
+            if (length < 0) {
+                break;
+            }
+            position += LENGTH_BYTES + length;
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Appends a record to the end of the file
+     *
+     * @param record
+     *            The record to append
+     * @throws IOException
+     *             If a new region of the file can't be mapped
+     */
+    public void append(byte[] record) throws IOException {
+        int recordBytes = LENGTH_BYTES + record.length;
+        if (writeRegion == null || writeRegion.remaining() < recordBytes) {
+            unmap(writeRegion);
+            writeRegion = channel.map(MapMode.READ_WRITE, writePosition,
+                                      Math.max(mapRegionBytes, recordBytes));
+        }
+        writeRegion.putInt(record.length);
+        writeRegion.put(record);
+        writePosition += recordBytes;
+        unreadRecords++;
+        header.putLong(WRITE_POSITION_OFFSET, writePosition);
+    }
+
+    /**
+     * Reads the oldest unread record
+     *
+     * @return The record or null if all the records have been read
+     * @throws IOException
+     *             If a new region of the file can't be mapped
+     */
+    public byte[] poll() throws IOException {
+        if (isEmpty()) {
+            return null;
+        }
+        int length = mapForRead(readPosition, LENGTH_BYTES).getInt();
+        byte[] record = new byte[length];
+        mapForRead(readPosition + LENGTH_BYTES, length).get(record);
+        readPosition += LENGTH_BYTES + length;
+        unreadRecords--;
+
+        if (readPosition == writePosition) {
+            resetPositions();
+        } else {
+            header.putLong(READ_POSITION_OFFSET, readPosition);
+        }
+        return record;
+    }
+
+    /**
+     * @return The read region positioned at <code>position</code>, with at least
+     *         <code>bytes</code> bytes remaining
+     */
+    private MappedByteBuffer mapForRead(long position, int bytes) throws IOException {
+        long readRegionEnd = readRegionStart + (readRegion == null ? 0 : readRegion.capacity());
+        if (readRegion == null || position < readRegionStart || position + bytes > readRegionEnd) {
+            long size = Math.max(bytes, Math.min(mapRegionBytes, channel.size() - position));
+            unmap(readRegion);
+            readRegion = channel.map(MapMode.READ_ONLY, position, size);
+            readRegionStart = position;
+        }
+        readRegion.position((int) (position - readRegionStart));
+        return readRegion;
+    }
+
+    /**
+     * Drops all the unread records
+     */
+    public void clear() {
+        resetPositions();
+    }
+
+    private void resetPositions() {
+        readPosition = HEADER_BYTES;
+        writePosition = HEADER_BYTES;
+        unreadRecords = 0;
+        unmap(readRegion);
+        unmap(writeRegion);
+        readRegion = null;
+        writeRegion = null;
+        header.putLong(READ_POSITION_OFFSET, readPosition);
+        header.putLong(WRITE_POSITION_OFFSET, writePosition);
+    }
+
+    /**
+     * @return True if all the records have been read
+     */
+    public boolean isEmpty() {
+        return readPosition == writePosition;
+    }
+
+    /**
+     * @return The number of bytes taken by records that haven't been read yet
+     */
+    public long getUnreadBytes() {
+        return writePosition - readPosition;
+    }
+
+    /**
+     * @return The number of records that haven't been read yet
+     */
+    public long getUnreadRecords() {
+        return unreadRecords;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * Flushes the mapped regions to disk, unmaps them and closes the file
+     */
+    @Override
+    public void close() throws IOException {
+        if (header == null) {
+            return;
+        }
+        if (writeRegion != null) {
+            writeRegion.force();
+        }
+        header.force();
+        unmap(readRegion);
+        unmap(writeRegion);
+        unmap(header);
+        readRegion = null;
+        writeRegion = null;
+        header = null;
+        channel.close();
+    }
+
+    /**
+     * Releases a mapped region right away instead of waiting for it to be garbage collected. The
+     * region must not be used afterwards. If the JVM doesn't expose the buffer cleaner, the region
+     * is left to the garbage collector.
+     */
+    private static void unmap(MappedByteBuffer region) {
+        if (region == null) {
+            return;
+        }
+        try {
+            Method cleanerMethod = region.getClass().getMethod("cleaner");
+            cleanerMethod.setAccessible(true);
+            Object cleaner = cleanerMethod.invoke(region);
+            if (cleaner != null) {
+                cleaner.getClass().getMethod("clean").invoke(cleaner);
+            }
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // not a direct buffer we can clean, the garbage collector unmaps it eventually
+        }
+    }
+}
@@ -0,0 +1,241 @@
+package com.chatalytics.compute.io;
+
+import com.google.common.collect.Lists;
+
+import org.joda.time.format.DateTimeFormat;
+import org.joda.time.format.DateTimeFormatter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToLongFunction;
+
+/**
+ * Append-only archive of records partitioned by time. Every record goes to the partition
+ * directory of the UTC day of its timestamp and is written with a {@link BlockFileWriter}, so the
+ * archive is compressed and a time range can be read back without going through the rest of it.
+ * <p/>
+ * Every writer has its own files, named after its ID, so several writers can share an archive
+ * directory. Files are never appended to once they're closed: when a partition is written to again
+ * after its file was closed, a new file is started. Up to <code>maxOpenFiles</code> partitions are
+ * kept open at a time and the least recently used one is closed to make room for another.
+ * Buffered records are written once a block fills up, or by {@link #maybeFlush()} once they're
+ * older than <code>flushIntervalMs</code>, so a crash only loses the records that were still
+ * buffered.
+ * <p/>
+ * The archive is thread safe.
+ *
+ * @param <T>
+ *            The type of the records
+ */
+public class RecordArchive<T> implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RecordArchive.class);
+    private static final DateTimeFormatter PARTITION_FORMAT =
+        DateTimeFormat.forPattern("yyyy-MM-dd").withZoneUTC();
+    private static final long PARTITION_MILLIS = TimeUnit.DAYS.toMillis(1);
+    private static final String FILE_SUFFIX = ".blocks";
+
+    private final Path directory;
+    private final String writerId;
+    private final IRecordCodec<T> codec;
+    private final ToLongFunction<T> timestampFunction;
+    private final int blockBytes;
+    private final long flushIntervalMs;
+    private final long sessionMillis;
+    private final LinkedHashMap<String, BlockFileWriter<T>> openFiles;
+
+    private long fileCount;
+    private long lastFlushMs;
+
+    /**
+     * @param directory
+     *            The directory of the archive. It's created if needed
+     * @param writerId
+     *            Unique ID of this writer among the writers of the directory
+     * @param codec
+     *            Converts records to bytes
+     * @param timestampFunction
+     *            Returns the timestamp, in milliseconds, a record is partitioned by
+     * @param blockBytes
+     *            The uncompressed size after which a block is written
+     * @param maxOpenFiles
+     *            The maximum number of partitions that are open at a time
+     * @param flushIntervalMs
+     *            The maximum time records stay buffered, as long as {@link #maybeFlush()} gets
+     *            called
+     * @throws IOException
+     *             If the directory can't be created
+     */
+    public RecordArchive(Path directory, String writerId, IRecordCodec<T> codec,
+                         ToLongFunction<T> timestampFunction, int blockBytes, int maxOpenFiles,
+                         long flushIntervalMs) throws IOException {
+        this.directory = directory;
+        this.writerId = writerId;
+        this.codec = codec;
+        this.timestampFunction = timestampFunction;
+        this.blockBytes = blockBytes;
+        this.flushIntervalMs = flushIntervalMs;
+        this.sessionMillis = System.currentTimeMillis();
+        this.lastFlushMs = sessionMillis;
+        this.openFiles = new LinkedHashMap<String, BlockFileWriter<T>>(16, 0.75f, true) {
+
+            private static final long serialVersionUID = 2817614917474117208L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, BlockFileWriter<T>> eldest) {
+                if (size() <= maxOpenFiles) {
+                    return false;
+                }
+                closeFile(eldest.getValue());
+                return true;
+            }
+        };
+        Files.createDirectories(directory);
+    }
+
+    /**
+     * Appends a record to the partition of its timestamp
+     *
+     * @param record
+     *            The record to append
+     * @throws IOException
+     *             If the record can't be written
+     */
+    public synchronized void append(T record) throws IOException {
+        String partition = getPartition(timestampFunction.applyAsLong(record));
+        BlockFileWriter<T> writer = openFiles.get(partition);
+        if (writer == null) {
+            Path partitionPath = directory.resolve(partition);
+            Files.createDirectories(partitionPath);
+            String fileName = String.format("%s-%d-%06d%s", writerId, sessionMillis, fileCount++,
+                                            FILE_SUFFIX);
+            writer = new BlockFileWriter<>(partitionPath.resolve(fileName), codec, blockBytes);
+            openFiles.put(partition, writer);
+        }
+        writer.append(record);
+    }
+
+    /**
+     * Writes the buffered records if the flush interval has passed. This should be called
+     * regularly, for example every time a spout is asked for a tuple.
+     *
+     * @throws IOException
+     *             If the records can't be written
+     */
+    public synchronized void maybeFlush() throws IOException {
+        if (System.currentTimeMillis() - lastFlushMs >= flushIntervalMs) {
+            flush();
+        }
+    }
+
+    /**
+     * Writes the buffered records of every open partition
+     *
+     * @throws IOException
+     *             If the records can't be written
+     */
+    public synchronized void flush() throws IOException {
+        for (BlockFileWriter<T> writer : openFiles.values()) {
+            writer.flush();
+        }
+        lastFlushMs = System.currentTimeMillis();
+    }
+
+    private void closeFile(BlockFileWriter<T> writer) {
+        try {
+            writer.close();
+        } catch (IOException e) {
+            LOG.error("Archive file {} did not close cleanly", writer.getPath(), e);
+        }
+    }
+
+    /**
+     * @return The partition of <code>timestampMillis</code>
+     */
+    public static String getPartition(long timestampMillis) {
+        return PARTITION_FORMAT.print(timestampMillis);
+    }
+
+    /**
+     * Lists the files of the partitions that overlap a time range, in partition order. Files in
+     * the range can still contain records outside of it, since partitions are whole days.
+     *
+     * @param directory
+     *            The directory of the archive
+     * @param startMillis
+     *            The start of the range inclusive
+     * @param endMillis
+     *            The end of the range exclusive
+     * @return The files of the partitions in the range
+     * @throws IOException
+     *             If the archive can't be listed
+     */
+    public static List<Path> listFiles(Path directory, long startMillis, long endMillis)
+            throws IOException {
+        List<Path> partitions = Lists.newArrayList();
+        if (!Files.isDirectory(directory)) {
+            return partitions;
+        }
+        try (DirectoryStream<Path> partitionPaths = Files.newDirectoryStream(directory)) {
+            for (Path partitionPath : partitionPaths) {
+                long partitionStartMillis;
+                try {
+                    String partition = partitionPath.getFileName().toString();
+                    partitionStartMillis = PARTITION_FORMAT.parseMillis(partition);
+                } catch (IllegalArgumentException e) {
+                    LOG.debug("Skipping {} since it's not a partition", partitionPath);
+                    continue;
+                }
+                if (partitionStartMillis < endMillis
+                        && partitionStartMillis + PARTITION_MILLIS > startMillis
+                        && Files.isDirectory(partitionPath)) {
+                    partitions.add(partitionPath);
+                }
+            }
+        }
+        Collections.sort(partitions);
+
+        List<Path> files = Lists.newArrayList();
+        for (Path partitionPath : partitions) {
+            List<Path> partitionFiles = Lists.newArrayList();
+            try (DirectoryStream<Path> filePaths =
+                    Files.newDirectoryStream(partitionPath, "*" + FILE_SUFFIX)) {
+                filePaths.forEach(partitionFiles::add);
+            }
+            Collections.sort(partitionFiles);
+            files.addAll(partitionFiles);
+        }
+        return files;
+    }
+
+    /**
+     * Writes the buffered records and closes every open file
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        IOException closeException = null;
+        for (Iterator<BlockFileWriter<T>> it = openFiles.values().iterator(); it.hasNext();) {
+            BlockFileWriter<T> writer = it.next();
+            it.remove();
+            try {
+                writer.close();
+            } catch (IOException e) {
+                closeException = e;
+            }
+        }
+        if (closeException != null) {
+            throw closeException;
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package com.chatalytics.compute.io;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Queue;
+
+/**
+ * FIFO queue that keeps up to a fixed number of records in memory and overflows the rest to a
+ * {@link MappedSpillFile}. Records are taken from memory first and then from the spill file. Once
+ * anything has been spilled, new records also go to the spill file until it's drained, so the
+ * queue stays in insertion order.
+ * <p/>
+ * The queue is thread safe so one thread can add records while another one polls them.
+ *
+ * @param <T>
+ *            The type of the records in the queue
+ */
+public class SpillingQueue<T> implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SpillingQueue.class);
+
+    private final int maxInMemory;
+    private final Queue<T> memoryQueue;
+    private final MappedSpillFile spillFile;
+    private final IRecordCodec<T> codec;
+
+    /**
+     * @param maxInMemory
+     *            The maximum number of records kept in memory
+     * @param spillFile
+     *            The file to overflow to. Unread records already in the file are returned before
+     *            any new ones
+     * @param codec
+     *            Converts records to and from bytes for the spill file
+     */
+    public SpillingQueue(int maxInMemory, MappedSpillFile spillFile, IRecordCodec<T> codec) {
+        this.maxInMemory = maxInMemory;
+        this.memoryQueue = new ArrayDeque<>();
+        this.spillFile = spillFile;
+        this.codec = codec;
+        if (!spillFile.isEmpty()) {
+            LOG.info("Recovered {} spilled bytes from {}", spillFile.getUnreadBytes(),
+                     spillFile.getPath());
+        }
+    }
+
+    /**
+     * Adds a record to the end of the queue. If the spill file can't be written the record is kept
+     * in memory instead.
+     *
+     * @param record
+     *            The record to add
+     */
+    public synchronized void add(T record) {
+        if (memoryQueue.size() < maxInMemory && spillFile.isEmpty()) {
+            memoryQueue.add(record);
+            return;
+        }
+        try {
+            spillFile.append(codec.encode(record));
+        } catch (IOException e) {
+            LOG.error("Can't spill record to {}. Keeping it in memory", spillFile.getPath(), e);
+            memoryQueue.add(record);
+        }
+    }
+
+    /**
+     * Removes and returns the oldest record. Spilled records that can't be decoded are skipped.
+     *
+     * @return The oldest record or null if the queue is empty
+     */
+    public synchronized T poll() {
+        T record = memoryQueue.poll();
+        while (record == null && !spillFile.isEmpty()) {
+            byte[] bytes;
+            try {
+                bytes = spillFile.poll();
+            } catch (IOException e) {
+                LOG.error("Can't read from spill file {}", spillFile.getPath(), e);
+                return null;
+            }
+            try {
+                record = codec.decode(bytes);
+            } catch (IOException e) {
+                LOG.error("Can't read spilled record from {}. Skipping", spillFile.getPath(), e);
+            }
+        }
+        return record;
+    }
+
+    /**
+     * Drops every record in memory and in the spill file
+     */
+    public synchronized void clear() {
+        memoryQueue.clear();
+        spillFile.clear();
+    }
+
+    public synchronized boolean isEmpty() {
+        return memoryQueue.isEmpty() && spillFile.isEmpty();
+    }
+
+    /**
+     * @return The number of records in the queue, both in memory and in the spill file
+     */
+    public synchronized long size() {
+        return memoryQueue.size() + spillFile.getUnreadRecords();
+    }
+
+    /**
+     * @return The number of records held in memory
+     */
+    public synchronized int getInMemorySize() {
+        return memoryQueue.size();
+    }
+
+    /**
+     * @return The number of bytes of records waiting in the spill file
+     */
+    public synchronized long getSpilledBytes() {
+        return spillFile.getUnreadBytes();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        spillFile.close();
+    }
+}
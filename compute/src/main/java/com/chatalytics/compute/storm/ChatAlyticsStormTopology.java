@@ -4,12 +4,15 @@ import com.chatalytics.compute.storm.bolt.EmojiCounterBolt;
 import com.chatalytics.compute.storm.bolt.EntityExtractionBolt;
 import com.chatalytics.compute.storm.bolt.MessageSummaryBolt;
 import com.chatalytics.compute.storm.bolt.RealtimeBolt;
+import com.chatalytics.compute.storm.spout.ArchiveSpout;
 import com.chatalytics.compute.storm.spout.HipChatMessageSpout;
+import com.chatalytics.compute.storm.spout.JsonlReplaySpout;
 import com.chatalytics.compute.storm.spout.LocalTestSpout;
 import com.chatalytics.compute.storm.spout.SlackBackfillSpout;
 import com.chatalytics.compute.storm.spout.SlackMessageSpout;
 import com.chatalytics.core.InputSourceType;
 import com.chatalytics.core.config.ChatAlyticsConfig;
+import com.chatalytics.core.config.LocalTestConfig;
 
 import org.apache.storm.generated.StormTopology;
 import org.apache.storm.topology.TopologyBuilder;
@@ -26,7 +29,12 @@ public class ChatAlyticsStormTopology {
         InputSourceType type = config.inputType;
         TopologyBuilder topologyBuilder = new TopologyBuilder();
         String inputSpoutId;
-        if (type == InputSourceType.HIPCHAT) {
+        if (config.computeConfig.archiveReplayEnabled) {
+            // the chat config is still needed by the bolts, so the input type is left as is
+            inputSpoutId = ArchiveSpout.SPOUT_ID;
+            topologyBuilder.setSpout(inputSpoutId, new ArchiveSpout(),
+                                     config.computeConfig.archiveReplayParallelism);
+        } else if (type == InputSourceType.HIPCHAT) {
             inputSpoutId = HipChatMessageSpout.SPOUT_ID;
             topologyBuilder.setSpout(inputSpoutId, new HipChatMessageSpout());
         } else if (type == InputSourceType.SLACK) {
@@ -35,6 +43,9 @@ public class ChatAlyticsStormTopology {
         } else if (type == InputSourceType.SLACK_BACKFILL) {
             inputSpoutId = SlackBackfillSpout.SPOUT_ID;
             topologyBuilder.setSpout(inputSpoutId, new SlackBackfillSpout());
+        } else if (type == InputSourceType.LOCAL_TEST && isReplayingFiles(config)) {
+            inputSpoutId = JsonlReplaySpout.SPOUT_ID;
+            topologyBuilder.setSpout(inputSpoutId, new JsonlReplaySpout());
         } else if (type == InputSourceType.LOCAL_TEST) {
             inputSpoutId = LocalTestSpout.SPOUT_ID;
             topologyBuilder.setSpout(inputSpoutId, new LocalTestSpout());
@@ -64,4 +75,12 @@ public class ChatAlyticsStormTopology {
 
         return topologyBuilder.createTopology();
     }
+
+    /**
+     * @return True if the local test mode replays recorded message files
+     */
+    private static boolean isReplayingFiles(ChatAlyticsConfig config) {
+        return config.computeConfig.chatConfig instanceof LocalTestConfig
+            && ((LocalTestConfig) config.computeConfig.chatConfig).replayDirectory != null;
+    }
 }
@@ -1,17 +1,31 @@
 package com.chatalytics.compute.storm.bolt;
 
+import com.chatalytics.compute.chat.dao.ChatAPIFactory;
+import com.chatalytics.compute.chat.dao.IChatApiDAO;
 import com.chatalytics.compute.db.dao.ChatAlyticsDAOFactory;
 import com.chatalytics.compute.db.dao.IEmojiDAO;
 import com.chatalytics.core.config.ChatAlyticsConfig;
+import com.chatalytics.core.config.ComputeConfig;
+import com.chatalytics.core.emoji.EmojiScanner;
+import com.chatalytics.core.emoji.EmojiTrie;
+import com.chatalytics.core.emoji.LocalEmojiUtils;
+import com.chatalytics.core.json.JsonObjectMapperFactory;
 import com.chatalytics.core.model.data.EmojiEntity;
 import com.chatalytics.core.model.data.FatMessage;
 import com.chatalytics.core.model.data.Room;
+import com.chatalytics.core.model.data.User;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
+import com.google.common.collect.HashMultiset;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
-import com.google.common.collect.Maps;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Multiset;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
-import org.apache.storm.shade.com.google.common.collect.ImmutableList;
-import org.apache.storm.shade.com.google.common.collect.Lists;
 import org.apache.storm.task.TopologyContext;
 import org.apache.storm.topology.BasicOutputCollector;
 import org.apache.storm.topology.OutputFieldsDeclarer;
@@ -23,24 +37,147 @@ import org.slf4j.LoggerFactory;
 
 import java.util.List;
 import java.util.Map;
-import java.util.PrimitiveIterator.OfInt;
 import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * Counts the emojis used in chat messages and persists them. Only names that are known emojis are
+ * counted, either unicode emojis or custom emojis defined in the chat service, so colon separated
+ * text such as timestamps isn't mistaken for an emoji. Unicode emojis sent as code points are
+ * counted under their shortcode name.
+ * <p/>
+ * The custom emojis are fetched in the background, so preparing the bolt never waits for the chat
+ * service, and they are refreshed every {@link ComputeConfig#emojiRefreshIntervalSecs} so emojis
+ * added later are counted too. Until they are first fetched, or when there's no chat service to
+ * ask, only the unicode emojis are counted.
+ */
 public class EmojiCounterBolt extends ChatAlyticsBaseBolt {
 
     private static final long serialVersionUID = -3543087188985057557L;
     public static final String BOLT_ID = "EMOJI_COUNTER_BOLT_ID";
     private static final String EMOJI_ENTITY_FIELD_STR = "emoji-entity";
     private static final Logger LOG = LoggerFactory.getLogger(EmojiCounterBolt.class);
-    private static Set<Character> BLACKLISTED_CHARS = ImmutableSet.of(' ', ',', '{', '}', '\t',
-                                                                      '\n', '/', '\\');
 
+    private final Set<String> emojiVocabulary;
     private IEmojiDAO emojiDao;
+    // counts every well formed shortcode until prepared
+    private transient volatile EmojiScanner emojiScanner = new EmojiScanner(null);
+    private Map<String, String> unicodeEmojis;
+    private EmojiTrie unicodeEmojiTrie;
+    private ScheduledExecutorService emojiRefresher;
+
+    public EmojiCounterBolt() {
+        this.emojiVocabulary = null;
+    }
+
+    /**
+     * Creates a bolt that only counts the shortcodes found in <code>emojiVocabulary</code> instead
+     * of the unicode and custom chat emojis
+     */
+    @VisibleForTesting
+    protected EmojiCounterBolt(Set<String> emojiVocabulary) {
+        this.emojiVocabulary = ImmutableSet.copyOf(emojiVocabulary);
+        this.emojiScanner = new EmojiScanner(EmojiTrie.compile(emojiVocabulary));
+    }
 
     @Override
     public void prepare(ChatAlyticsConfig config, @SuppressWarnings("rawtypes") Map conf,
                         TopologyContext context) {
         this.emojiDao = ChatAlyticsDAOFactory.createEmojiDAO(config);
+        if (emojiVocabulary != null) {
+            emojiScanner = new EmojiScanner(EmojiTrie.compile(emojiVocabulary));
+            return;
+        }
+        ObjectMapper objectMapper = JsonObjectMapperFactory.createObjectMapper();
+        unicodeEmojis = LocalEmojiUtils.getUnicodeEmojis(objectMapper);
+        unicodeEmojiTrie = EmojiTrie.compileUnicode(unicodeEmojis);
+        emojiScanner = new EmojiScanner(EmojiTrie.compile(unicodeEmojis.keySet()),
+                                        unicodeEmojiTrie);
+        if (config.computeConfig.chatConfig == null) {
+            return;
+        }
+
+        Supplier<IChatApiDAO> chatApiDao =
+            Suppliers.memoize(() -> ChatAPIFactory.getChatApiDao(config));
+        emojiRefresher = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setDaemon(true)
+                                      .setNameFormat("emoji-refresher-%d")
+                                      .build());
+        int refreshIntervalSecs = config.computeConfig.emojiRefreshIntervalSecs;
+        if (refreshIntervalSecs > 0) {
+            emojiRefresher.scheduleWithFixedDelay(() -> refreshEmojis(chatApiDao), 0,
+                                                  refreshIntervalSecs, TimeUnit.SECONDS);
+        } else {
+            emojiRefresher.execute(() -> refreshEmojis(chatApiDao));
+        }
+    }
+
+    /**
+     * Fetches the custom emojis of the chat service and swaps in a scanner for them and the
+     * unicode emojis. If the chat service doesn't support custom emojis only the unicode emojis
+     * are counted. If they can't be fetched the current scanner is kept.
+     *
+     * @param chatApiDao
+     *            Supplies the DAO to fetch the custom emojis from
+     */
+    @VisibleForTesting
+    protected void refreshEmojis(Supplier<IChatApiDAO> chatApiDao) {
+        Set<String> vocabulary = Sets.newHashSet(unicodeEmojis.keySet());
+        try {
+            vocabulary.addAll(chatApiDao.get().getEmojis().keySet());
+        } catch (UnsupportedOperationException e) {
+            LOG.info("Chat API doesn't support custom emojis. Counting unicode emojis only");
+        } catch (RuntimeException e) {
+            LOG.warn("Can't refresh custom emojis. Keeping the current ones", e);
+            return;
+        }
+        emojiScanner = new EmojiScanner(EmojiTrie.compile(vocabulary), unicodeEmojiTrie);
+        LOG.info("Loaded {} emoji names", vocabulary.size());
+    }
+
+    /**
+     * Creates a scanner for the unicode emojis and the custom emojis of the chat service. This
+     * waits for the chat service
+     *
+     * @param config
+     *            The ChatAlytics config
+     * @return The emoji scanner
+     */
+    public static EmojiScanner createEmojiScanner(ChatAlyticsConfig config) {
+        ObjectMapper objectMapper = JsonObjectMapperFactory.createObjectMapper();
+        Map<String, String> unicodeEmojis = LocalEmojiUtils.getUnicodeEmojis(objectMapper);
+        return new EmojiScanner(EmojiTrie.compile(getEmojiVocabulary(config, unicodeEmojis)),
+                                EmojiTrie.compileUnicode(unicodeEmojis));
+    }
+
+    /**
+     * Gets all the emoji names that can appear in a message. These are the unicode emojis and any
+     * custom emojis the chat service knows about. If the custom emojis can't be retrieved only the
+     * unicode emojis are used.
+     *
+     * @param config
+     *            The ChatAlytics config
+     * @param unicodeEmojis
+     *            A map of unicode emoji names to unicode
+     * @return A set of emoji names without the surrounding colons
+     */
+    private static Set<String> getEmojiVocabulary(ChatAlyticsConfig config,
+                                                  Map<String, String> unicodeEmojis) {
+        Set<String> vocabulary = Sets.newHashSet(unicodeEmojis.keySet());
+        if (config.computeConfig.chatConfig == null) {
+            return vocabulary;
+        }
+        try {
+            vocabulary.addAll(ChatAPIFactory.getChatApiDao(config).getEmojis().keySet());
+        } catch (UnsupportedOperationException e) {
+            LOG.info("Chat API doesn't support custom emojis. Counting unicode emojis only");
+        } catch (RuntimeException e) {
+            LOG.warn("Can't get custom emojis. Counting unicode emojis only", e);
+        }
+        LOG.info("Loaded {} emoji names", vocabulary.size());
+        return vocabulary;
     }
 
     @Override
@@ -58,74 +195,51 @@ public class EmojiCounterBolt extends ChatAlyticsBaseBolt {
 
     @VisibleForTesting
     protected List<EmojiEntity> getEmojisFromMessage(FatMessage fatMessage) {
+        List<EmojiEntity> emojis = getEmojisFromMessage(fatMessage, emojiScanner);
+        LOG.debug("Extracted {} emojis", emojis.size());
+        return emojis;
+    }
+
+    /**
+     * Counts the emojis of a message
+     *
+     * @param fatMessage
+     *            The message to scan
+     * @param emojiScanner
+     *            The scanner for the known emojis
+     * @return One {@link EmojiEntity} for every distinct emoji in the message
+     */
+    public static List<EmojiEntity> getEmojisFromMessage(FatMessage fatMessage,
+                                                         EmojiScanner emojiScanner) {
         String message = fatMessage.getMessage().getMessage();
 
         if (message == null) {
             return ImmutableList.of();
         }
 
-        Map<String, EmojiEntity> emojis = Maps.newHashMap();
-
-        OfInt charIterator = message.chars().iterator();
+        Multiset<String> emojiCounts = HashMultiset.create();
+        emojiScanner.scan(message, (name, start, end) -> emojiCounts.add(name));
+        if (emojiCounts.isEmpty()) {
+            return ImmutableList.of();
+        }
 
         Room room = fatMessage.getRoom();
         String roomName = null;
         if (room != null) {
             roomName = room.getName();
         }
+        User user = fatMessage.getUser();
 
-        boolean capturingEmoji = false;
-        StringBuilder emojiStrBuilder = new StringBuilder();
-
-        while (charIterator.hasNext()) {
-            int asciiValue = charIterator.next();
-            char ch = (char) asciiValue;
-            if (ch == ':') {
-                // done capturing
-                if (capturingEmoji) {
-
-                    // There's another : right after so continue capturing from there but skip this
-                    if (emojiStrBuilder.length() <= 0) {
-                        emojiStrBuilder = new StringBuilder();
-                        continue;
-                    }
-
-                    String emoji = emojiStrBuilder.toString();
-
-                    EmojiEntity existingEmoji = emojis.remove(emoji);
-                    int occurrences;
-                    if (existingEmoji == null) {
-                        occurrences = 1;
-                    } else {
-                        occurrences = existingEmoji.getOccurrences() + 1;
-                    }
-
-                    emojis.put(emoji, new EmojiEntity(fatMessage.getUser().getMentionName(),
-                                                      roomName,
-                                                      fatMessage.getMessage().getDate(),
-                                                      emoji,
-                                                      occurrences,
-                                                      fatMessage.getUser().isBot()));
-                    emojiStrBuilder = new StringBuilder();
-                }
-                capturingEmoji = !capturingEmoji;
-                continue;
-            }
-            if (capturingEmoji) {
-
-                if (BLACKLISTED_CHARS.contains(ch)) {
-                    capturingEmoji = !capturingEmoji;
-                    emojiStrBuilder = new StringBuilder();
-                    continue;
-                }
-
-                emojiStrBuilder.append(ch);
-            }
+        List<EmojiEntity> emojis = Lists.newArrayListWithCapacity(emojiCounts.elementSet().size());
+        for (Multiset.Entry<String> emojiCount : emojiCounts.entrySet()) {
+            emojis.add(new EmojiEntity(user.getMentionName(),
+                                       roomName,
+                                       fatMessage.getMessage().getDate(),
+                                       emojiCount.getElement(),
+                                       emojiCount.getCount(),
+                                       user.isBot()));
         }
-
-        LOG.debug("Extracted {} emojis", emojis.size());
-
-        return Lists.newArrayList(emojis.values());
+        return emojis;
     }
 
     @Override
@@ -136,6 +250,9 @@ public class EmojiCounterBolt extends ChatAlyticsBaseBolt {
     @Override
     public void cleanup() {
         LOG.debug("Cleaning up {}", this.getClass().getSimpleName());
+        if (emojiRefresher != null) {
+            emojiRefresher.shutdownNow();
+        }
         if (emojiDao != null && emojiDao.isRunning()) {
             emojiDao.stopAsync().awaitTerminated();
         }
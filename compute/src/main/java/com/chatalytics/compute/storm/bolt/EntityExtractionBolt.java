@@ -2,17 +2,15 @@ package com.chatalytics.compute.storm.bolt;
 
 import com.chatalytics.compute.db.dao.ChatAlyticsDAOFactory;
 import com.chatalytics.compute.db.dao.IEntityDAO;
+import com.chatalytics.compute.entity.ChatEntityExtractor;
+import com.chatalytics.compute.entity.EntityPreFilter;
 import com.chatalytics.core.config.ChatAlyticsConfig;
+import com.chatalytics.core.config.ComputeConfig;
 import com.chatalytics.core.model.data.ChatEntity;
 import com.chatalytics.core.model.data.FatMessage;
-import com.chatalytics.core.model.data.Message;
-import com.chatalytics.core.model.data.Room;
 import com.google.common.annotations.VisibleForTesting;
-import com.google.common.collect.Lists;
-import com.google.common.collect.Maps;
-import com.google.common.io.Resources;
 
-import org.apache.storm.shade.com.google.common.collect.ImmutableList;
+import org.apache.storm.metric.api.IMetric;
 import org.apache.storm.task.TopologyContext;
 import org.apache.storm.topology.BasicOutputCollector;
 import org.apache.storm.topology.OutputFieldsDeclarer;
@@ -22,19 +20,17 @@ import org.apache.storm.tuple.Values;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import edu.stanford.nlp.ie.AbstractSequenceClassifier;
-import edu.stanford.nlp.ie.crf.CRFClassifier;
-import edu.stanford.nlp.ling.CoreLabel;
-import edu.stanford.nlp.util.Triple;
-
-import java.net.URL;
 import java.util.List;
 import java.util.Map;
 
 /**
  * This bolt received one message at a time, parses the text of the message and extract entities.
  * Once the entities are extracted and a {@link ChatEntity} object is created, it's persisted to a
- * database.
+ * database. Messages that can't contain any entities are caught by an {@link EntityPreFilter} and
+ * never reach the classifier.
+ * <p/>
+ * Entities can be extracted with a CRF classifier, a dictionary backed gazetteer or both, depending
+ * on {@link ComputeConfig#entityExtractor}. See {@link ChatEntityExtractor}.
  *
  * @author giannis
  *
@@ -46,35 +42,28 @@ public class EntityExtractionBolt extends ChatAlyticsBaseBolt {
 
     public static final String BOLT_ID = "ENTITY_EXTRACTION_BOLT_ID";
     public static final String CHAT_ENTITY_FIELD_STR = "chat-entity";
-    private static final int MAX_ENTITY_CHARS = 150;
+    private static final String FILTERED_MESSAGES_METRIC = "entity-prefiltered-messages";
+    private static final String CLASSIFIED_MESSAGES_METRIC = "entity-classified-messages";
 
-    private AbstractSequenceClassifier<CoreLabel> classifier;
+    private ChatEntityExtractor entityExtractor;
     private IEntityDAO entityDao;
 
     @Override
     public void prepare(ChatAlyticsConfig config, @SuppressWarnings("rawtypes") Map conf,
                         TopologyContext context) {
-        classifier = getClassifier(config.computeConfig.classifier);
+        entityExtractor = ChatEntityExtractor.create(config.computeConfig);
+        int bucketSecs = config.computeConfig.metricsBucketSecs;
+        context.registerMetric(FILTERED_MESSAGES_METRIC,
+                               (IMetric) entityExtractor::getAndResetFilteredMessages, bucketSecs);
+        context.registerMetric(CLASSIFIED_MESSAGES_METRIC,
+                               (IMetric) entityExtractor::getAndResetClassifiedMessages,
+                               bucketSecs);
         entityDao = ChatAlyticsDAOFactory.createEntityDAO(config);
         if (!entityDao.isRunning()) {
             entityDao.startAsync().awaitRunning();
         }
     }
 
-    /**
-     * Gets the classifier to use for parsing text
-     *
-     * @param config
-     *            The configuration object containing information about which classifier to use.
-     * @return The classifier to use for extracting entities.
-     */
-    private AbstractSequenceClassifier<CoreLabel> getClassifier(String classifierStr) {
-        URL classifierURL = Resources.getResource(classifierStr);
-        AbstractSequenceClassifier<CoreLabel> classifier =
-            CRFClassifier.getClassifierNoExceptions(classifierURL.getPath());
-        return classifier;
-    }
-
     @Override
     public void execute(Tuple input, BasicOutputCollector collector) {
         LOG.debug("Got tuple: {}", input);
@@ -89,7 +78,7 @@ public class EntityExtractionBolt extends ChatAlyticsBaseBolt {
     }
 
     /**
-     * Given a message this method uses a classifier to extract entities.
+     * Given a message this method uses the configured extractors to extract entities.
      *
      * @param fatMessage
      *            The message containing the text to parse.
@@ -97,47 +86,9 @@ public class EntityExtractionBolt extends ChatAlyticsBaseBolt {
      */
     @VisibleForTesting
     protected List<ChatEntity> extractEntities(FatMessage fatMessage) {
-
-        Message message = fatMessage.getMessage();
-        String messageStr = message.getMessage();
-
-        if (messageStr == null) {
-            return ImmutableList.of();
-        }
-
-        List<Triple<String,Integer,Integer>> classification =
-                classifier.classifyToCharacterOffsets(messageStr);
-        Map<String, ChatEntity> entities = Maps.newHashMapWithExpectedSize(classification.size());
-
-        for (Triple<String, Integer, Integer> triple : classification) {
-            if (triple.third - triple.second > MAX_ENTITY_CHARS) {
-                continue;
-            }
-            String entity = messageStr.substring(triple.second, triple.third);
-            ChatEntity existingEntity = entities.remove(entity);
-            int occurrences;
-            if (existingEntity == null) {
-                occurrences = 1;
-            } else {
-                occurrences = existingEntity.getOccurrences() + 1;
-            }
-            Room room = fatMessage.getRoom();
-            String roomName = null;
-            if (room != null) {
-                roomName = room.getName();
-            }
-            entities.put(entity, new ChatEntity(fatMessage.getUser().getMentionName(),
-                                                roomName,
-                                                message.getDate(),
-                                                entity,
-                                                occurrences,
-                                                fatMessage.getUser().isBot()));
-
-        }
-
+        List<ChatEntity> entities = entityExtractor.extractEntities(fatMessage);
         LOG.debug("Extracted {} entities", entities.size());
-
-        return Lists.newArrayList(entities.values());
+        return entities;
     }
 
     @Override
@@ -148,6 +99,9 @@ public class EntityExtractionBolt extends ChatAlyticsBaseBolt {
     @Override
     public void cleanup() {
         LOG.debug("Cleaning up {}", this.getClass().getSimpleName());
+        if (entityExtractor != null) {
+            entityExtractor.close();
+        }
         if (entityDao != null && entityDao.isRunning()) {
             entityDao.stopAsync().awaitTerminated();
         }
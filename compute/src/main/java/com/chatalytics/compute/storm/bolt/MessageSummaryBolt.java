@@ -40,6 +40,19 @@ public class MessageSummaryBolt extends ChatAlyticsBaseBolt {
     @Override
     public void execute(Tuple input, BasicOutputCollector collector) {
         FatMessage fatMessage = (FatMessage) input.getValue(0);
+        MessageSummary chatSummary = getMessageSummary(fatMessage);
+        collector.emit(new Values(chatSummary));
+        messageSummaryDao.persistMessageSummary(chatSummary);
+    }
+
+    /**
+     * Summarizes a message as a single occurrence of its type
+     *
+     * @param fatMessage
+     *            The message to summarize
+     * @return The summary of the message
+     */
+    public static MessageSummary getMessageSummary(FatMessage fatMessage) {
         String username = null;
         String roomName = null;
         boolean isBot = true;
@@ -52,10 +65,7 @@ public class MessageSummaryBolt extends ChatAlyticsBaseBolt {
         }
         DateTime messageDate = fatMessage.getMessage().getDate();
         MessageType type = fatMessage.getMessage().getType();
-        MessageSummary chatSummary = new MessageSummary(username, roomName, messageDate, type, 1,
-                                                        isBot);
-        collector.emit(new Values(chatSummary));
-        messageSummaryDao.persistMessageSummary(chatSummary);
+        return new MessageSummary(username, roomName, messageDate, type, 1, isBot);
     }
 
     @Override
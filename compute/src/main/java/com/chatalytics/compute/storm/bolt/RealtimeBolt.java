@@ -1,11 +1,16 @@
 package com.chatalytics.compute.storm.bolt;
 
+import com.chatalytics.compute.web.realtime.RealtimeEventPublisher;
 import com.chatalytics.core.config.ChatAlyticsConfig;
+import com.chatalytics.core.config.ComputeConfig;
 import com.chatalytics.core.model.data.ChatAlyticsEvent;
-import com.chatalytics.core.realtime.ChatAlyticsEventEncoder;
+import com.chatalytics.core.realtime.ChatAlyticsEventBatchEncoderDecoder;
 import com.chatalytics.core.realtime.ConnectionType;
 import com.chatalytics.core.realtime.ConnectionTypeEncoderDecoder;
+import com.chatalytics.core.realtime.EventTypeRegistry;
+import com.chatalytics.core.realtime.RealtimeWireFormat;
 
+import org.apache.storm.metric.api.IMetric;
 import org.apache.storm.task.TopologyContext;
 import org.apache.storm.topology.BasicOutputCollector;
 import org.apache.storm.topology.OutputFieldsDeclarer;
@@ -16,68 +21,86 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
-import java.io.Serializable;
 import java.net.URI;
 import java.util.Map;
 
 import javax.websocket.ClientEndpoint;
 import javax.websocket.ContainerProvider;
 import javax.websocket.DeploymentException;
-import javax.websocket.EncodeException;
 import javax.websocket.Session;
 import javax.websocket.WebSocketContainer;
 
 import static com.chatalytics.compute.web.realtime.RealtimeResource.RT_COMPUTE_ENDPOINT;
-import static com.google.common.base.CaseFormat.LOWER_UNDERSCORE;
-import static com.google.common.base.CaseFormat.UPPER_CAMEL;
 
 /**
- * Realtime bolt that can subscribe to any ChatAlytics {@link Serializable} object and publish it
- * out to the socket clients.
+ * Realtime bolt that can subscribe to any ChatAlytics object in the {@link EventTypeRegistry} and
+ * publish it out to the socket clients. Events are published through a
+ * {@link RealtimeEventPublisher} so that the topology doesn't wait for the socket. Binary frames
+ * are used if the realtime compute server negotiates them.
  *
  * @author giannis
  */
-@ClientEndpoint(encoders = { ChatAlyticsEventEncoder.class, ConnectionTypeEncoderDecoder.class })
+@ClientEndpoint(subprotocols = { RealtimeWireFormat.BINARY_SUBPROTOCOL,
+                                 RealtimeWireFormat.JSON_SUBPROTOCOL },
+                encoders = { ChatAlyticsEventBatchEncoderDecoder.class,
+                             ConnectionTypeEncoderDecoder.class })
 public class RealtimeBolt extends ChatAlyticsBaseBolt {
 
     private static final long serialVersionUID = -214311696491358951L;
     private static final Logger LOG = LoggerFactory.getLogger(RealtimeBolt.class);
     public static final String BOLT_ID = "RT_SOCKET_BOLT_ID";
+    private static final String DROPPED_EVENTS_METRIC = "rt-dropped-events";
+    private static final String BLOCKED_MS_METRIC = "rt-blocked-ms";
+    private static final String SENT_BATCHES_METRIC = "rt-sent-batches";
+    private static final String SENT_EVENTS_METRIC = "rt-sent-events";
+    private static final String FAILED_BATCHES_METRIC = "rt-failed-batches";
+    private static final String BUFFERED_EVENTS_METRIC = "rt-buffered-events";
+
     private Session session;
+    private RealtimeEventPublisher publisher;
 
     @Override
     public void prepare(ChatAlyticsConfig config, @SuppressWarnings("rawtypes") Map conf,
                         TopologyContext context) {
         WebSocketContainer webSocketContainer = getWebSocketContainer();
-        this.session = openRealtimeConnection(webSocketContainer,
-                                              config.computeConfig.rtComputePort);
+        ComputeConfig computeConfig = config.computeConfig;
+        this.session = openRealtimeConnection(webSocketContainer, computeConfig.rtComputePort);
+        this.publisher = new RealtimeEventPublisher(session.getAsyncRemote(),
+                                                    RealtimeWireFormat.isBinary(session),
+                                                    computeConfig.rtPublishBufferSize,
+                                                    computeConfig.rtPublishBatchSize,
+                                                    computeConfig.rtPublishBatchDelayMs,
+                                                    computeConfig.rtPublishOverflowPolicy);
+        int bucketSecs = computeConfig.metricsBucketSecs;
+        context.registerMetric(DROPPED_EVENTS_METRIC,
+                               (IMetric) publisher::getAndResetDroppedEvents, bucketSecs);
+        context.registerMetric(BLOCKED_MS_METRIC,
+                               (IMetric) publisher::getAndResetBlockedMillis, bucketSecs);
+        context.registerMetric(SENT_BATCHES_METRIC,
+                               (IMetric) publisher::getAndResetSentBatches, bucketSecs);
+        context.registerMetric(SENT_EVENTS_METRIC,
+                               (IMetric) publisher::getAndResetSentEvents, bucketSecs);
+        context.registerMetric(FAILED_BATCHES_METRIC,
+                               (IMetric) publisher::getAndResetFailedBatches, bucketSecs);
+        context.registerMetric(BUFFERED_EVENTS_METRIC,
+                               (IMetric) publisher::getBufferedEvents, bucketSecs);
+        publisher.start();
     }
 
     @Override
     public void execute(Tuple input, BasicOutputCollector collector) {
         for (Object obj : input.getValues()) {
-            Serializable serObj;
-            if (obj instanceof Serializable) {
-                serObj = (Serializable) obj;
-            } else {
-                LOG.warn("Received a non-serializable object. Skipping...");
+            if (obj == null || !EventTypeRegistry.isRegistered(obj.getClass())) {
+                LOG.warn("Received an object that isn't a registered event type. Skipping...");
                 continue;
             }
 
-            String type = UPPER_CAMEL.to(LOWER_UNDERSCORE, serObj.getClass().getSimpleName());
+            String type = EventTypeRegistry.getType(obj.getClass());
             ChatAlyticsEvent event = new ChatAlyticsEvent(DateTime.now(DateTimeZone.UTC),
                                                           type,
-                                                          serObj);
+                                                          obj);
 
-            publishEvent(event);
-        }
-    }
-
-    private void publishEvent(ChatAlyticsEvent event) {
-        try {
-            session.getBasicRemote().sendObject(event);
-        } catch (IOException | EncodeException e) {
-            LOG.error("Can't publish event to realtime compute server. {}", event, e);
+            publisher.publish(event);
         }
     }
 
@@ -118,6 +141,7 @@ public class RealtimeBolt extends ChatAlyticsBaseBolt {
     @Override
     public void cleanup() {
         LOG.debug("Cleaning up {}", this.getClass().getSimpleName());
+        publisher.close();
         try {
             session.close();
         } catch (IOException e) {
@@ -0,0 +1,195 @@
+package com.chatalytics.compute.storm.spout;
+
+import com.chatalytics.compute.config.ConfigurationConstants;
+import com.chatalytics.compute.io.BlockFileReader;
+import com.chatalytics.compute.io.JsonRecordCodec;
+import com.chatalytics.compute.io.RecordArchive;
+import com.chatalytics.core.config.ChatAlyticsConfig;
+import com.chatalytics.core.config.ComputeConfig;
+import com.chatalytics.core.json.JsonObjectMapperFactory;
+import com.chatalytics.core.model.data.FatMessage;
+import com.chatalytics.core.util.YamlUtils;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import org.apache.storm.spout.SpoutOutputCollector;
+import org.apache.storm.task.TopologyContext;
+import org.apache.storm.topology.OutputFieldsDeclarer;
+import org.apache.storm.topology.base.BaseRichSpout;
+import org.apache.storm.tuple.Fields;
+import org.apache.storm.tuple.Values;
+import org.joda.time.format.DateTimeFormatter;
+import org.joda.time.format.ISODateTimeFormat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Spout that replays the message archive written by the chat spouts and emits the archived
+ * {@link FatMessage}s to subscribed bolts, so that the analytics can be computed again without
+ * going to the chat API. Only the partitions of the configured replay dates are read.
+ * <p/>
+ * The archive files are split between the tasks of the spout, so running it with more tasks reads
+ * more files in parallel. Every task decodes its files on a background thread that stays a few
+ * blocks ahead of the ones being emitted, and a whole block is emitted per call, so the spout is
+ * only as slow as reading the archive from disk and storm's backpressure.
+ */
+public class ArchiveSpout extends BaseRichSpout {
+
+    private static final long serialVersionUID = 4326113585941384791L;
+    private static final Logger LOG = LoggerFactory.getLogger(ArchiveSpout.class);
+    public static final String SPOUT_ID = "ARCHIVE_SPOUT_ID";
+    public static final String ARCHIVE_MESSAGE_FIELD_STR = "archived-message";
+    private static final DateTimeFormatter REPLAY_DATE_PARSER =
+        ISODateTimeFormat.dateTimeParser().withZoneUTC();
+
+    private SpoutOutputCollector collector;
+    private BlockingQueue<List<FatMessage>> readBlocks;
+    private ExecutorService readExecutor;
+    private volatile boolean readDone;
+    private long startMillis;
+    private long endMillis;
+    private long emittedMessages;
+    private boolean replayDone;
+
+    @Override
+    public void open(@SuppressWarnings("rawtypes") Map conf, TopologyContext context,
+                     SpoutOutputCollector collector) {
+        String configYaml = (String) conf.get(ConfigurationConstants.CHATALYTICS_CONFIG.txt);
+        ChatAlyticsConfig config = YamlUtils.readChatAlyticsConfigFromString(configYaml);
+        ComputeConfig computeConfig = config.computeConfig;
+
+        long startMillis = parseReplayDate(computeConfig.archiveReplayStartDate, Long.MIN_VALUE);
+        long endMillis = parseReplayDate(computeConfig.archiveReplayEndDate, Long.MAX_VALUE);
+
+        Path archivePath = MessageArchiver.getArchivePath(computeConfig);
+        List<Path> files;
+        try {
+            files = RecordArchive.listFiles(archivePath, startMillis, endMillis);
+        } catch (IOException e) {
+            throw new RuntimeException("Can't list message archive " + archivePath, e);
+        }
+        int numTasks = context.getComponentTasks(context.getThisComponentId()).size();
+        int taskIndex = context.getThisTaskIndex();
+        List<Path> taskFiles = Lists.newArrayList();
+        for (int i = taskIndex; i < files.size(); i += numTasks) {
+            taskFiles.add(files.get(i));
+        }
+        LOG.info("Replaying {} of the {} files in {}", taskFiles.size(), files.size(),
+                 archivePath);
+
+        open(taskFiles, startMillis, endMillis, computeConfig.archiveReplayReadAheadBlocks,
+             collector);
+    }
+
+    /**
+     * Parses a replay date in UTC, so that the replayed range matches the UTC daily partitions of
+     * the archive no matter what the time zone of the worker is
+     *
+     * @param date
+     *            The ISO 8601 date or null
+     * @param defaultMillis
+     *            Returned when <code>date</code> is null
+     * @return The date in milliseconds since the epoch
+     */
+    @VisibleForTesting
+    protected static long parseReplayDate(String date, long defaultMillis) {
+        if (date == null) {
+            return defaultMillis;
+        }
+        return REPLAY_DATE_PARSER.parseMillis(date);
+    }
+
+    /**
+     * @param files
+     *            The archive files to replay, in order
+     * @param startMillis
+     *            Messages before this time are not emitted
+     * @param endMillis
+     *            Messages at or after this time are not emitted
+     * @param readAheadBlocks
+     *            The number of decoded blocks waiting to be emitted
+     */
+    @VisibleForTesting
+    protected void open(List<Path> files, long startMillis, long endMillis, int readAheadBlocks,
+                        SpoutOutputCollector collector) {
+        this.collector = collector;
+        this.startMillis = startMillis;
+        this.endMillis = endMillis;
+        this.readBlocks = new ArrayBlockingQueue<>(readAheadBlocks);
+        this.readExecutor =
+            Executors.newSingleThreadExecutor(new ThreadFactoryBuilder().setDaemon(true)
+                                                                        .setNameFormat("archive-%d")
+                                                                        .build());
+        readExecutor.submit(() -> readFiles(files));
+    }
+
+    /**
+     * Decodes the archive files block by block and waits for room in the read ahead queue
+     */
+    private void readFiles(List<Path> files) {
+        JsonRecordCodec<FatMessage> codec =
+            new JsonRecordCodec<>(JsonObjectMapperFactory.createObjectMapper(), FatMessage.class);
+        try {
+            for (Path file : files) {
+                try (BlockFileReader<FatMessage> reader = new BlockFileReader<>(file, codec)) {
+                    List<FatMessage> block;
+                    while ((block = reader.nextBlock()) != null) {
+                        readBlocks.put(block);
+                    }
+                } catch (IOException e) {
+                    LOG.error("Can't read archive file {}. Skipping", file, e);
+                }
+            }
+        } catch (InterruptedException e) {
+            LOG.warn("Interrupted while replaying the archive");
+            Thread.currentThread().interrupt();
+        } finally {
+            readDone = true;
+        }
+    }
+
+    /**
+     * Emits the messages of the next decoded block that fall in the replay dates
+     */
+    @Override
+    public void nextTuple() {
+        List<FatMessage> block = readBlocks.poll();
+        if (block == null) {
+            if (readDone && readBlocks.isEmpty() && !replayDone) {
+                LOG.info("Finished replaying the archive. Emitted {} messages", emittedMessages);
+                replayDone = true;
+            }
+            return;
+        }
+        for (FatMessage fatMessage : block) {
+            long messageMillis = fatMessage.getMessage().getDate().getMillis();
+            if (messageMillis >= startMillis && messageMillis < endMillis) {
+                collector.emit(new Values(fatMessage));
+                emittedMessages++;
+            }
+        }
+    }
+
+    @Override
+    public void declareOutputFields(OutputFieldsDeclarer fields) {
+        fields.declare(new Fields(ARCHIVE_MESSAGE_FIELD_STR));
+    }
+
+    @Override
+    public void close() {
+        if (readExecutor != null) {
+            readExecutor.shutdownNow();
+        }
+    }
+
+}
@@ -1,17 +1,25 @@
 package com.chatalytics.compute.storm.spout;
 
+import com.chatalytics.compute.chat.dao.ChatApiClientFactory;
 import com.chatalytics.compute.chat.dao.IChatApiDAO;
 import com.chatalytics.compute.chat.dao.hipchat.HipChatApiDAOFactory;
 import com.chatalytics.compute.config.ConfigurationConstants;
 import com.chatalytics.compute.db.dao.ChatAlyticsDAOFactory;
 import com.chatalytics.compute.db.dao.IChatAlyticsDAO;
 import com.chatalytics.core.config.ChatAlyticsConfig;
+import com.chatalytics.core.config.HipChatConfig;
 import com.chatalytics.core.model.data.FatMessage;
 import com.chatalytics.core.model.data.Message;
 import com.chatalytics.core.model.data.Room;
 import com.chatalytics.core.model.data.User;
 import com.chatalytics.core.util.YamlUtils;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.primitives.Ints;
+import com.google.common.util.concurrent.RateLimiter;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 import org.apache.storm.spout.SpoutOutputCollector;
 import org.apache.storm.task.TopologyContext;
@@ -21,14 +29,31 @@ import org.apache.storm.tuple.Fields;
 import org.apache.storm.tuple.Values;
 import org.joda.time.DateTime;
 import org.joda.time.DateTimeZone;
+import org.joda.time.Duration;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Spout that pulls messages from the hipchat API and emits {@link FatMessage}s to subscribed bolts.
+ * <p/>
+ * Every hour the users are fetched once and the history of every room is fetched on a bounded
+ * pool of threads, so a pull takes about as long as the slowest room. All requests go through a
+ * rate limiter to stay within the API limits. The messages of a room are emitted as soon as its
+ * history is fetched.
+ * <p/>
+ * The pull time moves forward even if some rooms fail, since the rest of the rooms are already
+ * emitted. The failed rooms are remembered and the next pull fetches them from where they failed,
+ * so nothing is emitted twice. The failed rooms are only kept in memory, so their missing history
+ * is not pulled again if the worker restarts in the meantime.
  *
  * @author giannis
  */
@@ -44,6 +69,17 @@ public class HipChatMessageSpout extends BaseRichSpout {
     private SpoutOutputCollector collector;
     private IChatAlyticsDAO dbDao;
 
+    private ExecutorService roomFetchExecutor;
+    private CompletionService<List<FatMessage>> roomFetches;
+    private RateLimiter rateLimiter;
+    // the start of the pull of every room whose history is being fetched
+    private Map<Future<List<FatMessage>>, RoomPull> pendingRooms;
+    // the start of the missing history of every room that couldn't be fetched
+    private Map<String, DateTime> failedRoomStarts;
+    private DateTime pullEndDate;
+    private DateTime nextPullDate;
+    private MessageArchiver archiver;
+
     @Override
     public void open(@SuppressWarnings("rawtypes") Map conf, TopologyContext context,
                      SpoutOutputCollector collector) {
@@ -51,43 +87,150 @@ public class HipChatMessageSpout extends BaseRichSpout {
         ChatAlyticsConfig config = YamlUtils.readChatAlyticsConfigFromString(configYaml);
         LOG.info("Loaded config...");
 
-        hipchatDao = HipChatApiDAOFactory.getHipChatApiDao(config);
+        IChatApiDAO hipchatDao = HipChatApiDAOFactory.getHipChatApiDao(config);
         LOG.info("Got HipChat API DAO...");
+        ChatApiClientFactory.registerMetrics(context, config.computeConfig.metricsBucketSecs);
 
-        dbDao = ChatAlyticsDAOFactory.createChatAlyticsDao(config);
+        IChatAlyticsDAO dbDao = ChatAlyticsDAOFactory.createChatAlyticsDao(config);
         LOG.info("Got database DAO...");
 
-        dtz = DateTimeZone.forID(config.timeZone);
+        HipChatConfig hipchatConfig = (HipChatConfig) config.computeConfig.chatConfig;
+        ExecutorService roomFetchExecutor =
+            Executors.newFixedThreadPool(hipchatConfig.roomFetchThreads,
+                                         new ThreadFactoryBuilder().setDaemon(true)
+                                                                   .setNameFormat("hipchat-room-%d")
+                                                                   .build());
+        this.archiver = MessageArchiver.open(config.computeConfig, SPOUT_ID, context);
+        open(config, hipchatDao, dbDao, roomFetchExecutor, collector);
+    }
+
+    @VisibleForTesting
+    protected void open(ChatAlyticsConfig config, IChatApiDAO hipchatDao, IChatAlyticsDAO dbDao,
+                        ExecutorService roomFetchExecutor, SpoutOutputCollector collector) {
+        HipChatConfig hipchatConfig = (HipChatConfig) config.computeConfig.chatConfig;
+        this.hipchatDao = hipchatDao;
+        this.dbDao = dbDao;
+        this.dtz = DateTimeZone.forID(config.timeZone);
         this.collector = collector;
+        this.rateLimiter = RateLimiter.create(hipchatConfig.apiRequestsPerSecond);
+        this.roomFetchExecutor = roomFetchExecutor;
+        this.roomFetches = new ExecutorCompletionService<>(roomFetchExecutor);
+        this.pendingRooms = Maps.newHashMap();
+        this.failedRoomStarts = Maps.newHashMap();
     }
 
+    /**
+     * Emits the messages of the rooms that have been fetched since the last call. If no pull is in
+     * progress and the last pull is at least an hour old, a new pull is started.
+     */
     @Override
     public void nextTuple() {
+        if (archiver != null) {
+            archiver.maybeFlush();
+        }
+        if (!pendingRooms.isEmpty()) {
+            emitFetchedRooms();
+            return;
+        }
+        if (nextPullDate != null && DateTime.now(dtz).isBefore(nextPullDate)) {
+            return;
+        }
+
         DateTime newPullEndDate = truncateDateTimeToHour(DateTime.now(dtz));
         DateTime lastPullTime = truncateDateTimeToHour(dbDao.getLastMessagePullTime());
         if (lastPullTime.isEqual(newPullEndDate) || lastPullTime.isAfter(newPullEndDate)) {
             LOG.info("Not ready to pull data yet. Last pull time was {}, new pull end date was {}",
                      lastPullTime, newPullEndDate);
+            nextPullDate = lastPullTime.plusHours(1);
             return;
         }
+        startPull(lastPullTime, newPullEndDate);
+    }
+
+    /**
+     * Fetches the users and rooms and submits a history fetch for every room. Rooms that failed in
+     * a previous pull are fetched from where they failed.
+     */
+    private void startPull(DateTime start, DateTime end) {
+        rateLimiter.acquire();
+        Map<String, User> users = hipchatDao.getUsers();
+        rateLimiter.acquire();
         Map<String, Room> rooms = hipchatDao.getRooms();
-        List<FatMessage> messagesToEmit = Lists.newArrayList();
+        LOG.info("Pulling messages from {} to {} for {} rooms", start, end, rooms.size());
+
+        // rooms that don't exist anymore can't be pulled again
+        failedRoomStarts.keySet().retainAll(rooms.keySet());
         for (Room room : rooms.values()) {
-            List<Message> messages = hipchatDao.getMessages(lastPullTime, newPullEndDate, room);
-            Map<String, User> users = hipchatDao.getUsers();
-            for (Message message : messages) {
-                User user = users.get(message.getFromUserId());
-                messagesToEmit.add(new FatMessage(message, user, room));
+            DateTime roomStart = failedRoomStarts.getOrDefault(room.getRoomId(), start);
+            // the DAO makes one request for every day of history
+            int requests = Ints.saturatedCast(new Duration(roomStart, end).getStandardDays() + 1);
+            Future<List<FatMessage>> roomFetch = roomFetches.submit(() -> {
+                // one permit at a time, so a room with a lot of history doesn't make every other
+                // room wait for all of its requests up front
+                for (int i = 0; i < requests; i++) {
+                    rateLimiter.acquire();
+                }
+                List<Message> messages = hipchatDao.getMessages(roomStart, end, room);
+                List<FatMessage> fatMessages = Lists.newArrayListWithCapacity(messages.size());
+                for (Message message : messages) {
+                    User user = users.get(message.getFromUserId());
+                    fatMessages.add(new FatMessage(message, user, room));
+                }
+                return fatMessages;
+            });
+            pendingRooms.put(roomFetch, new RoomPull(room.getRoomId(), roomStart));
+        }
+        pullEndDate = end;
+        if (pendingRooms.isEmpty()) {
+            finishPull();
+        }
+    }
+
+    private void emitFetchedRooms() {
+        Future<List<FatMessage>> roomFetch;
+        while ((roomFetch = roomFetches.poll()) != null) {
+            RoomPull roomPull = pendingRooms.remove(roomFetch);
+            try {
+                for (FatMessage fatMessage : roomFetch.get()) {
+                    collector.emit(new Values(fatMessage));
+                    if (archiver != null) {
+                        archiver.archive(fatMessage);
+                    }
+                }
+                failedRoomStarts.remove(roomPull.roomId);
+            } catch (ExecutionException e) {
+                LOG.error("Could not fetch history of room {}", roomPull.roomId, e.getCause());
+                failedRoomStarts.put(roomPull.roomId, roomPull.start);
+            } catch (InterruptedException e) {
+                LOG.error("Got interrupted while getting room history", e);
+                Thread.currentThread().interrupt();
+                return;
             }
         }
-        for (FatMessage fatMessage : messagesToEmit) {
-            collector.emit(new Values(fatMessage));
+        if (pendingRooms.isEmpty()) {
+            finishPull();
         }
-        try {
-            Thread.sleep(1 * 60 * 60 * 1000); // sleep for 1h.
-        } catch (InterruptedException e) {
-            LOG.error("Got interrupted while sleeping.", e);
+    }
+
+    /**
+     * Records the end of the pull so the next one starts from there. Rooms that failed are pulled
+     * again from where they failed by the next pull.
+     */
+    private void finishPull() {
+        dbDao.setLastMessagePullTime(pullEndDate);
+        if (!failedRoomStarts.isEmpty()) {
+            LOG.warn("Could not fetch {} rooms. Will pull them again from where they failed",
+                     failedRoomStarts.size());
         }
+        nextPullDate = pullEndDate.plusHours(1);
+    }
+
+    /**
+     * @return The start of the missing history of every room that couldn't be fetched
+     */
+    @VisibleForTesting
+    protected Map<String, DateTime> getFailedRoomStarts() {
+        return ImmutableMap.copyOf(failedRoomStarts);
     }
 
     @Override
@@ -95,8 +238,32 @@ public class HipChatMessageSpout extends BaseRichSpout {
         fields.declare(new Fields(HIPCHAT_MESSAGE_FIELD_STR));
     }
 
+    @Override
+    public void close() {
+        if (roomFetchExecutor != null) {
+            roomFetchExecutor.shutdownNow();
+        }
+        if (archiver != null) {
+            archiver.close();
+        }
+    }
+
     private DateTime truncateDateTimeToHour(DateTime dateTime) {
         return dateTime.withMinuteOfHour(0).withSecondOfMinute(0).withMillisOfSecond(0);
     }
 
+    /**
+     * The room and the start of the history of a room fetch
+     */
+    private static class RoomPull {
+
+        private final String roomId;
+        private final DateTime start;
+
+        private RoomPull(String roomId, DateTime start) {
+            this.roomId = roomId;
+            this.start = start;
+        }
+    }
+
 }
@@ -0,0 +1,265 @@
+package com.chatalytics.compute.storm.spout;
+
+import com.chatalytics.compute.config.ConfigurationConstants;
+import com.chatalytics.compute.io.MappedLineReader;
+import com.chatalytics.core.ReplayPacing;
+import com.chatalytics.core.config.ChatAlyticsConfig;
+import com.chatalytics.core.config.LocalTestConfig;
+import com.chatalytics.core.json.JsonObjectMapperFactory;
+import com.chatalytics.core.model.data.FatMessage;
+import com.chatalytics.core.util.YamlUtils;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.RateLimiter;
+
+import org.apache.storm.spout.SpoutOutputCollector;
+import org.apache.storm.task.TopologyContext;
+import org.apache.storm.topology.OutputFieldsDeclarer;
+import org.apache.storm.topology.base.BaseRichSpout;
+import org.apache.storm.tuple.Fields;
+import org.apache.storm.tuple.Values;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+
+/**
+ * Spout that replays JSON lines files of recorded {@link FatMessage}s, one message per line, and
+ * emits them to subscribed bolts. The files of the replay directory are read in name order through
+ * memory mapped regions. The messages can be paced like they were recorded, at a fixed rate or as
+ * fast as the topology takes them, so the same traffic can be replayed offline as many times as
+ * needed, for example to measure the throughput of the bolts.
+ * <p/>
+ * When tailing, the spout keeps reading the last file as it grows and moves on once a newer file
+ * shows up in the directory, so it can follow files that are still being recorded.
+ */
+public class JsonlReplaySpout extends BaseRichSpout {
+
+    private static final long serialVersionUID = -3016520935542627407L;
+    private static final Logger LOG = LoggerFactory.getLogger(JsonlReplaySpout.class);
+    public static final String SPOUT_ID = "JSONL_REPLAY_SPOUT_ID";
+    public static final String REPLAY_MESSAGE_FIELD_STR = "replayed-message";
+    private static final String FILE_GLOB = "*.jsonl";
+    private static final long TAIL_POLL_INTERVAL_MS = 500;
+
+    private SpoutOutputCollector collector;
+    private ObjectMapper objectMapper;
+    private Path replayDirectory;
+    private ReplayPacing pacing;
+    private double speedup;
+    private boolean tail;
+    private int mapRegionBytes;
+    private RateLimiter rateLimiter;
+
+    private MappedLineReader reader;
+    private String lastFileName;
+    private long lastPollMillis;
+    private boolean waitingForFile;
+    private FatMessage nextMessage;
+    private long firstMessageMillis;
+    private long replayStartMillis;
+    private long emittedMessages;
+    private boolean replayDone;
+
+    @Override
+    public void open(@SuppressWarnings("rawtypes") Map conf, TopologyContext context,
+                     SpoutOutputCollector collector) {
+        String configYaml = (String) conf.get(ConfigurationConstants.CHATALYTICS_CONFIG.txt);
+        ChatAlyticsConfig config = YamlUtils.readChatAlyticsConfigFromString(configYaml);
+        LOG.info("Loaded config...");
+        open((LocalTestConfig) config.computeConfig.chatConfig, collector);
+    }
+
+    @VisibleForTesting
+    protected void open(LocalTestConfig localConfig, SpoutOutputCollector collector) {
+        this.collector = collector;
+        this.objectMapper = JsonObjectMapperFactory.createObjectMapper();
+        this.replayDirectory = Paths.get(localConfig.replayDirectory);
+        this.pacing = localConfig.replayPacing;
+        this.speedup = localConfig.replaySpeedup;
+        this.tail = localConfig.replayTail;
+        this.mapRegionBytes = localConfig.replayMapRegionBytes;
+        if (pacing == ReplayPacing.FIXED_RATE) {
+            this.rateLimiter = RateLimiter.create(localConfig.replayRatePerSecond);
+        }
+        this.firstMessageMillis = -1;
+        this.lastPollMillis = currentTimeMillis() - TAIL_POLL_INTERVAL_MS;
+        LOG.info("Replaying {} with {} pacing", replayDirectory, pacing);
+    }
+
+    /**
+     * Emits the next recorded message once it's due
+     */
+    @Override
+    public void nextTuple() {
+        if (nextMessage == null) {
+            nextMessage = readNextMessage();
+            if (nextMessage == null) {
+                return;
+            }
+        }
+        if (!isDue(nextMessage)) {
+            return;
+        }
+        collector.emit(new Values(nextMessage));
+        nextMessage = null;
+        emittedMessages++;
+    }
+
+    /**
+     * @return True if the message can be emitted now according to the pacing
+     */
+    private boolean isDue(FatMessage fatMessage) {
+        switch (pacing) {
+            case FIXED_RATE:
+                return rateLimiter.tryAcquire();
+            case ORIGINAL:
+                long messageMillis = fatMessage.getMessage().getDate().getMillis();
+                long nowMillis = currentTimeMillis();
+                if (firstMessageMillis < 0) {
+                    firstMessageMillis = messageMillis;
+                    replayStartMillis = nowMillis;
+                    return true;
+                }
+                return (nowMillis - replayStartMillis) * speedup
+                    >= messageMillis - firstMessageMillis;
+            default:
+                return true;
+        }
+    }
+
+    /**
+     * Reads lines until one can be parsed to a message, moving through the files as they're read
+     *
+     * @return The next message or null if there is none to read right now
+     */
+    private FatMessage readNextMessage() {
+        while (true) {
+            if (reader == null && !openNextFile()) {
+                return null;
+            }
+            byte[] line;
+            try {
+                line = reader.nextLine(false);
+                if (line == null) {
+                    // the end of a file is only a line once nothing more gets written to it
+                    if (tail && (!isTailPollDue() || findNextFile() == null)) {
+                        return null;
+                    }
+                    line = reader.nextLine(true);
+                    if (line == null) {
+                        closeReader();
+                        continue;
+                    }
+                }
+            } catch (IOException e) {
+                LOG.error("Can't read {}. Skipping the rest of it", reader.getPath(), e);
+                closeReader();
+                continue;
+            }
+            if (line.length == 0) {
+                continue;
+            }
+            try {
+                return objectMapper.readValue(line, FatMessage.class);
+            } catch (IOException e) {
+                LOG.warn("Can't parse recorded message in {}. Skipping", reader.getPath(), e);
+            }
+        }
+    }
+
+    private boolean openNextFile() {
+        if (waitingForFile && !isTailPollDue()) {
+            return false;
+        }
+        Path nextFile;
+        while ((nextFile = findNextFile()) != null) {
+            waitingForFile = false;
+            lastFileName = nextFile.getFileName().toString();
+            try {
+                reader = new MappedLineReader(nextFile, mapRegionBytes);
+                LOG.info("Replaying {}", nextFile);
+                return true;
+            } catch (IOException e) {
+                LOG.error("Can't open {}. Skipping", nextFile, e);
+            }
+        }
+        if (tail) {
+            waitingForFile = true;
+        } else if (!replayDone) {
+            LOG.info("Finished replaying {}. Emitted {} messages", replayDirectory,
+                     emittedMessages);
+            replayDone = true;
+        }
+        return false;
+    }
+
+    /**
+     * When tailing, the replay directory is listed for new files at most every
+     * {@value #TAIL_POLL_INTERVAL_MS}ms while there is nothing to read
+     *
+     * @return True if the directory can be listed again
+     */
+    private boolean isTailPollDue() {
+        long nowMillis = currentTimeMillis();
+        if (nowMillis - lastPollMillis < TAIL_POLL_INTERVAL_MS) {
+            return false;
+        }
+        lastPollMillis = nowMillis;
+        return true;
+    }
+
+    /**
+     * Lists the replay directory for the first file after the last one that was opened
+     *
+     * @return The next file or null if there is none
+     */
+    private Path findNextFile() {
+        Path nextFile = null;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(replayDirectory, FILE_GLOB)) {
+            for (Path file : files) {
+                String fileName = file.getFileName().toString();
+                if ((lastFileName == null || fileName.compareTo(lastFileName) > 0)
+                        && (nextFile == null
+                            || fileName.compareTo(nextFile.getFileName().toString()) < 0)) {
+                    nextFile = file;
+                }
+            }
+        } catch (IOException e) {
+            LOG.error("Can't list {}", replayDirectory, e);
+        }
+        return nextFile;
+    }
+
+    private void closeReader() {
+        try {
+            reader.close();
+        } catch (IOException e) {
+            LOG.error("{} did not close cleanly. Got {}", reader.getPath(), e.getMessage());
+        }
+        reader = null;
+    }
+
+    @VisibleForTesting
+    protected long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    @Override
+    public void declareOutputFields(OutputFieldsDeclarer fields) {
+        fields.declare(new Fields(REPLAY_MESSAGE_FIELD_STR));
+    }
+
+    @Override
+    public void close() {
+        if (reader != null) {
+            closeReader();
+        }
+    }
+
+}
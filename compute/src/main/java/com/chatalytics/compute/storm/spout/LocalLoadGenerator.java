@@ -0,0 +1,238 @@
+package com.chatalytics.compute.storm.spout;
+
+import com.chatalytics.core.config.LocalTestConfig;
+import com.chatalytics.core.model.data.FatMessage;
+import com.chatalytics.core.model.data.Message;
+import com.chatalytics.core.model.data.MessageType;
+import com.chatalytics.core.model.data.Room;
+import com.chatalytics.core.model.data.User;
+import com.chatalytics.core.util.ZipfSampler;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Generates messages that look like the traffic of a real team. Users and rooms are picked with a
+ * Zipf distribution so that a few of them send and receive most of the messages, the rate follows
+ * a diurnal cycle with random bursts that go to a single room and the messages contain emojis and
+ * named entities. Messages are scheduled as a Poisson process that's thinned down to the current
+ * rate, so the generator can be polled with the current time and it returns the messages that are
+ * due. Apart from the emitted message itself nothing is allocated per message.
+ */
+class LocalLoadGenerator {
+
+    private static final List<String> EMOJIS = ImmutableList.of("+1", "smile", "joy", "tada",
+        "heart", "fire", "eyes", "100", "rocket", "thinking_face", "wave", "pray", "clap", "coffee",
+        "sob", "sunny", "beers", "ok_hand", "muscle", "skull");
+
+    private static final List<String> ENTITIES = ImmutableList.of("Boston", "New York", "Google",
+        "London", "Microsoft", "Obama", "Paris", "Amazon", "California", "Facebook", "Berlin",
+        "Apple", "Tokyo", "Einstein", "Texas", "Netflix");
+
+    private static final long NANOS_PER_SEC = TimeUnit.SECONDS.toNanos(1);
+
+    /**
+     * The generator doesn't try to catch up with messages that were due longer ago than this
+     */
+    private static final long MAX_LAG_NANOS = NANOS_PER_SEC;
+
+    private final List<User> users;
+    private final List<Room> rooms;
+    private final List<String> sentences;
+    private final String[] emojiTokens;
+    private final DateTimeZone dtZone;
+    private final SplittableRandom rand;
+    private final ZipfSampler userSampler;
+    private final ZipfSampler roomSampler;
+    private final ZipfSampler emojiSampler;
+    private final ZipfSampler entitySampler;
+    private final StringBuilder text;
+
+    private final double messagesPerNano;
+    private final double maxRateMultiplier;
+    private final double diurnalAmplitude;
+    private final long diurnalPeriodNanos;
+    private final double burstsPerNano;
+    private final long burstDurationNanos;
+    private final double burstRateMultiplier;
+    private final double expEmojisPerMessage;
+    private final double expEntitiesPerMessage;
+
+    private final long startNanos;
+    private final long startMillis;
+    private long nextCandidateNanos;
+    private long burstStartNanos;
+    private long burstEndNanos;
+    private Room burstRoom;
+
+    /**
+     * @param startNanos
+     *            The time the generator starts at as returned by {@link System#nanoTime()}
+     * @param startMillis
+     *            The wall clock time at <code>startNanos</code>. The dates of the messages are
+     *            relative to it
+     */
+    LocalLoadGenerator(LocalTestConfig config, List<User> users, List<Room> rooms,
+                       List<String> sentences, DateTimeZone dtZone, long seed, long startNanos,
+                       long startMillis) {
+        Preconditions.checkArgument(config.messagesPerSecond > 0, "The rate has to be positive");
+        Preconditions.checkArgument(config.diurnalAmplitude >= 0 && config.diurnalAmplitude <= 1,
+                                    "The diurnal amplitude has to be between 0 and 1");
+        Preconditions.checkArgument(config.burstRateMultiplier >= 1,
+                                    "The burst rate multiplier can't be less than 1");
+        this.users = users;
+        this.rooms = rooms;
+        this.sentences = sentences;
+        this.dtZone = dtZone;
+        this.rand = new SplittableRandom(seed);
+        this.userSampler = new ZipfSampler(users.size(), config.userZipfExponent);
+        this.roomSampler = new ZipfSampler(rooms.size(), config.roomZipfExponent);
+        this.emojiSampler = new ZipfSampler(EMOJIS.size(), 1);
+        this.entitySampler = new ZipfSampler(ENTITIES.size(), 1);
+        this.emojiTokens = new String[EMOJIS.size()];
+        for (int i = 0; i < emojiTokens.length; i++) {
+            emojiTokens[i] = config.emojiStartChar + EMOJIS.get(i) + config.emojiEndChar;
+        }
+        this.text = new StringBuilder();
+
+        this.messagesPerNano = config.messagesPerSecond / NANOS_PER_SEC;
+        this.diurnalAmplitude = config.diurnalAmplitude;
+        this.diurnalPeriodNanos = TimeUnit.SECONDS.toNanos(config.diurnalPeriodSecs);
+        this.burstsPerNano = config.burstsPerHour / TimeUnit.HOURS.toNanos(1);
+        this.burstDurationNanos = TimeUnit.SECONDS.toNanos(config.burstDurationSecs);
+        this.burstRateMultiplier = config.burstRateMultiplier;
+        this.maxRateMultiplier = (1 + diurnalAmplitude) * burstRateMultiplier;
+        this.expEmojisPerMessage = Math.exp(-config.emojisPerMessage);
+        this.expEntitiesPerMessage = Math.exp(-config.entitiesPerMessage);
+
+        this.startNanos = startNanos;
+        this.startMillis = startMillis;
+        this.nextCandidateNanos = startNanos;
+        this.burstStartNanos = startNanos + nextBurstGapNanos();
+        this.burstEndNanos = burstStartNanos + burstDurationNanos;
+    }
+
+    /**
+     * Returns the next message that is due by <code>nowNanos</code>. Call it until it returns null
+     * to get every message that is due.
+     *
+     * @param nowNanos
+     *            The current time as returned by {@link System#nanoTime()}
+     * @return The next due message or null if there are no messages due
+     */
+    FatMessage nextDueMessage(long nowNanos) {
+        if (nowNanos - nextCandidateNanos > MAX_LAG_NANOS) {
+            nextCandidateNanos = nowNanos;
+        }
+        while (nextCandidateNanos <= nowNanos) {
+            long candidateNanos = nextCandidateNanos;
+            nextCandidateNanos += exponentialNanos(messagesPerNano * maxRateMultiplier);
+            // keep the candidate with the probability the current rate has over the max rate
+            if (rand.nextDouble() * maxRateMultiplier < getRateMultiplier(candidateNanos)) {
+                return createMessage(candidateNanos);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return How many times the configured rate the rate is at the given time
+     */
+    double getRateMultiplier(long timeNanos) {
+        double multiplier = getDiurnalMultiplier(timeNanos);
+        if (isBursting(timeNanos)) {
+            multiplier *= burstRateMultiplier;
+        }
+        return multiplier;
+    }
+
+    private double getDiurnalMultiplier(long timeNanos) {
+        if (diurnalPeriodNanos <= 0) {
+            return 1;
+        }
+        long sinceStartNanos = (timeNanos - startNanos) % diurnalPeriodNanos;
+        double phase = (double) sinceStartNanos / diurnalPeriodNanos;
+        return 1 - diurnalAmplitude * Math.cos(2 * Math.PI * phase);
+    }
+
+    /**
+     * Moves to the burst that is active or comes next at the given time. The time can't go back
+     * between calls
+     *
+     * @return True if there's a burst going on at the given time
+     */
+    boolean isBursting(long timeNanos) {
+        while (timeNanos >= burstEndNanos) {
+            burstStartNanos = burstEndNanos + nextBurstGapNanos();
+            burstEndNanos = burstStartNanos + burstDurationNanos;
+            burstRoom = null;
+        }
+        if (timeNanos < burstStartNanos) {
+            return false;
+        }
+        if (burstRoom == null) {
+            burstRoom = rooms.get(roomSampler.sample(rand.nextDouble()));
+        }
+        return true;
+    }
+
+    private long nextBurstGapNanos() {
+        if (burstsPerNano <= 0) {
+            // far enough to never come but without overflowing when adding the duration
+            return Long.MAX_VALUE / 4;
+        }
+        return exponentialNanos(burstsPerNano);
+    }
+
+    private long exponentialNanos(double ratePerNano) {
+        return Math.max(1, (long) (-Math.log(1 - rand.nextDouble()) / ratePerNano));
+    }
+
+    private FatMessage createMessage(long timeNanos) {
+        User user = users.get(userSampler.sample(rand.nextDouble()));
+        Room room;
+        // the messages over the normal rate go to the bursting room
+        if (isBursting(timeNanos) && rand.nextDouble() * burstRateMultiplier >= 1) {
+            room = burstRoom;
+        } else {
+            room = rooms.get(roomSampler.sample(rand.nextDouble()));
+        }
+
+        text.setLength(0);
+        text.append(sentences.get(rand.nextInt(sentences.size())));
+        for (int i = samplePoisson(expEntitiesPerMessage); i > 0; i--) {
+            text.append(' ').append(ENTITIES.get(entitySampler.sample(rand.nextDouble())));
+        }
+        for (int i = samplePoisson(expEmojisPerMessage); i > 0; i--) {
+            text.append(' ').append(emojiTokens[emojiSampler.sample(rand.nextDouble())]);
+        }
+
+        long timeMillis = startMillis + TimeUnit.NANOSECONDS.toMillis(timeNanos - startNanos);
+        MessageType type = user.isBot() ? MessageType.BOT_MESSAGE : MessageType.MESSAGE;
+        Message message = new Message(new DateTime(timeMillis, dtZone), user.getName(),
+                                      user.getUserId(), text.toString(), room.getRoomId(), type);
+        return new FatMessage(message, user, room);
+    }
+
+    /**
+     * Knuth's algorithm, which is fast enough for the small means of emojis and entities
+     *
+     * @param expMean
+     *            <code>e^-mean</code>
+     */
+    private int samplePoisson(double expMean) {
+        int count = 0;
+        double product = rand.nextDouble();
+        while (product > expMean) {
+            count++;
+            product *= rand.nextDouble();
+        }
+        return count;
+    }
+}
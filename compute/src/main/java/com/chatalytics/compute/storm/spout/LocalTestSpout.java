@@ -34,7 +34,10 @@ import java.util.Map;
 import java.util.Random;
 
 /**
- * This spout will
+ * This spout emits random messages from a corpus of sentences. By default it emits a message from
+ * a random user to a random room every <code>sleepMs</code>. When
+ * <code>messagesPerSecond</code> is set it generates realistic load instead, see
+ * {@link LocalLoadGenerator}
  *
  * @author giannis
  */
@@ -45,6 +48,12 @@ public class LocalTestSpout extends BaseRichSpout {
     public static final String SPOUT_ID = "LOCAL_TEST_SPOUT_ID";
     public static final String LOCAL_TEST_MESSAGE_FIELD_STR = "test-message";
 
+    /**
+     * Upper bound of the messages emitted by one call to {@link #nextTuple()} when generating load,
+     * so that the spout gets to process acks in between
+     */
+    private static final int MAX_EMITS_PER_TUPLE = 1000;
+
     private SpoutOutputCollector collector;
     private long sleepMs;
     private Random rand;
@@ -53,6 +62,7 @@ public class LocalTestSpout extends BaseRichSpout {
     private List<Room> rooms;
     private List<String> sentences;
     private IChatApiDAO localChatDao;
+    private LocalLoadGenerator loadGenerator;
 
     @Override
     public void open(@SuppressWarnings("rawtypes") Map conf, TopologyContext context,
@@ -92,10 +102,21 @@ public class LocalTestSpout extends BaseRichSpout {
         this.localChatDao = ChatAPIFactory.getChatApiDao(config);
         this.users = Lists.newArrayList(localChatDao.getUsers().values());
         this.rooms = Lists.newArrayList(localChatDao.getRooms().values());
+
+        if (localConfig.messagesPerSecond > 0) {
+            LOG.info("Generating {} messages per second", localConfig.messagesPerSecond);
+            this.loadGenerator = new LocalLoadGenerator(localConfig, users, rooms, sentences,
+                                                        dtZone, rand.nextLong(), System.nanoTime(),
+                                                        System.currentTimeMillis());
+        }
     }
 
     @Override
     public void nextTuple() {
+        if (loadGenerator != null) {
+            emitDueMessages();
+            return;
+        }
 
         User fromUser = users.get(rand.nextInt(users.size()));
         Room room = rooms.get(rand.nextInt(rooms.size()));
@@ -117,6 +138,21 @@ public class LocalTestSpout extends BaseRichSpout {
         }
     }
 
+    /**
+     * Emits the generated messages that are due without sleeping. Storm's wait strategy backs off
+     * when there's nothing to emit
+     */
+    private void emitDueMessages() {
+        long nowNanos = System.nanoTime();
+        for (int i = 0; i < MAX_EMITS_PER_TUPLE; i++) {
+            FatMessage fatMessage = loadGenerator.nextDueMessage(nowNanos);
+            if (fatMessage == null) {
+                return;
+            }
+            collector.emit(new Values(fatMessage));
+        }
+    }
+
     @Override
     public void declareOutputFields(OutputFieldsDeclarer fields) {
         fields.declare(new Fields(LOCAL_TEST_MESSAGE_FIELD_STR));
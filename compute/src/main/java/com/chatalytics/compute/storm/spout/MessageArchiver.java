@@ -0,0 +1,102 @@
+package com.chatalytics.compute.storm.spout;
+
+import com.chatalytics.compute.io.JsonRecordCodec;
+import com.chatalytics.compute.io.RecordArchive;
+import com.chatalytics.core.config.ComputeConfig;
+import com.chatalytics.core.json.JsonObjectMapperFactory;
+import com.chatalytics.core.model.data.FatMessage;
+
+import org.apache.storm.task.TopologyContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Appends the {@link FatMessage}s emitted by a spout task to the message {@link RecordArchive}.
+ * Archiving is best effort: messages that can't be archived are logged and still emitted.
+ */
+class MessageArchiver implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MessageArchiver.class);
+
+    private final RecordArchive<FatMessage> archive;
+
+    private MessageArchiver(RecordArchive<FatMessage> archive) {
+        this.archive = archive;
+    }
+
+    /**
+     * Opens the archive for a spout task if archiving is enabled
+     *
+     * @param config
+     *            The compute config with the archive settings
+     * @param spoutId
+     *            The ID of the spout
+     * @param context
+     *            The topology context of the spout task
+     * @return An archiver or null if archiving is disabled
+     */
+    static MessageArchiver open(ComputeConfig config, String spoutId, TopologyContext context) {
+        if (!config.archiveEnabled) {
+            return null;
+        }
+        Path archivePath = getArchivePath(config);
+        String writerId = String.format("%s-%d", spoutId.toLowerCase(), context.getThisTaskId());
+        JsonRecordCodec<FatMessage> codec =
+            new JsonRecordCodec<>(JsonObjectMapperFactory.createObjectMapper(), FatMessage.class);
+        try {
+            RecordArchive<FatMessage> archive =
+                new RecordArchive<>(archivePath, writerId, codec,
+                                    fatMessage -> fatMessage.getMessage().getDate().getMillis(),
+                                    config.archiveBlockBytes, config.archiveMaxOpenFiles,
+                                    config.archiveFlushIntervalMs);
+            LOG.info("Archiving messages to {}", archivePath);
+            return new MessageArchiver(archive);
+        } catch (IOException e) {
+            throw new RuntimeException("Can't open message archive " + archivePath, e);
+        }
+    }
+
+    /**
+     * The archive is written by one topology and replayed by another, so its directory has to be
+     * configured instead of defaulting to one that only a single topology would use
+     *
+     * @return The directory of the message archive
+     */
+    static Path getArchivePath(ComputeConfig config) {
+        if (config.archiveDirectory == null) {
+            throw new IllegalArgumentException("No archive directory specified. Set "
+                + "archiveDirectory in the compute config");
+        }
+        return Paths.get(config.archiveDirectory);
+    }
+
+    void archive(FatMessage fatMessage) {
+        try {
+            archive.append(fatMessage);
+        } catch (IOException | RuntimeException e) {
+            LOG.error("Can't archive message. It won't be replayed from the archive", e);
+        }
+    }
+
+    void maybeFlush() {
+        try {
+            archive.maybeFlush();
+        } catch (IOException e) {
+            LOG.error("Can't write archived messages", e);
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            archive.close();
+        } catch (IOException e) {
+            LOG.error("Message archive did not close cleanly. Got {}", e.getMessage());
+        }
+    }
+}
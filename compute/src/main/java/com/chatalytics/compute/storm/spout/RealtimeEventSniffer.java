@@ -0,0 +1,47 @@
+package com.chatalytics.compute.storm.spout;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+
+/**
+ * Reads the type of a slack RTM event without parsing the whole event. Slack puts the type first
+ * in almost every event, so most events are classified after a few tokens and events of types
+ * that are not handled can be dropped without binding anything.
+ */
+final class RealtimeEventSniffer {
+
+    private static final String TYPE_FIELD = "type";
+
+    private RealtimeEventSniffer() {
+        // utility class
+    }
+
+    /**
+     * @param jsonFactory
+     *            The factory to create the parser with
+     * @param event
+     *            The RTM event
+     * @return The type of the event or null if it's not a JSON object with a string type
+     * @throws IOException
+     *             If the JSON is malformed before the type is found
+     */
+    static String sniffType(JsonFactory jsonFactory, String event) throws IOException {
+        try (JsonParser parser = jsonFactory.createParser(event)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return null;
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String fieldName = parser.getCurrentName();
+                JsonToken valueToken = parser.nextToken();
+                if (TYPE_FIELD.equals(fieldName)) {
+                    return valueToken == JsonToken.VALUE_STRING ? parser.getText() : null;
+                }
+                parser.skipChildren();
+            }
+            return null;
+        }
+    }
+}
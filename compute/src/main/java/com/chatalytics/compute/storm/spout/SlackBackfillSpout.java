@@ -1,5 +1,10 @@
 package com.chatalytics.compute.storm.spout;
 
+import com.chatalytics.compute.backfill.BackfillCheckpoint;
+import com.chatalytics.compute.backfill.BackfillEngine;
+import com.chatalytics.compute.backfill.BackfillEngine.SliceHandler;
+import com.chatalytics.compute.backfill.BackfillSlice;
+import com.chatalytics.compute.chat.dao.ChatApiClientFactory;
 import com.chatalytics.compute.chat.dao.IChatApiDAO;
 import com.chatalytics.compute.chat.dao.slack.SlackApiDAOFactory;
 import com.chatalytics.compute.config.ConfigurationConstants;
@@ -15,6 +20,7 @@ import com.chatalytics.core.model.data.User;
 import com.chatalytics.core.util.YamlUtils;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
 
 import org.apache.storm.shade.com.google.common.base.Preconditions;
 import org.apache.storm.shade.com.google.common.collect.Sets;
@@ -30,13 +36,22 @@ import org.joda.time.Interval;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Spout to be used for batching and/or back filling. Look at {@link SlackBackfillerConfig} for
  * configuration options. Note that this spout only supports {@link #MAX_BACKFILL_DAYS}
+ * <p/>
+ * Rooms are backfilled concurrently by a {@link BackfillEngine} that uses every configured auth
+ * token. Every room and time slice that has been emitted is recorded in a
+ * {@link BackfillCheckpoint}, so a backfill that crashed picks up where it left off.
  *
  * @author giannis
  */
@@ -54,6 +69,12 @@ public class SlackBackfillSpout extends BaseRichSpout {
     private int granularityMins;
     private IChatApiDAO slackDao;
     private IChatAlyticsDAO dbDao;
+    private BackfillEngine backfillEngine;
+    private Path checkpointPath;
+    private MessageArchiver archiver;
+    private long retryBackoffBaseMillis;
+    private long retryBackoffMaxMillis;
+    private int failedRuns;
 
     @Override
     public void open(@SuppressWarnings("rawtypes") Map conf, TopologyContext context,
@@ -63,8 +84,11 @@ public class SlackBackfillSpout extends BaseRichSpout {
         ChatAlyticsConfig config = YamlUtils.readChatAlyticsConfigFromString(configYaml);
         SlackBackfillerConfig chatConfig = (SlackBackfillerConfig) config.computeConfig.chatConfig;
         Preconditions.checkArgument(chatConfig.granularityMins >= 0, "Granularity has to be >= 0");
+        ChatApiClientFactory.registerMetrics(context, config.computeConfig.metricsBucketSecs);
+        this.archiver = MessageArchiver.open(config.computeConfig, SPOUT_ID, context);
 
         open(chatConfig, SlackApiDAOFactory.getSlackApiDao(config),
+             SlackApiDAOFactory.getSlackApiDaoPerToken(config),
              ChatAlyticsDAOFactory.createChatAlyticsDao(config), context, collector);
     }
 
@@ -72,10 +96,35 @@ public class SlackBackfillSpout extends BaseRichSpout {
     protected void open(SlackBackfillerConfig chatConfig, IChatApiDAO slackApiDao,
                         IChatAlyticsDAO dbDao, TopologyContext context,
                         SpoutOutputCollector collector) {
+        open(chatConfig, slackApiDao, ImmutableList.of(slackApiDao), dbDao, context, collector);
+    }
+
+    /**
+     * @param slackApiDaoPerToken
+     *            One DAO for every auth token, used to fetch the history of the rooms
+     */
+    @VisibleForTesting
+    protected void open(SlackBackfillerConfig chatConfig, IChatApiDAO slackApiDao,
+                        List<IChatApiDAO> slackApiDaoPerToken, IChatAlyticsDAO dbDao,
+                        TopologyContext context, SpoutOutputCollector collector) {
         this.granularityMins = chatConfig.granularityMins;
+        this.retryBackoffBaseMillis = TimeUnit.SECONDS.toMillis(chatConfig.retryBackoffBaseSecs);
+        this.retryBackoffMaxMillis = TimeUnit.SECONDS.toMillis(chatConfig.retryBackoffMaxSecs);
         this.collector = collector;
         this.slackDao = slackApiDao;
         this.dbDao = dbDao;
+        this.backfillEngine = new BackfillEngine(slackApiDaoPerToken,
+                                                 chatConfig.requestsPerSecondPerToken,
+                                                 chatConfig.workers,
+                                                 TimeUnit.HOURS.toMillis(chatConfig.sliceHours));
+
+        String checkpointDirectory = chatConfig.checkpointDirectory;
+        if (checkpointDirectory == null) {
+            checkpointDirectory = System.getProperty("java.io.tmpdir");
+        }
+        // there's a single backfill task since every task would backfill all the rooms
+        this.checkpointPath = Paths.get(checkpointDirectory,
+                                        SPOUT_ID.toLowerCase() + ".checkpoint");
 
         // get start date
         if (chatConfig.startDate != null) {
@@ -106,59 +155,157 @@ public class SlackBackfillSpout extends BaseRichSpout {
             }
             return;
         }
-        Interval runInterval = optionalInterval.get();
+        Interval runInterval = getResumedRunInterval(optionalInterval.get());
 
         LOG.info("Running with the following interval {}", runInterval);
 
         Map<String, User> users = slackDao.getUsers();
         // get all the rooms and for each room get the messages
         Map<String, Room> rooms = slackDao.getRooms();
-        backfillRooms(users, rooms, runInterval);
-        dbDao.setLastMessagePullTime(runInterval.getEnd());
+        boolean success = backfillRooms(users, rooms, runInterval);
+        if (archiver != null) {
+            archiver.maybeFlush();
+        }
+        if (success) {
+            failedRuns = 0;
+            dbDao.setLastMessagePullTime(runInterval.getEnd());
+            return;
+        }
+        failedRuns++;
+        long backoffMillis = getRetryBackoffMillis(failedRuns);
+        LOG.warn("Backfill of {} did not complete. Resuming it in {}ms", runInterval,
+                 backoffMillis);
+        try {
+            Thread.sleep(backoffMillis);
+        } catch (InterruptedException e) {
+            LOG.warn("Interrupted while sleeping...");
+            Thread.currentThread().interrupt();
+        }
     }
 
+    /**
+     * Runs without an end date end now, so a run that didn't complete would end later every time
+     * it's resumed and couldn't find its checkpoint. It ends where the checkpoint's run ends
+     * instead, as long as it starts at the same time.
+     *
+     * @return The interval of the checkpoint's run if it starts with <code>runInterval</code> or
+     *         <code>runInterval</code> otherwise
+     */
     @VisibleForTesting
-    protected void backfillRooms(Map<String, User> users, Map<String, Room> rooms,
-                                 Interval runInterval) {
-        Set<String> processedRoomNames = Sets.newHashSet(rooms.keySet());
-        int skippedUnknownMessages = 0;
+    protected Interval getResumedRunInterval(Interval runInterval) {
+        Optional<Interval> checkpointInterval;
+        try {
+            checkpointInterval = BackfillCheckpoint.readRunInterval(checkpointPath);
+        } catch (IOException e) {
+            LOG.error("Can't read backfill checkpoint {}", checkpointPath, e);
+            return runInterval;
+        }
+        if (checkpointInterval.isPresent()
+                && checkpointInterval.get().getStartMillis() == runInterval.getStartMillis()) {
+            LOG.info("Resuming the backfill run of {}", checkpointInterval.get());
+            return checkpointInterval.get();
+        }
+        return runInterval;
+    }
+
+    /**
+     * @param failedRuns
+     *            The number of runs in a row that didn't complete
+     * @return The time to wait before the run is resumed
+     */
+    @VisibleForTesting
+    protected long getRetryBackoffMillis(int failedRuns) {
+        long backoffMillis = retryBackoffBaseMillis << Math.min(failedRuns - 1, 30);
+        if (backoffMillis < 0 || backoffMillis > retryBackoffMaxMillis) {
+            return retryBackoffMaxMillis;
+        }
+        return backoffMillis;
+    }
+
+    /**
+     * Backfills all the rooms over the run interval and emits their messages page by page while
+     * the history is fetched. Slices that were emitted by an earlier attempt of the same run are
+     * skipped.
+     *
+     * @return True if every room was backfilled, false otherwise
+     */
+    @VisibleForTesting
+    protected boolean backfillRooms(Map<String, User> users, Map<String, Room> rooms,
+                                    Interval runInterval) {
+        Set<String> processedRoomNames = Sets.newHashSet();
+        AtomicInteger skippedUnknownMessages = new AtomicInteger();
         LOG.info("Backfilling {} rooms", rooms.size());
-        int roomNum = 0;
-        for (Room room : rooms.values()) {
-            roomNum++;
-            processedRoomNames.add(room.getName());
-
-            List<Message> messages = slackDao.getMessages(runInterval.getStart(),
-                                                          runInterval.getEnd(),
-                                                          room);
-            for (Message message : messages) {
-                User user = users.get(message.getFromUserId());
-                if (message.getType() == MessageType.UNKNOWN) {
-                    LOG.debug("Skipping unkown message type. {}", message);
-                    skippedUnknownMessages++;
-                    continue;
-                } else if  (user == null && message.getType() == MessageType.BOT_MESSAGE) {
-                    user = new User(message.getFromUserId(), null, false, false, true,
-                                    message.getFromName(), message.getFromName(), null,
-                                    DateTime.now(), null, null, null, null, null);
+
+        boolean success;
+        try (BackfillCheckpoint checkpoint = new BackfillCheckpoint(checkpointPath, runInterval)) {
+            SliceHandler emitter = new SliceHandler() {
+
+                @Override
+                public void onMessages(BackfillSlice slice, List<Message> messages) {
+                    skippedUnknownMessages.addAndGet(emitMessages(users, slice.getRoom(),
+                                                                  messages));
                 }
-                if (user == null) {
-                    LOG.warn("Can't find user with userId: {}. Skipping", message.getFromUserId());
-                    continue;
+
+                @Override
+                public void onSliceDone(BackfillSlice slice) {
+                    processedRoomNames.add(slice.getRoom().getName());
+                    completeSlice(checkpoint, slice);
                 }
-                FatMessage fatMessage = new FatMessage(message, user, room);
-                collector.emit(new Values(fatMessage));
+            };
+            success = backfillEngine.backfill(rooms.values(), runInterval,
+                                              checkpoint.getCompletedSlices(), emitter);
+            if (success) {
+                checkpoint.delete();
             }
-            logProgress(roomNum, rooms.size());
-
+        } catch (IOException e) {
+            LOG.error("Can't use backfill checkpoint {}", checkpointPath, e);
+            return false;
+        } catch (InterruptedException e) {
+            LOG.warn("Interrupted while backfilling...");
+            Thread.currentThread().interrupt();
+            return false;
         }
         LOG.info("Finished backfilling. Skipped {} unknown msgs. Processed {} rooms. They were: {}",
                  skippedUnknownMessages, processedRoomNames.size(), processedRoomNames);
+        return success;
     }
 
-    private void logProgress(int roomNum, int totalRooms) {
-        if (roomNum % 20 == 0) {
-            LOG.info("Successfully backfilled {}/{} rooms", roomNum, totalRooms);
+    /**
+     * Emits a {@link FatMessage} for every message of a room
+     *
+     * @return The number of messages skipped because their type is unknown
+     */
+    private int emitMessages(Map<String, User> users, Room room, List<Message> messages) {
+        int skippedUnknownMessages = 0;
+        for (Message message : messages) {
+            User user = users.get(message.getFromUserId());
+            if (message.getType() == MessageType.UNKNOWN) {
+                LOG.debug("Skipping unkown message type. {}", message);
+                skippedUnknownMessages++;
+                continue;
+            } else if  (user == null && message.getType() == MessageType.BOT_MESSAGE) {
+                user = new User(message.getFromUserId(), null, false, false, true,
+                                message.getFromName(), message.getFromName(), null,
+                                DateTime.now(), null, null, null, null, null);
+            }
+            if (user == null) {
+                LOG.warn("Can't find user with userId: {}. Skipping", message.getFromUserId());
+                continue;
+            }
+            FatMessage fatMessage = new FatMessage(message, user, room);
+            collector.emit(new Values(fatMessage));
+            if (archiver != null) {
+                archiver.archive(fatMessage);
+            }
+        }
+        return skippedUnknownMessages;
+    }
+
+    private void completeSlice(BackfillCheckpoint checkpoint, BackfillSlice slice) {
+        try {
+            checkpoint.complete(slice);
+        } catch (IOException e) {
+            LOG.error("Can't checkpoint {}. It will be backfilled again on resume", slice, e);
         }
     }
 
@@ -201,6 +348,12 @@ public class SlackBackfillSpout extends BaseRichSpout {
 
     @Override
     public void close() {
+        if (backfillEngine != null) {
+            backfillEngine.close();
+        }
+        if (archiver != null) {
+            archiver.close();
+        }
         if (dbDao != null && dbDao.isRunning()) {
             dbDao.stopAsync().awaitTerminated();
         }
@@ -1,21 +1,35 @@
 package com.chatalytics.compute.storm.spout;
 
 import com.chatalytics.compute.chat.dao.ChatAPIFactory;
+import com.chatalytics.compute.chat.dao.ChatApiClientFactory;
+import com.chatalytics.compute.chat.dao.ChatDirectory;
 import com.chatalytics.compute.chat.dao.IChatApiDAO;
 import com.chatalytics.compute.chat.dao.slack.JsonSlackDAO;
 import com.chatalytics.compute.config.ConfigurationConstants;
+import com.chatalytics.compute.io.Journal;
+import com.chatalytics.compute.io.JournalEntry;
+import com.chatalytics.compute.io.JsonRecordCodec;
+import com.chatalytics.compute.io.MappedSpillFile;
+import com.chatalytics.compute.io.SpillingQueue;
+import com.chatalytics.core.InputSourceType;
 import com.chatalytics.core.config.ChatAlyticsConfig;
 import com.chatalytics.core.config.SlackConfig;
+import com.chatalytics.core.json.JsonObjectMapperFactory;
 import com.chatalytics.core.model.data.FatMessage;
 import com.chatalytics.core.model.data.Message;
 import com.chatalytics.core.model.data.MessageType;
 import com.chatalytics.core.model.data.Room;
 import com.chatalytics.core.model.data.User;
 import com.chatalytics.core.util.YamlUtils;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Optional;
 import com.google.common.base.Throwables;
+import com.google.common.collect.Maps;
 
+import org.apache.storm.metric.api.IMetric;
 import org.apache.storm.spout.SpoutOutputCollector;
 import org.apache.storm.task.TopologyContext;
 import org.apache.storm.topology.OutputFieldsDeclarer;
@@ -30,8 +44,12 @@ import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
 import java.util.Map;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.Queue;
 
 import javax.websocket.ClientEndpoint;
 import javax.websocket.OnError;
@@ -41,28 +59,51 @@ import javax.websocket.WebSocketContainer;
 
 /**
  * Spout that pulls messages from the slack API and emits {@link FatMessage}s to subscribed bolts.
+ * Messages are buffered in memory until they're emitted. When the bolts fall behind and the buffer
+ * fills up, messages are spilled to a memory mapped file and emitted from there once the buffer is
+ * drained.
+ * <p/>
+ * When journaling is enabled every message is written to a local {@link Journal} as soon as it's
+ * received and emitted with its journal offset as the message ID. The offset is completed once
+ * storm acks the tuple and failed tuples are emitted again. On startup every message after the
+ * last committed offset is replayed, so messages received but not processed before a restart are
+ * not lost.
+ * <p/>
+ * Users and rooms are resolved from a {@link ChatDirectory} that's loaded when the spout opens and
+ * updated from the user and channel events of the realtime stream, so messages can be processed
+ * without calling the slack API.
  *
  * @author giannis
  */
-@ClientEndpoint(decoders = { WebSocketMessageDecoder.class })
+@ClientEndpoint
 public class SlackMessageSpout extends BaseRichSpout {
 
     private static final long serialVersionUID = -6294446748544704853L;
     private static final Logger LOG = LoggerFactory.getLogger(SlackMessageSpout.class);
     public static final String SPOUT_ID = "SLACK_MESSAGE_SPOUT_ID";
     public static final String SLACK_MESSAGE_FIELD_STR = "slack-message";
+    private static final String QUEUE_DEPTH_METRIC = "slack-message-queue-depth";
+    private static final String SPILL_BYTES_METRIC = "slack-message-spill-bytes";
+    private static final String EVENT_TYPE_MESSAGE = "message";
+    private static final String EVENT_TYPE_USER_CHANGE = "user_change";
+    private static final String EVENT_TYPE_TEAM_JOIN = "team_join";
+    private static final String EVENT_TYPE_CHANNEL_CREATED = "channel_created";
+    private static final String EVENT_TYPE_CHANNEL_RENAME = "channel_rename";
+    private static final String EVENT_TYPE_GROUP_RENAME = "group_rename";
 
     private IChatApiDAO slackDao;
+    private ChatDirectory directory;
+    private ObjectMapper eventMapper;
     private SpoutOutputCollector collector;
 
-    private final ConcurrentLinkedQueue<FatMessage> unemittedMessages;
+    private SpillingQueue<JournalEntry<FatMessage>> unemittedMessages;
+    private Journal<Message> journal;
+    private MessageArchiver archiver;
+    private Map<Long, JournalEntry<FatMessage>> pendingMessages;
+    private Queue<JournalEntry<FatMessage>> failedMessages;
     private Session session;
     private Optional<DateTime> startDate;
 
-    public SlackMessageSpout() {
-        unemittedMessages = new ConcurrentLinkedQueue<>();
-    }
-
     @Override
     public void open(@SuppressWarnings("rawtypes") Map conf, TopologyContext context,
                      SpoutOutputCollector collector) {
@@ -72,16 +113,30 @@ public class SlackMessageSpout extends BaseRichSpout {
         LOG.info("Loaded config...");
         WebSocketContainer webSocketContainer = JdkContainerProvider.getWebSocketContainer();
         IChatApiDAO slackDao = ChatAPIFactory.getChatApiDao(config);
-        SlackConfig slackConfig = (SlackConfig) config.computeConfig.chatConfig;
-        open(slackConfig, slackDao, webSocketContainer, context, collector);
+        ChatApiClientFactory.registerMetrics(context, config.computeConfig.metricsBucketSecs);
+        open(config, slackDao, webSocketContainer, context, collector);
     }
 
     @VisibleForTesting
-    protected void open(SlackConfig slackConfig, IChatApiDAO slackDao,
+    protected void open(ChatAlyticsConfig config, IChatApiDAO slackDao,
                         WebSocketContainer webSocketContainer, TopologyContext context,
                         SpoutOutputCollector collector) {
         this.slackDao = slackDao;
         this.collector = collector;
+        SlackConfig slackConfig = (SlackConfig) config.computeConfig.chatConfig;
+        this.unemittedMessages = createMessageQueue(slackConfig, context);
+        this.pendingMessages = Maps.newHashMap();
+        this.failedMessages = new ArrayDeque<>();
+        this.eventMapper = JsonObjectMapperFactory.createObjectMapper(InputSourceType.SLACK);
+        this.directory = new ChatDirectory(slackDao, slackConfig.directoryReconcileIntervalSecs);
+        directory.load();
+        directory.startAsync();
+
+        int bucketSecs = config.computeConfig.metricsBucketSecs;
+        context.registerMetric(QUEUE_DEPTH_METRIC,
+                               (IMetric) () -> unemittedMessages.size(), bucketSecs);
+        context.registerMetric(SPILL_BYTES_METRIC,
+                               (IMetric) () -> unemittedMessages.getSpilledBytes(), bucketSecs);
 
         String startDateNullable = slackConfig.startDate;
         // get end date, if there is one
@@ -91,9 +146,104 @@ public class SlackMessageSpout extends BaseRichSpout {
             this.startDate = Optional.absent();
         }
 
+        if (slackConfig.journalEnabled) {
+            this.journal = openJournal(slackConfig, context);
+            // everything that was spilled is in the journal too
+            unemittedMessages.clear();
+            try {
+                journal.replay(this::enqueueMessage);
+            } catch (IOException e) {
+                throw new RuntimeException("Can't replay message journal", e);
+            }
+        }
+
+        this.archiver = MessageArchiver.open(config.computeConfig, SPOUT_ID, context);
         openRealtimeConnection(slackConfig, webSocketContainer);
     }
 
+    /**
+     * Opens the journal of this task and makes sure its committed offset gets persisted
+     *
+     * @param slackConfig
+     *            The slack config with the journal settings
+     * @param context
+     *            The topology context
+     * @return The message journal
+     */
+    private Journal<Message> openJournal(SlackConfig slackConfig, TopologyContext context) {
+        Path journalDirectory = getTaskFileDirectory(slackConfig.journalDirectory, context);
+        Path journalPath = journalDirectory.resolve(String.format("%s-%d-journal",
+                                                                  SPOUT_ID.toLowerCase(),
+                                                                  context.getThisTaskId()));
+        JsonRecordCodec<Message> codec =
+            new JsonRecordCodec<>(JsonObjectMapperFactory.createObjectMapper(), Message.class);
+        try {
+            return new Journal<>(journalPath, codec, slackConfig.journalSegmentBytes,
+                                 slackConfig.journalSyncBatchSize,
+                                 slackConfig.journalSyncIntervalMs);
+        } catch (IOException e) {
+            throw new RuntimeException("Can't open message journal " + journalPath, e);
+        }
+    }
+
+    /**
+     * Creates the queue that buffers messages until they're emitted. Every task gets its own spill
+     * file so messages spilled before a restart are emitted by the same task.
+     *
+     * @param slackConfig
+     *            The slack config with the buffer settings
+     * @param context
+     *            The topology context
+     * @return The message queue
+     */
+    private SpillingQueue<JournalEntry<FatMessage>> createMessageQueue(SlackConfig slackConfig,
+                                                                       TopologyContext context) {
+        Path spillDirectory = getTaskFileDirectory(slackConfig.spillDirectory, context);
+        Path spillPath = spillDirectory.resolve(String.format("%s-%d.spill",
+                                                              SPOUT_ID.toLowerCase(),
+                                                              context.getThisTaskId()));
+        ObjectMapper objectMapper = JsonObjectMapperFactory.createObjectMapper();
+        JavaType entryType = objectMapper.getTypeFactory()
+                                         .constructParametricType(JournalEntry.class,
+                                                                  FatMessage.class);
+        JsonRecordCodec<JournalEntry<FatMessage>> codec =
+            new JsonRecordCodec<>(objectMapper, entryType);
+        try {
+            MappedSpillFile spillFile =
+                new MappedSpillFile(spillPath, slackConfig.spillMapRegionBytes);
+            return new SpillingQueue<>(slackConfig.maxBufferedMessages, spillFile, codec);
+        } catch (IOException e) {
+            throw new RuntimeException("Can't open spill file " + spillPath, e);
+        }
+    }
+
+    /**
+     * Gets the directory of the files a task keeps across restarts. Task IDs are only unique within
+     * a topology, so when no directory is configured the default one is named after the topology
+     * ID. Otherwise two topologies, or two workers on the same host, would share the same files.
+     *
+     * @param configuredDirectory
+     *            The configured directory or null to use the default one
+     * @param context
+     *            The topology context
+     * @return The directory, which is created if it doesn't exist
+     */
+    private static Path getTaskFileDirectory(String configuredDirectory,
+                                             TopologyContext context) {
+        Path directory;
+        if (configuredDirectory != null) {
+            directory = Paths.get(configuredDirectory);
+        } else {
+            directory = Paths.get(System.getProperty("java.io.tmpdir"),
+                                  "chatalytics-" + context.getStormId());
+        }
+        try {
+            return Files.createDirectories(directory);
+        } catch (IOException e) {
+            throw new RuntimeException("Can't create directory " + directory, e);
+        }
+    }
+
     /**
      * Tries to initiate the realtime connection with retries
      *
@@ -145,15 +295,80 @@ public class SlackMessageSpout extends BaseRichSpout {
     }
 
     /**
-     * Called when a new chat message event is received. A {@link FatMessage} is created and pushed
-     * to a concurrent queue for consumption.
+     * Called for every event of the realtime stream. Message events are passed on to
+     * {@link #onMessageEvent(Message, Session)} and user and channel events update the directory.
+     * Every other event is dropped as soon as its type is sniffed, without parsing the rest of it.
+     *
+     * @param event
+     *            The JSON event
+     * @param session
+     *            The active websocket session
+     */
+    @OnMessage
+    public void onRealtimeEvent(String event, Session session) {
+        String type;
+        try {
+            type = RealtimeEventSniffer.sniffType(eventMapper.getFactory(), event);
+        } catch (IOException e) {
+            LOG.error("Could not parse event {}. Will not process event...", event);
+            return;
+        }
+        if (type == null) {
+            return;
+        }
+        try {
+            switch (type) {
+                case EVENT_TYPE_MESSAGE:
+                    onMessageEvent(eventMapper.readValue(event, Message.class), session);
+                    break;
+                case EVENT_TYPE_USER_CHANGE:
+                case EVENT_TYPE_TEAM_JOIN:
+                    User user = eventMapper.treeToValue(eventMapper.readTree(event).get("user"),
+                                                        User.class);
+                    LOG.debug("Updating user {}", user.getUserId());
+                    directory.putUser(user);
+                    break;
+                case EVENT_TYPE_CHANNEL_CREATED:
+                    directory.putRoom(createdRoom(eventMapper.readTree(event).get("channel")));
+                    break;
+                case EVENT_TYPE_CHANNEL_RENAME:
+                case EVENT_TYPE_GROUP_RENAME:
+                    JsonNode channelNode = eventMapper.readTree(event).get("channel");
+                    directory.renameRoom(channelNode.get("id").asText(),
+                                         channelNode.get("name").asText());
+                    break;
+                default:
+                    break;
+            }
+        } catch (IOException | RuntimeException e) {
+            LOG.error("Could not process event {}", event, e);
+        }
+    }
+
+    /**
+     * The <code>channel_created</code> event only has the basic fields of the channel. The rest
+     * get filled in by the next reconciliation of the directory.
+     */
+    private Room createdRoom(JsonNode channelNode) {
+        String roomId = channelNode.get("id").asText();
+        DateTime creationDate = new DateTime(channelNode.get("created").asLong() * 1000L);
+        JsonNode creatorNode = channelNode.get("creator");
+        String ownerUserId = creatorNode == null ? null : creatorNode.asText();
+        return new Room(roomId, channelNode.get("name").asText(), null, null, creationDate,
+                        ownerUserId, false, roomId.startsWith("G"), null, null);
+    }
+
+    /**
+     * Called when a new chat message event is received. The message is journaled and then a
+     * {@link FatMessage} is created and pushed to a bounded queue, that spills to disk, for
+     * consumption. Messages are archived here and not when they're replayed from the journal, so
+     * that they're archived once.
      *
      * @param message
      *            The message event
      * @param session
      *            The active websocket session
      */
-    @OnMessage
     public void onMessageEvent(Message message, Session session) {
         LOG.debug("Got event {}", message);
 
@@ -162,10 +377,32 @@ public class SlackMessageSpout extends BaseRichSpout {
             return;
         }
 
-        Map<String, User> users = slackDao.getUsers();
-        Map<String, Room> rooms = slackDao.getRooms();
+        long offset = JournalEntry.NO_OFFSET;
+        if (journal != null) {
+            try {
+                offset = journal.append(message);
+            } catch (IOException e) {
+                LOG.error("Can't journal message. It won't be replayed after a restart", e);
+            }
+        }
+        FatMessage fatMessage = enqueueMessage(offset, message);
+        if (fatMessage != null && archiver != null) {
+            archiver.archive(fatMessage);
+        }
+    }
 
-        User fromUser = users.get(message.getFromUserId());
+    /**
+     * Creates a {@link FatMessage} and pushes it to the queue of messages to emit. Messages that
+     * can't be emitted are completed in the journal right away.
+     *
+     * @param offset
+     *            The journal offset of the message or {@link JournalEntry#NO_OFFSET}
+     * @param message
+     *            The message
+     * @return The enqueued message or null if it can't be emitted
+     */
+    private FatMessage enqueueMessage(long offset, Message message) {
+        User fromUser = directory.getUser(message.getFromUserId());
         if (fromUser == null && message.getType() == MessageType.BOT_MESSAGE) {
             fromUser = new User(message.getFromUserId(), null, false, false, true,
                                 message.getFromName(), message.getFromName(), null, DateTime.now(),
@@ -174,16 +411,24 @@ public class SlackMessageSpout extends BaseRichSpout {
 
         if (fromUser == null) {
             LOG.warn("Can't find user with userId: {}. Skipping", message.getFromUserId());
-            return;
+            completeMessage(offset);
+            return null;
         }
 
-        Room room = rooms.get(message.getRoomId());
+        Room room = directory.getRoom(message.getRoomId());
         if (room == null && message.getRoomId() != null) {
             room = new Room(message.getRoomId(), message.getRoomId(), null,
                             DateTime.now(DateTimeZone.UTC), null, null, false, true, null, null);
         }
         FatMessage fatMessage = new FatMessage(message, fromUser, room);
-        unemittedMessages.add(fatMessage);
+        unemittedMessages.add(new JournalEntry<>(offset, fatMessage));
+        return fatMessage;
+    }
+
+    private void completeMessage(long offset) {
+        if (journal != null && offset != JournalEntry.NO_OFFSET) {
+            journal.complete(offset);
+        }
     }
 
     /**
@@ -200,11 +445,8 @@ public class SlackMessageSpout extends BaseRichSpout {
             return false;
         }
         DateTime messageDate = message.getDate();
-        if (startDate.get().equals(messageDate) || startDate.get().isAfter(messageDate)) {
-            return true;
-        } else {
-            return false;
-        }
+        // compare instants since the dates may not be in the same time zone
+        return !messageDate.isAfter(startDate.get());
     }
 
     /**
@@ -220,13 +462,68 @@ public class SlackMessageSpout extends BaseRichSpout {
 
     /**
      * Consumes from a queue that is populated by the {@link #onMessageEvent(Message, Session)}
-     * method
+     * method. One message is emitted per call so that storm's backpressure keeps the messages that
+     * can't be processed yet in the spill file instead of in memory. Failed messages are emitted
+     * before new ones.
      */
     @Override
     public void nextTuple() {
-        while (!unemittedMessages.isEmpty()) {
-            FatMessage fatMessage = unemittedMessages.remove();
-            collector.emit(new Values(fatMessage));
+        syncJournal();
+        if (archiver != null) {
+            archiver.maybeFlush();
+        }
+
+        JournalEntry<FatMessage> entry = failedMessages.poll();
+        if (entry == null) {
+            entry = unemittedMessages.poll();
+        }
+        if (entry == null) {
+            return;
+        }
+        if (entry.isJournaled()) {
+            pendingMessages.put(entry.getOffset(), entry);
+            collector.emit(new Values(entry.getRecord()), entry.getOffset());
+        } else {
+            collector.emit(new Values(entry.getRecord()));
+        }
+    }
+
+    private void syncJournal() {
+        if (journal == null) {
+            return;
+        }
+        try {
+            journal.maybeSync();
+        } catch (IOException e) {
+            LOG.error("Can't sync message journal", e);
+        }
+    }
+
+    /**
+     * Called when a message has been processed by all the bolts. Its journal offset is completed.
+     *
+     * @param msgId
+     *            The journal offset of the message
+     */
+    @Override
+    public void ack(Object msgId) {
+        Long offset = (Long) msgId;
+        pendingMessages.remove(offset);
+        completeMessage(offset);
+    }
+
+    /**
+     * Called when a message failed or timed out. It's queued to be emitted again.
+     *
+     * @param msgId
+     *            The journal offset of the message
+     */
+    @Override
+    public void fail(Object msgId) {
+        JournalEntry<FatMessage> entry = pendingMessages.remove(msgId);
+        if (entry != null) {
+            LOG.debug("Message at offset {} failed. Emitting it again", msgId);
+            failedMessages.add(entry);
         }
     }
 
@@ -237,6 +534,9 @@ public class SlackMessageSpout extends BaseRichSpout {
 
     @Override
     public void close() {
+        if (directory != null) {
+            directory.stopAsync();
+        }
         if (session != null) {
             try {
                 session.close();
@@ -244,6 +544,23 @@ public class SlackMessageSpout extends BaseRichSpout {
                 LOG.error("Session did not close cleanly. Got {}", e.getMessage());
             }
         }
+        if (unemittedMessages != null) {
+            try {
+                unemittedMessages.close();
+            } catch (IOException e) {
+                LOG.error("Spill file did not close cleanly. Got {}", e.getMessage());
+            }
+        }
+        if (archiver != null) {
+            archiver.close();
+        }
+        if (journal != null) {
+            try {
+                journal.close();
+            } catch (IOException e) {
+                LOG.error("Journal did not close cleanly. Got {}", e.getMessage());
+            }
+        }
     }
 
 }
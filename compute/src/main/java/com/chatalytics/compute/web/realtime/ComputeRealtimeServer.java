@@ -13,9 +13,11 @@ import org.eclipse.jetty.server.Server;
 public class ComputeRealtimeServer extends AbstractIdleService {
 
     private final Server server;
+    private final RealtimeResource realtimeResource;
 
-    public ComputeRealtimeServer(Server server) {
+    public ComputeRealtimeServer(Server server, RealtimeResource realtimeResource) {
         this.server = server;
+        this.realtimeResource = realtimeResource;
     }
 
     @Override
@@ -26,6 +28,7 @@ public class ComputeRealtimeServer extends AbstractIdleService {
     @Override
     protected void shutDown() throws Exception {
         server.stop();
+        realtimeResource.close();
     }
 
 }
@@ -13,6 +13,8 @@ import org.eclipse.jetty.websocket.jsr356.server.deploy.WebSocketServerContainer
 import javax.servlet.ServletException;
 import javax.websocket.DeploymentException;
 import javax.websocket.server.ServerContainer;
+import javax.websocket.server.ServerEndpointConfig;
+import javax.websocket.server.ServerEndpointConfig.Configurator;
 
 /**
  * Factory for building the realtime compute server
@@ -43,15 +45,28 @@ public class ComputeRealtimeServerFactory {
         jerseyServlet.setInitParameter(PackagesResourceConfig.PROPERTY_PACKAGES,
                                        StatusResource.class.getPackage().toString());
         server.setHandler(context);
+        // a single instance serves all the sessions so that they can be found by each other
+        RealtimeResource realtimeResource = new RealtimeResource(config.computeConfig);
+        ServerEndpointConfig serverConfig =
+                ServerEndpointConfig.Builder
+                                    .create(RealtimeResource.class,
+                                            RealtimeResource.RT_FULL_ENDPOINT)
+                                    .configurator(new Configurator() {
+                                        @Override
+                                        public <T> T getEndpointInstance(Class<T> endpointClass)
+                                                throws InstantiationException {
+                                            return endpointClass.cast(realtimeResource);
+                                        }
+                                    }).build();
         ServerContainer wscontainer;
         try {
             wscontainer = WebSocketServerContainerInitializer.configureContext(context);
-            wscontainer.addEndpoint(RealtimeResource.class);
+            wscontainer.addEndpoint(serverConfig);
         } catch (ServletException | DeploymentException e) {
             throw new RuntimeException("Can't instantiate websocket. Reason: " + e.getMessage());
         }
 
-        return new ComputeRealtimeServer(server);
+        return new ComputeRealtimeServer(server, realtimeResource);
     }
 
 }
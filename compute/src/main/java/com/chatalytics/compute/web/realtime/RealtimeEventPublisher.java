@@ -0,0 +1,260 @@
+package com.chatalytics.compute.web.realtime;
+
+import com.chatalytics.core.RealtimeOverflowPolicy;
+import com.chatalytics.core.model.data.ChatAlyticsEvent;
+import com.chatalytics.core.model.data.ChatAlyticsEventBatch;
+import com.chatalytics.core.realtime.BinaryEventCodec;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.websocket.RemoteEndpoint;
+
+/**
+ * Publishes {@link ChatAlyticsEvent}s to the realtime compute server without making the publisher
+ * wait for the socket. Events go in a bounded buffer and a sender thread takes them out in
+ * {@link ChatAlyticsEventBatch}es, which are sent as soon as they're full or their oldest event
+ * has waited long enough. One batch is in flight at a time, and the next one fills up while it's
+ * being sent. When the buffer is full the {@link RealtimeOverflowPolicy} decides whether the oldest
+ * event is dropped or the publisher waits.
+ * <p/>
+ * Batches are sent as binary frames encoded with {@link BinaryEventCodec} if the session
+ * negotiated them, or as JSON text frames otherwise.
+ */
+public class RealtimeEventPublisher implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RealtimeEventPublisher.class);
+
+    /**
+     * Maximum time to wait for a batch to be sent before giving up on it
+     */
+    private static final long SEND_TIMEOUT_MS = 10 * 1000;
+
+    private final RemoteEndpoint.Async remote;
+    private final BinaryEventCodec binaryCodec;
+    private final BlockingQueue<ChatAlyticsEvent> buffer;
+    private final int batchSize;
+    private final long batchDelayNanos;
+    private final RealtimeOverflowPolicy overflowPolicy;
+    private final ExecutorService sendExecutor;
+
+    private final AtomicLong droppedEvents;
+    private final AtomicLong blockedMillis;
+    private final AtomicLong sentBatches;
+    private final AtomicLong sentEvents;
+    private final AtomicLong failedBatches;
+
+    private Future<Void> inFlight;
+
+    /**
+     * @param remote
+     *            The remote of the realtime compute server session
+     * @param binary
+     *            Send binary frames instead of JSON
+     * @param bufferSize
+     *            Number of events that can wait to be sent
+     * @param batchSize
+     *            Maximum number of events sent together
+     * @param batchDelayMs
+     *            Maximum time an event waits for more events to be sent with
+     * @param overflowPolicy
+     *            What happens when the buffer is full
+     */
+    public RealtimeEventPublisher(RemoteEndpoint.Async remote, boolean binary, int bufferSize,
+                                  int batchSize, long batchDelayMs,
+                                  RealtimeOverflowPolicy overflowPolicy) {
+        Preconditions.checkArgument(batchSize > 0, "The batch size has to be positive");
+        this.remote = remote;
+        this.binaryCodec = binary ? new BinaryEventCodec() : null;
+        this.buffer = new ArrayBlockingQueue<>(bufferSize);
+        this.batchSize = batchSize;
+        this.batchDelayNanos = TimeUnit.MILLISECONDS.toNanos(batchDelayMs);
+        this.overflowPolicy = overflowPolicy;
+        this.sendExecutor =
+            Executors.newSingleThreadExecutor(new ThreadFactoryBuilder().setDaemon(true)
+                                                                        .setNameFormat("rt-send-%d")
+                                                                        .build());
+        this.droppedEvents = new AtomicLong();
+        this.blockedMillis = new AtomicLong();
+        this.sentBatches = new AtomicLong();
+        this.sentEvents = new AtomicLong();
+        this.failedBatches = new AtomicLong();
+    }
+
+    /**
+     * Starts sending the published events
+     */
+    public void start() {
+        sendExecutor.submit(this::sendEvents);
+    }
+
+    /**
+     * Buffers an event to be sent. Depending on the {@link RealtimeOverflowPolicy} this either
+     * drops the oldest buffered event or waits for room when the buffer is full
+     *
+     * @param event
+     *            The event to publish
+     */
+    public void publish(ChatAlyticsEvent event) {
+        if (buffer.offer(event)) {
+            return;
+        }
+        if (overflowPolicy == RealtimeOverflowPolicy.BLOCK) {
+            long startMs = System.currentTimeMillis();
+            try {
+                buffer.put(event);
+            } catch (InterruptedException e) {
+                LOG.warn("Interrupted while waiting to publish {}. Dropping it", event);
+                droppedEvents.incrementAndGet();
+                Thread.currentThread().interrupt();
+            } finally {
+                blockedMillis.addAndGet(System.currentTimeMillis() - startMs);
+            }
+            return;
+        }
+        while (!buffer.offer(event)) {
+            if (buffer.poll() != null) {
+                droppedEvents.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Takes events out of the buffer and sends them in batches until the publisher is closed.
+     * Whatever's left in the buffer then is sent before returning
+     */
+    private void sendEvents() {
+        List<ChatAlyticsEvent> batch = Lists.newArrayListWithCapacity(batchSize);
+        try {
+            while (true) {
+                batch.add(buffer.take());
+                fillBatch(batch);
+                send(batch);
+            }
+        } catch (InterruptedException e) {
+            LOG.info("Stopped publishing realtime events. Sending the {} buffered events",
+                     batch.size() + buffer.size());
+        }
+        while (!batch.isEmpty() || buffer.drainTo(batch, batchSize) > 0) {
+            send(batch);
+        }
+        waitForInFlight();
+    }
+
+    /**
+     * Adds events to the batch until it's full or its first event has waited for the batch delay
+     */
+    private void fillBatch(List<ChatAlyticsEvent> batch) throws InterruptedException {
+        long deadlineNanos = System.nanoTime() + batchDelayNanos;
+        while (batch.size() < batchSize) {
+            if (buffer.drainTo(batch, batchSize - batch.size()) > 0) {
+                continue;
+            }
+            long remainingNanos = deadlineNanos - System.nanoTime();
+            if (remainingNanos <= 0) {
+                return;
+            }
+            ChatAlyticsEvent event = buffer.poll(remainingNanos, TimeUnit.NANOSECONDS);
+            if (event == null) {
+                return;
+            }
+            batch.add(event);
+        }
+    }
+
+    /**
+     * Sends the batch once the previous one is sent and clears it
+     */
+    private void send(List<ChatAlyticsEvent> batch) {
+        waitForInFlight();
+        try {
+            List<ChatAlyticsEvent> events = ImmutableList.copyOf(batch);
+            if (binaryCodec != null) {
+                inFlight = remote.sendBinary(binaryCodec.encode(events));
+            } else {
+                inFlight = remote.sendObject(new ChatAlyticsEventBatch(events));
+            }
+            sentBatches.incrementAndGet();
+            sentEvents.addAndGet(batch.size());
+        } catch (IOException | RuntimeException e) {
+            LOG.error("Can't publish {} events to the realtime compute server", batch.size(), e);
+            failedBatches.incrementAndGet();
+        }
+        batch.clear();
+    }
+
+    private void waitForInFlight() {
+        if (inFlight == null) {
+            return;
+        }
+        try {
+            inFlight.get(SEND_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException | TimeoutException e) {
+            LOG.error("Can't publish events to the realtime compute server", e);
+            failedBatches.incrementAndGet();
+        } catch (InterruptedException e) {
+            LOG.warn("Interrupted while waiting for events to be published");
+            Thread.currentThread().interrupt();
+        }
+        inFlight = null;
+    }
+
+    public long getAndResetDroppedEvents() {
+        return droppedEvents.getAndSet(0);
+    }
+
+    public long getAndResetBlockedMillis() {
+        return blockedMillis.getAndSet(0);
+    }
+
+    public long getAndResetSentBatches() {
+        return sentBatches.getAndSet(0);
+    }
+
+    public long getAndResetSentEvents() {
+        return sentEvents.getAndSet(0);
+    }
+
+    public long getAndResetFailedBatches() {
+        return failedBatches.getAndSet(0);
+    }
+
+    /**
+     * @return The number of events waiting to be sent
+     */
+    public int getBufferedEvents() {
+        return buffer.size();
+    }
+
+    /**
+     * Stops the sender thread after it sends the buffered events
+     */
+    @Override
+    public void close() {
+        sendExecutor.shutdownNow();
+        try {
+            if (!sendExecutor.awaitTermination(SEND_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                LOG.warn("Gave up waiting for {} realtime events to be sent", buffer.size());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
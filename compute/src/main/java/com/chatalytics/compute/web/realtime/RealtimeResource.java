@@ -1,19 +1,31 @@
 package com.chatalytics.compute.web.realtime;
 
+import com.chatalytics.core.config.ComputeConfig;
 import com.chatalytics.core.model.data.ChatAlyticsEvent;
-import com.chatalytics.core.realtime.ChatAlyticsEventDecoder;
+import com.chatalytics.core.model.data.ChatAlyticsEventBatch;
+import com.chatalytics.core.model.data.EventSubscription;
+import com.chatalytics.core.realtime.BinaryEventCodec;
+import com.chatalytics.core.realtime.ChatAlyticsEventBatchEncoderDecoder;
 import com.chatalytics.core.realtime.ChatAlyticsEventEncoder;
 import com.chatalytics.core.realtime.ConnectionType;
 import com.chatalytics.core.realtime.ConnectionTypeEncoderDecoder;
-import com.google.common.collect.Sets;
+import com.chatalytics.core.realtime.EventSubscriptionEncoderDecoder;
+import com.chatalytics.core.realtime.RealtimeWireFormat;
+import com.chatalytics.core.realtime.SessionSender;
+import com.chatalytics.core.realtime.SubscriberSessions;
+import com.chatalytics.core.realtime.SubscriptionIndex;
+import com.google.common.collect.ImmutableList;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.Closeable;
 import java.io.IOException;
-import java.util.Set;
+import java.nio.ByteBuffer;
 
 import javax.websocket.CloseReason;
+import javax.websocket.DecodeException;
+import javax.websocket.EncodeException;
 import javax.websocket.OnClose;
 import javax.websocket.OnError;
 import javax.websocket.OnMessage;
@@ -24,15 +36,23 @@ import javax.websocket.server.ServerEndpoint;
 
 /**
  * Resource for the bolts to post realtime chatalytics and for the web server to connect to and get
- * the stream of chatalytics
+ * the stream of chatalytics. Clients that negotiate {@link RealtimeWireFormat#BINARY_SUBPROTOCOL}
+ * send and receive binary frames encoded with {@link BinaryEventCodec}. The rest use JSON text
+ * frames. Subscribers receive every event unless they send an {@link EventSubscription} as a text
+ * message, and a {@link SubscriptionIndex} routes every event to the matching subscribers only.
+ * <p/>
+ * Every subscriber has its own bounded queue in a {@link SessionSender}, so a slow subscriber only
+ * ever loses its own events. One instance serves all the sessions.
  *
  * @author giannis
  *
  */
 @ServerEndpoint(value = RealtimeResource.RT_FULL_ENDPOINT,
+                subprotocols = { RealtimeWireFormat.BINARY_SUBPROTOCOL,
+                                 RealtimeWireFormat.JSON_SUBPROTOCOL },
                 encoders = { ChatAlyticsEventEncoder.class, ConnectionTypeEncoderDecoder.class },
-                decoders = { ChatAlyticsEventDecoder.class, ConnectionTypeEncoderDecoder.class })
-public class RealtimeResource {
+                decoders = { ConnectionTypeEncoderDecoder.class })
+public class RealtimeResource implements Closeable {
 
     public static final String RT_COMPUTE_ENDPOINT = "/rtcompute";
     private static final String RT_COMPUTE_ENDPOINT_PARAM = "type";
@@ -41,10 +61,20 @@ public class RealtimeResource {
 
     private static final Logger LOG = LoggerFactory.getLogger(RealtimeResource.class);
 
-    private static Set<Session> sessions;
+    private static final BinaryEventCodec BINARY_CODEC = new BinaryEventCodec();
 
-    public RealtimeResource() {
-        sessions = Sets.newConcurrentHashSet();
+    private final SubscriberSessions subscribers;
+    private final ChatAlyticsEventEncoder eventEncoder;
+    private final ChatAlyticsEventBatchEncoderDecoder batchDecoder;
+    private final EventSubscriptionEncoderDecoder subscriptionDecoder;
+
+    public RealtimeResource(ComputeConfig config) {
+        subscribers = new SubscriberSessions(config.rtSessionQueueSize,
+                                             config.rtSlowConsumerPolicy,
+                                             config.rtSessionReapSecs, "rt-compute");
+        eventEncoder = new ChatAlyticsEventEncoder();
+        batchDecoder = new ChatAlyticsEventBatchEncoderDecoder();
+        subscriptionDecoder = new EventSubscriptionEncoderDecoder();
     }
 
     /**
@@ -59,36 +89,120 @@ public class RealtimeResource {
         String sessionId = session.getId();
         if (type == ConnectionType.SUBSCRIBER) {
             LOG.info("Got a new subscriber connection request with ID {}. Saving session", sessionId);
-            // cleanup sessions
-            Set<Session> closedSessions = Sets.newHashSet();
-            for (Session existingSession : sessions) {
-                if (!existingSession.isOpen()) {
-                    closedSessions.add(existingSession);
-                }
-            }
-            sessions.removeAll(closedSessions);
-
-            sessions.add(session);
-            LOG.info("Active sessions {}. Collecting {} sessions",
-                     sessions.size(), closedSessions.size());
+            subscribers.add(session, RealtimeWireFormat.isBinary(session));
+            LOG.info("Active sessions {}", subscribers.size());
 
         } else {
             LOG.info("Got a new publisher connection request with ID {}", sessionId);
         }
     }
 
+    /**
+     * Called whenever a text message is received. Messages from subscribers are
+     * {@link EventSubscription}s and messages from publishers are batches of events
+     *
+     * @param message
+     *            The message
+     * @param session
+     *            The session that sent the message
+     */
+    @OnMessage
+    public void onTextMessage(String message, Session session) {
+        try {
+            if (subscribers.contains(session)) {
+                EventSubscription subscription = subscriptionDecoder.decode(message);
+                LOG.info("Subscriber {} subscribed to {}", session.getId(), subscription);
+                subscribers.subscribe(session, subscription);
+            } else {
+                publishEvents(batchDecoder.decode(message));
+            }
+        } catch (DecodeException e) {
+            LOG.error("Can't decode message from {}. Dropping it", session.getId(), e);
+        }
+    }
+
+    /**
+     * Publishes a batch of events sent by a publisher to the subscribers, one event at a time
+     *
+     * @param batch
+     *            The events to publish
+     */
+    public void publishEvents(ChatAlyticsEventBatch batch) {
+        for (ChatAlyticsEvent event : batch.getEvents()) {
+            publishEvent(event);
+        }
+    }
+
+    /**
+     * Publishes a binary frame of events sent by a publisher to the subscribers
+     *
+     * @param frame
+     *            The events encoded with {@link BinaryEventCodec}
+     */
     @OnMessage
+    public void publishBinaryEvents(ByteBuffer frame) {
+        try {
+            publishEvents(new ChatAlyticsEventBatch(BINARY_CODEC.decode(frame)));
+        } catch (IOException e) {
+            LOG.error("Can't decode binary frame from publisher. Dropping it", e);
+        }
+    }
+
+    /**
+     * Queues an event for every subscriber that subscribed to it, in the format the subscriber
+     * negotiated. The event is encoded at most once per format and the same frame is shared by all
+     * the subscribers of that format. Closed sessions are skipped and left for the reaper to
+     * collect
+     *
+     * @param event
+     *            The event to send
+     */
     public void publishEvent(ChatAlyticsEvent event) {
-        Set<Session> closedSessions = Sets.newHashSet();
-        for (Session session : sessions) {
-            if (!session.isOpen()) {
-                closedSessions.add(session);
+        String textFrame = null;
+        ByteBuffer binaryFrame = null;
+        boolean encodedText = false;
+        boolean encodedBinary = false;
+        Object coalesceKey = SessionSender.getCoalesceKey(event);
+        for (SessionSender sender : subscribers.getSenders(event)) {
+            if (!sender.getSession().isOpen()) {
                 continue;
             }
-            session.getAsyncRemote().sendObject(event);
+            if (sender.isBinary()) {
+                if (!encodedBinary) {
+                    binaryFrame = encodeBinary(event);
+                    encodedBinary = true;
+                }
+                if (binaryFrame != null) {
+                    sender.send(binaryFrame, coalesceKey);
+                }
+            } else {
+                if (!encodedText) {
+                    textFrame = encodeText(event);
+                    encodedText = true;
+                }
+                if (textFrame != null) {
+                    sender.send(textFrame, coalesceKey);
+                }
+            }
         }
+    }
+
+    private String encodeText(ChatAlyticsEvent event) {
+        try {
+            return eventEncoder.encode(event);
+        } catch (EncodeException e) {
+            LOG.error("Can't encode {} for JSON subscribers", event, e);
+            return null;
+        }
+    }
 
-        sessions.removeAll(closedSessions);
+    private ByteBuffer encodeBinary(ChatAlyticsEvent event) {
+        try {
+            return BINARY_CODEC.encode(ImmutableList.of(event));
+        } catch (IOException e) {
+            LOG.error("Can't encode {} for binary subscribers", event, e);
+            return null;
+        }
     }
 
     /**
@@ -107,7 +221,7 @@ public class RealtimeResource {
         } catch (IOException e) {
             LOG.warn("Couldn't close {}. Reason {}", session.getId(), e.getMessage());
         }
-        sessions.remove(session);
+        subscribers.remove(session);
     }
 
     /**
@@ -122,7 +236,15 @@ public class RealtimeResource {
     }
 
     public int numSessions() {
-        return sessions.size();
+        return subscribers.size();
+    }
+
+    /**
+     * Stops collecting closed sessions
+     */
+    @Override
+    public void close() {
+        subscribers.close();
     }
 
 }
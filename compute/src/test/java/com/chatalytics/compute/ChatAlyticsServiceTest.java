@@ -3,6 +3,7 @@ package com.chatalytics.compute;
 import com.chatalytics.compute.storm.ChatAlyticsStormTopology;
 import com.chatalytics.compute.web.realtime.ComputeRealtimeServer;
 import com.chatalytics.compute.web.realtime.ComputeRealtimeServerFactory;
+import com.chatalytics.compute.web.realtime.RealtimeResource;
 import com.chatalytics.core.InputSourceType;
 import com.chatalytics.core.config.ChatAlyticsConfig;
 
@@ -32,7 +33,8 @@ public class ChatAlyticsServiceTest {
         conf.inputType = InputSourceType.LOCAL_TEST;
         StormTopology stormTopology = ChatAlyticsStormTopology.create(conf);
         ComputeRealtimeServerFactory rtServerFactory = mock(ComputeRealtimeServerFactory.class);
-        ComputeRealtimeServer computeRTServer = new ComputeRealtimeServer(new Server());
+        ComputeRealtimeServer computeRTServer =
+            new ComputeRealtimeServer(new Server(), new RealtimeResource(conf.computeConfig));
         when(rtServerFactory.createComputeRealtimeServer()).thenReturn(computeRTServer);
         ChatAlyticsService underTest = new ChatAlyticsService(stormTopology, rtServerFactory, conf);
         underTest.startUp();
@@ -0,0 +1,103 @@
+package com.chatalytics.compute.backfill;
+
+import com.chatalytics.core.model.data.Room;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.Interval;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests {@link BackfillCheckpoint}
+ */
+public class BackfillCheckpointTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private Path path;
+    private Interval runInterval;
+    private BackfillSlice slice1;
+    private BackfillSlice slice2;
+
+    @Before
+    public void setUp() {
+        path = tempFolder.getRoot().toPath().resolve("backfill.checkpoint");
+        DateTime start = new DateTime(2016, 1, 1, 0, 0, DateTimeZone.UTC);
+        runInterval = new Interval(start, start.plusDays(2));
+        Room room = new Room("r1", "room", null, null, start, null, false, false, null, null);
+        slice1 = new BackfillSlice(room, new Interval(start, start.plusDays(1)));
+        slice2 = new BackfillSlice(room, new Interval(start.plusDays(1), start.plusDays(2)));
+    }
+
+    @Test
+    public void testResume() throws Exception {
+        try (BackfillCheckpoint checkpoint = new BackfillCheckpoint(path, runInterval)) {
+            assertTrue(checkpoint.getCompletedSlices().isEmpty());
+            checkpoint.complete(slice1);
+            checkpoint.complete(slice1);
+        }
+        try (BackfillCheckpoint checkpoint = new BackfillCheckpoint(path, runInterval)) {
+            assertEquals(ImmutableSet.of(slice1.getKey()), checkpoint.getCompletedSlices());
+            checkpoint.complete(slice2);
+        }
+        try (BackfillCheckpoint checkpoint = new BackfillCheckpoint(path, runInterval)) {
+            assertEquals(ImmutableSet.of(slice1.getKey(), slice2.getKey()),
+                         checkpoint.getCompletedSlices());
+        }
+    }
+
+    /**
+     * Makes sure that the interval of the run is read back from the checkpoint and that the
+     * checkpoint is replaced without leaving the temporary file behind
+     */
+    @Test
+    public void testReadRunInterval() throws Exception {
+        assertFalse(BackfillCheckpoint.readRunInterval(path).isPresent());
+        try (BackfillCheckpoint checkpoint = new BackfillCheckpoint(path, runInterval)) {
+            checkpoint.complete(slice1);
+        }
+        Interval checkpointInterval = BackfillCheckpoint.readRunInterval(path).get();
+        assertEquals(runInterval.getStartMillis(), checkpointInterval.getStartMillis());
+        assertEquals(runInterval.getEndMillis(), checkpointInterval.getEndMillis());
+
+        // the interval that's read back resumes the run even though its time zone may differ
+        try (BackfillCheckpoint checkpoint = new BackfillCheckpoint(path, checkpointInterval)) {
+            assertEquals(ImmutableSet.of(slice1.getKey()), checkpoint.getCompletedSlices());
+        }
+        assertEquals(ImmutableList.of(path), ImmutableList.copyOf(Files.list(path.getParent())
+                                                                       .iterator()));
+    }
+
+    @Test
+    public void testDifferentRun() throws Exception {
+        try (BackfillCheckpoint checkpoint = new BackfillCheckpoint(path, runInterval)) {
+            checkpoint.complete(slice1);
+        }
+        Interval otherInterval = new Interval(runInterval.getStart(),
+                                              runInterval.getEnd().plusDays(1));
+        try (BackfillCheckpoint checkpoint = new BackfillCheckpoint(path, otherInterval)) {
+            assertTrue(checkpoint.getCompletedSlices().isEmpty());
+        }
+    }
+
+    @Test
+    public void testDelete() throws Exception {
+        BackfillCheckpoint checkpoint = new BackfillCheckpoint(path, runInterval);
+        checkpoint.complete(slice1);
+        checkpoint.delete();
+        assertFalse(Files.exists(path));
+    }
+}
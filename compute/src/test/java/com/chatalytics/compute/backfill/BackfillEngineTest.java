@@ -0,0 +1,231 @@
+package com.chatalytics.compute.backfill;
+
+import com.chatalytics.compute.backfill.BackfillEngine.SliceHandler;
+import com.chatalytics.compute.chat.dao.IChatApiDAO;
+import com.chatalytics.compute.chat.dao.IChatApiDAO.MessagePageHandler;
+import com.chatalytics.compute.chat.dao.slack.JsonSlackDAO;
+import com.chatalytics.core.config.ChatAlyticsConfig;
+import com.chatalytics.core.config.SlackConfig;
+import com.chatalytics.core.model.data.Message;
+import com.chatalytics.core.model.data.MessageType;
+import com.chatalytics.core.model.data.Room;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.sun.jersey.api.client.Client;
+import com.sun.jersey.api.client.WebResource;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.Interval;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests {@link BackfillEngine}
+ */
+public class BackfillEngineTest {
+
+    private static final long DAY_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+    private IChatApiDAO token1Dao;
+    private IChatApiDAO token2Dao;
+    private BackfillEngine underTest;
+    private DateTime start;
+    private Interval interval;
+
+    @Before
+    public void setUp() {
+        token1Dao = mock(IChatApiDAO.class);
+        token2Dao = mock(IChatApiDAO.class);
+        underTest = new BackfillEngine(ImmutableList.of(token1Dao, token2Dao), 1000, 4, DAY_MILLIS);
+        start = new DateTime(2016, 1, 1, 0, 0, DateTimeZone.UTC);
+        // four and a half days
+        interval = new Interval(start, start.plusDays(4).plusHours(12));
+    }
+
+    @Test
+    public void testBackfill() throws Exception {
+        Room room1 = room("r1", start.minusYears(1));
+        // created during the third slice
+        Room room2 = room("r2", start.plusDays(2).plusHours(3));
+        Message message = new Message(start, "name", "u1", "msg", "r1", MessageType.MESSAGE);
+        stubPages(token1Dao, ImmutableList.of(message), ImmutableList.of(message));
+        stubPages(token2Dao, ImmutableList.of(message), ImmutableList.of(message));
+
+        List<String> handled = Lists.newArrayList();
+        List<String> pages = Lists.newArrayList();
+        boolean success = underTest.backfill(ImmutableList.of(room1, room2), interval,
+                                             ImmutableSet.of(), new SliceHandler() {
+
+            @Override
+            public void onMessages(BackfillSlice slice, List<Message> messages) {
+                assertEquals(1, messages.size());
+                assertFalse(handled.contains(slice.getKey()));
+                pages.add(slice.getKey());
+            }
+
+            @Override
+            public void onSliceDone(BackfillSlice slice) {
+                handled.add(slice.getKey());
+            }
+        });
+
+        assertTrue(success);
+        long startMillis = start.getMillis();
+        assertEquals(ImmutableSet.of(key("r1", startMillis, startMillis + DAY_MILLIS),
+                                     key("r1", startMillis + DAY_MILLIS,
+                                         startMillis + 2 * DAY_MILLIS),
+                                     key("r1", startMillis + 2 * DAY_MILLIS,
+                                         startMillis + 3 * DAY_MILLIS),
+                                     key("r1", startMillis + 3 * DAY_MILLIS,
+                                         startMillis + 4 * DAY_MILLIS),
+                                     key("r1", startMillis + 4 * DAY_MILLIS,
+                                         interval.getEndMillis()),
+                                     key("r2", startMillis + 2 * DAY_MILLIS,
+                                         startMillis + 3 * DAY_MILLIS),
+                                     key("r2", startMillis + 3 * DAY_MILLIS,
+                                         startMillis + 4 * DAY_MILLIS),
+                                     key("r2", startMillis + 4 * DAY_MILLIS,
+                                         interval.getEndMillis())),
+                     ImmutableSet.copyOf(handled));
+        assertEquals(8, handled.size());
+        assertEquals(16, pages.size());
+        // both tokens have plenty of budget so they're used in turns
+        verify(token1Dao, atLeastOnce()).getMessages(any(DateTime.class), any(DateTime.class),
+                                                     any(Room.class),
+                                                     any(MessagePageHandler.class));
+        verify(token2Dao, atLeastOnce()).getMessages(any(DateTime.class), any(DateTime.class),
+                                                     any(Room.class),
+                                                     any(MessagePageHandler.class));
+    }
+
+    @Test
+    public void testBackfill_withCompletedSlices() throws Exception {
+        Room room = room("r1", start);
+        long startMillis = start.getMillis();
+        String completed = key("r1", startMillis, startMillis + DAY_MILLIS);
+
+        List<String> handled = Lists.newArrayList();
+        boolean success = underTest.backfill(ImmutableList.of(room), interval,
+                                             ImmutableSet.of(completed), recordDone(handled));
+        assertTrue(success);
+        assertEquals(4, handled.size());
+        assertFalse(handled.contains(completed));
+    }
+
+    @Test
+    public void testBackfill_withFailedSlice() throws Exception {
+        underTest.close();
+        underTest = new BackfillEngine(ImmutableList.of(token1Dao), 1000, 2, DAY_MILLIS);
+        Room room = room("r1", start);
+        doThrow(new RuntimeException("test"))
+            .when(token1Dao).getMessages(eq(start), any(DateTime.class), eq(room),
+                                         any(MessagePageHandler.class));
+
+        List<String> handled = Lists.newArrayList();
+        boolean success = underTest.backfill(ImmutableList.of(room), interval, ImmutableSet.of(),
+                                             recordDone(handled));
+        assertFalse(success);
+        // the other slices are still handled
+        assertEquals(4, handled.size());
+    }
+
+    /**
+     * Makes sure that a slice with a history page that can't be read is not handed to the handler
+     * as done, so it doesn't get checkpointed and is fetched again on resume
+     */
+    @Test
+    public void testBackfill_withMalformedPage() throws Exception {
+        underTest.close();
+        ChatAlyticsConfig config = new ChatAlyticsConfig();
+        SlackConfig chatConfig = new SlackConfig();
+        chatConfig.authTokens = ImmutableList.of("0");
+        config.computeConfig.chatConfig = chatConfig;
+        Client client = mock(Client.class);
+        WebResource resource = mock(WebResource.class);
+        when(client.resource(chatConfig.getBaseAPIURL())).thenReturn(resource);
+        when(resource.path(anyString())).thenReturn(resource);
+        when(resource.queryParam(anyString(), anyString())).thenReturn(resource);
+        JsonSlackDAO slackDao = spy(new JsonSlackDAO(config, client));
+        String firstPage = "{\"ok\": true, \"has_more\": true, \"messages\": [{\"type\": "
+            + "\"message\", \"user\": \"U1\", \"text\": \"hi\", \"ts\": \"1451606400.000001\"}]}";
+        doReturn(stream(firstPage)).doReturn(stream("{\"ok\": true, \"messages\": ["))
+            .when(slackDao).getJsonStreamWithRetries(any(WebResource.class), anyInt());
+        underTest = new BackfillEngine(ImmutableList.of(slackDao), 1000, 1, DAY_MILLIS);
+
+        List<String> handled = Lists.newArrayList();
+        boolean success = underTest.backfill(ImmutableList.of(room("r1", start)),
+                                             new Interval(start, start.plusDays(1)),
+                                             ImmutableSet.of(), recordDone(handled));
+        assertFalse(success);
+        assertTrue(handled.isEmpty());
+    }
+
+    @SafeVarargs
+    private final void stubPages(IChatApiDAO chatApiDao, List<Message>... pages) {
+        doAnswer(invocation -> {
+            MessagePageHandler handler = (MessagePageHandler) invocation.getArguments()[3];
+            for (int i = 0; i < pages.length; i++) {
+                handler.onPage(pages[i], i == pages.length - 1);
+            }
+            return null;
+        }).when(chatApiDao).getMessages(any(DateTime.class), any(DateTime.class), any(Room.class),
+                                        any(MessagePageHandler.class));
+    }
+
+    private SliceHandler recordDone(List<String> handled) {
+        return new SliceHandler() {
+
+            @Override
+            public void onMessages(BackfillSlice slice, List<Message> messages) {
+                // not needed
+            }
+
+            @Override
+            public void onSliceDone(BackfillSlice slice) {
+                handled.add(slice.getKey());
+            }
+        };
+    }
+
+    private String key(String roomId, long startMillis, long endMillis) {
+        return String.format("%s/%d-%d", roomId, startMillis, endMillis);
+    }
+
+    private InputStream stream(String json) {
+        return new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private Room room(String roomId, DateTime creationDate) {
+        return new Room(roomId, roomId, null, null, creationDate, null, false, false, null, null);
+    }
+
+    @After
+    public void tearDown() {
+        underTest.close();
+    }
+}
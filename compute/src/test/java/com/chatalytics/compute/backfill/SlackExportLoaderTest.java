@@ -0,0 +1,179 @@
+package com.chatalytics.compute.backfill;
+
+import com.chatalytics.compute.backfill.SlackExportLoader.MentionCounts;
+import com.chatalytics.compute.db.dao.IEmojiDAO;
+import com.chatalytics.compute.db.dao.IEntityDAO;
+import com.chatalytics.compute.db.dao.IMessageSummaryDAO;
+import com.chatalytics.compute.entity.ChatEntityExtractor;
+import com.chatalytics.compute.entity.EntityMention;
+import com.chatalytics.core.emoji.EmojiScanner;
+import com.chatalytics.core.emoji.EmojiTrie;
+import com.chatalytics.core.model.data.ChatEntity;
+import com.chatalytics.core.model.data.EmojiEntity;
+import com.chatalytics.core.model.data.MessageSummary;
+import com.chatalytics.core.model.data.MessageType;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+
+import org.joda.time.DateTimeZone;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.ArgumentCaptor;
+
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+/**
+ * Tests {@link SlackExportLoader}
+ */
+public class SlackExportLoaderTest {
+
+    private static final String USERS = "[{\"id\": \"U1\", \"name\": \"jane\", \"deleted\": false,"
+        + " \"profile\": {\"real_name\": \"Jane\", \"image_32\": \"url\"}}]";
+    private static final String CHANNELS = "[{\"id\": \"C1\", \"name\": \"general\", "
+        + "\"topic\": {\"value\": \"\"}, \"created\": 1, \"creator\": \"U1\", "
+        + "\"is_archived\": false}]";
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private IEmojiDAO emojiDao;
+    private IEntityDAO entityDao;
+    private IMessageSummaryDAO messageSummaryDao;
+    private SlackExportLoader underTest;
+
+    @Before
+    public void setUp() {
+        emojiDao = mock(IEmojiDAO.class);
+        entityDao = mock(IEntityDAO.class);
+        messageSummaryDao = mock(IMessageSummaryDAO.class);
+        EmojiScanner emojiScanner = new EmojiScanner(EmojiTrie.compile(ImmutableSet.of("smile")));
+        ChatEntityExtractor entityExtractor = new ChatEntityExtractor(null, message -> {
+            int start = message.indexOf("Boston");
+            if (start < 0) {
+                return ImmutableList.of();
+            }
+            return ImmutableList.of(new EntityMention("Boston", start, start + 6));
+        }, null);
+        // a half hour offset shows that the hours are the ones of the time zone and not UTC
+        underTest = new SlackExportLoader(emojiScanner, entityExtractor, emojiDao, entityDao,
+                                          messageSummaryDao, 2,
+                                          DateTimeZone.forID("Asia/Kolkata"));
+    }
+
+    /**
+     * Makes sure that mentions in the same hour are counted as one row and that messages of
+     * unknown users, rooms and types are skipped
+     */
+    @Test
+    public void testLoad() throws Exception {
+        Path export1 = writeExport("export1.zip",
+            "general/2016-01-01.json",
+            "[" + message("U1", "1451606400.000100", "hi :smile: :smile: from Boston") + ","
+                + message("U1", "1451606400.000100", ":smile:") + ","
+                + message("U2", "1451606401.000100", "unknown user :smile:") + ","
+                + "{\"type\": \"message\", \"user\": \"U1\"}" + ","
+                + message("U1", "1451606402.000100", "later") + "]",
+            "random/2016-01-01.json", "[" + message("U1", "1451606403.000100", ":smile:") + "]");
+        Path export2 = writeExport("export2.zip",
+            "general/2016-01-02.json",
+            "[" + message("U1", "1451692800.000100", "Boston :smile:") + "]");
+
+        MentionCounts counts = underTest.load(ImmutableList.of(export1, export2));
+        assertEquals(4, counts.getMessages());
+        assertEquals(2, counts.getSkippedMessages());
+
+        List<EmojiEntity> emojis = captureEmojis();
+        assertEquals(2, emojis.size());
+        // 00:00 UTC is 05:30 in Kolkata, so the mentions are counted at 05:00 there, which is
+        // 23:30 UTC the day before
+        assertEquals(3, getOccurrences(emojis, 1451604600000L));
+        assertEquals(1, getOccurrences(emojis, 1451691000000L));
+        assertEquals("general", emojis.get(0).getRoomName());
+        assertEquals("jane", emojis.get(0).getUsername());
+
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<Collection<ChatEntity>> entities =
+            ArgumentCaptor.forClass((Class<Collection<ChatEntity>>) (Class<?>) Collection.class);
+        verify(entityDao).persistEntities(entities.capture());
+        assertEquals(2, entities.getValue().size());
+
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<Collection<MessageSummary>> summaries = ArgumentCaptor.forClass(
+            (Class<Collection<MessageSummary>>) (Class<?>) Collection.class);
+        verify(messageSummaryDao).persistMessageSummaries(summaries.capture());
+        assertEquals(2, summaries.getValue().size());
+        int summarizedMessages = 0;
+        for (MessageSummary summary : summaries.getValue()) {
+            assertEquals(MessageType.MESSAGE, summary.getValue());
+            summarizedMessages += summary.getOccurrences();
+        }
+        assertEquals(4, summarizedMessages);
+    }
+
+    private List<EmojiEntity> captureEmojis() {
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<Collection<EmojiEntity>> emojis =
+            ArgumentCaptor.forClass((Class<Collection<EmojiEntity>>) (Class<?>) Collection.class);
+        verify(emojiDao).persistEmojis(emojis.capture());
+        return Lists.newArrayList(emojis.getValue());
+    }
+
+    private int getOccurrences(List<EmojiEntity> emojis, long mentionTimeMillis) {
+        for (EmojiEntity emoji : emojis) {
+            if (emoji.getMentionTime().getMillis() == mentionTimeMillis) {
+                return emoji.getOccurrences();
+            }
+        }
+        return 0;
+    }
+
+    private String message(String user, String ts, String text) {
+        return "{\"type\": \"message\", \"user\": \"" + user + "\", \"text\": \"" + text
+            + "\", \"ts\": \"" + ts + "\"}";
+    }
+
+    /**
+     * Writes an export with the users and channels and the given day files
+     *
+     * @param dayFiles
+     *            Pairs of file names and contents
+     */
+    private Path writeExport(String fileName, String... dayFiles) throws Exception {
+        Path export = tempFolder.getRoot().toPath().resolve(fileName);
+        try (OutputStream out = Files.newOutputStream(export);
+                ZipOutputStream zip = new ZipOutputStream(out)) {
+            writeEntry(zip, "users.json", USERS);
+            writeEntry(zip, "channels.json", CHANNELS);
+            for (int i = 0; i < dayFiles.length; i += 2) {
+                writeEntry(zip, dayFiles[i], dayFiles[i + 1]);
+            }
+        }
+        return export;
+    }
+
+    private void writeEntry(ZipOutputStream zip, String name, String content) throws Exception {
+        zip.putNextEntry(new ZipEntry(name));
+        zip.write(content.getBytes(StandardCharsets.UTF_8));
+        zip.closeEntry();
+    }
+
+    @After
+    public void tearDown() {
+        underTest.close();
+    }
+}
@@ -0,0 +1,233 @@
+package com.chatalytics.compute.chat.dao;
+
+import com.chatalytics.compute.exception.ChatApiException;
+import com.chatalytics.core.model.data.Message;
+import com.chatalytics.core.model.data.Room;
+import com.chatalytics.core.model.data.User;
+import com.google.common.collect.ImmutableList;
+import com.sun.jersey.api.client.ClientHandlerException;
+import com.sun.jersey.api.client.ClientResponse;
+import com.sun.jersey.api.client.UniformInterfaceException;
+import com.sun.jersey.api.client.WebResource;
+import com.sun.jersey.api.client.WebResource.Builder;
+import com.sun.jersey.core.header.InBoundHeaders;
+
+import org.joda.time.DateTime;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.List;
+import java.util.Map;
+
+import javax.ws.rs.core.MediaType;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests the retries of {@link AbstractJSONChatApiDAO}
+ */
+public class AbstractJSONChatApiDAOTest {
+
+    private RecordingRetryPolicy retryPolicy;
+    private WebResource resource;
+    private WebResource token1Resource;
+    private WebResource token2Resource;
+    private Builder token1Builder;
+    private Builder token2Builder;
+    private InputStream jsonStream;
+
+    @Before
+    public void setUp() {
+        retryPolicy = new RecordingRetryPolicy();
+        resource = mock(WebResource.class);
+        when(resource.getURI()).thenReturn(URI.create("https://slack.com/api/users.list"));
+        token1Resource = mock(WebResource.class);
+        token2Resource = mock(WebResource.class);
+        when(resource.queryParam("token", "t1")).thenReturn(token1Resource);
+        when(resource.queryParam("token", "t2")).thenReturn(token2Resource);
+        token1Builder = mock(Builder.class);
+        token2Builder = mock(Builder.class);
+        when(token1Resource.accept(MediaType.APPLICATION_JSON)).thenReturn(token1Builder);
+        when(token2Resource.accept(MediaType.APPLICATION_JSON)).thenReturn(token2Builder);
+        jsonStream = new ByteArrayInputStream(new byte[0]);
+    }
+
+    /**
+     * Makes sure that server errors are retried after a backoff
+     */
+    @Test
+    public void testGetJsonStreamWithRetries_withServerError() {
+        TestDAO underTest = new TestDAO(ImmutableList.of("t1"), retryPolicy);
+        UniformInterfaceException serverError = failure(503, null);
+        when(token1Builder.get(InputStream.class)).thenThrow(serverError)
+                                                  .thenThrow(new ClientHandlerException("timeout"))
+                                                  .thenReturn(jsonStream);
+
+        assertSame(jsonStream, underTest.getJsonStreamWithRetries(resource, 3));
+        assertEquals(2, retryPolicy.sleeps);
+    }
+
+    /**
+     * Makes sure that a throttled token cools down for the retry after while the other token is
+     * used without waiting
+     */
+    @Test
+    public void testGetJsonStreamWithRetries_withThrottledToken() {
+        TestDAO underTest = new TestDAO(ImmutableList.of("t1", "t2"), retryPolicy);
+        UniformInterfaceException throttled = failure(429, "20");
+        when(token1Builder.get(InputStream.class)).thenThrow(throttled);
+        when(token2Builder.get(InputStream.class)).thenReturn(jsonStream);
+
+        for (int i = 0; i < 10; i++) {
+            assertSame(jsonStream, underTest.getJsonStreamWithRetries(resource, 3));
+        }
+        verify(token1Builder, times(1)).get(InputStream.class);
+        assertEquals(0, retryPolicy.sleeps);
+    }
+
+    /**
+     * Makes sure that errors that can't be retried fail right away
+     */
+    @Test
+    public void testGetJsonStreamWithRetries_withClientError() {
+        TestDAO underTest = new TestDAO(ImmutableList.of("t1"), retryPolicy);
+        UniformInterfaceException notFound = failure(404, null);
+        when(token1Builder.get(InputStream.class)).thenThrow(notFound);
+
+        try {
+            underTest.getJsonStreamWithRetries(resource, 3);
+            fail("Expected the request to fail");
+        } catch (ChatApiException e) {
+            assertEquals(404, e.getStatus());
+            assertEquals("/api/users.list", e.getEndpoint());
+        }
+        verify(token1Builder, times(1)).get(InputStream.class);
+    }
+
+    /**
+     * Makes sure that a failure is surfaced once the retries run out
+     */
+    @Test
+    public void testGetJsonStreamWithRetries_outOfRetries() {
+        TestDAO underTest = new TestDAO(ImmutableList.of("t1"), retryPolicy);
+        UniformInterfaceException serverError = failure(500, null);
+        when(token1Builder.get(InputStream.class)).thenThrow(serverError);
+
+        try {
+            underTest.getJsonStreamWithRetries(resource, 2);
+            fail("Expected the request to fail");
+        } catch (ChatApiException e) {
+            assertEquals(500, e.getStatus());
+        }
+        verify(token1Builder, times(3)).get(InputStream.class);
+        assertEquals(2, retryPolicy.sleeps);
+    }
+
+    /**
+     * Makes sure that a trial request that fails with an unexpected exception doesn't keep the
+     * circuit breaker open for good
+     */
+    @Test
+    public void testGetJsonStreamWithRetries_trialWithUnexpectedException() {
+        ChatApiRetryPolicy retryPolicy = new ChatApiRetryPolicy(100, 1000, 1, 0);
+        TestDAO underTest = new TestDAO(ImmutableList.of("t1"), retryPolicy);
+        retryPolicy.onFailure("/api/users.list", 500);
+        when(token1Builder.get(InputStream.class)).thenThrow(new IllegalStateException("test"))
+                                                  .thenReturn(jsonStream);
+
+        try {
+            underTest.getJsonStreamWithRetries(resource, 0);
+            fail("Expected the request to fail");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        assertSame(jsonStream, underTest.getJsonStreamWithRetries(resource, 0));
+    }
+
+    /**
+     * Makes sure that requests without tokens don't add a token parameter
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testGetJsonStreamWithRetries_negativeRetries() {
+        TestDAO underTest = new TestDAO(ImmutableList.of("t1"), retryPolicy);
+        underTest.getJsonStreamWithRetries(resource, -1);
+    }
+
+    @Test
+    public void testGetJsonStreamWithRetries_withoutTokens() {
+        TestDAO underTest = new TestDAO(ImmutableList.of(), retryPolicy);
+        Builder builder = mock(Builder.class);
+        when(resource.accept(MediaType.APPLICATION_JSON)).thenReturn(builder);
+        when(builder.get(InputStream.class)).thenReturn(jsonStream);
+
+        assertSame(jsonStream, underTest.getJsonStreamWithRetries(resource, 0));
+        verify(resource, times(0)).queryParam(anyString(), anyString());
+    }
+
+    private UniformInterfaceException failure(int status, String retryAfter) {
+        ClientResponse response = mock(ClientResponse.class);
+        when(response.getStatus()).thenReturn(status);
+        InBoundHeaders headers = new InBoundHeaders();
+        if (retryAfter != null) {
+            headers.putSingle("Retry-After", retryAfter);
+        }
+        when(response.getHeaders()).thenReturn(headers);
+        return new UniformInterfaceException(response, false);
+    }
+
+    private static class RecordingRetryPolicy extends ChatApiRetryPolicy {
+
+        private int sleeps;
+
+        private RecordingRetryPolicy() {
+            super(100, 1000, 5, 10000);
+        }
+
+        @Override
+        protected void sleep(long millis) {
+            sleeps++;
+        }
+    }
+
+    private static class TestDAO extends AbstractJSONChatApiDAO {
+
+        private TestDAO(List<String> authTokens, ChatApiRetryPolicy retryPolicy) {
+            super(authTokens, "token", retryPolicy);
+        }
+
+        @Override
+        public Map<String, Room> getRooms() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Map<String, User> getUsers() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Map<String, User> getUsersForRoom(Room room) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public List<Message> getMessages(DateTime start, DateTime end, Room room) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Map<String, String> getEmojis() {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
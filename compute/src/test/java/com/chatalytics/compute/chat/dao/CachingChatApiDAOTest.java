@@ -0,0 +1,165 @@
+package com.chatalytics.compute.chat.dao;
+
+import com.chatalytics.core.model.data.Room;
+import com.chatalytics.core.model.data.User;
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.MoreExecutors;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests {@link CachingChatApiDAO}
+ */
+public class CachingChatApiDAOTest {
+
+    private static final long TTL_MS = 1000;
+    private static final long MAX_STALE_MS = 5000;
+
+    private IChatApiDAO chatApiDao;
+    private FakeTicker ticker;
+    private CachingChatApiDAO underTest;
+    private User user1;
+    private User user2;
+
+    @Before
+    public void setUp() {
+        chatApiDao = mock(IChatApiDAO.class);
+        ticker = new FakeTicker();
+        underTest = new CachingChatApiDAO(chatApiDao, TTL_MS, TTL_MS, TTL_MS, MAX_STALE_MS, ticker,
+                                          MoreExecutors.directExecutor());
+        user1 = new User("u1", "u1@email.com", false, false, false, "name", "mu1", null, null,
+                         null, null, null, null, null);
+        user2 = new User("u2", "u2@email.com", false, false, false, "name", "mu2", null, null,
+                         null, null, null, null, null);
+    }
+
+    @Test
+    public void testGetUsers() {
+        Map<String, User> users = ImmutableMap.of("u1", user1, "u2", user2);
+        when(chatApiDao.getUsers()).thenReturn(users);
+
+        assertEquals(users, underTest.getUsers());
+        assertEquals(ImmutableMap.of("mu1", user1, "mu2", user2),
+                     underTest.getUsersByMentionName());
+        assertSame(user2, underTest.getUserByMentionName("mu2"));
+        assertNull(underTest.getUserByMentionName("mu3"));
+        assertNull(underTest.getUserByMentionName(null));
+        verify(chatApiDao, times(1)).getUsers();
+    }
+
+    @Test
+    public void testGetRooms() {
+        Room room = new Room("r1", "room1", null, null, null, null, false, false, null, null);
+        when(chatApiDao.getRooms()).thenReturn(ImmutableMap.of("r1", room));
+
+        assertEquals(ImmutableMap.of("r1", room), underTest.getRooms());
+        assertSame(room, underTest.getRoomByName("room1"));
+        assertNull(underTest.getRoomByName("r1"));
+        verify(chatApiDao, times(1)).getRooms();
+    }
+
+    /**
+     * Makes sure that values are refreshed after their TTL and fetched again once they're too stale
+     */
+    @Test
+    public void testGetEmojis_withRefresh() {
+        Map<String, String> emojis1 = ImmutableMap.of("a", "http://a");
+        Map<String, String> emojis2 = ImmutableMap.of("b", "http://b");
+        Map<String, String> emojis3 = ImmutableMap.of("c", "http://c");
+        when(chatApiDao.getEmojis()).thenReturn(emojis1, emojis2, emojis3);
+
+        assertEquals(emojis1, underTest.getEmojis());
+        ticker.advance(TTL_MS);
+        assertEquals(emojis1, underTest.getEmojis());
+        verify(chatApiDao, times(1)).getEmojis();
+
+        // the refresh runs on the same thread here
+        ticker.advance(1);
+        assertEquals(emojis2, underTest.getEmojis());
+        verify(chatApiDao, times(2)).getEmojis();
+
+        ticker.advance(TTL_MS + MAX_STALE_MS);
+        assertEquals(emojis3, underTest.getEmojis());
+        verify(chatApiDao, times(3)).getEmojis();
+    }
+
+    /**
+     * Makes sure that a failed refresh keeps serving the old value
+     */
+    @Test
+    public void testGetEmojis_withFailedRefresh() {
+        Map<String, String> emojis = ImmutableMap.of("a", "http://a");
+        when(chatApiDao.getEmojis()).thenReturn(emojis)
+                                    .thenThrow(new RuntimeException("test"));
+
+        assertEquals(emojis, underTest.getEmojis());
+        ticker.advance(TTL_MS + 1);
+        assertEquals(emojis, underTest.getEmojis());
+        verify(chatApiDao, times(2)).getEmojis();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testGetEmojis_withFailure() {
+        when(chatApiDao.getEmojis()).thenThrow(new IllegalStateException("test"));
+        underTest.getEmojis();
+    }
+
+    /**
+     * Makes sure that concurrent misses make a single call to the chat API
+     */
+    @Test
+    public void testGetUsers_withConcurrentMisses() throws Exception {
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Map<String, User> users = ImmutableMap.of("u1", user1);
+        when(chatApiDao.getUsers()).thenAnswer(invocation -> {
+            loading.countDown();
+            release.await();
+            return users;
+        });
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<Map<String, User>> first = executor.submit(() -> underTest.getUsers());
+            loading.await();
+            Future<User> second = executor.submit(() -> underTest.getUserByMentionName("mu1"));
+            release.countDown();
+            assertEquals(users, first.get(10, TimeUnit.SECONDS));
+            assertSame(user1, second.get(10, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+        verify(chatApiDao, times(1)).getUsers();
+    }
+
+    private static class FakeTicker extends Ticker {
+
+        private long nanos;
+
+        @Override
+        public synchronized long read() {
+            return nanos;
+        }
+
+        public synchronized void advance(long millis) {
+            nanos += TimeUnit.MILLISECONDS.toNanos(millis);
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package com.chatalytics.compute.chat.dao;
+
+import com.google.common.collect.Lists;
+import com.sun.jersey.api.client.Client;
+import com.sun.jersey.api.client.ClientRequest;
+import com.sun.jersey.api.client.ClientResponse;
+import com.sun.jersey.api.client.UniformInterfaceException;
+import com.sun.jersey.api.client.filter.GZIPContentEncodingFilter;
+import com.sun.jersey.core.header.InBoundHeaders;
+
+import org.apache.storm.task.TopologyContext;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+import javax.ws.rs.core.HttpHeaders;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verifyZeroInteractions;
+
+/**
+ * Tests {@link ChatApiMetricsFilter}
+ */
+public class ChatApiMetricsFilterTest {
+
+    private ChatApiMetricsFilter underTest;
+    private Client client;
+    private List<ClientRequest> requests;
+    private int status;
+    private byte[] body;
+
+    @Before
+    public void setUp() throws Exception {
+        requests = Lists.newArrayList();
+        status = 200;
+        client = new Client(request -> {
+            requests.add(request);
+            InBoundHeaders headers = new InBoundHeaders();
+            headers.putSingle(HttpHeaders.CONTENT_ENCODING, "gzip");
+            headers.putSingle(HttpHeaders.CONTENT_TYPE, "application/json");
+            return new ClientResponse(status, headers, new ByteArrayInputStream(body),
+                                      client.getMessageBodyWorkers());
+        });
+        underTest = new ChatApiMetricsFilter();
+        client.addFilter(underTest);
+        client.addFilter(new GZIPContentEncodingFilter(false));
+
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzipOut = new GZIPOutputStream(compressed)) {
+            for (int i = 0; i < 100; i++) {
+                gzipOut.write("{\"ok\": true}".getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        body = compressed.toByteArray();
+    }
+
+    /**
+     * Makes sure that gzip is requested and that the compressed bytes are counted
+     */
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testHandle() throws Exception {
+        String response = client.resource("https://slack.com/api/users.list")
+                                .queryParam("token", "t")
+                                .get(String.class);
+        assertEquals(1200, response.length());
+        assertEquals("gzip", requests.get(0).getHeaders().getFirst(HttpHeaders.ACCEPT_ENCODING));
+
+        client.resource("https://slack.com/api/users.list").get(String.class);
+        Map<String, Long> snapshot = underTest.getSnapshot();
+        assertEquals(Long.valueOf(2), snapshot.get("/api/users.list.requests"));
+        assertEquals(Long.valueOf(0), snapshot.get("/api/users.list.errors"));
+        assertEquals(Long.valueOf(2 * body.length), snapshot.get("/api/users.list.bytes"));
+        // reporting the counters resets them
+        assertEquals(snapshot, underTest.getSnapshot());
+        assertEquals(snapshot, underTest.getValueAndReset());
+        Map<String, Long> reset = underTest.getSnapshot();
+        assertEquals(Long.valueOf(0), reset.get("/api/users.list.requests"));
+        assertEquals(Long.valueOf(0), reset.get("/api/users.list.bytes"));
+
+        client.resource("https://slack.com/api/users.list").get(String.class);
+        Map<String, Long> reported = (Map<String, Long>) underTest.getValueAndReset();
+        assertEquals(Long.valueOf(1), reported.get("/api/users.list.requests"));
+        assertEquals(Long.valueOf(body.length), reported.get("/api/users.list.bytes"));
+    }
+
+    /**
+     * Makes sure that the shared filter is registered as a metric by one component per worker, so
+     * its values aren't reported more than once
+     */
+    @Test
+    public void testRegisterMetrics_oncePerWorker() {
+        TopologyContext first = mock(TopologyContext.class);
+        TopologyContext second = mock(TopologyContext.class);
+        // another test may have registered it already
+        ChatApiClientFactory.registerMetrics(first, 60);
+        assertFalse(ChatApiClientFactory.registerMetrics(second, 60));
+        verifyZeroInteractions(second);
+    }
+
+    @Test
+    public void testHandle_withErrorStatus() throws Exception {
+        status = 429;
+        try {
+            client.resource("https://slack.com/api/channels.history").get(String.class);
+            fail("Expected the request to fail");
+        } catch (UniformInterfaceException e) {
+            assertEquals(429, e.getResponse().getStatus());
+        }
+        Map<String, Long> snapshot = underTest.getSnapshot();
+        assertEquals(Long.valueOf(1), snapshot.get("/api/channels.history.requests"));
+        assertEquals(Long.valueOf(1), snapshot.get("/api/channels.history.errors"));
+    }
+}
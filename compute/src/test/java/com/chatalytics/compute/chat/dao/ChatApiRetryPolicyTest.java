@@ -0,0 +1,158 @@
+package com.chatalytics.compute.chat.dao;
+
+import com.chatalytics.compute.exception.ChatApiException;
+import com.google.common.collect.ImmutableList;
+import com.sun.jersey.api.client.ClientResponse;
+import com.sun.jersey.core.header.InBoundHeaders;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests {@link ChatApiRetryPolicy}
+ */
+public class ChatApiRetryPolicyTest {
+
+    private static final String ENDPOINT = "/api/channels.history";
+
+    private FakeClockRetryPolicy underTest;
+
+    @Before
+    public void setUp() {
+        underTest = new FakeClockRetryPolicy();
+    }
+
+    @Test
+    public void testIsRetryable() {
+        assertTrue(underTest.isRetryable(403));
+        assertTrue(underTest.isRetryable(429));
+        assertTrue(underTest.isRetryable(500));
+        assertTrue(underTest.isRetryable(503));
+        assertFalse(underTest.isRetryable(400));
+        assertFalse(underTest.isRetryable(404));
+    }
+
+    @Test
+    public void testGetBackoffMillis() {
+        for (int attempt = 0; attempt < 40; attempt++) {
+            long backoffMs = underTest.getBackoffMillis(attempt);
+            assertTrue(backoffMs >= 0);
+            assertTrue(backoffMs <= Math.min(1000, 100L << Math.min(attempt, 30)));
+        }
+    }
+
+    @Test
+    public void testGetRetryAfterMillis() {
+        ClientResponse response = mock(ClientResponse.class);
+        InBoundHeaders headers = new InBoundHeaders();
+        when(response.getHeaders()).thenReturn(headers);
+        assertEquals(0, ChatApiRetryPolicy.getRetryAfterMillis(response));
+        headers.putSingle("Retry-After", "30");
+        assertEquals(30000, ChatApiRetryPolicy.getRetryAfterMillis(response));
+        headers.putSingle("Retry-After", "Wed, 21 Oct 2015 07:28:00 GMT");
+        assertEquals(0, ChatApiRetryPolicy.getRetryAfterMillis(response));
+    }
+
+    /**
+     * Makes sure that throttled tokens are skipped and that the first token to cool down is waited
+     * for when all of them are throttled
+     */
+    @Test
+    public void testAcquireToken() throws Exception {
+        ImmutableList<String> tokens = ImmutableList.of("t1", "t2");
+        underTest.coolDown("t1", 5000);
+        for (int i = 0; i < 20; i++) {
+            assertEquals("t2", underTest.acquireToken(tokens));
+        }
+        underTest.coolDown("t2", 2000);
+        assertEquals("t2", underTest.acquireToken(tokens));
+        assertEquals(2000, underTest.nowMillis);
+        assertEquals(null, underTest.acquireToken(ImmutableList.of()));
+    }
+
+    @Test
+    public void testCircuitBreaker() {
+        for (int i = 0; i < 3; i++) {
+            underTest.checkCircuit(ENDPOINT);
+            underTest.onFailure(ENDPOINT, 503);
+        }
+        assertOpen();
+        // other endpoints are not affected
+        underTest.checkCircuit("/api/users.list");
+
+        underTest.nowMillis += 10000;
+        // a single trial is let through
+        underTest.checkCircuit(ENDPOINT);
+        assertOpen();
+        underTest.onFailure(ENDPOINT, ChatApiException.NO_STATUS);
+        assertOpen();
+
+        underTest.nowMillis += 10000;
+        underTest.checkCircuit(ENDPOINT);
+        underTest.onSuccess(ENDPOINT);
+        underTest.checkCircuit(ENDPOINT);
+    }
+
+    /**
+     * Makes sure that a trial that ends without a result lets the next trial through
+     */
+    @Test
+    public void testCircuitBreaker_endTrial() {
+        for (int i = 0; i < 3; i++) {
+            assertFalse(underTest.checkCircuit(ENDPOINT));
+            underTest.onFailure(ENDPOINT, 503);
+        }
+        underTest.nowMillis += 10000;
+        assertTrue(underTest.checkCircuit(ENDPOINT));
+        assertOpen();
+        underTest.endTrial(ENDPOINT);
+        assertTrue(underTest.checkCircuit(ENDPOINT));
+    }
+
+    /**
+     * Makes sure that client errors don't open the circuit breaker
+     */
+    @Test
+    public void testCircuitBreaker_withClientErrors() {
+        for (int i = 0; i < 10; i++) {
+            underTest.checkCircuit(ENDPOINT);
+            underTest.onFailure(ENDPOINT, 429);
+        }
+        underTest.checkCircuit(ENDPOINT);
+    }
+
+    private void assertOpen() {
+        try {
+            underTest.checkCircuit(ENDPOINT);
+            fail("Expected the circuit breaker to be open");
+        } catch (ChatApiException e) {
+            assertEquals(ENDPOINT, e.getEndpoint());
+        }
+    }
+
+    private static class FakeClockRetryPolicy extends ChatApiRetryPolicy {
+
+        private long nowMillis;
+
+        private FakeClockRetryPolicy() {
+            super(100, 1000, 3, 10000);
+        }
+
+        @Override
+        protected long currentTimeMillis() {
+            return nowMillis;
+        }
+
+        @Override
+        protected void sleep(long millis) {
+            nowMillis += millis;
+        }
+    }
+}
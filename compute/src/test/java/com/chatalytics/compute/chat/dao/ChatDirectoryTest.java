@@ -0,0 +1,124 @@
+package com.chatalytics.compute.chat.dao;
+
+import com.chatalytics.core.model.data.Room;
+import com.chatalytics.core.model.data.User;
+import com.google.common.collect.ImmutableMap;
+
+import org.joda.time.DateTime;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests {@link ChatDirectory}
+ */
+public class ChatDirectoryTest {
+
+    private IChatApiDAO chatApiDao;
+    private ChatDirectory underTest;
+
+    @Before
+    public void setUp() {
+        chatApiDao = mock(IChatApiDAO.class);
+        when(chatApiDao.getUsers()).thenReturn(ImmutableMap.of("u1", user("u1", "name")));
+        when(chatApiDao.getRooms()).thenReturn(ImmutableMap.of("r1", room("r1", "room")));
+        underTest = new ChatDirectory(chatApiDao, 60);
+    }
+
+    @Test
+    public void testLoad() {
+        assertNull(underTest.getUser("u1"));
+        underTest.load();
+        assertEquals("name", underTest.getUser("u1").getName());
+        assertEquals("room", underTest.getRoom("r1").getName());
+        assertNull(underTest.getUser("u2"));
+        assertNull(underTest.getRoom(null));
+        assertEquals(1, underTest.getNumUsers());
+        assertEquals(1, underTest.getNumRooms());
+
+        // reloading replaces the contents
+        when(chatApiDao.getUsers()).thenReturn(ImmutableMap.of("u2", user("u2", "other")));
+        underTest.load();
+        assertNull(underTest.getUser("u1"));
+        assertEquals("other", underTest.getUser("u2").getName());
+    }
+
+    @Test
+    public void testPutUserAndRoom() {
+        underTest.load();
+        underTest.putUser(user("u1", "changed"));
+        underTest.putUser(user("u2", "new"));
+        underTest.putRoom(room("r2", "new room"));
+        assertEquals("changed", underTest.getUser("u1").getName());
+        assertEquals("new", underTest.getUser("u2").getName());
+        assertEquals("new room", underTest.getRoom("r2").getName());
+        assertEquals("room", underTest.getRoom("r1").getName());
+        verify(chatApiDao, times(1)).getUsers();
+        verify(chatApiDao, times(1)).getRooms();
+    }
+
+    /**
+     * Makes sure that a load doesn't overwrite users and rooms that were put while it was fetching
+     * them from the API
+     */
+    @Test
+    public void testLoad_keepsChangesMadeDuringLoad() {
+        underTest.load();
+        underTest.putUser(user("u2", "before load"));
+        when(chatApiDao.getUsers()).thenAnswer(invocation -> {
+            underTest.putUser(user("u1", "during load"));
+            return ImmutableMap.of("u1", user("u1", "stale"), "u3", user("u3", "loaded"));
+        });
+        when(chatApiDao.getRooms()).thenAnswer(invocation -> {
+            underTest.renameRoom("r1", "renamed during load");
+            return ImmutableMap.of("r1", room("r1", "stale"));
+        });
+        underTest.load();
+        assertEquals("during load", underTest.getUser("u1").getName());
+        assertEquals("loaded", underTest.getUser("u3").getName());
+        // changes from before the load started are replaced by what the load fetched
+        assertNull(underTest.getUser("u2"));
+        assertEquals("renamed during load", underTest.getRoom("r1").getName());
+
+        // the next load is newer than those changes so it replaces them
+        when(chatApiDao.getUsers()).thenReturn(ImmutableMap.of("u1", user("u1", "reloaded")));
+        when(chatApiDao.getRooms()).thenReturn(ImmutableMap.of("r1", room("r1", "reloaded")));
+        underTest.load();
+        assertEquals("reloaded", underTest.getUser("u1").getName());
+        assertEquals("reloaded", underTest.getRoom("r1").getName());
+    }
+
+    @Test
+    public void testRenameRoom() {
+        underTest.load();
+        underTest.renameRoom("r1", "renamed");
+        underTest.renameRoom("r2", "unknown");
+        assertEquals("renamed", underTest.getRoom("r1").getName());
+        assertEquals("r1", underTest.getRoom("r1").getRoomId());
+        assertNull(underTest.getRoom("r2"));
+    }
+
+    @Test
+    public void testRunOneIteration_withException() {
+        underTest.load();
+        when(chatApiDao.getUsers()).thenThrow(new RuntimeException("test"));
+        underTest.runOneIteration();
+        // the last snapshot is kept
+        assertEquals("name", underTest.getUser("u1").getName());
+    }
+
+    private User user(String userId, String name) {
+        return new User(userId, null, false, false, false, name, name, null, DateTime.now(), null,
+                        null, null, null, null);
+    }
+
+    private Room room(String roomId, String name) {
+        return new Room(roomId, name, null, null, DateTime.now(), null, false, false, null, null);
+    }
+}
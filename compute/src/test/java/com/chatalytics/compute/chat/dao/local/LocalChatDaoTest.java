@@ -60,6 +60,26 @@ public class LocalChatDaoTest {
         assertFalse(users.isEmpty());
     }
 
+    /**
+     * Makes sure that all the users get created with large populations and that the configured
+     * fraction of them are bots
+     */
+    @Test
+    public void testGetUsers_withBots() {
+        chatConfig.numUsers = 20000;
+        chatConfig.botRatio = 0.1;
+        underTest = new LocalChatDao(config);
+        Map<String, User> users = underTest.getUsers();
+        assertEquals(20000, users.size());
+        int bots = 0;
+        for (User user : users.values()) {
+            if (user.isBot()) {
+                bots++;
+            }
+        }
+        assertEquals(2000, bots);
+    }
+
     @Test
     public void testGetUsersForRoom() {
         Map<String, User> expected = underTest.getUsers();
@@ -19,8 +19,11 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.runners.MockitoJUnitRunner;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URI;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -30,6 +33,7 @@ import java.util.Map;
 import javax.ws.rs.core.MediaType;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.anyString;
@@ -82,8 +86,8 @@ public class JsonSlackDAOTest {
         URI channelListURI = Resources.getResource("slack_api_responses/channels.list.txt").toURI();
         Path channelsPath = Paths.get(channelListURI);
         String channelsResponseStr = new String(Files.readAllBytes(channelsPath));
-        doReturn(channelsResponseStr).when(underTest).getJsonResultWithRetries(mockChanResource,
-                                                                               apiRetries);
+        doReturn(stream(channelsResponseStr)).when(underTest)
+            .getJsonStreamWithRetries(mockChanResource, apiRetries);
 
         Map<String, Room> rooms = underTest.getRooms();
         assertEquals(1, rooms.size());
@@ -107,8 +111,8 @@ public class JsonSlackDAOTest {
             Resources.getResource("slack_api_responses/channels.list.archived.txt").toURI();
         Path channelsPath = Paths.get(channelListURI);
         String channelsResponseStr = new String(Files.readAllBytes(channelsPath));
-        doReturn(channelsResponseStr).when(underTest).getJsonResultWithRetries(mockChanResource,
-                                                                               apiRetries);
+        doReturn(stream(channelsResponseStr)).when(underTest)
+            .getJsonStreamWithRetries(mockChanResource, apiRetries);
 
         Map<String, Room> rooms = underTest.getRooms();
         assertEquals(2, rooms.size());
@@ -131,16 +135,16 @@ public class JsonSlackDAOTest {
         URI channelListURI = Resources.getResource("slack_api_responses/channels.list.txt").toURI();
         Path channelsPath = Paths.get(channelListURI);
         String channelsResponseStr = new String(Files.readAllBytes(channelsPath));
-        doReturn(channelsResponseStr).when(underTest).getJsonResultWithRetries(mockChanResource,
-                                                                               apiRetries);
+        doReturn(stream(channelsResponseStr)).when(underTest)
+            .getJsonStreamWithRetries(mockChanResource, apiRetries);
         // groups.list
         WebResource mockGroupsResource = mock(WebResource.class);
         when(mockResource.path("groups.list")).thenReturn(mockGroupsResource);
         URI groupsListURI = Resources.getResource("slack_api_responses/groups.list.txt").toURI();
         Path groupsPath = Paths.get(groupsListURI);
         String groupsResponseStr = new String(Files.readAllBytes(groupsPath));
-        doReturn(groupsResponseStr).when(underTest).getJsonResultWithRetries(mockGroupsResource,
-                                                                             apiRetries);
+        doReturn(stream(groupsResponseStr)).when(underTest)
+            .getJsonStreamWithRetries(mockGroupsResource, apiRetries);
 
         Map<String, Room> rooms = underTest.getRooms();
         assertEquals(2, rooms.size());
@@ -166,8 +170,8 @@ public class JsonSlackDAOTest {
             Resources.getResource("slack_api_responses/channels.list.archived.txt").toURI();
         Path channelsPath = Paths.get(channelListURI);
         String channelsResponseStr = new String(Files.readAllBytes(channelsPath));
-        doReturn(channelsResponseStr).when(underTest).getJsonResultWithRetries(mockChanResource,
-                                                                               apiRetries);
+        doReturn(stream(channelsResponseStr)).when(underTest)
+            .getJsonStreamWithRetries(mockChanResource, apiRetries);
         // groups.list
         WebResource mockGroupsResource = mock(WebResource.class);
         when(mockResource.path("groups.list")).thenReturn(mockGroupsResource);
@@ -175,8 +179,8 @@ public class JsonSlackDAOTest {
             Resources.getResource("slack_api_responses/groups.list.archived.txt").toURI();
         Path groupsPath = Paths.get(groupsListURI);
         String groupsResponseStr = new String(Files.readAllBytes(groupsPath));
-        doReturn(groupsResponseStr).when(underTest).getJsonResultWithRetries(mockGroupsResource,
-                                                                             apiRetries);
+        doReturn(stream(groupsResponseStr)).when(underTest)
+            .getJsonStreamWithRetries(mockGroupsResource, apiRetries);
 
         Map<String, Room> rooms = underTest.getRooms();
         assertEquals(4, rooms.size());
@@ -197,8 +201,8 @@ public class JsonSlackDAOTest {
         URI userListURI = Resources.getResource("slack_api_responses/users.list.txt").toURI();
         Path usersPath = Paths.get(userListURI);
         String usersResponseStr = new String(Files.readAllBytes(usersPath));
-        doReturn(usersResponseStr).when(underTest).getJsonResultWithRetries(mockUserResource,
-                                                                            apiRetries);
+        doReturn(stream(usersResponseStr)).when(underTest)
+            .getJsonStreamWithRetries(mockUserResource, apiRetries);
 
         Map<String, User> users = underTest.getUsers();
         assertEquals(2, users.size());
@@ -207,6 +211,39 @@ public class JsonSlackDAOTest {
         }
     }
 
+    /**
+     * Makes sure that nested fields before the list of users are skipped
+     */
+    @Test
+    public void testGetUsers_withFieldsBeforeList() throws Exception {
+        WebResource mockUserResource = mock(WebResource.class);
+        when(mockResource.path("users.list")).thenReturn(mockUserResource);
+        URI userListURI = Resources.getResource("slack_api_responses/users.list.txt").toURI();
+        String usersResponseStr = new String(Files.readAllBytes(Paths.get(userListURI)));
+        usersResponseStr = usersResponseStr.replaceFirst(
+            "\"ok\": true,",
+            "\"ok\": true, \"cache\": {\"members\": [{\"id\": \"U1\"}], \"ts\": [1, [2]]},");
+        doReturn(stream(usersResponseStr)).when(underTest)
+            .getJsonStreamWithRetries(mockUserResource, apiRetries);
+
+        Map<String, User> users = underTest.getUsers();
+        assertEquals(2, users.size());
+        assertFalse(users.containsKey("U1"));
+    }
+
+    /**
+     * Makes sure no users are returned when the response doesn't have any
+     */
+    @Test
+    public void testGetUsers_withErrorResponse() throws Exception {
+        WebResource mockUserResource = mock(WebResource.class);
+        when(mockResource.path("users.list")).thenReturn(mockUserResource);
+        doReturn(stream("{\"ok\": false, \"error\": \"not_authed\"}")).when(underTest)
+            .getJsonStreamWithRetries(mockUserResource, apiRetries);
+
+        assertTrue(underTest.getUsers().isEmpty());
+    }
+
     /**
      * Makes sure users for a given room are properly returned
      */
@@ -220,8 +257,8 @@ public class JsonSlackDAOTest {
         URI chanInfoURI = Resources.getResource("slack_api_responses/channels.info.txt").toURI();
         Path channelsInfoPath = Paths.get(chanInfoURI);
         String chanInfoResponseStr = new String(Files.readAllBytes(channelsInfoPath));
-        doReturn(chanInfoResponseStr).when(underTest).getJsonResultWithRetries(mockChanInfoResrc,
-                                                                               apiRetries);
+        doReturn(stream(chanInfoResponseStr)).when(underTest)
+            .getJsonStreamWithRetries(mockChanInfoResrc, apiRetries);
 
         // users.info
         WebResource mockUserInfoResource = mock(WebResource.class);
@@ -232,8 +269,8 @@ public class JsonSlackDAOTest {
         URI userInfoURI = Resources.getResource("slack_api_responses/users.info.1.txt").toURI();
         Path usersInfoPath = Paths.get(userInfoURI);
         String userInfoResponseStr = new String(Files.readAllBytes(usersInfoPath));
-        doReturn(userInfoResponseStr).when(underTest).getJsonResultWithRetries(user1InfoResource,
-                                                                               apiRetries);
+        doReturn(stream(userInfoResponseStr)).when(underTest)
+            .getJsonStreamWithRetries(user1InfoResource, apiRetries);
 
         // user 2
         WebResource user2InfoResource = mock(WebResource.class);
@@ -241,8 +278,8 @@ public class JsonSlackDAOTest {
         userInfoURI = Resources.getResource("slack_api_responses/users.info.2.txt").toURI();
         usersInfoPath = Paths.get(userInfoURI);
         userInfoResponseStr = new String(Files.readAllBytes(usersInfoPath));
-        doReturn(userInfoResponseStr).when(underTest).getJsonResultWithRetries(user2InfoResource,
-                                                                               apiRetries);
+        doReturn(stream(userInfoResponseStr)).when(underTest)
+            .getJsonStreamWithRetries(user2InfoResource, apiRetries);
 
         Room mockRoom = mock(Room.class);
         when(mockRoom.getRoomId()).thenReturn("C0SDFG423");
@@ -266,8 +303,8 @@ public class JsonSlackDAOTest {
         URI chanInfoURI = Resources.getResource("slack_api_responses/groups.info.txt").toURI();
         Path channelsInfoPath = Paths.get(chanInfoURI);
         String chanInfoResponseStr = new String(Files.readAllBytes(channelsInfoPath));
-        doReturn(chanInfoResponseStr).when(underTest).getJsonResultWithRetries(mockChanInfoResrc,
-                                                                               apiRetries);
+        doReturn(stream(chanInfoResponseStr)).when(underTest)
+            .getJsonStreamWithRetries(mockChanInfoResrc, apiRetries);
 
         // users.info
         WebResource mockUserInfoResource = mock(WebResource.class);
@@ -278,8 +315,8 @@ public class JsonSlackDAOTest {
         URI userInfoURI = Resources.getResource("slack_api_responses/users.info.1.txt").toURI();
         Path usersInfoPath = Paths.get(userInfoURI);
         String userInfoResponseStr = new String(Files.readAllBytes(usersInfoPath));
-        doReturn(userInfoResponseStr).when(underTest).getJsonResultWithRetries(user1InfoResource,
-                                                                               apiRetries);
+        doReturn(stream(userInfoResponseStr)).when(underTest)
+            .getJsonStreamWithRetries(user1InfoResource, apiRetries);
 
         // user 2
         WebResource user2InfoResource = mock(WebResource.class);
@@ -287,8 +324,8 @@ public class JsonSlackDAOTest {
         userInfoURI = Resources.getResource("slack_api_responses/users.info.2.txt").toURI();
         usersInfoPath = Paths.get(userInfoURI);
         userInfoResponseStr = new String(Files.readAllBytes(usersInfoPath));
-        doReturn(userInfoResponseStr).when(underTest).getJsonResultWithRetries(user2InfoResource,
-                                                                               apiRetries);
+        doReturn(stream(userInfoResponseStr)).when(underTest)
+            .getJsonStreamWithRetries(user2InfoResource, apiRetries);
 
         Room mockRoom = mock(Room.class);
         when(mockRoom.getRoomId()).thenReturn("G024BE91L");
@@ -313,8 +350,8 @@ public class JsonSlackDAOTest {
         URI historyURI = Resources.getResource("slack_api_responses/channels.history.txt").toURI();
         Path historyPath = Paths.get(historyURI);
         String historyResponseStr = new String(Files.readAllBytes(historyPath));
-        doReturn(historyResponseStr).when(underTest).getJsonResultWithRetries(mockHistoryResrc,
-                                                                              apiRetries);
+        doReturn(stream(historyResponseStr)).when(underTest)
+            .getJsonStreamWithRetries(mockHistoryResrc, apiRetries);
 
         Room mockRoom = mock(Room.class);
         when(mockRoom.getRoomId()).thenReturn("C0SDFG423");
@@ -340,8 +377,8 @@ public class JsonSlackDAOTest {
         URI historyURI = Resources.getResource("slack_api_responses/groups.history.txt").toURI();
         Path historyPath = Paths.get(historyURI);
         String historyResponseStr = new String(Files.readAllBytes(historyPath));
-        doReturn(historyResponseStr).when(underTest).getJsonResultWithRetries(mockHistoryResrc,
-                                                                              apiRetries);
+        doReturn(stream(historyResponseStr)).when(underTest)
+            .getJsonStreamWithRetries(mockHistoryResrc, apiRetries);
 
         Room mockRoom = mock(Room.class);
         when(mockRoom.getRoomId()).thenReturn("G0SDFG423");
@@ -355,6 +392,41 @@ public class JsonSlackDAOTest {
         }
     }
 
+    /**
+     * Makes sure that a history page that can't be read fails the call instead of ending the
+     * history early
+     */
+    @Test(expected = RuntimeException.class)
+    public void testGetMessages_malformedPage() throws Exception {
+        WebResource mockHistoryResrc = mock(WebResource.class);
+        when(mockResource.path("channels.history")).thenReturn(mockHistoryResrc);
+        when(mockHistoryResrc.queryParam(anyString(), anyString())).thenReturn(mockHistoryResrc);
+        doReturn(stream("{\"ok\": true, \"messages\": [")).when(underTest)
+            .getJsonStreamWithRetries(mockHistoryResrc, apiRetries);
+
+        Room mockRoom = mock(Room.class);
+        when(mockRoom.getRoomId()).thenReturn("C0SDFG423");
+        DateTime now = DateTime.now();
+        underTest.getMessages(now.minusDays(1), now, mockRoom);
+    }
+
+    /**
+     * Makes sure that a history response without messages fails the call
+     */
+    @Test(expected = RuntimeException.class)
+    public void testGetMessages_withErrorResponse() throws Exception {
+        WebResource mockHistoryResrc = mock(WebResource.class);
+        when(mockResource.path("channels.history")).thenReturn(mockHistoryResrc);
+        when(mockHistoryResrc.queryParam(anyString(), anyString())).thenReturn(mockHistoryResrc);
+        doReturn(stream("{\"ok\": false, \"error\": \"channel_not_found\"}")).when(underTest)
+            .getJsonStreamWithRetries(mockHistoryResrc, apiRetries);
+
+        Room mockRoom = mock(Room.class);
+        when(mockRoom.getRoomId()).thenReturn("C0SDFG423");
+        DateTime now = DateTime.now();
+        underTest.getMessages(now.minusDays(1), now, mockRoom);
+    }
+
     /**
      * Makes sure that the web socket URL can be properly read
      */
@@ -366,7 +438,8 @@ public class JsonSlackDAOTest {
         when(mockResource.path("rtm.start")).thenReturn(mockRtmResrc);
         String rtmResponseStr =
             "{\"ok\": true, \"url\":\"wss:\\/\\/ms9.slack-msgs.com\\/websocket\\/7I5yBpcvk\"}";
-        doReturn(rtmResponseStr).when(underTest).getJsonResultWithRetries(mockRtmResrc, apiRetries);
+        doReturn(stream(rtmResponseStr)).when(underTest)
+            .getJsonStreamWithRetries(mockRtmResrc, apiRetries);
 
         assertEquals(URI.create("wss://ms9.slack-msgs.com/websocket/7I5yBpcvk"),
                      underTest.getRealtimeWebSocketURI());
@@ -381,7 +454,8 @@ public class JsonSlackDAOTest {
         WebResource mockRtmResrc = mock(WebResource.class);
         when(mockResource.path("rtm.start")).thenReturn(mockRtmResrc);
         String rtmResponseStr = "{malformedJSON";
-        doReturn(rtmResponseStr).when(underTest).getJsonResultWithRetries(mockRtmResrc, apiRetries);
+        doReturn(stream(rtmResponseStr)).when(underTest)
+            .getJsonStreamWithRetries(mockRtmResrc, apiRetries);
         try {
             underTest.getRealtimeWebSocketURI();
         } catch (Exception e) {
@@ -394,10 +468,11 @@ public class JsonSlackDAOTest {
         WebResource mockRtmResrc = mock(WebResource.class);
         when(mockResource.path("rtm.start")).thenReturn(mockRtmResrc);
         when(mockRtmResrc.queryParam(anyString(), anyString())).thenReturn(mockRtmResrc);
+        when(mockRtmResrc.getURI()).thenReturn(URI.create("https://slack.com/api/rtm.start"));
         Builder builder = mock(Builder.class);
         String errorReason = "broken";
         String jsonResult = String.format("{\"ok\":false, \"error\":\"%s\"}", errorReason);
-        when(builder.get(String.class)).thenReturn(jsonResult);
+        when(builder.get(InputStream.class)).thenReturn(stream(jsonResult));
         when(mockRtmResrc.accept(MediaType.APPLICATION_JSON)).thenReturn(builder);
         underTest.getRealtimeWebSocketURI();
     }
@@ -409,8 +484,8 @@ public class JsonSlackDAOTest {
         URI emojiURI = Resources.getResource("slack_api_responses/emoji.list.txt").toURI();
         Path emojiPath = Paths.get(emojiURI);
         String emojiResponseStr = new String(Files.readAllBytes(emojiPath));
-        doReturn(emojiResponseStr).when(underTest).getJsonResultWithRetries(emojiResource,
-                                                                            apiRetries);
+        doReturn(stream(emojiResponseStr)).when(underTest)
+            .getJsonStreamWithRetries(emojiResource, apiRetries);
 
         Map<String, String> result = underTest.getEmojis();
         assertEquals(3, result.size());
@@ -427,8 +502,8 @@ public class JsonSlackDAOTest {
         WebResource emojiResource = mock(WebResource.class);
         when(mockResource.path("emoji.list")).thenReturn(emojiResource);
         String emojiResponseStr = "{ badJSON";
-        doReturn(emojiResponseStr).when(underTest).getJsonResultWithRetries(emojiResource,
-                                                                            apiRetries);
+        doReturn(stream(emojiResponseStr)).when(underTest)
+            .getJsonStreamWithRetries(emojiResource, apiRetries);
 
         Map<String, String> result = underTest.getEmojis();
         assertTrue(result.isEmpty());
@@ -439,8 +514,8 @@ public class JsonSlackDAOTest {
         WebResource emojiResource = mock(WebResource.class);
         when(mockResource.path("emoji.list")).thenReturn(emojiResource);
         String emojiResponseStr = "{}";
-        doReturn(emojiResponseStr).when(underTest).getJsonResultWithRetries(emojiResource,
-                                                                            apiRetries);
+        doReturn(stream(emojiResponseStr)).when(underTest)
+            .getJsonStreamWithRetries(emojiResource, apiRetries);
 
         Map<String, String> result = underTest.getEmojis();
         assertTrue(result.isEmpty());
@@ -451,11 +526,14 @@ public class JsonSlackDAOTest {
         WebResource emojiResource = mock(WebResource.class);
         when(mockResource.path("emoji.list")).thenReturn(emojiResource);
         String emojiResponseStr = "{\"emoji\": \"BAD JSON\"}";
-        doReturn(emojiResponseStr).when(underTest).getJsonResultWithRetries(emojiResource,
-                                                                            apiRetries);
+        doReturn(stream(emojiResponseStr)).when(underTest)
+            .getJsonStreamWithRetries(emojiResource, apiRetries);
 
         Map<String, String> result = underTest.getEmojis();
         assertTrue(result.isEmpty());
     }
 
+    private InputStream stream(String jsonStr) {
+        return new ByteArrayInputStream(jsonStr.getBytes(StandardCharsets.UTF_8));
+    }
 }
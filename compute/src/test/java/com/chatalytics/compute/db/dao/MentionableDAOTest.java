@@ -93,6 +93,35 @@ public class MentionableDAOTest {
         assertNotNull(underTest.getValue(emoji));
     }
 
+    @Test
+    public void testPersistValues() {
+        DateTime dateTime = DateTime.now();
+        EmojiEntity emoji1 = new EmojiEntity("u1", "r1", dateTime, "a", 3, false);
+        EmojiEntity emoji2 = new EmojiEntity("u2", "r1", dateTime, "b", 1, true);
+        underTest.persistValues(ImmutableList.of(emoji1, emoji2));
+        assertEquals(3, underTest.getValue(emoji1).getOccurrences());
+        assertNotNull(underTest.getValue(emoji2));
+    }
+
+    /**
+     * Makes sure that persisting the same values again doesn't store them twice and that only the
+     * new values are stored
+     */
+    @Test
+    public void testPersistValues_again() {
+        DateTime dateTime = DateTime.now();
+        EmojiEntity emoji1 = new EmojiEntity("u1", "r1", dateTime, "a", 3, false);
+        EmojiEntity emoji2 = new EmojiEntity("u2", "r1", dateTime, "b", 1, true);
+        underTest.persistValues(ImmutableList.of(emoji1));
+        EmojiEntity emoji1Again = new EmojiEntity("u1", "r1", dateTime, "a", 3, false);
+        underTest.persistValues(ImmutableList.of(emoji1Again, emoji2));
+        Interval interval = new Interval(dateTime, dateTime.plusMillis(1));
+        assertEquals(4, underTest.getTotalMentionsOfType(interval, ImmutableList.of(),
+                                                         ImmutableList.of(), true));
+        assertEquals(3, underTest.getValue(emoji1).getOccurrences());
+        assertNotNull(underTest.getValue(emoji2));
+    }
+
     @Test(expected = EntityExistsException.class)
     public void testPersistValue_withDuplicate() {
         DateTime dateTime = DateTime.now();
@@ -0,0 +1,58 @@
+package com.chatalytics.compute.entity;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests {@link AhoCorasickAutomaton}
+ */
+public class AhoCorasickAutomatonTest {
+
+    @Test
+    public void testMatch_overlappingTerms() {
+        AhoCorasickAutomaton underTest =
+            AhoCorasickAutomaton.compile(ImmutableList.of("he", "she", "his", "hers"));
+        List<String> matches = match(underTest, "ushers");
+        assertEquals(ImmutableList.of("she[1, 4)", "he[2, 4)", "hers[2, 6)"), matches);
+    }
+
+    @Test
+    public void testMatch_caseInsensitive() {
+        AhoCorasickAutomaton underTest =
+            AhoCorasickAutomaton.compile(ImmutableList.of("Acme", "ACME", "Mount Everest"));
+        assertEquals(ImmutableList.of("Acme", "Mount Everest"), underTest.getTerms());
+        List<String> matches = match(underTest, "acme climbed MOUNT everest");
+        assertEquals(ImmutableList.of("Acme[0, 4)", "Mount Everest[13, 26)"), matches);
+    }
+
+    @Test
+    public void testMatch_noTerms() {
+        AhoCorasickAutomaton underTest =
+            AhoCorasickAutomaton.compile(Lists.newArrayList("", "  ", null));
+        assertTrue(underTest.getTerms().isEmpty());
+        assertEquals(1, underTest.numStates());
+        assertTrue(match(underTest, "some text").isEmpty());
+    }
+
+    @Test
+    public void testMatch_repeatedTerm() {
+        AhoCorasickAutomaton underTest = AhoCorasickAutomaton.compile(ImmutableList.of("aa"));
+        assertEquals(ImmutableList.of("aa[0, 2)", "aa[1, 3)"), match(underTest, "aaa"));
+    }
+
+    private List<String> match(AhoCorasickAutomaton automaton, String text) {
+        List<String> matches = Lists.newArrayList();
+        automaton.match(text, (termIndex, start, end) -> {
+            matches.add(String.format("%s[%d, %d)", automaton.getTerms().get(termIndex), start,
+                                      end));
+        });
+        return matches;
+    }
+}
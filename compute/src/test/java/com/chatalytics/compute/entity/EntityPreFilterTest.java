@@ -0,0 +1,67 @@
+package com.chatalytics.compute.entity;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests {@link EntityPreFilter}
+ */
+public class EntityPreFilterTest {
+
+    private EntityPreFilter underTest;
+
+    @Before
+    public void setUp() {
+        underTest = new EntityPreFilter(2);
+    }
+
+    @Test
+    public void testShouldSkip_nullOrEmpty() {
+        assertTrue(underTest.shouldSkip(null));
+        assertTrue(underTest.shouldSkip(""));
+        assertTrue(underTest.shouldSkip("   \t\n "));
+    }
+
+    @Test
+    public void testShouldSkip_belowTokenThreshold() {
+        assertTrue(underTest.shouldSkip("ok"));
+        assertTrue(underTest.shouldSkip("  thanks!  "));
+        assertFalse(underTest.shouldSkip("thanks John"));
+    }
+
+    /**
+     * Makes sure that short messages with a capitalized word are still classified
+     */
+    @Test
+    public void testShouldSkip_capitalizedBelowTokenThreshold() {
+        assertFalse(underTest.shouldSkip("Boston"));
+        assertFalse(underTest.shouldSkip("  Boston?  "));
+        assertTrue(underTest.shouldSkip("boston"));
+    }
+
+    @Test
+    public void testShouldSkip_noWordTokens() {
+        assertTrue(underTest.shouldSkip(":smile: :+1:"));
+        assertTrue(underTest.shouldSkip("<@U03AFSSD> <http://www.example.com|example.com>"));
+        assertTrue(underTest.shouldSkip("@jane https://example.com/some/path"));
+        assertTrue(underTest.shouldSkip("12:30 ??"));
+        assertTrue(underTest.shouldSkip("<#C09ADF43|general> :tada: 100"));
+    }
+
+    @Test
+    public void testShouldSkip_withWords() {
+        assertFalse(underTest.shouldSkip("Today, Jane Doe is going to climb Mount Everest"));
+        assertFalse(underTest.shouldSkip("<@U03AFSSD> meet Jane :wave:"));
+        assertFalse(underTest.shouldSkip(":smile: Boston"));
+    }
+
+    @Test
+    public void testShouldSkip_minTokens() {
+        underTest = new EntityPreFilter(0);
+        assertFalse(underTest.shouldSkip("Boston"));
+        assertTrue(underTest.shouldSkip(":smile:"));
+    }
+}
@@ -0,0 +1,195 @@
+package com.chatalytics.compute.entity;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests {@link GazetteerEntityExtractor}
+ */
+public class GazetteerEntityExtractorTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private GazetteerEntityExtractor underTest;
+
+    @Before
+    public void setUp() {
+        URL dictionary = GazetteerEntityExtractor.resolveDictionary("test-gazetteer.txt");
+        underTest = new GazetteerEntityExtractor(dictionary, -1);
+    }
+
+    @After
+    public void tearDown() {
+        underTest.close();
+    }
+
+    @Test
+    public void testGetTerms() {
+        assertEquals(ImmutableList.of("OpenChatAlytics", "Chat", "Acme Corp", "Mount Everest"),
+                     underTest.getTerms());
+    }
+
+    @Test
+    public void testExtractEntities() {
+        List<EntityMention> mentions =
+            underTest.extractEntities("acme corp deployed openchatalytics. Chat with ACME CORP!");
+        assertEquals(ImmutableList.of("Acme Corp", "OpenChatAlytics", "Chat", "Acme Corp"),
+                     values(mentions));
+        assertEquals(0, mentions.get(0).getStart());
+        assertEquals(9, mentions.get(0).getEnd());
+    }
+
+    @Test
+    public void testExtractEntities_wordBoundaries() {
+        assertTrue(underTest.extractEntities("chatter about chats").isEmpty());
+        assertEquals(ImmutableList.of("Chat"), values(underTest.extractEntities("#chat time")));
+    }
+
+    @Test
+    public void testExtractEntities_leftmostLongest() throws Exception {
+        Path dictionary = writeDictionary("Mount", "Mount Everest", "Everest Base Camp");
+        underTest = new GazetteerEntityExtractor(dictionary.toUri().toURL(), -1);
+        List<EntityMention> mentions =
+            underTest.extractEntities("Mount Everest Base Camp and Mount Fuji");
+        assertEquals(ImmutableList.of("Mount Everest", "Mount"), values(mentions));
+    }
+
+    @Test
+    public void testMaybeReload() throws Exception {
+        Path dictionary = writeDictionary("Acme");
+        underTest = new GazetteerEntityExtractor(dictionary.toUri().toURL(), 0);
+        assertEquals(ImmutableList.of("Acme"),
+                     values(underTest.extractEntities("Acme and Initech")));
+
+        touchDictionary("Acme", "Initech");
+        // reloading is disabled, so nothing changes until a reload is triggered
+        assertEquals(ImmutableList.of("Acme"),
+                     values(underTest.extractEntities("Acme and Initech")));
+        underTest.maybeReload();
+        assertEquals(ImmutableList.of("Acme", "Initech"),
+                     values(underTest.extractEntities("Acme and Initech")));
+
+        // a broken dictionary keeps the last good one
+        Files.delete(dictionary);
+        underTest.maybeReload();
+        assertEquals(ImmutableList.of("Acme", "Initech"),
+                     values(underTest.extractEntities("Acme and Initech")));
+    }
+
+    /**
+     * Makes sure that the dictionary is reloaded in the background
+     */
+    @Test
+    public void testExtractEntities_backgroundReload() throws Exception {
+        Path dictionary = writeDictionary("Acme");
+        underTest = new GazetteerEntityExtractor(dictionary.toUri().toURL(), 10);
+        touchDictionary("Acme", "Initech");
+        long deadlineMs = System.currentTimeMillis() + 5_000;
+        while (underTest.getTerms().size() == 1 && System.currentTimeMillis() < deadlineMs) {
+            Thread.sleep(10);
+        }
+        assertEquals(ImmutableList.of("Acme", "Initech"),
+                     values(underTest.extractEntities("Acme and Initech")));
+    }
+
+    /**
+     * Makes sure that a dictionary can be read from inside a jar, which is where it is on a storm
+     * worker
+     */
+    @Test
+    public void testExtractEntities_dictionaryInJar() throws Exception {
+        File jar = tempFolder.newFile("dictionary.jar");
+        try (JarOutputStream out = new JarOutputStream(new FileOutputStream(jar))) {
+            out.putNextEntry(new JarEntry("dictionary.txt"));
+            out.write("Acme Corp\n".getBytes(StandardCharsets.UTF_8));
+            out.closeEntry();
+        }
+        URL dictionary = new URL("jar:" + jar.toURI() + "!/dictionary.txt");
+        underTest = new GazetteerEntityExtractor(dictionary, 10);
+        assertEquals(ImmutableList.of("Acme Corp"),
+                     values(underTest.extractEntities("Acme Corp shipped")));
+    }
+
+    /**
+     * Makes sure that the dictionary isn't reloaded once the extractor is closed
+     */
+    @Test
+    public void testClose() throws Exception {
+        Path dictionary = writeDictionary("Acme");
+        underTest = new GazetteerEntityExtractor(dictionary.toUri().toURL(), 10);
+        underTest.close();
+        touchDictionary("Acme", "Initech");
+        Thread.sleep(100);
+        assertEquals(ImmutableList.of("Acme"), underTest.getTerms());
+    }
+
+    /**
+     * Makes sure that dictionaries are found on the context class loader, which is the one that
+     * loads the topology jar on a storm worker
+     */
+    @Test
+    public void testResolveDictionary_contextClassLoader() throws Exception {
+        writeDictionary("Acme");
+        Thread thread = Thread.currentThread();
+        ClassLoader classLoader = thread.getContextClassLoader();
+        try (URLClassLoader topologyClassLoader =
+                new URLClassLoader(new URL[] { tempFolder.getRoot().toURI().toURL() }, null)) {
+            thread.setContextClassLoader(topologyClassLoader);
+            assertEquals(tempFolder.getRoot().toPath().resolve("dictionary.txt").toUri().toURL(),
+                         GazetteerEntityExtractor.resolveDictionary("dictionary.txt"));
+        } finally {
+            thread.setContextClassLoader(classLoader);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testResolveDictionary_missing() {
+        GazetteerEntityExtractor.resolveDictionary("no-such-dictionary.txt");
+    }
+
+    /**
+     * Rewrites the dictionary and moves its modification time forward, so the change is picked up
+     * even on file systems with a coarse modification time
+     */
+    private void touchDictionary(String... terms) throws Exception {
+        Path dictionary = writeDictionary(terms);
+        Files.setLastModifiedTime(dictionary,
+                                  FileTime.fromMillis(System.currentTimeMillis() + 10_000));
+    }
+
+    private Path writeDictionary(String... terms) throws Exception {
+        Path dictionary = tempFolder.getRoot().toPath().resolve("dictionary.txt");
+        Files.write(dictionary, ImmutableList.copyOf(terms), StandardCharsets.UTF_8);
+        return dictionary;
+    }
+
+    private List<String> values(List<EntityMention> mentions) {
+        List<String> values = Lists.newArrayListWithCapacity(mentions.size());
+        for (EntityMention mention : mentions) {
+            values.add(mention.getValue());
+        }
+        return values;
+    }
+}
@@ -0,0 +1,142 @@
+package com.chatalytics.compute.io;
+
+import com.chatalytics.core.json.JsonObjectMapperFactory;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests {@link Journal}
+ */
+public class JournalTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private Path journalPath;
+    private Journal<String> underTest;
+
+    @Before
+    public void setUp() throws Exception {
+        journalPath = tempFolder.getRoot().toPath().resolve("journal");
+        underTest = openJournal(1024);
+    }
+
+    @Test
+    public void testAppendAndComplete() throws Exception {
+        assertEquals(0, underTest.append("a"));
+        assertEquals(1, underTest.append("b"));
+        assertEquals(2, underTest.append("c"));
+        assertEquals(0, underTest.getCommittedOffset());
+
+        // completing out of order only moves the committed offset up to the first gap
+        underTest.complete(1);
+        assertEquals(0, underTest.getCommittedOffset());
+        underTest.complete(0);
+        assertEquals(2, underTest.getCommittedOffset());
+        underTest.complete(2);
+        assertEquals(3, underTest.getCommittedOffset());
+        assertEquals(3, underTest.getNextOffset());
+    }
+
+    @Test
+    public void testReplay_afterRestart() throws Exception {
+        for (int i = 0; i < 5; i++) {
+            underTest.append("record-" + i);
+        }
+        underTest.complete(0);
+        underTest.complete(1);
+        underTest.complete(3);
+        underTest.close();
+
+        underTest = openJournal(1024);
+        assertEquals(2, underTest.getCommittedOffset());
+        assertEquals(5, underTest.getNextOffset());
+        assertEquals(ImmutableList.of("2=record-2", "3=record-3", "4=record-4"), replay());
+
+        // new records continue after the replayed ones
+        assertEquals(5, underTest.append("record-5"));
+    }
+
+    @Test
+    public void testReplay_withTornRecord() throws Exception {
+        underTest.append("record-0");
+        underTest.append("record-1");
+        underTest.close();
+        Path segment = segments().get(0);
+        long size = Files.size(segment);
+        Files.write(segment, new byte[] { 0, 0, 0, 42, 1, 2 }, StandardOpenOption.APPEND);
+
+        underTest = openJournal(1024);
+        assertEquals(size, Files.size(segment));
+        assertEquals(2, underTest.getNextOffset());
+        assertEquals(ImmutableList.of("0=record-0", "1=record-1"), replay());
+    }
+
+    @Test
+    public void testCommit_deletesSegments() throws Exception {
+        underTest.close();
+        underTest = openJournal(40);
+        for (int i = 0; i < 6; i++) {
+            underTest.append("record-" + i);
+        }
+        assertEquals(3, segments().size());
+
+        underTest.complete(0);
+        underTest.complete(1);
+        underTest.complete(2);
+        underTest.commit();
+        assertEquals(2, segments().size());
+
+        underTest.complete(3);
+        underTest.complete(4);
+        underTest.complete(5);
+        underTest.close();
+        assertEquals(1, segments().size());
+
+        underTest = openJournal(40);
+        assertEquals(6, underTest.getCommittedOffset());
+        assertTrue(replay().isEmpty());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        underTest.close();
+    }
+
+    private Journal<String> openJournal(int segmentBytes) throws IOException {
+        JsonRecordCodec<String> codec =
+            new JsonRecordCodec<>(JsonObjectMapperFactory.createObjectMapper(), String.class);
+        return new Journal<>(journalPath, codec, segmentBytes, 2, 0);
+    }
+
+    private List<String> replay() throws IOException {
+        List<String> records = Lists.newArrayList();
+        underTest.replay((offset, record) -> records.add(offset + "=" + record));
+        return records;
+    }
+
+    private List<Path> segments() throws IOException {
+        try (Stream<Path> paths = Files.list(journalPath)) {
+            return paths.filter(path -> path.getFileName().toString().startsWith("segment-"))
+                        .sorted()
+                        .collect(Collectors.toList());
+        }
+    }
+}
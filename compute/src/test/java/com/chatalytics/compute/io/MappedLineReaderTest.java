@@ -0,0 +1,88 @@
+package com.chatalytics.compute.io;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests {@link MappedLineReader}
+ */
+public class MappedLineReaderTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private Path file;
+    private MappedLineReader underTest;
+
+    @Before
+    public void setUp() throws Exception {
+        file = tempFolder.newFile("lines.jsonl").toPath();
+    }
+
+    @Test
+    public void testNextLine() throws Exception {
+        write("first\r\nsecond\n\nlast");
+        // regions are smaller than the lines so they have to grow
+        underTest = new MappedLineReader(file, 2);
+        assertEquals("first", nextLine(false));
+        assertEquals("second", nextLine(false));
+        assertEquals("", nextLine(false));
+        assertNull(nextLine(false));
+        assertFalse(underTest.isAtEnd());
+        assertEquals("last", nextLine(true));
+        assertNull(nextLine(true));
+        assertTrue(underTest.isAtEnd());
+    }
+
+    /**
+     * Makes sure that lines written after the end of the file was reached are read
+     */
+    @Test
+    public void testNextLine_withGrowingFile() throws Exception {
+        write("a\nb");
+        underTest = new MappedLineReader(file, 1024);
+        assertEquals("a", nextLine(false));
+        assertNull(nextLine(false));
+
+        write("c\nd\n");
+        assertEquals("bc", nextLine(false));
+        assertEquals("d", nextLine(false));
+        assertNull(nextLine(true));
+    }
+
+    @Test
+    public void testNextLine_withEmptyFile() throws Exception {
+        underTest = new MappedLineReader(file, 1024);
+        assertNull(nextLine(true));
+        assertTrue(underTest.isAtEnd());
+    }
+
+    private String nextLine(boolean untilEndOfFile) throws Exception {
+        byte[] line = underTest.nextLine(untilEndOfFile);
+        return line == null ? null : new String(line, StandardCharsets.UTF_8);
+    }
+
+    private void write(String text) throws Exception {
+        Files.write(file, text.getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (underTest != null) {
+            underTest.close();
+        }
+    }
+}
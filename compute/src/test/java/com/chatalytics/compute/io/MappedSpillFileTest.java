@@ -0,0 +1,93 @@
+package com.chatalytics.compute.io;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests {@link MappedSpillFile}
+ */
+public class MappedSpillFileTest {
+
+    private static final int MAP_REGION_BYTES = 64;
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private Path spillPath;
+    private MappedSpillFile underTest;
+
+    @Before
+    public void setUp() throws Exception {
+        spillPath = tempFolder.getRoot().toPath().resolve("test.spill");
+        underTest = new MappedSpillFile(spillPath, MAP_REGION_BYTES);
+    }
+
+    @Test
+    public void testAppendAndPoll() throws Exception {
+        assertTrue(underTest.isEmpty());
+        assertNull(underTest.poll());
+
+        // enough records to go over a few mapped regions, including one bigger than a region
+        for (int i = 0; i < 50; i++) {
+            underTest.append(bytes("record-" + i));
+        }
+        byte[] bigRecord = new byte[3 * MAP_REGION_BYTES];
+        bigRecord[bigRecord.length - 1] = 1;
+        underTest.append(bigRecord);
+        assertEquals(50 * Integer.BYTES + 440 + Integer.BYTES + bigRecord.length,
+                     underTest.getUnreadBytes());
+        assertEquals(51, underTest.getUnreadRecords());
+
+        for (int i = 0; i < 50; i++) {
+            assertEquals("record-" + i, string(underTest.poll()));
+        }
+        assertArrayEquals(bigRecord, underTest.poll());
+        assertTrue(underTest.isEmpty());
+        assertEquals(0, underTest.getUnreadBytes());
+        assertEquals(0, underTest.getUnreadRecords());
+        assertNull(underTest.poll());
+
+        // space gets reused once everything is read
+        underTest.append(bytes("again"));
+        assertEquals("again", string(underTest.poll()));
+    }
+
+    @Test
+    public void testReopen() throws Exception {
+        underTest.append(bytes("first"));
+        underTest.append(bytes("second"));
+        underTest.append(bytes("third"));
+        assertEquals("first", string(underTest.poll()));
+        underTest.close();
+
+        underTest = new MappedSpillFile(spillPath, MAP_REGION_BYTES);
+        assertEquals(2, underTest.getUnreadRecords());
+        assertEquals("second", string(underTest.poll()));
+        assertEquals("third", string(underTest.poll()));
+        assertTrue(underTest.isEmpty());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        underTest.close();
+    }
+
+    private static byte[] bytes(String str) {
+        return str.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String string(byte[] bytes) {
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,163 @@
+package com.chatalytics.compute.io;
+
+import com.chatalytics.core.json.JsonObjectMapperFactory;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests {@link RecordArchive}, {@link BlockFileWriter} and {@link BlockFileReader}
+ */
+public class RecordArchiveTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private Path archivePath;
+    private JsonRecordCodec<String> codec;
+    private RecordArchive<String> underTest;
+    private long day1Millis;
+    private long day2Millis;
+
+    @Before
+    public void setUp() throws Exception {
+        archivePath = tempFolder.getRoot().toPath().resolve("archive");
+        codec = new JsonRecordCodec<>(JsonObjectMapperFactory.createObjectMapper(), String.class);
+        underTest = openArchive(1024, 4);
+        day1Millis = new DateTime(2016, 3, 1, 10, 0, DateTimeZone.UTC).getMillis();
+        day2Millis = new DateTime(2016, 3, 2, 23, 59, DateTimeZone.UTC).getMillis();
+    }
+
+    @Test
+    public void testAppend() throws Exception {
+        underTest.append(day2Millis + ":c");
+        underTest.append(day1Millis + ":a");
+        underTest.append(day1Millis + ":b");
+        underTest.close();
+
+        List<Path> files = RecordArchive.listFiles(archivePath, Long.MIN_VALUE, Long.MAX_VALUE);
+        assertEquals(2, files.size());
+        assertEquals("2016-03-01", files.get(0).getParent().getFileName().toString());
+        assertEquals("2016-03-02", files.get(1).getParent().getFileName().toString());
+        assertEquals(ImmutableList.of(day1Millis + ":a", day1Millis + ":b"),
+                     readAll(files.get(0)));
+        assertEquals(ImmutableList.of(day2Millis + ":c"), readAll(files.get(1)));
+    }
+
+    @Test
+    public void testListFiles_withRange() throws Exception {
+        underTest.append(day1Millis + ":a");
+        underTest.append(day2Millis + ":b");
+        underTest.close();
+        Files.createDirectories(archivePath.resolve("not-a-partition"));
+
+        // partitions are whole days so any overlap includes them
+        List<Path> files = RecordArchive.listFiles(archivePath, day2Millis, day2Millis + 1);
+        assertEquals(1, files.size());
+        assertEquals(ImmutableList.of(day2Millis + ":b"), readAll(files.get(0)));
+        assertTrue(RecordArchive.listFiles(archivePath, 0, day1Millis - 86400000L).isEmpty());
+        assertTrue(RecordArchive.listFiles(tempFolder.getRoot().toPath().resolve("missing"),
+                                           0, Long.MAX_VALUE).isEmpty());
+    }
+
+    /**
+     * Makes sure that closed partitions get new files when they're written to again
+     */
+    @Test
+    public void testAppend_withMaxOpenFiles() throws Exception {
+        underTest.close();
+        underTest = openArchive(1024, 1);
+        underTest.append(day1Millis + ":a");
+        underTest.append(day2Millis + ":b");
+        underTest.append(day1Millis + ":c");
+        underTest.close();
+
+        List<Path> files = RecordArchive.listFiles(archivePath, Long.MIN_VALUE, Long.MAX_VALUE);
+        assertEquals(3, files.size());
+        List<String> records = Lists.newArrayList();
+        for (Path file : files) {
+            records.addAll(readAll(file));
+        }
+        assertEquals(ImmutableList.of(day1Millis + ":a", day1Millis + ":c", day2Millis + ":b"),
+                     records);
+    }
+
+    @Test
+    public void testFlush() throws Exception {
+        for (int i = 0; i < 100; i++) {
+            underTest.append(day1Millis + ":the same message over and over again");
+        }
+        underTest.flush();
+        Path file = RecordArchive.listFiles(archivePath, Long.MIN_VALUE, Long.MAX_VALUE).get(0);
+        // the records are readable before the archive is closed and they're compressed
+        assertEquals(100, readAll(file).size());
+        assertTrue(Files.size(file) < 100 * 30);
+    }
+
+    /**
+     * Makes sure that a torn block at the end of a file is ignored
+     */
+    @Test
+    public void testRead_withTornBlock() throws Exception {
+        underTest.close();
+        // every record gets its own block
+        underTest = openArchive(1, 4);
+        underTest.append(day1Millis + ":a");
+        underTest.append(day1Millis + ":b");
+        underTest.append(day1Millis + ":c");
+        underTest.close();
+
+        Path file = RecordArchive.listFiles(archivePath, Long.MIN_VALUE, Long.MAX_VALUE).get(0);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 3);
+        }
+        assertEquals(ImmutableList.of(day1Millis + ":a", day1Millis + ":b"), readAll(file));
+    }
+
+    @Test(expected = IOException.class)
+    public void testRead_withInvalidFile() throws Exception {
+        Path file = tempFolder.newFile("invalid.blocks").toPath();
+        Files.write(file, new byte[] { 1, 2, 3, 4, 5 });
+        new BlockFileReader<>(file, codec);
+    }
+
+    private RecordArchive<String> openArchive(int blockBytes, int maxOpenFiles)
+            throws IOException {
+        return new RecordArchive<>(archivePath, "writer-1", codec,
+                                   record -> Long.parseLong(record.split(":")[0]), blockBytes,
+                                   maxOpenFiles, 0);
+    }
+
+    private List<String> readAll(Path file) throws IOException {
+        List<String> records = Lists.newArrayList();
+        try (BlockFileReader<String> reader = new BlockFileReader<>(file, codec)) {
+            List<String> block;
+            while ((block = reader.nextBlock()) != null) {
+                records.addAll(block);
+            }
+        }
+        return records;
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        underTest.close();
+    }
+}
@@ -0,0 +1,112 @@
+package com.chatalytics.compute.io;
+
+import com.chatalytics.core.json.JsonObjectMapperFactory;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests {@link SpillingQueue}
+ */
+public class SpillingQueueTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private Path spillPath;
+    private SpillingQueue<String> underTest;
+
+    @Before
+    public void setUp() throws Exception {
+        spillPath = tempFolder.getRoot().toPath().resolve("test.spill");
+        underTest = createQueue(2);
+    }
+
+    @Test
+    public void testAddAndPoll_inOrder() {
+        for (int i = 0; i < 5; i++) {
+            underTest.add("msg-" + i);
+        }
+        assertEquals(2, underTest.getInMemorySize());
+        assertTrue(underTest.getSpilledBytes() > 0);
+        assertEquals(5, underTest.size());
+
+        assertEquals("msg-0", underTest.poll());
+        // memory has room again but the spill file isn't drained so this has to go after it
+        underTest.add("msg-5");
+        assertEquals(1, underTest.getInMemorySize());
+
+        for (int i = 1; i < 6; i++) {
+            assertEquals("msg-" + i, underTest.poll());
+        }
+        assertNull(underTest.poll());
+        assertTrue(underTest.isEmpty());
+        assertEquals(0, underTest.getSpilledBytes());
+        assertEquals(0, underTest.size());
+
+        underTest.add("msg-6");
+        assertEquals(1, underTest.getInMemorySize());
+        assertEquals("msg-6", underTest.poll());
+    }
+
+    @Test
+    public void testPoll_afterRestart() throws Exception {
+        for (int i = 0; i < 4; i++) {
+            underTest.add("msg-" + i);
+        }
+        underTest.close();
+
+        // the in-memory records are lost, the spilled ones aren't
+        underTest = createQueue(2);
+        assertEquals(2, underTest.size());
+        underTest.add("msg-4");
+        assertEquals("msg-2", underTest.poll());
+        assertEquals("msg-3", underTest.poll());
+        assertEquals("msg-4", underTest.poll());
+        assertTrue(underTest.isEmpty());
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testAddAndPoll_withCodecErrors() throws Exception {
+        underTest.close();
+        IRecordCodec<String> codec = mock(IRecordCodec.class);
+        when(codec.encode("bad")).thenThrow(new IOException("test"));
+        when(codec.encode("good")).thenReturn(new byte[] { 1 });
+        doThrow(new IOException("test")).when(codec).decode(any(byte[].class));
+        underTest = new SpillingQueue<>(0, new MappedSpillFile(spillPath, 1024), codec);
+
+        underTest.add("good");
+        underTest.add("bad");
+        assertEquals(1, underTest.getInMemorySize());
+        // the spilled record can't be decoded so it's skipped
+        assertEquals("bad", underTest.poll());
+        assertNull(underTest.poll());
+        assertTrue(underTest.isEmpty());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        underTest.close();
+    }
+
+    private SpillingQueue<String> createQueue(int maxInMemory) throws IOException {
+        JsonRecordCodec<String> codec =
+            new JsonRecordCodec<>(JsonObjectMapperFactory.createObjectMapper(), String.class);
+        return new SpillingQueue<>(maxInMemory, new MappedSpillFile(spillPath, 1024), codec);
+    }
+}
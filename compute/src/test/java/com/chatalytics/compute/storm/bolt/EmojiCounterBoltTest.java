@@ -1,5 +1,6 @@
 package com.chatalytics.compute.storm.bolt;
 
+import com.chatalytics.compute.chat.dao.IChatApiDAO;
 import com.chatalytics.compute.config.ConfigurationConstants;
 import com.chatalytics.core.config.ChatAlyticsConfig;
 import com.chatalytics.core.model.data.EmojiEntity;
@@ -9,6 +10,8 @@ import com.chatalytics.core.model.data.MessageType;
 import com.chatalytics.core.model.data.Room;
 import com.chatalytics.core.model.data.User;
 import com.chatalytics.core.util.YamlUtils;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 
@@ -64,7 +67,7 @@ public class EmojiCounterBoltTest {
     @Test
     public void testExecute() {
         Message message = new Message(mentionTime, "randomFrom", "randomUserId",
-                                      String.format("test message with :%s:", emoji),
+                                      "test message with :smile: at 12:30:45",
                                       "randomRoomId", MessageType.MESSAGE);
         FatMessage fatMessage = new FatMessage(message, user, room);
         List<Object> values = Lists.newArrayList(fatMessage);
@@ -84,6 +87,7 @@ public class EmojiCounterBoltTest {
 
         underTest.prepare(stormConf, context);
         underTest.execute(input, collector);
+        // only the unicode emojis are counted without a chat service to get custom emojis from
         verify(collector).emit(any(Values.class));
     }
 
@@ -210,6 +214,79 @@ public class EmojiCounterBoltTest {
         assertEquals(0, emojis.size());
     }
 
+    /**
+     * Makes sure that colon separated text that isn't a known emoji is not counted
+     */
+    @Test
+    public void testGetEmojisFromMessage_withUnknownEmojis() {
+        Message message = new Message(mentionTime, "randomFrom", "randomUserId",
+                                      String.format("meet at 10:30:%s: in C:\\src :other:", emoji),
+                                      "randomRoomId", MessageType.MESSAGE);
+
+        FatMessage fatMessage = new FatMessage(message, user, room);
+
+        underTest = new EmojiCounterBolt(ImmutableSet.of(emoji));
+        List<EmojiEntity> emojis = underTest.getEmojisFromMessage(fatMessage);
+
+        assertEquals(1, emojis.size());
+        assertEquals(emoji, emojis.get(0).getValue());
+        assertEquals(1, emojis.get(0).getOccurrences());
+    }
+
+    /**
+     * Makes sure that once the custom emojis are fetched only the known emojis are counted and that
+     * emojis added to the chat service later are picked up by the next refresh
+     */
+    @Test
+    public void testRefreshEmojis() {
+        ChatAlyticsConfig config = new ChatAlyticsConfig();
+        config.persistenceUnitName = "chatalytics-db-test";
+        Map<Object, Object> stormConf = Maps.newHashMapWithExpectedSize(1);
+        stormConf.put(ConfigurationConstants.CHATALYTICS_CONFIG.txt, YamlUtils.writeYaml(config));
+        underTest.prepare(stormConf, mock(TopologyContext.class));
+
+        Message message = new Message(mentionTime, "randomFrom", "randomUserId",
+                                      String.format(":smile: :%s: :partyparrot: :smile:", emoji),
+                                      "randomRoomId", MessageType.MESSAGE);
+        FatMessage fatMessage = new FatMessage(message, user, room);
+        // only the unicode emojis are counted until the custom emojis are fetched
+        assertEquals(ImmutableMap.of("smile", 2),
+                     counts(underTest.getEmojisFromMessage(fatMessage)));
+
+        IChatApiDAO chatApiDao = mock(IChatApiDAO.class);
+        when(chatApiDao.getEmojis()).thenReturn(ImmutableMap.of("partyparrot", "url"));
+        underTest.refreshEmojis(() -> chatApiDao);
+        assertEquals(ImmutableMap.of("smile", 2, "partyparrot", 1),
+                     counts(underTest.getEmojisFromMessage(fatMessage)));
+
+        // failures keep the current emojis
+        when(chatApiDao.getEmojis()).thenThrow(new RuntimeException("down"));
+        underTest.refreshEmojis(() -> chatApiDao);
+        assertEquals(ImmutableMap.of("smile", 2, "partyparrot", 1),
+                     counts(underTest.getEmojisFromMessage(fatMessage)));
+
+        IChatApiDAO refreshedDao = mock(IChatApiDAO.class);
+        when(refreshedDao.getEmojis()).thenReturn(ImmutableMap.of("partyparrot", "url",
+                                                                  emoji, "url"));
+        underTest.refreshEmojis(() -> refreshedDao);
+        assertEquals(ImmutableMap.of("smile", 2, emoji, 1, "partyparrot", 1),
+                     counts(underTest.getEmojisFromMessage(fatMessage)));
+
+        IChatApiDAO unsupportedDao = mock(IChatApiDAO.class);
+        when(unsupportedDao.getEmojis()).thenThrow(new UnsupportedOperationException());
+        underTest.refreshEmojis(() -> unsupportedDao);
+        assertEquals(ImmutableMap.of("smile", 2),
+                     counts(underTest.getEmojisFromMessage(fatMessage)));
+    }
+
+    private static Map<String, Integer> counts(List<EmojiEntity> emojis) {
+        Map<String, Integer> counts = Maps.newHashMap();
+        for (EmojiEntity emojiEntity : emojis) {
+            counts.put(emojiEntity.getValue(), emojiEntity.getOccurrences());
+        }
+        return counts;
+    }
+
     @Test
     public void testDeclareOutputFields() {
         OutputFieldsDeclarer fields = mock(OutputFieldsDeclarer.class);
@@ -0,0 +1,158 @@
+package com.chatalytics.compute.storm.spout;
+
+import com.chatalytics.compute.io.JsonRecordCodec;
+import com.chatalytics.compute.io.RecordArchive;
+import com.chatalytics.core.config.ComputeConfig;
+import com.chatalytics.core.json.JsonObjectMapperFactory;
+import com.chatalytics.core.model.data.FatMessage;
+import com.chatalytics.core.model.data.Message;
+import com.chatalytics.core.model.data.MessageType;
+import com.chatalytics.core.model.data.Room;
+import com.chatalytics.core.model.data.User;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+import org.apache.storm.spout.SpoutOutputCollector;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests {@link ArchiveSpout}
+ */
+public class ArchiveSpoutTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private ArchiveSpout underTest;
+    private SpoutOutputCollector collector;
+    private Path archivePath;
+    private DateTime start;
+    private List<FatMessage> emitted;
+
+    @Before
+    public void setUp() throws Exception {
+        underTest = new ArchiveSpout();
+        collector = mock(SpoutOutputCollector.class);
+        emitted = Lists.newArrayList();
+        when(collector.emit(anyListOf(Object.class))).thenAnswer(invocation -> {
+            emitted.add((FatMessage) ((List<?>) invocation.getArguments()[0]).get(0));
+            return ImmutableList.of();
+        });
+        archivePath = tempFolder.getRoot().toPath();
+        start = new DateTime(2016, 1, 1, 0, 0, DateTimeZone.UTC);
+
+        JsonRecordCodec<FatMessage> codec =
+            new JsonRecordCodec<>(JsonObjectMapperFactory.createObjectMapper(), FatMessage.class);
+        try (RecordArchive<FatMessage> archive =
+                new RecordArchive<>(archivePath, "test", codec,
+                                    fatMessage -> fatMessage.getMessage().getDate().getMillis(),
+                                    64, 4, 0)) {
+            for (int day = 0; day < 3; day++) {
+                for (int i = 0; i < 10; i++) {
+                    archive.append(fatMessage(start.plusDays(day).plusMinutes(i), "msg " + i));
+                }
+            }
+        }
+    }
+
+    /**
+     * Makes sure that only the messages of the replay dates are emitted
+     */
+    @Test
+    public void testNextTuple() throws Exception {
+        long startMillis = start.plusDays(1).plusMinutes(5).getMillis();
+        long endMillis = start.plusDays(2).plusMinutes(3).getMillis();
+        List<Path> files = RecordArchive.listFiles(archivePath, startMillis, endMillis);
+        assertEquals(2, files.size());
+        underTest.open(files, startMillis, endMillis, 2, collector);
+
+        List<FatMessage> messages = replay(8);
+        assertEquals(8, messages.size());
+        assertEquals(start.plusDays(1).plusMinutes(5).getMillis(),
+                     messages.get(0).getMessage().getDate().getMillis());
+        assertEquals(start.plusDays(2).plusMinutes(2).getMillis(),
+                     messages.get(7).getMessage().getDate().getMillis());
+        assertEquals("msg 5", messages.get(0).getMessage().getMessage());
+        assertEquals("room", messages.get(0).getRoom().getName());
+    }
+
+    @Test
+    public void testNextTuple_withMissingFile() throws Exception {
+        List<Path> files = Lists.newArrayList(archivePath.resolve("missing.blocks"));
+        files.addAll(RecordArchive.listFiles(archivePath, Long.MIN_VALUE, Long.MAX_VALUE));
+        underTest.open(files, Long.MIN_VALUE, Long.MAX_VALUE, 1, collector);
+        assertEquals(30, replay(30).size());
+    }
+
+    /**
+     * Makes sure that replay dates without a time zone are in UTC and that the ones with a time
+     * zone keep it
+     */
+    @Test
+    public void testParseReplayDate() {
+        DateTimeZone defaultZone = DateTimeZone.getDefault();
+        DateTimeZone.setDefault(DateTimeZone.forOffsetHours(-8));
+        try {
+            assertEquals(start.getMillis(), ArchiveSpout.parseReplayDate("2016-01-01", 0));
+            assertEquals(start.plusHours(3).getMillis(),
+                         ArchiveSpout.parseReplayDate("2016-01-01T03:00:00", 0));
+            assertEquals(start.plusHours(1).getMillis(),
+                         ArchiveSpout.parseReplayDate("2016-01-01T03:00:00+02:00", 0));
+            assertEquals(Long.MAX_VALUE, ArchiveSpout.parseReplayDate(null, Long.MAX_VALUE));
+        } finally {
+            DateTimeZone.setDefault(defaultZone);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testGetArchivePath_notConfigured() {
+        MessageArchiver.getArchivePath(new ComputeConfig());
+    }
+
+    @Test
+    public void testGetArchivePath() {
+        ComputeConfig config = new ComputeConfig();
+        config.archiveDirectory = archivePath.toString();
+        assertEquals(archivePath, MessageArchiver.getArchivePath(config));
+    }
+
+    /**
+     * Calls nextTuple until the expected number of messages is emitted or a few seconds pass
+     */
+    private List<FatMessage> replay(int expectedMessages) throws Exception {
+        long deadlineMillis = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+        while (emitted.size() < expectedMessages && System.currentTimeMillis() < deadlineMillis) {
+            underTest.nextTuple();
+            Thread.sleep(1);
+        }
+        return emitted;
+    }
+
+    private FatMessage fatMessage(DateTime date, String text) {
+        User user = new User("u1", null, false, false, false, "name", "name", null, null, null,
+                             null, null, null, null);
+        Room room = new Room("r1", "room", null, null, null, null, false, false, null, null);
+        Message message = new Message(date, "name", "u1", text, "r1", MessageType.MESSAGE);
+        return new FatMessage(message, user, room);
+    }
+
+    @After
+    public void tearDown() {
+        underTest.close();
+    }
+}
@@ -0,0 +1,149 @@
+package com.chatalytics.compute.storm.spout;
+
+import com.chatalytics.compute.chat.dao.IChatApiDAO;
+import com.chatalytics.compute.db.dao.IChatAlyticsDAO;
+import com.chatalytics.core.config.ChatAlyticsConfig;
+import com.chatalytics.core.config.HipChatConfig;
+import com.chatalytics.core.model.data.FatMessage;
+import com.chatalytics.core.model.data.Message;
+import com.chatalytics.core.model.data.MessageType;
+import com.chatalytics.core.model.data.Room;
+import com.chatalytics.core.model.data.User;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.MoreExecutors;
+
+import org.apache.storm.spout.SpoutOutputCollector;
+import org.apache.storm.tuple.Values;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests {@link HipChatMessageSpout}
+ */
+public class HipChatMessageSpoutTest {
+
+    private HipChatMessageSpout underTest;
+    private ChatAlyticsConfig config;
+    private IChatApiDAO hipchatDao;
+    private IChatAlyticsDAO dbDao;
+    private SpoutOutputCollector collector;
+    private Room room1;
+    private Room room2;
+
+    @Before
+    public void setUp() {
+        config = new ChatAlyticsConfig();
+        HipChatConfig chatConfig = new HipChatConfig();
+        chatConfig.apiRequestsPerSecond = 1000;
+        chatConfig.roomFetchThreads = 2;
+        config.computeConfig.chatConfig = chatConfig;
+
+        room1 = new Room("r1", "room1", null, null, DateTime.now(), null, false, false, null, null);
+        room2 = new Room("r2", "room2", null, null, DateTime.now(), null, false, false, null, null);
+        User user = new User("u1", null, false, false, false, "name", "name", null, DateTime.now(),
+                             null, null, null, null, null);
+
+        hipchatDao = mock(IChatApiDAO.class);
+        when(hipchatDao.getUsers()).thenReturn(ImmutableMap.of("u1", user));
+        when(hipchatDao.getRooms()).thenReturn(ImmutableMap.of("r1", room1, "r2", room2));
+        when(hipchatDao.getMessages(any(DateTime.class), any(DateTime.class), eq(room1)))
+            .thenReturn(ImmutableList.of(message("r1 a"), message("r1 b")));
+        when(hipchatDao.getMessages(any(DateTime.class), any(DateTime.class), eq(room2)))
+            .thenReturn(ImmutableList.of(message("r2 a")));
+
+        dbDao = mock(IChatAlyticsDAO.class);
+        collector = mock(SpoutOutputCollector.class);
+        underTest = new HipChatMessageSpout();
+        // fetch rooms on the calling thread so that they're done by the next call to nextTuple
+        underTest.open(config, hipchatDao, dbDao, MoreExecutors.newDirectExecutorService(),
+                       collector);
+    }
+
+    /**
+     * Makes sure that the users are fetched once per pull, every room is fetched and the pull time
+     * is recorded once all the rooms are emitted
+     */
+    @Test
+    public void testNextTuple() {
+        DateTime lastPullTime = DateTime.now(DateTimeZone.UTC).minusHours(2);
+        when(dbDao.getLastMessagePullTime()).thenReturn(lastPullTime);
+
+        // the first call starts the pull and the second one emits the fetched rooms
+        underTest.nextTuple();
+        verify(collector, never()).emit(any(Values.class));
+        underTest.nextTuple();
+
+        ArgumentCaptor<Values> valuesCaptor = ArgumentCaptor.forClass(Values.class);
+        verify(collector, times(3)).emit(valuesCaptor.capture());
+        Set<String> emitted = Sets.newHashSet();
+        for (Values values : valuesCaptor.getAllValues()) {
+            emitted.add(((FatMessage) values.get(0)).getMessage().getMessage());
+        }
+        assertEquals(Sets.newHashSet("r1 a", "r1 b", "r2 a"), emitted);
+        verify(hipchatDao, times(1)).getUsers();
+        verify(hipchatDao, times(1)).getRooms();
+        verify(dbDao).setLastMessagePullTime(any(DateTime.class));
+
+        // the next pull doesn't happen for another hour
+        underTest.nextTuple();
+        verify(hipchatDao, times(1)).getRooms();
+    }
+
+    /**
+     * Makes sure that a room that can't be fetched doesn't hold back the pull time of the rooms
+     * that were emitted, and that it's remembered so it can be pulled again from where it failed
+     */
+    @Test
+    public void testNextTuple_withFailedRoom() {
+        DateTime lastPullTime = DateTime.now(DateTimeZone.UTC).minusHours(2)
+                                        .withMinuteOfHour(0).withSecondOfMinute(0)
+                                        .withMillisOfSecond(0);
+        when(dbDao.getLastMessagePullTime()).thenReturn(lastPullTime);
+        when(hipchatDao.getMessages(any(DateTime.class), any(DateTime.class), eq(room2)))
+            .thenThrow(new RuntimeException("test"));
+
+        underTest.nextTuple();
+        underTest.nextTuple();
+
+        verify(collector, times(2)).emit(any(Values.class));
+        verify(dbDao).setLastMessagePullTime(any(DateTime.class));
+        assertEquals(1, underTest.getFailedRoomStarts().size());
+        assertTrue(lastPullTime.isEqual(underTest.getFailedRoomStarts().get("r2")));
+    }
+
+    @Test
+    public void testNextTuple_notReady() {
+        when(dbDao.getLastMessagePullTime()).thenReturn(DateTime.now());
+        underTest.nextTuple();
+        underTest.nextTuple();
+        verify(dbDao, times(1)).getLastMessagePullTime();
+        verify(hipchatDao, never()).getRooms();
+    }
+
+    private Message message(String text) {
+        return new Message(DateTime.now(), "name", "u1", text, null, MessageType.MESSAGE);
+    }
+
+    @After
+    public void tearDown() {
+        underTest.close();
+    }
+}
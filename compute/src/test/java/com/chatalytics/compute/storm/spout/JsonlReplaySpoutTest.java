@@ -0,0 +1,189 @@
+package com.chatalytics.compute.storm.spout;
+
+import com.chatalytics.core.ReplayPacing;
+import com.chatalytics.core.config.LocalTestConfig;
+import com.chatalytics.core.json.JsonObjectMapperFactory;
+import com.chatalytics.core.model.data.FatMessage;
+import com.chatalytics.core.model.data.Message;
+import com.chatalytics.core.model.data.MessageType;
+import com.chatalytics.core.model.data.Room;
+import com.chatalytics.core.model.data.User;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+import org.apache.storm.spout.SpoutOutputCollector;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests {@link JsonlReplaySpout}
+ */
+public class JsonlReplaySpoutTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private JsonlReplaySpout underTest;
+    private SpoutOutputCollector collector;
+    private LocalTestConfig config;
+    private ObjectMapper objectMapper;
+    private Path replayPath;
+    private DateTime start;
+    private List<FatMessage> emitted;
+    private long nowMillis;
+
+    @Before
+    public void setUp() throws Exception {
+        nowMillis = 1000;
+        underTest = new JsonlReplaySpout() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected long currentTimeMillis() {
+                return nowMillis;
+            }
+        };
+        collector = mock(SpoutOutputCollector.class);
+        emitted = Lists.newArrayList();
+        when(collector.emit(anyListOf(Object.class))).thenAnswer(invocation -> {
+            emitted.add((FatMessage) ((List<?>) invocation.getArguments()[0]).get(0));
+            return ImmutableList.of();
+        });
+        objectMapper = JsonObjectMapperFactory.createObjectMapper();
+        replayPath = tempFolder.getRoot().toPath();
+        start = new DateTime(2016, 1, 1, 0, 0, DateTimeZone.UTC);
+
+        config = new LocalTestConfig();
+        config.replayDirectory = replayPath.toString();
+        config.replayMapRegionBytes = 128;
+    }
+
+    /**
+     * Makes sure that every file is replayed in name order and bad lines are skipped
+     */
+    @Test
+    public void testNextTuple_asFastAsPossible() throws Exception {
+        write("b.jsonl", line(start.plusMinutes(2), "msg 2") + "not json\n"
+            + line(start.plusMinutes(3), "msg 3"));
+        write("a.jsonl", line(start, "msg 0") + "\n" + line(start.plusMinutes(1), "msg 1"));
+        write("ignored.txt", line(start, "ignored"));
+        config.replayPacing = ReplayPacing.AS_FAST_AS_POSSIBLE;
+        underTest.open(config, collector);
+
+        nextTuples(10);
+        assertEquals(4, emitted.size());
+        for (int i = 0; i < 4; i++) {
+            assertEquals("msg " + i, emitted.get(i).getMessage().getMessage());
+            assertEquals("room", emitted.get(i).getRoom().getName());
+        }
+    }
+
+    /**
+     * Makes sure that messages are emitted as far apart as they were recorded, sped up
+     */
+    @Test
+    public void testNextTuple_withOriginalPacing() throws Exception {
+        write("a.jsonl", line(start, "msg 0") + line(start.plusSeconds(10), "msg 1")
+            + line(start.plusSeconds(30), "msg 2"));
+        config.replayPacing = ReplayPacing.ORIGINAL;
+        config.replaySpeedup = 2;
+        underTest.open(config, collector);
+
+        nextTuples(3);
+        assertEquals(1, emitted.size());
+        nowMillis += 4999;
+        nextTuples(3);
+        assertEquals(1, emitted.size());
+        nowMillis += 1;
+        nextTuples(3);
+        assertEquals(2, emitted.size());
+        nowMillis += 10000;
+        nextTuples(3);
+        assertEquals(3, emitted.size());
+    }
+
+    @Test
+    public void testNextTuple_withFixedRate() throws Exception {
+        write("a.jsonl", line(start, "msg 0") + line(start, "msg 1") + line(start, "msg 2"));
+        config.replayPacing = ReplayPacing.FIXED_RATE;
+        config.replayRatePerSecond = 0.001;
+        underTest.open(config, collector);
+
+        // the first permit is available right away and the next one only after a long wait
+        nextTuples(10);
+        assertEquals(1, emitted.size());
+    }
+
+    /**
+     * Makes sure that the last file is followed as it grows and that newer files are picked up
+     */
+    @Test
+    public void testNextTuple_withTail() throws Exception {
+        write("a.jsonl", line(start, "msg 0"));
+        config.replayPacing = ReplayPacing.AS_FAST_AS_POSSIBLE;
+        config.replayTail = true;
+        underTest.open(config, collector);
+
+        nextTuples(3);
+        assertEquals(1, emitted.size());
+
+        // a partial line is left until it's finished while there is no newer file
+        String partialLine = line(start.plusMinutes(1), "msg 1");
+        write("a.jsonl", partialLine.substring(0, 10));
+        nowMillis += 1000;
+        nextTuples(3);
+        assertEquals(1, emitted.size());
+        write("a.jsonl", partialLine.substring(10));
+        nextTuples(3);
+        assertEquals(2, emitted.size());
+
+        write("b.jsonl", line(start.plusMinutes(2), "msg 2"));
+        nextTuples(3);
+        assertEquals(2, emitted.size());
+        nowMillis += 1000;
+        nextTuples(3);
+        assertEquals(3, emitted.size());
+        assertEquals("msg 2", emitted.get(2).getMessage().getMessage());
+    }
+
+    private void nextTuples(int times) {
+        for (int i = 0; i < times; i++) {
+            underTest.nextTuple();
+        }
+    }
+
+    private String line(DateTime date, String text) throws Exception {
+        User user = new User("u1", null, false, false, false, "name", "name", null, null, null,
+                             null, null, null, null);
+        Room room = new Room("r1", "room", null, null, null, null, false, false, null, null);
+        Message message = new Message(date, "name", "u1", text, "r1", MessageType.MESSAGE);
+        return objectMapper.writeValueAsString(new FatMessage(message, user, room)) + "\n";
+    }
+
+    private void write(String fileName, String text) throws Exception {
+        Files.write(replayPath.resolve(fileName), text.getBytes(StandardCharsets.UTF_8),
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    @After
+    public void tearDown() {
+        underTest.close();
+    }
+}
@@ -0,0 +1,212 @@
+package com.chatalytics.compute.storm.spout;
+
+import com.chatalytics.core.config.LocalTestConfig;
+import com.chatalytics.core.model.data.FatMessage;
+import com.chatalytics.core.model.data.MessageType;
+import com.chatalytics.core.model.data.Room;
+import com.chatalytics.core.model.data.User;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+import org.joda.time.DateTimeZone;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests {@link LocalLoadGenerator}
+ */
+public class LocalLoadGeneratorTest {
+
+    private static final long START_NANOS = 1000;
+    private static final long START_MILLIS = 1451606400000L;
+
+    private LocalTestConfig config;
+    private List<User> users;
+    private List<Room> rooms;
+
+    @Before
+    public void setUp() {
+        config = new LocalTestConfig();
+        config.messagesPerSecond = 100;
+        config.diurnalAmplitude = 0;
+        config.burstsPerHour = 0;
+        users = Lists.newArrayList();
+        for (int i = 0; i < 100; i++) {
+            users.add(mockUser("u" + i, i == 99));
+        }
+        rooms = Lists.newArrayList();
+        for (int i = 0; i < 10; i++) {
+            Room room = mock(Room.class);
+            when(room.getRoomId()).thenReturn("r" + i);
+            rooms.add(room);
+        }
+    }
+
+    /**
+     * Makes sure that the configured rate is generated and that the users and rooms are skewed
+     */
+    @Test
+    public void testNextDueMessage() {
+        LocalLoadGenerator underTest = createGenerator();
+        int[] userCounts = new int[users.size()];
+        int[] roomCounts = new int[rooms.size()];
+        List<FatMessage> messages = generate(underTest, 100);
+        for (FatMessage message : messages) {
+            userCounts[users.indexOf(message.getUser())]++;
+            roomCounts[rooms.indexOf(message.getRoom())]++;
+        }
+        assertEquals(10000, messages.size(), 500);
+        assertTrue(userCounts[0] > userCounts[10]);
+        assertTrue(roomCounts[0] > roomCounts[1] && roomCounts[1] > roomCounts[9]);
+
+        FatMessage first = messages.get(0);
+        long firstMillis = first.getMessage().getDate().getMillis();
+        assertTrue(firstMillis >= START_MILLIS && firstMillis < START_MILLIS + 1000);
+        assertEquals(first.getRoom().getRoomId(), first.getMessage().getRoomId());
+        assertEquals(first.getUser().getUserId(), first.getMessage().getFromUserId());
+    }
+
+    @Test
+    public void testNextDueMessage_bots() {
+        LocalLoadGenerator underTest = createGenerator();
+        int botMessages = 0;
+        for (FatMessage message : generate(underTest, 100)) {
+            boolean bot = message.getUser().isBot();
+            assertEquals(bot ? MessageType.BOT_MESSAGE : MessageType.MESSAGE,
+                         message.getMessage().getType());
+            if (bot) {
+                botMessages++;
+            }
+        }
+        assertTrue(botMessages > 0);
+    }
+
+    /**
+     * Makes sure that messages contain the configured number of emojis and entities on average
+     */
+    @Test
+    public void testNextDueMessage_emojisAndEntities() {
+        config.emojisPerMessage = 2;
+        config.entitiesPerMessage = 0;
+        LocalLoadGenerator underTest = createGenerator();
+        List<FatMessage> messages = generate(underTest, 100);
+        int emojiChars = 0;
+        for (FatMessage message : messages) {
+            String text = message.getMessage().getMessage();
+            assertTrue(text.startsWith("sentence"));
+            emojiChars += text.length() - text.replace(":", "").length();
+        }
+        // every emoji has a start and end character
+        assertEquals(2.0, emojiChars / 2.0 / messages.size(), 0.1);
+    }
+
+    /**
+     * Makes sure that the generator doesn't try to catch up when it's polled late
+     */
+    @Test
+    public void testNextDueMessage_lagging() {
+        LocalLoadGenerator underTest = createGenerator();
+        long nowNanos = START_NANOS + TimeUnit.MINUTES.toNanos(10);
+        int count = 0;
+        while (underTest.nextDueMessage(nowNanos) != null) {
+            count++;
+        }
+        assertTrue(count < 10);
+        assertNull(underTest.nextDueMessage(nowNanos));
+    }
+
+    /**
+     * Makes sure that the rate is lowest at the start of the period and highest in the middle
+     */
+    @Test
+    public void testGetRateMultiplier_diurnal() {
+        config.diurnalAmplitude = 0.5;
+        config.diurnalPeriodSecs = 100;
+        LocalLoadGenerator underTest = createGenerator();
+        assertEquals(0.5, underTest.getRateMultiplier(START_NANOS), 1e-9);
+        long halfPeriodNanos = TimeUnit.SECONDS.toNanos(50);
+        assertEquals(1.5, underTest.getRateMultiplier(START_NANOS + halfPeriodNanos), 1e-9);
+        assertEquals(0.5, underTest.getRateMultiplier(START_NANOS + 2 * halfPeriodNanos), 1e-9);
+    }
+
+    /**
+     * Makes sure that a burst multiplies the rate and sends the extra messages to a single room
+     */
+    @Test
+    public void testNextDueMessage_burst() {
+        config.burstsPerHour = 3600;
+        config.burstDurationSecs = 1;
+        config.burstRateMultiplier = 10;
+        config.roomZipfExponent = 0;
+        LocalLoadGenerator underTest = createGenerator();
+
+        int burstMessages = 0;
+        int[] roomCounts = new int[rooms.size()];
+        long endNanos = START_NANOS + TimeUnit.SECONDS.toNanos(100);
+        for (long nowNanos = START_NANOS; nowNanos <= endNanos; nowNanos += 1000000) {
+            List<FatMessage> messages = Lists.newArrayList();
+            FatMessage message;
+            while ((message = underTest.nextDueMessage(nowNanos)) != null) {
+                messages.add(message);
+            }
+            if (underTest.isBursting(nowNanos)) {
+                for (FatMessage burstMessage : messages) {
+                    burstMessages++;
+                    roomCounts[rooms.indexOf(burstMessage.getRoom())]++;
+                }
+            } else if (burstMessages > 0) {
+                break;
+            }
+        }
+        assertEquals(1000, burstMessages, 150);
+        int maxRoomCount = 0;
+        for (int roomCount : roomCounts) {
+            maxRoomCount = Math.max(maxRoomCount, roomCount);
+        }
+        assertTrue(maxRoomCount > 0.85 * burstMessages);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testConstructor_noRate() {
+        config.messagesPerSecond = 0;
+        createGenerator();
+    }
+
+    private LocalLoadGenerator createGenerator() {
+        return new LocalLoadGenerator(config, users, rooms,
+                                      ImmutableList.of("sentence one", "sentence two"),
+                                      DateTimeZone.UTC, 0, START_NANOS, START_MILLIS);
+    }
+
+    /**
+     * Polls the generator every millisecond for the given number of seconds
+     */
+    private List<FatMessage> generate(LocalLoadGenerator generator, int seconds) {
+        List<FatMessage> messages = Lists.newArrayList();
+        long endNanos = START_NANOS + TimeUnit.SECONDS.toNanos(seconds);
+        for (long nowNanos = START_NANOS; nowNanos <= endNanos; nowNanos += 1000000) {
+            FatMessage message;
+            while ((message = generator.nextDueMessage(nowNanos)) != null) {
+                messages.add(message);
+            }
+        }
+        return messages;
+    }
+
+    private User mockUser(String userId, boolean bot) {
+        User user = mock(User.class);
+        when(user.getUserId()).thenReturn(userId);
+        when(user.getName()).thenReturn(userId);
+        when(user.isBot()).thenReturn(bot);
+        return user;
+    }
+}
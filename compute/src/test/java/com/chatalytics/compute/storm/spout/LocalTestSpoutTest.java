@@ -18,6 +18,7 @@ import java.util.Map;
 
 import static org.junit.Assert.assertEquals;
 import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.atLeastOnce;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
 
@@ -85,6 +86,25 @@ public class LocalTestSpoutTest {
         verify(collector).emit(any(Values.class));
     }
 
+    /**
+     * Makes sure that the spout emits the due messages without sleeping when generating load
+     */
+    @Test
+    public void testNextTuple_generatingLoad() {
+        chatConfig.messageCorpusFile = "test-corpus.txt";
+        chatConfig.randomSeed = 0L;
+        chatConfig.sleepMs = 60 * 1000L;
+        chatConfig.messagesPerSecond = 1000;
+        chatConfig.numUsers = 10000;
+        chatConfig.botRatio = 0.1;
+        stormConf.put(ConfigurationConstants.CHATALYTICS_CONFIG.txt, YamlUtils.writeYaml(config));
+        SpoutOutputCollector collector = mock(SpoutOutputCollector.class);
+        underTest.open(stormConf, mock(TopologyContext.class), collector);
+        assertEquals(chatConfig.numUsers, underTest.getUsers().size());
+        underTest.nextTuple();
+        verify(collector, atLeastOnce()).emit(any(Values.class));
+    }
+
     @Test
     public void testDeclareOutputFields() {
         OutputFieldsDeclarer fields = mock(OutputFieldsDeclarer.class);
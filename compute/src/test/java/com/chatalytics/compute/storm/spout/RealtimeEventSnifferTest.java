@@ -0,0 +1,104 @@
+package com.chatalytics.compute.storm.spout;
+
+import com.chatalytics.core.InputSourceType;
+import com.chatalytics.core.json.JsonObjectMapperFactory;
+import com.chatalytics.core.model.data.Message;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.io.Resources;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Tests {@link RealtimeEventSniffer}
+ */
+public class RealtimeEventSnifferTest {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RealtimeEventSnifferTest.class);
+
+    private ObjectMapper objMapper;
+    private JsonFactory jsonFactory;
+    private List<String> recordedEvents;
+
+    @Before
+    public void setUp() throws Exception {
+        objMapper = JsonObjectMapperFactory.createObjectMapper(InputSourceType.SLACK);
+        jsonFactory = objMapper.getFactory();
+        recordedEvents = Resources.readLines(Resources.getResource("slack_rtm/events.txt"),
+                                             StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testSniffType() throws Exception {
+        assertEquals("hello", RealtimeEventSniffer.sniffType(jsonFactory, "{\"type\":\"hello\"}"));
+        // the type doesn't have to come first and nested types are ignored
+        assertEquals("reaction_added",
+                     RealtimeEventSniffer.sniffType(jsonFactory,
+                                                    "{\"item\":{\"type\":\"message\"},"
+                                                    + "\"type\":\"reaction_added\"}"));
+        assertNull(RealtimeEventSniffer.sniffType(jsonFactory, "{\"ok\":true}"));
+        assertNull(RealtimeEventSniffer.sniffType(jsonFactory, "{\"type\":{\"id\":1}}"));
+        assertNull(RealtimeEventSniffer.sniffType(jsonFactory, "[\"message\"]"));
+        // the rest of the event is never read
+        assertEquals("message", RealtimeEventSniffer.sniffType(jsonFactory,
+                                                               "{\"type\":\"message\", broken"));
+    }
+
+    /**
+     * Makes sure that the messages of the recorded traffic are found and decoded
+     */
+    @Test
+    public void testSniffType_withRecordedEvents() throws Exception {
+        int numMessages = 0;
+        for (String event : recordedEvents) {
+            if ("message".equals(RealtimeEventSniffer.sniffType(jsonFactory, event))) {
+                objMapper.readValue(event, Message.class);
+                numMessages++;
+            }
+        }
+        assertEquals(8, numMessages);
+    }
+
+    /**
+     * Measures the decode throughput of the recorded RTM traffic. Only runs when the
+     * <code>chatalytics.benchmark</code> system property is set to true.
+     */
+    @Test
+    public void benchmarkDecode() throws Exception {
+        Assume.assumeTrue(Boolean.getBoolean("chatalytics.benchmark"));
+        int iterations = 50_000;
+        // warm up
+        decodeRecordedEvents(iterations / 10);
+        long startNanos = System.nanoTime();
+        int numMessages = decodeRecordedEvents(iterations);
+        long elapsedNanos = System.nanoTime() - startNanos;
+        long numEvents = (long) iterations * recordedEvents.size();
+        LOG.info("Decoded {} events ({} messages) in {}ms: {} events/s", numEvents, numMessages,
+                 TimeUnit.NANOSECONDS.toMillis(elapsedNanos),
+                 numEvents * TimeUnit.SECONDS.toNanos(1) / elapsedNanos);
+    }
+
+    private int decodeRecordedEvents(int iterations) throws Exception {
+        int numMessages = 0;
+        for (int i = 0; i < iterations; i++) {
+            for (String event : recordedEvents) {
+                if ("message".equals(RealtimeEventSniffer.sniffType(jsonFactory, event))) {
+                    objMapper.readValue(event, Message.class);
+                    numMessages++;
+                }
+            }
+        }
+        return numMessages;
+    }
+}
@@ -1,6 +1,10 @@
 package com.chatalytics.compute.storm.spout;
 
+import com.chatalytics.compute.backfill.BackfillCheckpoint;
+import com.chatalytics.compute.chat.dao.ChatApiClientFactory;
+import com.chatalytics.compute.chat.dao.ChatApiMetricsFilter;
 import com.chatalytics.compute.chat.dao.IChatApiDAO;
+import com.chatalytics.compute.chat.dao.IChatApiDAO.MessagePageHandler;
 import com.chatalytics.compute.config.ConfigurationConstants;
 import com.chatalytics.compute.db.dao.IChatAlyticsDAO;
 import com.chatalytics.core.config.ChatAlyticsConfig;
@@ -25,16 +29,24 @@ import org.joda.time.DateTimeZone;
 import org.joda.time.Interval;
 import org.junit.After;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
+import java.nio.file.Path;
 import java.util.List;
 import java.util.Map;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.atMost;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.reset;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.verifyZeroInteractions;
@@ -47,6 +59,9 @@ import static org.mockito.Mockito.when;
  */
 public class SlackBackfillSpoutTest {
 
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
     private SlackBackfillSpout underTest;
     private Map<Object, Object> stormConf;
     private ChatAlyticsConfig config;
@@ -73,7 +88,12 @@ public class SlackBackfillSpoutTest {
         chatConfig.startDate = DateTime.now().toString();
         stormConf.put(ConfigurationConstants.CHATALYTICS_CONFIG.txt, YamlUtils.writeYaml(config));
         underTest.open(stormConf, context, collector);
-        verifyZeroInteractions(collector, context);
+        // registered once per worker, so another test may have registered it already
+        verify(context, atMost(1)).registerMetric(ChatApiMetricsFilter.METRIC_NAME,
+                                                  ChatApiClientFactory.getMetricsFilter(),
+                                                  config.computeConfig.metricsBucketSecs);
+        verifyNoMoreInteractions(context);
+        verifyZeroInteractions(collector);
     }
 
     @Test
@@ -82,7 +102,12 @@ public class SlackBackfillSpoutTest {
         chatConfig.startDate = null;
         stormConf.put(ConfigurationConstants.CHATALYTICS_CONFIG.txt, YamlUtils.writeYaml(config));
         underTest.open(stormConf, context, collector);
-        verifyZeroInteractions(collector, context);
+        // registered once per worker, so another test may have registered it already
+        verify(context, atMost(1)).registerMetric(ChatApiMetricsFilter.METRIC_NAME,
+                                                  ChatApiClientFactory.getMetricsFilter(),
+                                                  config.computeConfig.metricsBucketSecs);
+        verifyNoMoreInteractions(context);
+        verifyZeroInteractions(collector);
     }
 
     @Test(expected = IllegalArgumentException.class)
@@ -162,10 +187,11 @@ public class SlackBackfillSpoutTest {
                                       MessageType.MESSAGE);
         List<Message> messages = Lists.newArrayList(message);
 
-        when(slackDao.getMessages(interval.getStart(), interval.getEnd(), room)).thenReturn(messages);
+        stubHistory(slackDao, interval, room, messages);
 
         underTest.backfillRooms(users, rooms, interval);
-        verify(slackDao).getMessages(interval.getStart(), interval.getEnd(), room);
+        verify(slackDao).getMessages(eq(interval.getStart()), eq(interval.getEnd()), eq(room),
+                                     any(MessagePageHandler.class));
         verifyNoMoreInteractions(slackDao);
         verify(collector).emit(any(Values.class));
         verifyNoMoreInteractions(collector);
@@ -190,10 +216,11 @@ public class SlackBackfillSpoutTest {
                                       MessageType.UNKNOWN);
         List<Message> messages = Lists.newArrayList(message);
 
-        when(slackDao.getMessages(interval.getStart(), interval.getEnd(), room)).thenReturn(messages);
+        stubHistory(slackDao, interval, room, messages);
 
         underTest.backfillRooms(users, rooms, interval);
-        verify(slackDao).getMessages(interval.getStart(), interval.getEnd(), room);
+        verify(slackDao).getMessages(eq(interval.getStart()), eq(interval.getEnd()), eq(room),
+                                     any(MessagePageHandler.class));
         verifyNoMoreInteractions(slackDao);
         verifyZeroInteractions(collector);
     }
@@ -217,10 +244,11 @@ public class SlackBackfillSpoutTest {
                                       MessageType.MESSAGE);
         List<Message> messages = Lists.newArrayList(message);
 
-        when(slackDao.getMessages(interval.getStart(), interval.getEnd(), room)).thenReturn(messages);
+        stubHistory(slackDao, interval, room, messages);
 
         underTest.backfillRooms(users, rooms, interval);
-        verify(slackDao).getMessages(interval.getStart(), interval.getEnd(), room);
+        verify(slackDao).getMessages(eq(interval.getStart()), eq(interval.getEnd()), eq(room),
+                                     any(MessagePageHandler.class));
         verifyNoMoreInteractions(slackDao);
         verifyZeroInteractions(collector);
     }
@@ -244,15 +272,58 @@ public class SlackBackfillSpoutTest {
                                       MessageType.BOT_MESSAGE);
         List<Message> messages = Lists.newArrayList(message);
 
-        when(slackDao.getMessages(interval.getStart(), interval.getEnd(), room)).thenReturn(messages);
+        stubHistory(slackDao, interval, room, messages);
 
         underTest.backfillRooms(users, rooms, interval);
-        verify(slackDao).getMessages(interval.getStart(), interval.getEnd(), room);
+        verify(slackDao).getMessages(eq(interval.getStart()), eq(interval.getEnd()), eq(room),
+                                     any(MessagePageHandler.class));
         verifyNoMoreInteractions(slackDao);
         verify(collector).emit(any(Values.class));
         verifyNoMoreInteractions(collector);
     }
 
+    /**
+     * Makes sure that every page is emitted as soon as it's fetched
+     */
+    @Test
+    public void testBackfillRooms_multiplePages() {
+        IChatAlyticsDAO dbDao = mock(IChatAlyticsDAO.class);
+        IChatApiDAO slackDao = mock(IChatApiDAO.class);
+        underTest.open(chatConfig, slackDao, dbDao, context, collector);
+
+        Map<String, User> users = ImmutableMap.of("u1", new User("u1", "email", false, false, false,
+                                                                 "name", "mention_name", null,
+                                                                 DateTime.now(), DateTime.now(),
+                                                                 null, null, null, null));
+        Room room = new Room("r1", "room", null, DateTime.now(), DateTime.now(), null, false, false,
+                             null, null);
+        Interval interval = new Interval(DateTime.now().minusDays(1), DateTime.now());
+        Message message = new Message(DateTime.now(), "from", "u1", "test message", "r1",
+                                      MessageType.MESSAGE);
+        doAnswer(invocation -> {
+            MessagePageHandler handler = (MessagePageHandler) invocation.getArguments()[3];
+            handler.onPage(Lists.newArrayList(message, message), false);
+            // the first page is emitted before the next one is fetched
+            verify(collector, times(2)).emit(any(Values.class));
+            handler.onPage(Lists.newArrayList(message), true);
+            return null;
+        }).when(slackDao).getMessages(any(DateTime.class), any(DateTime.class), eq(room),
+                                      any(MessagePageHandler.class));
+
+        assertTrue(underTest.backfillRooms(users, ImmutableMap.of("r1", room), interval));
+        verify(collector, times(3)).emit(any(Values.class));
+    }
+
+    private void stubHistory(IChatApiDAO slackDao, Interval interval, Room room,
+                             List<Message> messages) {
+        doAnswer(invocation -> {
+            MessagePageHandler handler = (MessagePageHandler) invocation.getArguments()[3];
+            handler.onPage(messages, true);
+            return null;
+        }).when(slackDao).getMessages(eq(interval.getStart()), eq(interval.getEnd()), eq(room),
+                                      any(MessagePageHandler.class));
+    }
+
     @Test
     public void testGetRunInterval_noEndDate() {
         DateTime startDate = DateTime.now(DateTimeZone.UTC).minusDays(1);
@@ -341,6 +412,45 @@ public class SlackBackfillSpoutTest {
         verifyNoMoreInteractions(dbDao);
     }
 
+    /**
+     * Makes sure that a run without an end date that didn't complete resumes over the interval of
+     * its checkpoint
+     */
+    @Test
+    public void testGetResumedRunInterval() throws Exception {
+        chatConfig.checkpointDirectory = tempFolder.getRoot().getAbsolutePath();
+        IChatAlyticsDAO dbDao = mock(IChatAlyticsDAO.class);
+        underTest.open(chatConfig, mock(IChatApiDAO.class), dbDao, context, collector);
+
+        DateTime start = new DateTime(2016, 1, 1, 0, 0, DateTimeZone.UTC);
+        Interval runInterval = new Interval(start, start.plusDays(1));
+        Interval laterInterval = new Interval(start, start.plusDays(2));
+        assertEquals(laterInterval, underTest.getResumedRunInterval(laterInterval));
+
+        Path checkpointPath = tempFolder.getRoot().toPath()
+                                        .resolve(SlackBackfillSpout.SPOUT_ID.toLowerCase()
+                                            + ".checkpoint");
+        new BackfillCheckpoint(checkpointPath, runInterval).close();
+        Interval resumedInterval = underTest.getResumedRunInterval(laterInterval);
+        assertEquals(runInterval.getStartMillis(), resumedInterval.getStartMillis());
+        assertEquals(runInterval.getEndMillis(), resumedInterval.getEndMillis());
+
+        Interval otherInterval = new Interval(start.plusDays(1), start.plusDays(2));
+        assertEquals(otherInterval, underTest.getResumedRunInterval(otherInterval));
+    }
+
+    @Test
+    public void testGetRetryBackoffMillis() {
+        chatConfig.retryBackoffBaseSecs = 30;
+        chatConfig.retryBackoffMaxSecs = 100;
+        underTest.open(chatConfig, mock(IChatApiDAO.class), mock(IChatAlyticsDAO.class), context,
+                       collector);
+        assertEquals(30_000, underTest.getRetryBackoffMillis(1));
+        assertEquals(60_000, underTest.getRetryBackoffMillis(2));
+        assertEquals(100_000, underTest.getRetryBackoffMillis(3));
+        assertEquals(100_000, underTest.getRetryBackoffMillis(100));
+    }
+
     @Test
     public void testDeclareOutputFields() {
         OutputFieldsDeclarer fields = mock(OutputFieldsDeclarer.class);
@@ -5,6 +5,7 @@ import com.chatalytics.compute.config.ConfigurationConstants;
 import com.chatalytics.compute.exception.NotConnectedException;
 import com.chatalytics.core.config.ChatAlyticsConfig;
 import com.chatalytics.core.config.SlackConfig;
+import com.chatalytics.core.model.data.FatMessage;
 import com.chatalytics.core.model.data.Message;
 import com.chatalytics.core.model.data.MessageType;
 import com.chatalytics.core.model.data.Room;
@@ -21,9 +22,14 @@ import org.apache.storm.tuple.Values;
 import org.joda.time.DateTime;
 import org.junit.After;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.ArgumentCaptor;
 
 import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -32,10 +38,13 @@ import javax.websocket.Session;
 import javax.websocket.WebSocketContainer;
 
 import static com.chatalytics.core.model.data.MessageType.MESSAGE;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.mock;
-import static org.mockito.Mockito.reset;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.verifyZeroInteractions;
@@ -51,6 +60,9 @@ public class SlackMessageSpoutTest {
 
     private static final URI WEB_SOCKET_TEST_URI = URI.create("test://realtime.test");
 
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
     private SlackMessageSpout underTest;
     private SpoutOutputCollector mockCollector;
     private TopologyContext mockContext;
@@ -70,6 +82,8 @@ public class SlackMessageSpoutTest {
         chatConfig = new SlackConfig();
         chatConfig.sourceConnectionMaxMs = 0;
         chatConfig.sourceConnectionSleepIntervalMs = 1;
+        chatConfig.spillDirectory = tempFolder.getRoot().getAbsolutePath();
+        chatConfig.journalDirectory = tempFolder.getRoot().getAbsolutePath();
         config.computeConfig.chatConfig = chatConfig;
     }
 
@@ -96,7 +110,7 @@ public class SlackMessageSpoutTest {
         when(webSocket.connectToServer(underTest, WEB_SOCKET_TEST_URI))
                 .thenThrow(new DeploymentException("broken"));
         try {
-            underTest.open(chatConfig, slackDao, webSocket, mockContext, mockCollector);
+            underTest.open(config, slackDao, webSocket, mockContext, mockCollector);
             fail();
         } catch (Exception e) {
             throw (Exception) e.getCause();
@@ -130,7 +144,6 @@ public class SlackMessageSpoutTest {
             .thenReturn(mock(Session.class));
         JsonSlackDAO slackDao = mock(JsonSlackDAO.class);
         when(slackDao.getRealtimeWebSocketURI()).thenReturn(WEB_SOCKET_TEST_URI);
-        underTest.open(chatConfig, slackDao, mockSocketContainer, mockContext, mockCollector);
 
         String userId = "U03AFSSD";
 
@@ -141,6 +154,7 @@ public class SlackMessageSpoutTest {
                                                            DateTime.now(), DateTime.now(), null,
                                                            null, null, null));
         when(slackDao.getUsers()).thenReturn(users);
+        underTest.open(config, slackDao, mockSocketContainer, mockContext, mockCollector);
 
         Message triggerMessage = new Message(DateTime.now(), "Test User", userId, "test msg",
                                              "C09ADF43", MESSAGE);
@@ -151,7 +165,7 @@ public class SlackMessageSpoutTest {
         verify(slackDao).getRealtimeWebSocketURI();
         verifyNoMoreInteractions(slackDao);
         underTest.nextTuple();
-        verify(mockCollector).emit(any(Values.class));
+        verify(mockCollector).emit(any(Values.class), any());
         verifyNoMoreInteractions(mockCollector);
 
         // make sure nothing got emitted
@@ -176,7 +190,7 @@ public class SlackMessageSpoutTest {
         when(slackDao.getRealtimeWebSocketURI()).thenReturn(WEB_SOCKET_TEST_URI);
         WebSocketContainer webSocket = mock(WebSocketContainer.class);
         when(webSocket.connectToServer(underTest, WEB_SOCKET_TEST_URI)).thenReturn(session);
-        underTest.open(chatConfig, slackDao, webSocket, mockContext, mockCollector);
+        underTest.open(config, slackDao, webSocket, mockContext, mockCollector);
 
         Message triggerMessage = new Message(DateTime.now(), "BotUser", "b1", "test msg",
                                              "r1", MessageType.BOT_MESSAGE);
@@ -186,7 +200,7 @@ public class SlackMessageSpoutTest {
         verify(slackDao).getRealtimeWebSocketURI();
         verifyNoMoreInteractions(slackDao);
         underTest.nextTuple();
-        verify(mockCollector).emit(any(Values.class));
+        verify(mockCollector).emit(any(Values.class), any());
         verifyNoMoreInteractions(mockCollector);
     }
 
@@ -207,7 +221,7 @@ public class SlackMessageSpoutTest {
         when(slackDao.getRealtimeWebSocketURI()).thenReturn(WEB_SOCKET_TEST_URI);
         WebSocketContainer webSocket = mock(WebSocketContainer.class);
         when(webSocket.connectToServer(underTest, WEB_SOCKET_TEST_URI)).thenReturn(session);
-        underTest.open(chatConfig, slackDao, webSocket, mockContext, mockCollector);
+        underTest.open(config, slackDao, webSocket, mockContext, mockCollector);
 
         Message triggerMessage = new Message(DateTime.now(), "BotUser", "u2", "test msg", "r1",
                                              MESSAGE);
@@ -235,7 +249,7 @@ public class SlackMessageSpoutTest {
         when(slackDao.getRealtimeWebSocketURI()).thenReturn(WEB_SOCKET_TEST_URI);
         WebSocketContainer webSocket = mock(WebSocketContainer.class);
         when(webSocket.connectToServer(underTest, WEB_SOCKET_TEST_URI)).thenReturn(session);
-        underTest.open(chatConfig, slackDao, webSocket, mockContext, mockCollector);
+        underTest.open(config, slackDao, webSocket, mockContext, mockCollector);
 
         // this was a direct chat message
         Message triggerMessage = new Message(DateTime.now(), "name", "u1", "test msg",
@@ -247,7 +261,7 @@ public class SlackMessageSpoutTest {
         verify(slackDao).getRealtimeWebSocketURI();
         verifyNoMoreInteractions(slackDao);
         underTest.nextTuple();
-        verify(mockCollector).emit(any(Values.class));
+        verify(mockCollector).emit(any(Values.class), any());
         verifyNoMoreInteractions(mockCollector);
 
         // make sure nothing got emitted
@@ -264,53 +278,203 @@ public class SlackMessageSpoutTest {
         WebSocketContainer webSocket = mock(WebSocketContainer.class);
         when(webSocket.connectToServer(underTest, WEB_SOCKET_TEST_URI)).thenReturn(session);
 
+        Map<String, User> users = ImmutableMap.of("u1", new User("u1", "email", false, false, false,
+                                                                 "name", "mention_name", null,
+                                                                 DateTime.now(), DateTime.now(),
+                                                                 null, null, null, null));
+        when(slackDao.getUsers()).thenReturn(users);
+
         DateTime startDate = DateTime.now();
         chatConfig.startDate = startDate.toString();
 
         // open with a start date
-        underTest.open(chatConfig, slackDao, webSocket, mockContext, mockCollector);
+        underTest.open(config, slackDao, webSocket, mockContext, mockCollector);
 
         DateTime messageDate = startDate.minusHours(1);
         Message triggerMessage = new Message(messageDate, "name", "u1", "test msg", "D1R3CTM355",
                                              MESSAGE);
         underTest.onMessageEvent(triggerMessage, session);
-        verify(slackDao).getRealtimeWebSocketURI();
-        verifyNoMoreInteractions(slackDao);
         underTest.nextTuple();
         verifyZeroInteractions(mockCollector);
 
         // try again with a message date that's after the start date
         messageDate = startDate.plusHours(1);
-        Map<String, User> users = ImmutableMap.of("u1", new User("u1", "email", false, false, false,
-                                                                 "name", "mention_name", null,
-                                                                 DateTime.now(), DateTime.now(),
-                                                                 null, null, null, null));
-        Map<String, Room> rooms = ImmutableMap.of();
-        when(slackDao.getUsers()).thenReturn(users);
-        when(slackDao.getRooms()).thenReturn(rooms);
         triggerMessage = new Message(messageDate, "name", "u1", "test msg", "D1R3CTM355", MESSAGE);
         underTest.onMessageEvent(triggerMessage, session);
-        verify(slackDao).getUsers();
-        verify(slackDao).getRooms();
-        verify(slackDao).getRealtimeWebSocketURI();
-        verifyNoMoreInteractions(slackDao);
         underTest.nextTuple();
-        verify(mockCollector).emit(any(Values.class));
+        verify(mockCollector).emit(any(Values.class), any());
         verifyNoMoreInteractions(mockCollector);
 
         // try again with a message date that is equal to the start date
-        reset(slackDao);
         messageDate = startDate;
         triggerMessage = new Message(messageDate, "name", "u1", "test msg", "D1R3CTM355", MESSAGE);
         underTest.onMessageEvent(triggerMessage, session);
         verify(slackDao).getUsers();
         verify(slackDao).getRooms();
+        verify(slackDao).getRealtimeWebSocketURI();
         verifyNoMoreInteractions(slackDao);
         underTest.nextTuple();
-        verify(mockCollector).emit(any(Values.class));
+        verify(mockCollector).emit(any(Values.class), any());
+        verifyNoMoreInteractions(mockCollector);
+    }
+
+    /**
+     * Makes sure that messages over the buffer limit are spilled and still emitted in order, and
+     * that journaled messages that weren't acked are replayed after a restart
+     */
+    @Test
+    public void testOnMessageEvent_withSpillAndJournal() throws Exception {
+        chatConfig.maxBufferedMessages = 1;
+        JsonSlackDAO slackDao = mockSlackDao();
+        WebSocketContainer webSocket = mock(WebSocketContainer.class);
+        when(webSocket.connectToServer(any(Object.class), any(URI.class)))
+            .thenReturn(mock(Session.class));
+        underTest.open(config, slackDao, webSocket, mockContext, mockCollector);
+
+        for (int i = 0; i < 4; i++) {
+            Message message = new Message(DateTime.now(), "name", "u1", "msg " + i, "r1", MESSAGE);
+            underTest.onMessageEvent(message, mock(Session.class));
+        }
+
+        ArgumentCaptor<Values> valuesCaptor = ArgumentCaptor.forClass(Values.class);
+        underTest.nextTuple();
+        underTest.nextTuple();
+        underTest.nextTuple();
+        verify(mockCollector, times(3)).emit(valuesCaptor.capture(), any());
+        assertEquals("msg 0", messageText(valuesCaptor.getAllValues().get(0)));
+        assertEquals("msg 1", messageText(valuesCaptor.getAllValues().get(1)));
+        assertEquals("msg 2", messageText(valuesCaptor.getAllValues().get(2)));
+        // msg 1 is still in flight so only msg 0 can be committed
+        underTest.ack(0L);
+        underTest.ack(2L);
+        underTest.close();
+
+        underTest = new SlackMessageSpout();
+        SpoutOutputCollector newCollector = mock(SpoutOutputCollector.class);
+        underTest.open(config, slackDao, webSocket, mockContext, newCollector);
+        valuesCaptor = ArgumentCaptor.forClass(Values.class);
+        for (int i = 0; i < 4; i++) {
+            underTest.nextTuple();
+        }
+        verify(newCollector, times(3)).emit(valuesCaptor.capture(), any());
+        assertEquals("msg 1", messageText(valuesCaptor.getAllValues().get(0)));
+        assertEquals("msg 2", messageText(valuesCaptor.getAllValues().get(1)));
+        assertEquals("msg 3", messageText(valuesCaptor.getAllValues().get(2)));
+    }
+
+    /**
+     * Makes sure that the spill file and the journal default to a directory of the topology, so
+     * tasks with the same ID in other topologies don't share them
+     */
+    @Test
+    public void testOpen_defaultDirectories() throws Exception {
+        chatConfig.spillDirectory = null;
+        chatConfig.journalDirectory = null;
+        when(mockContext.getStormId()).thenReturn("topology-1");
+        when(mockContext.getThisTaskId()).thenReturn(3);
+        WebSocketContainer webSocket = mock(WebSocketContainer.class);
+        when(webSocket.connectToServer(any(Object.class), any(URI.class)))
+            .thenReturn(mock(Session.class));
+        String tmpDir = System.getProperty("java.io.tmpdir");
+        System.setProperty("java.io.tmpdir", tempFolder.getRoot().getAbsolutePath());
+        try {
+            underTest.open(config, mockSlackDao(), webSocket, mockContext, mockCollector);
+        } finally {
+            System.setProperty("java.io.tmpdir", tmpDir);
+        }
+
+        Path topologyDirectory = tempFolder.getRoot().toPath().resolve("chatalytics-topology-1");
+        String taskPrefix = "slack_message_spout_id-3";
+        assertTrue(Files.exists(topologyDirectory.resolve(taskPrefix + ".spill")));
+        assertTrue(Files.isDirectory(topologyDirectory.resolve(taskPrefix + "-journal")));
+    }
+
+    /**
+     * Makes sure that failed messages are emitted again with the same message ID
+     */
+    @Test
+    public void testFail() throws Exception {
+        JsonSlackDAO slackDao = mockSlackDao();
+        WebSocketContainer webSocket = mock(WebSocketContainer.class);
+        when(webSocket.connectToServer(underTest, WEB_SOCKET_TEST_URI))
+            .thenReturn(mock(Session.class));
+        underTest.open(config, slackDao, webSocket, mockContext, mockCollector);
+
+        Message message = new Message(DateTime.now(), "name", "u1", "msg", "r1", MESSAGE);
+        underTest.onMessageEvent(message, mock(Session.class));
+        underTest.nextTuple();
+        verify(mockCollector).emit(any(Values.class), eq(0L));
+
+        underTest.fail(0L);
+        underTest.nextTuple();
+        verify(mockCollector, times(2)).emit(any(Values.class), eq(0L));
+
+        underTest.ack(0L);
+        underTest.nextTuple();
         verifyNoMoreInteractions(mockCollector);
     }
 
+    /**
+     * Makes sure that users and rooms are resolved from the directory and that the directory is
+     * updated by the user and channel events of the realtime stream instead of calling the API
+     */
+    @Test
+    public void testOnRealtimeEvent_updatesDirectory() throws Exception {
+        JsonSlackDAO slackDao = mockSlackDao();
+        WebSocketContainer webSocket = mock(WebSocketContainer.class);
+        when(webSocket.connectToServer(underTest, WEB_SOCKET_TEST_URI))
+            .thenReturn(mock(Session.class));
+        underTest.open(config, slackDao, webSocket, mockContext, mockCollector);
+
+        String messageEvent = "{\"type\":\"message\",\"channel\":\"C1\",\"user\":\"U2\","
+            + "\"text\":\"hello\",\"ts\":\"1355517523.000005\"}";
+        // U2 is not known yet so the message is skipped
+        underTest.onRealtimeEvent(messageEvent, mock(Session.class));
+        underTest.nextTuple();
+        verifyZeroInteractions(mockCollector);
+
+        underTest.onRealtimeEvent("{\"type\":\"team_join\",\"user\":{\"id\":\"U2\","
+            + "\"name\":\"jane\",\"deleted\":false,\"profile\":{\"real_name\":\"Jane Doe\","
+            + "\"image_32\":\"https://example.com/jane.png\"}}}", mock(Session.class));
+        underTest.onRealtimeEvent("{\"type\":\"channel_created\",\"channel\":{\"id\":\"C1\","
+            + "\"name\":\"fun\",\"created\":1360782804,\"creator\":\"U2\"}}",
+                                  mock(Session.class));
+        underTest.onRealtimeEvent("{\"type\":\"channel_rename\",\"channel\":{\"id\":\"C1\","
+            + "\"name\":\"more-fun\",\"created\":1360782804}}", mock(Session.class));
+        underTest.onRealtimeEvent("{\"type\":\"presence_change\",\"user\":\"U2\"}",
+                                  mock(Session.class));
+
+        underTest.onRealtimeEvent(messageEvent, mock(Session.class));
+        ArgumentCaptor<Values> valuesCaptor = ArgumentCaptor.forClass(Values.class);
+        underTest.nextTuple();
+        verify(mockCollector).emit(valuesCaptor.capture(), any());
+        FatMessage fatMessage = (FatMessage) valuesCaptor.getValue().get(0);
+        assertEquals("Jane Doe", fatMessage.getUser().getName());
+        assertEquals("more-fun", fatMessage.getRoom().getName());
+        assertEquals("U2", fatMessage.getRoom().getOwnerUserId());
+
+        verify(slackDao).getUsers();
+        verify(slackDao).getRooms();
+        verify(slackDao).getRealtimeWebSocketURI();
+        verifyNoMoreInteractions(slackDao);
+    }
+
+    private JsonSlackDAO mockSlackDao() {
+        JsonSlackDAO slackDao = mock(JsonSlackDAO.class);
+        Map<String, User> users = ImmutableMap.of("u1", new User("u1", "email", false, false, false,
+                                                                 "name", "mention_name", null,
+                                                                 DateTime.now(), DateTime.now(),
+                                                                 null, null, null, null));
+        when(slackDao.getUsers()).thenReturn(users);
+        when(slackDao.getRooms()).thenReturn(ImmutableMap.of());
+        when(slackDao.getRealtimeWebSocketURI()).thenReturn(WEB_SOCKET_TEST_URI);
+        return slackDao;
+    }
+
+    private String messageText(Values values) {
+        return ((FatMessage) values.get(0)).getMessage().getMessage();
+    }
+
     @Test
     public void testDeclareOutputFields() {
         OutputFieldsDeclarer mockFields = mock(OutputFieldsDeclarer.class);
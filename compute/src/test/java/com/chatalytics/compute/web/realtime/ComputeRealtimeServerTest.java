@@ -6,6 +6,8 @@ import org.junit.Test;
 
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
 
 /**
  * Tests {@link ComputeRealtimeServer}
@@ -16,12 +18,14 @@ import static org.junit.Assert.assertTrue;
 public class ComputeRealtimeServerTest {
 
     private Server server;
+    private RealtimeResource realtimeResource;
     private ComputeRealtimeServer underTest;
 
     @Before
     public void setUp() {
         server = new Server(1234);
-        underTest = new ComputeRealtimeServer(server);
+        realtimeResource = mock(RealtimeResource.class);
+        underTest = new ComputeRealtimeServer(server, realtimeResource);
     }
 
     @Test
@@ -37,6 +41,7 @@ public class ComputeRealtimeServerTest {
         underTest.startUp();
         underTest.shutDown();
         assertFalse(server.isRunning());
+        verify(realtimeResource).close();
     }
 
 }
@@ -0,0 +1,193 @@
+package com.chatalytics.compute.web.realtime;
+
+import com.chatalytics.core.RealtimeOverflowPolicy;
+import com.chatalytics.core.model.data.ChatAlyticsEvent;
+import com.chatalytics.core.model.data.ChatAlyticsEventBatch;
+import com.chatalytics.core.model.data.EmojiEntity;
+import com.chatalytics.core.realtime.BinaryEventCodec;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Futures;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.websocket.RemoteEndpoint;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests {@link RealtimeEventPublisher}
+ */
+public class RealtimeEventPublisherTest {
+
+    private RemoteEndpoint.Async remote;
+    private List<ChatAlyticsEventBatch> sentBatches;
+    private CountDownLatch sentEvents;
+    private RealtimeEventPublisher underTest;
+
+    @Before
+    public void setUp() {
+        remote = mock(RemoteEndpoint.Async.class);
+        sentBatches = Lists.newCopyOnWriteArrayList();
+        when(remote.sendObject(any())).thenAnswer(invocation -> {
+            ChatAlyticsEventBatch batch = (ChatAlyticsEventBatch) invocation.getArguments()[0];
+            sentBatches.add(batch);
+            for (int i = 0; i < batch.getEvents().size(); i++) {
+                sentEvents.countDown();
+            }
+            return Futures.immediateFuture(null);
+        });
+    }
+
+    /**
+     * Makes sure that full batches are sent right away and that the rest is sent after the delay
+     */
+    @Test
+    public void testPublish() throws Exception {
+        underTest = new RealtimeEventPublisher(remote, false, 100, 4, 50,
+                                               RealtimeOverflowPolicy.DROP_OLDEST);
+        sentEvents = new CountDownLatch(10);
+        for (int i = 0; i < 10; i++) {
+            underTest.publish(createEvent(i));
+        }
+        underTest.start();
+        assertTrue(sentEvents.await(5, TimeUnit.SECONDS));
+
+        assertEquals(3, sentBatches.size());
+        assertEquals(4, sentBatches.get(0).getEvents().size());
+        assertEquals(4, sentBatches.get(1).getEvents().size());
+        assertEquals(2, sentBatches.get(2).getEvents().size());
+        assertEquals(createEvent(0), sentBatches.get(0).getEvents().get(0));
+        assertEquals(createEvent(9), sentBatches.get(2).getEvents().get(1));
+        underTest.close();
+        assertEquals(3, underTest.getAndResetSentBatches());
+        assertEquals(10, underTest.getAndResetSentEvents());
+        assertEquals(0, underTest.getAndResetSentEvents());
+    }
+
+    @Test
+    public void testPublish_dropOldest() throws Exception {
+        underTest = new RealtimeEventPublisher(remote, false, 3, 10, 0,
+                                               RealtimeOverflowPolicy.DROP_OLDEST);
+        for (int i = 0; i < 5; i++) {
+            underTest.publish(createEvent(i));
+        }
+        assertEquals(3, underTest.getBufferedEvents());
+        assertEquals(2, underTest.getAndResetDroppedEvents());
+
+        sentEvents = new CountDownLatch(3);
+        underTest.start();
+        assertTrue(sentEvents.await(5, TimeUnit.SECONDS));
+        List<ChatAlyticsEvent> events = sentBatches.get(0).getEvents();
+        assertEquals(createEvent(2), events.get(0));
+        assertEquals(createEvent(4), events.get(2));
+    }
+
+    /**
+     * Makes sure that publishing waits for room in the buffer and that no events are dropped
+     */
+    @Test
+    public void testPublish_block() throws Exception {
+        underTest = new RealtimeEventPublisher(remote, false, 2, 10, 0,
+                                               RealtimeOverflowPolicy.BLOCK);
+        underTest.publish(createEvent(0));
+        underTest.publish(createEvent(1));
+        CountDownLatch published = new CountDownLatch(1);
+        Thread publisherThread = new Thread(() -> {
+            underTest.publish(createEvent(2));
+            published.countDown();
+        });
+        publisherThread.start();
+        assertFalse(published.await(100, TimeUnit.MILLISECONDS));
+
+        sentEvents = new CountDownLatch(3);
+        underTest.start();
+        assertTrue(published.await(5, TimeUnit.SECONDS));
+        assertTrue(sentEvents.await(5, TimeUnit.SECONDS));
+        assertEquals(0, underTest.getAndResetDroppedEvents());
+        assertTrue(underTest.getAndResetBlockedMillis() > 0);
+    }
+
+    /**
+     * Makes sure that the buffered events are sent when the publisher is closed
+     */
+    @Test
+    public void testClose() throws Exception {
+        underTest = new RealtimeEventPublisher(remote, false, 100, 10, 60 * 1000,
+                                               RealtimeOverflowPolicy.DROP_OLDEST);
+        sentEvents = new CountDownLatch(3);
+        underTest.start();
+        for (int i = 0; i < 3; i++) {
+            underTest.publish(createEvent(i));
+        }
+        underTest.close();
+        assertTrue(sentEvents.await(5, TimeUnit.SECONDS));
+        assertEquals(3, underTest.getAndResetSentEvents());
+    }
+
+    @Test
+    public void testPublish_failedSend() throws Exception {
+        doAnswer(invocation -> {
+            sentEvents.countDown();
+            return Futures.immediateFailedFuture(new IllegalStateException("closed"));
+        }).when(remote).sendObject(any());
+        underTest = new RealtimeEventPublisher(remote, false, 100, 1, 0,
+                                               RealtimeOverflowPolicy.DROP_OLDEST);
+        sentEvents = new CountDownLatch(2);
+        underTest.publish(createEvent(0));
+        underTest.publish(createEvent(1));
+        underTest.start();
+        assertTrue(sentEvents.await(5, TimeUnit.SECONDS));
+        underTest.close();
+        assertEquals(2, underTest.getAndResetFailedBatches());
+    }
+
+    @Test
+    public void testPublish_binary() throws Exception {
+        List<ChatAlyticsEvent> sent = Lists.newCopyOnWriteArrayList();
+        BinaryEventCodec codec = new BinaryEventCodec();
+        when(remote.sendBinary(any(ByteBuffer.class))).thenAnswer(invocation -> {
+            sent.addAll(codec.decode((ByteBuffer) invocation.getArguments()[0]));
+            sentEvents.countDown();
+            return Futures.immediateFuture(null);
+        });
+        underTest = new RealtimeEventPublisher(remote, true, 100, 10, 0,
+                                               RealtimeOverflowPolicy.DROP_OLDEST);
+        sentEvents = new CountDownLatch(1);
+        underTest.publish(createEvent(0));
+        underTest.publish(createEvent(1));
+        underTest.start();
+        assertTrue(sentEvents.await(5, TimeUnit.SECONDS));
+        assertEquals(ImmutableList.of(createEvent(0), createEvent(1)), sent);
+        verify(remote, never()).sendObject(any());
+    }
+
+    private ChatAlyticsEvent createEvent(int index) {
+        DateTime time = new DateTime(index, DateTimeZone.UTC);
+        return new ChatAlyticsEvent(time, "emoji_entity",
+                                    new EmojiEntity("user", "room", time, "emoji-" + index, 1,
+                                                    false));
+    }
+
+    @After
+    public void tearDown() {
+        underTest.close();
+    }
+}
@@ -1,21 +1,45 @@
 package com.chatalytics.compute.web.realtime;
 
+import com.chatalytics.core.config.ComputeConfig;
 import com.chatalytics.core.model.data.ChatAlyticsEvent;
+import com.chatalytics.core.model.data.ChatAlyticsEventBatch;
+import com.chatalytics.core.model.data.EmojiEntity;
+import com.chatalytics.core.model.data.EventSubscription;
 import com.chatalytics.core.model.data.MessageSummary;
+import com.chatalytics.core.model.data.MessageType;
+import com.chatalytics.core.realtime.BinaryEventCodec;
+import com.chatalytics.core.realtime.ChatAlyticsEventBatchEncoderDecoder;
+import com.chatalytics.core.realtime.ChatAlyticsEventEncoder;
 import com.chatalytics.core.realtime.ConnectionType;
+import com.chatalytics.core.realtime.EventSubscriptionEncoderDecoder;
+import com.chatalytics.core.realtime.RealtimeWireFormat;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
 
 import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.stubbing.Answer;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 import javax.websocket.CloseReason;
 import javax.websocket.CloseReason.CloseCodes;
+import javax.websocket.EncodeException;
 import javax.websocket.RemoteEndpoint.Async;
+import javax.websocket.SendHandler;
+import javax.websocket.SendResult;
 import javax.websocket.Session;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.times;
@@ -39,7 +63,7 @@ public class RealtimeResourceTest {
         session = mock(Session.class);
         when(session.getId()).thenReturn("id");
         when(session.isOpen()).thenReturn(true);
-        underTest = new RealtimeResource();
+        underTest = new RealtimeResource(new ComputeConfig());
     }
 
     @Test
@@ -62,54 +86,43 @@ public class RealtimeResourceTest {
         underTest.openSocket(type, session);
         verify(session).getId();
         verify(session).setMaxIdleTimeout(0);
+        verify(session).getNegotiatedSubprotocol();
         verifyNoMoreInteractions(session);
         assertEquals(1, underTest.numSessions());
 
-        // add a second session
+        // add a second session, which leaves the first one alone. Closed sessions are collected
+        // by the reaper
         Session secondSession = mock(Session.class);
         when(secondSession.getId()).thenReturn("id2");
-        when(secondSession.isOpen()).thenReturn(true);
         underTest.openSocket(type, secondSession);
-        verify(session).isOpen();
         verifyNoMoreInteractions(session);
         verify(secondSession).getId();
         verify(secondSession).setMaxIdleTimeout(0);
+        verify(secondSession).getNegotiatedSubprotocol();
         verifyNoMoreInteractions(secondSession);
         assertEquals(2, underTest.numSessions());
-
-        // add a third session and close the second one to make sure that it is removed
-        when(secondSession.isOpen()).thenReturn(false);
-        Session thirdSession = mock(Session.class);
-        when(thirdSession.getId()).thenReturn("id3");
-        when(thirdSession.isOpen()).thenReturn(true);
-        underTest.openSocket(type, thirdSession);
-        verify(session, times(2)).isOpen();
-        verifyNoMoreInteractions(session);
-        verify(secondSession).isOpen();
-        verifyNoMoreInteractions(secondSession);
-        verify(thirdSession).getId();
-        verify(thirdSession).setMaxIdleTimeout(0);
-        assertEquals(2, underTest.numSessions());
     }
 
     /**
      * Creates two sessions one that's closed and one that's open, sends an event and makes sure
-     * that the closed gets collected and removed and that the event only gets propagated to the
-     * open one
+     * that the event only gets propagated to the open one. The closed one is left for the reaper
      */
     @Test
-    public void testPublishEvent() {
-        MessageSummary actualEvent = mock(MessageSummary.class);
-        String eventType = actualEvent.getClass().getSimpleName();
-        ChatAlyticsEvent event = new ChatAlyticsEvent(DateTime.now(), eventType, actualEvent);
+    public void testPublishEvent() throws Exception {
+        DateTime time = DateTime.now(DateTimeZone.UTC);
+        ChatAlyticsEvent event =
+            new ChatAlyticsEvent(time, "message_summary",
+                                 new MessageSummary("user", "room", time, MessageType.MESSAGE, 1,
+                                                    false));
 
-        Async asyncRemote = mock(Async.class);
+        Async asyncRemote = mockRemote();
         when(session.getAsyncRemote()).thenReturn(asyncRemote);
         // open two sockets make one open and one closed
         ConnectionType type = ConnectionType.SUBSCRIBER;
         underTest.openSocket(type, session);
         verify(session).getId();
         verify(session).setMaxIdleTimeout(0);
+        verify(session).getNegotiatedSubprotocol();
         verifyNoMoreInteractions(session);
         Session closedSession = mock(Session.class);
         when(closedSession.getId()).thenReturn("id2");
@@ -117,27 +130,109 @@ public class RealtimeResourceTest {
         underTest.openSocket(type, closedSession);
         verify(closedSession).getId();
         verify(closedSession).setMaxIdleTimeout(0);
+        verify(closedSession).getNegotiatedSubprotocol();
         verifyNoMoreInteractions(closedSession);
-        verify(session).isOpen();
         verifyNoMoreInteractions(session);
         assertEquals(2, underTest.numSessions());
 
         underTest.publishEvent(event);
-        verify(session, times(2)).isOpen();
+        verify(session).isOpen();
         verify(session).getAsyncRemote();
         verifyNoMoreInteractions(session);
-        verify(asyncRemote).sendObject(event);
+        verify(asyncRemote).sendText(eq(json(event)), any(SendHandler.class));
         verifyNoMoreInteractions(asyncRemote);
         verify(closedSession).isOpen();
         verifyNoMoreInteractions(closedSession);
+        assertEquals(2, underTest.numSessions());
+    }
+
+    /**
+     * Makes sure that every event of a batch is sent to the subscribers on its own
+     */
+    @Test
+    public void testPublishEvents() throws Exception {
+        ChatAlyticsEvent event1 = new ChatAlyticsEvent(DateTime.now(), "type", "event1");
+        ChatAlyticsEvent event2 = new ChatAlyticsEvent(DateTime.now(), "type", "event2");
+        Async asyncRemote = mockRemote();
+        when(session.getAsyncRemote()).thenReturn(asyncRemote);
+        underTest.openSocket(ConnectionType.SUBSCRIBER, session);
+
+        underTest.publishEvents(new ChatAlyticsEventBatch(ImmutableList.of(event1, event2)));
+        verify(asyncRemote).sendText(eq(json(event1)), any(SendHandler.class));
+        verify(asyncRemote).sendText(eq(json(event2)), any(SendHandler.class));
+        verifyNoMoreInteractions(asyncRemote);
+    }
+
+    /**
+     * Makes sure that text messages from publishers are published and that text messages from
+     * subscribers narrow down the events they receive
+     */
+    @Test
+    public void testOnTextMessage() throws Exception {
+        Async asyncRemote = mockRemote();
+        when(session.getAsyncRemote()).thenReturn(asyncRemote);
+        underTest.openSocket(ConnectionType.SUBSCRIBER, session);
+        Session publisherSession = mock(Session.class);
+        underTest.openSocket(ConnectionType.PUBLISHER, publisherSession);
+
+        EventSubscription subscription = new EventSubscription();
+        subscription.setRooms(ImmutableSet.of("general"));
+        underTest.onTextMessage(new EventSubscriptionEncoderDecoder().encode(subscription),
+                                session);
+
+        DateTime time = new DateTime(0, DateTimeZone.UTC);
+        ChatAlyticsEvent generalEvent =
+            new ChatAlyticsEvent(time, "emoji_entity",
+                                 new EmojiEntity("user", "general", time, "smile", 1, false));
+        ChatAlyticsEvent randomEvent =
+            new ChatAlyticsEvent(time, "emoji_entity",
+                                 new EmojiEntity("user", "random", time, "smile", 1, false));
+        ChatAlyticsEventBatch batch =
+            new ChatAlyticsEventBatch(ImmutableList.of(generalEvent, randomEvent));
+        underTest.onTextMessage(new ChatAlyticsEventBatchEncoderDecoder().encode(batch),
+                                publisherSession);
+
+        verify(asyncRemote).sendText(eq(json(generalEvent)), any(SendHandler.class));
+        verifyNoMoreInteractions(asyncRemote);
         assertEquals(1, underTest.numSessions());
     }
 
+    /**
+     * Makes sure that binary frames from publishers are decoded and that subscribers that
+     * negotiated binary frames get binary frames while the rest get JSON
+     */
+    @Test
+    public void testPublishBinaryEvents() throws Exception {
+        Async jsonRemote = mockRemote();
+        when(session.getAsyncRemote()).thenReturn(jsonRemote);
+        underTest.openSocket(ConnectionType.SUBSCRIBER, session);
+        Session binarySession = mock(Session.class);
+        Async binaryRemote = mockRemote();
+        when(binarySession.isOpen()).thenReturn(true);
+        when(binarySession.getAsyncRemote()).thenReturn(binaryRemote);
+        when(binarySession.getNegotiatedSubprotocol())
+            .thenReturn(RealtimeWireFormat.BINARY_SUBPROTOCOL);
+        underTest.openSocket(ConnectionType.SUBSCRIBER, binarySession);
+
+        BinaryEventCodec codec = new BinaryEventCodec();
+        DateTime time = new DateTime(0, DateTimeZone.UTC);
+        ChatAlyticsEvent event = new ChatAlyticsEvent(time, "emoji_entity",
+                                                      new EmojiEntity("user", "room", time,
+                                                                      "smile", 1, false));
+        underTest.publishBinaryEvents(codec.encode(ImmutableList.of(event)));
+
+        verify(jsonRemote).sendText(eq(json(event)), any(SendHandler.class));
+        ArgumentCaptor<ByteBuffer> frame = ArgumentCaptor.forClass(ByteBuffer.class);
+        verify(binaryRemote).sendBinary(frame.capture(), any(SendHandler.class));
+        assertEquals(ImmutableList.of(event), codec.decode(frame.getValue()));
+    }
+
     @Test
     public void testClose() throws Exception {
         underTest.openSocket(ConnectionType.SUBSCRIBER, session);
         verify(session).getId();
         verify(session).setMaxIdleTimeout(0);
+        verify(session).getNegotiatedSubprotocol();
         verifyNoMoreInteractions(session);
         assertEquals(1, underTest.numSessions());
         underTest.close(session, new CloseReason(CloseCodes.CANNOT_ACCEPT, "close"));
@@ -152,6 +247,7 @@ public class RealtimeResourceTest {
         underTest.openSocket(ConnectionType.SUBSCRIBER, session);
         verify(session).getId();
         verify(session).setMaxIdleTimeout(0);
+        verify(session).getNegotiatedSubprotocol();
         verifyNoMoreInteractions(session);
         assertEquals(1, underTest.numSessions());
 
@@ -172,4 +268,55 @@ public class RealtimeResourceTest {
     public void testOnError() {
         underTest.onError(new RuntimeException("log"));
     }
+
+    /**
+     * Makes sure that an event is encoded once and that the same frame is sent to all the
+     * subscribers
+     */
+    @Test
+    public void testPublishEvent_encodedOnce() {
+        Async firstRemote = mockRemote();
+        when(session.getAsyncRemote()).thenReturn(firstRemote);
+        when(session.isOpen()).thenReturn(true);
+        underTest.openSocket(ConnectionType.SUBSCRIBER, session);
+        Session secondSession = mock(Session.class);
+        Async secondRemote = mockRemote();
+        when(secondSession.getAsyncRemote()).thenReturn(secondRemote);
+        when(secondSession.isOpen()).thenReturn(true);
+        underTest.openSocket(ConnectionType.SUBSCRIBER, secondSession);
+
+        DateTime time = DateTime.now(DateTimeZone.UTC);
+        underTest.publishEvent(new ChatAlyticsEvent(time, "emoji_entity",
+                                                    new EmojiEntity("user", "room", time,
+                                                                    "smile", 1, false)));
+        ArgumentCaptor<String> firstFrame = ArgumentCaptor.forClass(String.class);
+        ArgumentCaptor<String> secondFrame = ArgumentCaptor.forClass(String.class);
+        verify(firstRemote).sendText(firstFrame.capture(), any(SendHandler.class));
+        verify(secondRemote).sendText(secondFrame.capture(), any(SendHandler.class));
+        assertSame(firstFrame.getValue(), secondFrame.getValue());
+    }
+
+    @After
+    public void tearDown() {
+        underTest.close();
+    }
+
+    /**
+     * @return A remote that completes every write right away
+     */
+    private static String json(ChatAlyticsEvent event) throws EncodeException {
+        return new ChatAlyticsEventEncoder().encode(event);
+    }
+
+    private Async mockRemote() {
+        Async remote = mock(Async.class);
+        Answer<Void> complete = invocation -> {
+            ((SendHandler) invocation.getArguments()[1]).onResult(new SendResult());
+            return null;
+        };
+        doAnswer(complete).when(remote).sendObject(any(), any(SendHandler.class));
+        doAnswer(complete).when(remote).sendBinary(any(ByteBuffer.class), any(SendHandler.class));
+        doAnswer(complete).when(remote).sendText(any(String.class), any(SendHandler.class));
+        return remote;
+    }
 }
@@ -0,0 +1,30 @@
+package com.chatalytics.core;
+
+/**
+ * The kinds of entity extractors the entity extraction bolt can run
+ */
+public enum EntityExtractorType {
+
+    /**
+     * Named entity recognition with a CRF classifier
+     */
+    CRF,
+
+    /**
+     * Exact matching of the terms found in a curated dictionary
+     */
+    GAZETTEER,
+
+    /**
+     * Runs both the gazetteer and the CRF classifier
+     */
+    CRF_AND_GAZETTEER;
+
+    public boolean usesCRF() {
+        return this == CRF || this == CRF_AND_GAZETTEER;
+    }
+
+    public boolean usesGazetteer() {
+        return this == GAZETTEER || this == CRF_AND_GAZETTEER;
+    }
+}
@@ -0,0 +1,20 @@
+package com.chatalytics.core;
+
+/**
+ * What happens to realtime events that are published while the buffer of events waiting to be
+ * sent is full
+ */
+public enum RealtimeOverflowPolicy {
+
+    /**
+     * The oldest buffered event is dropped to make room, so the topology never waits for the
+     * realtime server
+     */
+    DROP_OLDEST,
+
+    /**
+     * Publishing waits until there's room, so no events are lost but a slow realtime server slows
+     * down the topology
+     */
+    BLOCK
+}
@@ -0,0 +1,22 @@
+package com.chatalytics.core;
+
+/**
+ * How recorded messages are paced when they're replayed
+ */
+public enum ReplayPacing {
+
+    /**
+     * Messages are emitted as far apart as their original timestamps, optionally sped up
+     */
+    ORIGINAL,
+
+    /**
+     * Messages are emitted at a fixed number per second
+     */
+    FIXED_RATE,
+
+    /**
+     * Messages are emitted as fast as the topology takes them
+     */
+    AS_FAST_AS_POSSIBLE
+}
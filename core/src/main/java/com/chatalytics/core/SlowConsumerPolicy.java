@@ -0,0 +1,24 @@
+package com.chatalytics.core;
+
+/**
+ * What happens to realtime events that are sent to a subscriber whose queue of events waiting to be
+ * written to its socket is full
+ */
+public enum SlowConsumerPolicy {
+
+    /**
+     * The oldest queued event is dropped to make room
+     */
+    DROP_OLDEST,
+
+    /**
+     * The event replaces the queued event with the same type, room, user and value, so only the
+     * latest of them is sent. If there's no such event the oldest queued event is dropped
+     */
+    COALESCE,
+
+    /**
+     * The subscriber is disconnected and has to reconnect
+     */
+    DISCONNECT
+}
@@ -1,5 +1,9 @@
 package com.chatalytics.core.config;
 
+import com.chatalytics.core.EntityExtractorType;
+import com.chatalytics.core.RealtimeOverflowPolicy;
+import com.chatalytics.core.SlowConsumerPolicy;
+
 import java.io.Serializable;
 import java.util.Map;
 
@@ -13,12 +17,188 @@ public class ComputeConfig implements Serializable {
 
     public String apiDateFormat;
 
+    /**
+     * How long, in milliseconds, to wait for a connection to the chat API
+     */
+    public int apiConnectTimeoutMs = 10 * 1000;
+
+    /**
+     * How long, in milliseconds, to wait for data from the chat API once connected
+     */
+    public int apiReadTimeoutMs = 60 * 1000;
+
+    /**
+     * The number of idle keep-alive connections to keep per chat API host
+     */
+    public int apiMaxIdleConnections = 20;
+
+    /**
+     * Ask the chat API for gzip compressed responses
+     */
+    public boolean apiGzipEnabled = true;
+
+    /**
+     * The backoff, in milliseconds, before the first retry of a failed chat API request. Every
+     * following retry doubles it and a random part of it is waited
+     */
+    public long apiBackoffBaseMs = 500;
+
+    /**
+     * The longest backoff, in milliseconds, between retries of a chat API request
+     */
+    public long apiBackoffMaxMs = 30 * 1000;
+
+    /**
+     * The number of consecutive failed requests to a chat API endpoint after which requests to it
+     * fail right away
+     */
+    public int apiCircuitBreakerFailures = 5;
+
+    /**
+     * How long, in milliseconds, requests to a failing chat API endpoint fail right away before one
+     * is let through again
+     */
+    public long apiCircuitBreakerOpenMs = 60 * 1000;
+
     public final String rtComputePath = "/rtcompute";
 
     public int rtComputePort = 9000;
 
     public boolean enableRealtimeEvents = true;
 
+    /**
+     * Number of realtime events that can wait to be sent to the realtime compute server
+     */
+    public int rtPublishBufferSize = 16 * 1024;
+
+    /**
+     * Maximum number of realtime events sent together in one frame
+     */
+    public int rtPublishBatchSize = 256;
+
+    /**
+     * Maximum time, in milliseconds, a realtime event waits for more events to be batched with
+     */
+    public int rtPublishBatchDelayMs = 50;
+
+    /**
+     * What happens to realtime events when {@link #rtPublishBufferSize} events are waiting
+     */
+    public RealtimeOverflowPolicy rtPublishOverflowPolicy = RealtimeOverflowPolicy.DROP_OLDEST;
+
+    /**
+     * Number of realtime events that can wait to be written to each subscriber of the realtime
+     * compute server
+     */
+    public int rtSessionQueueSize = 4 * 1024;
+
+    /**
+     * What happens to realtime events when {@link #rtSessionQueueSize} events are waiting for a
+     * subscriber of the realtime compute server
+     */
+    public SlowConsumerPolicy rtSlowConsumerPolicy = SlowConsumerPolicy.DROP_OLDEST;
+
+    /**
+     * How often, in seconds, closed sessions of the realtime compute server are collected and the
+     * lag of the slow subscribers is logged
+     */
+    public int rtSessionReapSecs = 30;
+
+    /**
+     * Skip the entity classifier for messages that can't contain entities, such as emoji only
+     * messages, links, mentions or very short messages
+     */
+    public boolean entityPreFilterEnabled = true;
+
+    /**
+     * Messages with fewer whitespace separated tokens than this are not classified for entities,
+     * unless one of their words is capitalized
+     */
+    public int entityPreFilterMinTokens = 1;
+
+    /**
+     * How often, in seconds, storm metrics registered by the spouts and bolts are reported
+     */
+    public int metricsBucketSecs = 60;
+
+    /**
+     * Which entity extractors to run. The gazetteer dictionary is read from the file mapped to
+     * <code>com.chatalytics.bolts.entities.gazetteer</code> in {@link #filesToRead}
+     */
+    public EntityExtractorType entityExtractor = EntityExtractorType.CRF;
+
+    /**
+     * How often, in seconds, the gazetteer dictionary is checked for changes in the background. Set
+     * to zero or a negative value to disable reloading
+     */
+    public int gazetteerReloadIntervalSecs = 60;
+
+    /**
+     * How often, in seconds, the emoji counter refreshes the custom emojis of the chat service in
+     * the background. Set to zero or a negative value to only fetch them once
+     */
+    public int emojiRefreshIntervalSecs = 3600;
+
+    /**
+     * Append every message emitted by the chat spouts to a local archive, so that the analytics
+     * can be computed again from it with {@link #archiveReplayEnabled} instead of the chat API
+     */
+    public boolean archiveEnabled = false;
+
+    /**
+     * Directory of the message archive. Required when archiving or replaying the archive, since
+     * the topologies that write and replay it have to share it
+     */
+    public String archiveDirectory;
+
+    /**
+     * Uncompressed size of the blocks that archived messages are compressed in
+     */
+    public int archiveBlockBytes = 256 * 1024; // 256KB
+
+    /**
+     * Maximum number of daily partitions of the archive that a spout task keeps open for writing
+     */
+    public int archiveMaxOpenFiles = 8;
+
+    /**
+     * Maximum time archived messages stay buffered in memory before they're written
+     */
+    public int archiveFlushIntervalMs = 1000;
+
+    /**
+     * Replay the message archive through the topology instead of reading from the chat API
+     */
+    public boolean archiveReplayEnabled = false;
+
+    /**
+     * Optional start date of the replayed messages, inclusive. The format is ISO 8601 and dates
+     * without a time zone are in UTC.
+     */
+    public String archiveReplayStartDate;
+
+    /**
+     * Optional end date of the replayed messages, exclusive. The format is ISO 8601 and dates
+     * without a time zone are in UTC.
+     */
+    public String archiveReplayEndDate;
+
+    /**
+     * Number of spout tasks that read the archive in parallel when replaying it
+     */
+    public int archiveReplayParallelism = 4;
+
+    /**
+     * Number of decoded blocks every replay task reads ahead of the ones being emitted
+     */
+    public int archiveReplayReadAheadBlocks = 8;
+
+    /**
+     * Number of workers that parse and analyze the files of a bulk loaded export. 0 uses one
+     * worker per available processor
+     */
+    public int bulkLoadParallelism = 0;
+
     public ChatConfig chatConfig;
 
     /**
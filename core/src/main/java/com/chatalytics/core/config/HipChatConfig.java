@@ -18,6 +18,16 @@ public class HipChatConfig implements ChatConfig {
 
     public boolean includeArchivedRooms = false;
 
+    /**
+     * Number of rooms whose history is fetched at the same time
+     */
+    public int roomFetchThreads = 4;
+
+    /**
+     * Maximum rate of requests to the hipchat API. The v1 API allows 100 requests every 5 minutes
+     */
+    public double apiRequestsPerSecond = 0.3;
+
     @Override
     public List<String> getAuthTokens() {
         return authTokens;
@@ -1,5 +1,7 @@
 package com.chatalytics.core.config;
 
+import com.chatalytics.core.ReplayPacing;
+import com.chatalytics.core.model.data.FatMessage;
 import com.google.common.collect.ImmutableList;
 
 import java.util.List;
@@ -37,6 +39,98 @@ public class LocalTestConfig implements ChatConfig {
      */
     public String messageCorpusFile;
 
+    /**
+     * Fraction of the fake users that are bots
+     */
+    public double botRatio = 0;
+
+    /**
+     * Average number of messages emitted per second. When it's above 0 the spout generates load
+     * with the skew configured below instead of emitting a uniformly random message every
+     * <code>sleepMs</code>
+     */
+    public double messagesPerSecond = 0;
+
+    /**
+     * Zipf exponent of the popularity of users. 0 picks every user equally often
+     */
+    public double userZipfExponent = 1;
+
+    /**
+     * Zipf exponent of the popularity of rooms. 0 picks every room equally often
+     */
+    public double roomZipfExponent = 1;
+
+    /**
+     * How much the rate swings over a day, from 0 for a constant rate to 1 for no messages at the
+     * quietest time. The rate peaks in the middle of the period
+     */
+    public double diurnalAmplitude = 0.5;
+
+    /**
+     * Length of a day of the diurnal pattern. Shorten it to go through days faster
+     */
+    public int diurnalPeriodSecs = 24 * 60 * 60;
+
+    /**
+     * Average number of bursts an hour. During a burst the rate is multiplied and the extra
+     * messages all go to a single room. 0 disables bursts
+     */
+    public double burstsPerHour = 2;
+
+    /**
+     * How long a burst lasts
+     */
+    public int burstDurationSecs = 60;
+
+    /**
+     * How many times the rate is multiplied by during a burst
+     */
+    public double burstRateMultiplier = 5;
+
+    /**
+     * Average number of emojis in a generated message
+     */
+    public double emojisPerMessage = 0.3;
+
+    /**
+     * Average number of named entities in a generated message
+     */
+    public double entitiesPerMessage = 0.2;
+
+    /**
+     * Directory of JSON lines files of recorded {@link FatMessage}s, one per line. When it's set
+     * the files are replayed in name order instead of emitting random messages
+     */
+    public String replayDirectory;
+
+    /**
+     * How the replayed messages are paced
+     */
+    public ReplayPacing replayPacing = ReplayPacing.ORIGINAL;
+
+    /**
+     * Number of messages emitted per second with {@link ReplayPacing#FIXED_RATE}
+     */
+    public double replayRatePerSecond = 1000;
+
+    /**
+     * How many times faster than recorded the messages are replayed with
+     * {@link ReplayPacing#ORIGINAL}
+     */
+    public double replaySpeedup = 1;
+
+    /**
+     * Keep following the last file and pick up new files once every file is replayed, instead of
+     * stopping
+     */
+    public boolean replayTail = false;
+
+    /**
+     * Size of the regions of the replayed files that are memory mapped at a time
+     */
+    public int replayMapRegionBytes = 64 * 1024 * 1024; // 64MB
+
     public char emojiStartChar = ':';
 
     public char emojiEndChar = ':';
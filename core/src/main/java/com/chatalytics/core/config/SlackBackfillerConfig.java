@@ -18,4 +18,36 @@ public class SlackBackfillerConfig extends SlackConfig {
      * Optional end date if you want the backfiller to stop emitting messages beyond this date
      */
     public String endDate;
+
+    /**
+     * Number of room history slices fetched at the same time
+     */
+    public int workers = 8;
+
+    /**
+     * Maximum rate of history requests for every auth token
+     */
+    public double requestsPerSecondPerToken = 0.8;
+
+    /**
+     * Length, in hours, of the time slices the history of a room is split into
+     */
+    public int sliceHours = 7 * 24;
+
+    /**
+     * Directory of the file that keeps track of the completed slices so that a backfill can resume
+     * after a crash. Defaults to the system temp directory
+     */
+    public String checkpointDirectory;
+
+    /**
+     * Wait, in seconds, before a backfill run that didn't complete is resumed. It doubles with
+     * every run in a row that doesn't complete
+     */
+    public int retryBackoffBaseSecs = 30;
+
+    /**
+     * Maximum wait, in seconds, before a backfill run that didn't complete is resumed
+     */
+    public int retryBackoffMaxSecs = 30 * 60;
 }
@@ -38,6 +38,58 @@ public class SlackConfig implements ChatConfig {
      */
     public String startDate;
 
+    /**
+     * Maximum number of realtime messages buffered in memory while waiting to be emitted. Messages
+     * over this limit are spilled to a local file
+     */
+    public int maxBufferedMessages = 10000;
+
+    /**
+     * Directory of the file that buffered messages are spilled to. Defaults to a directory named
+     * after the topology ID in the system temp directory, so spilled messages only survive restarts
+     * of the same topology. Set this to keep them across deployments
+     */
+    public String spillDirectory;
+
+    /**
+     * Size of the regions of the spill file that are memory mapped at a time
+     */
+    public int spillMapRegionBytes = 16 * 1024 * 1024; // 16MB
+
+    /**
+     * Journal every realtime message before it's processed, so messages that weren't fully
+     * processed are replayed after a restart
+     */
+    public boolean journalEnabled = true;
+
+    /**
+     * Directory of the message journal. Defaults to a directory named after the topology ID in the
+     * system temp directory, so the journal is only replayed by the same topology. Set this to
+     * replay it across deployments
+     */
+    public String journalDirectory;
+
+    /**
+     * Size after which the journal starts a new segment file
+     */
+    public int journalSegmentBytes = 64 * 1024 * 1024; // 64MB
+
+    /**
+     * Number of journaled messages after which the journal is synced to disk
+     */
+    public int journalSyncBatchSize = 500;
+
+    /**
+     * Maximum time journaled messages can go without being synced to disk
+     */
+    public int journalSyncIntervalMs = 200;
+
+    /**
+     * How often the cached users and rooms are reloaded from the API, to catch changes that the
+     * realtime stream didn't report
+     */
+    public int directoryReconcileIntervalSecs = 15 * 60; // 15 mins
+
     @Override
     public List<String> getAuthTokens() {
         return authTokens;
@@ -1,5 +1,7 @@
 package com.chatalytics.core.config;
 
+import com.chatalytics.core.SlowConsumerPolicy;
+
 import java.io.Serializable;
 
 public class WebConfig implements Serializable {
@@ -8,4 +10,45 @@ public class WebConfig implements Serializable {
 
     public int port = 80;
 
+    /**
+     * How long, in seconds, the users fetched from the chat API are served before they're
+     * refreshed in the background
+     */
+    public int chatApiUsersTtlSecs = 5 * 60;
+
+    /**
+     * How long, in seconds, the rooms fetched from the chat API are served before they're
+     * refreshed in the background
+     */
+    public int chatApiRoomsTtlSecs = 5 * 60;
+
+    /**
+     * How long, in seconds, the emojis fetched from the chat API are served before they're
+     * refreshed in the background
+     */
+    public int chatApiEmojisTtlSecs = 60 * 60;
+
+    /**
+     * How long, in seconds, past its TTL a value fetched from the chat API can still be served
+     * while it's refreshed. Older values are fetched again before they're served
+     */
+    public int chatApiMaxStaleSecs = 60 * 60;
+
+    /**
+     * Number of realtime events that can wait to be written to each client socket
+     */
+    public int rtSessionQueueSize = 1024;
+
+    /**
+     * What happens to realtime events when {@link #rtSessionQueueSize} events are waiting for a
+     * client
+     */
+    public SlowConsumerPolicy rtSlowConsumerPolicy = SlowConsumerPolicy.DROP_OLDEST;
+
+    /**
+     * How often, in seconds, closed client sessions are collected and the lag of the slow clients
+     * is logged
+     */
+    public int rtSessionReapSecs = 30;
+
 }
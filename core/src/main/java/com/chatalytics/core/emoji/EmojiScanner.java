@@ -0,0 +1,201 @@
+package com.chatalytics.core.emoji;
+
+/**
+ * Finds emojis in text, both <code>:name:</code> shortcodes and unicode emojis, in a single pass.
+ * The scanner works directly on the characters of the text and walks an {@link EmojiTrie} while it
+ * reads a candidate, so it doesn't allocate and stops reading a candidate as soon as it can't be a
+ * known emoji.
+ * <p/>
+ * Shortcodes that aren't in the vocabulary, such as timestamps (<code>12:30:45</code>) or paths,
+ * are not reported. A scanner without a shortcode vocabulary reports every well formed shortcode
+ * instead, which is how emojis were counted before the vocabulary was known. The closing colon of
+ * a candidate that isn't an emoji can still open the next one, so in
+ * <code>at 10:45:smile:</code> the scanner finds <code>smile</code>.
+ * <p/>
+ * Unicode emojis are matched longest first so multi code point sequences, like ZWJ families or
+ * keycaps, are reported once with their own name instead of as their parts. Unicode emojis are
+ * reported with their shortcode name so they're counted together with the shortcode form. Skin
+ * tone modifiers are reported as <code>skin-tone-N</code> after the emoji they modify, the same
+ * way they're written as shortcodes.
+ */
+public class EmojiScanner {
+
+    private static final int ZERO_WIDTH_JOINER = 0x200D;
+    private static final int COMBINING_KEYCAP = 0x20E3;
+
+    private final EmojiTrie emojiTrie;
+    private final EmojiTrie unicodeEmojiTrie;
+
+    /**
+     * Handler that gets called for every emoji found in the text
+     */
+    public interface EmojiHandler {
+
+        /**
+         * @param name
+         *            The emoji name, without the colons. This is the instance held by the
+         *            {@link EmojiTrie} so it can be compared by reference, unless the scanner has
+         *            no shortcode trie
+         * @param start
+         *            The offset where the emoji starts
+         * @param end
+         *            The offset right after the end of the emoji
+         */
+        void onEmoji(String name, int start, int end);
+    }
+
+    /**
+     * Creates a scanner that only finds shortcodes
+     *
+     * @param emojiTrie
+     *            The trie of shortcode names. Can be null to report every well formed shortcode
+     */
+    public EmojiScanner(EmojiTrie emojiTrie) {
+        this(emojiTrie, null);
+    }
+
+    /**
+     * @param emojiTrie
+     *            The trie of shortcode names. Can be null to report every well formed shortcode
+     * @param unicodeEmojiTrie
+     *            The trie of unicode emojis built with {@link EmojiTrie#compileUnicode}. Can be
+     *            null, in which case unicode emojis are not reported
+     */
+    public EmojiScanner(EmojiTrie emojiTrie, EmojiTrie unicodeEmojiTrie) {
+        this.emojiTrie = emojiTrie;
+        this.unicodeEmojiTrie = unicodeEmojiTrie;
+    }
+
+    /**
+     * Scans the text and calls the handler for every known emoji, in order
+     *
+     * @param text
+     *            The text to scan
+     * @param handler
+     *            The handler to call for each emoji
+     */
+    public void scan(String text, EmojiHandler handler) {
+        int length = text.length();
+        int i = 0;
+        while (i < length) {
+            char ch = text.charAt(i);
+            if (ch == ':') {
+                i = scanShortcode(text, i, handler);
+            } else if (unicodeEmojiTrie != null && mayStartUnicodeEmoji(text, i)) {
+                i = scanUnicode(text, i, handler);
+            } else {
+                i++;
+            }
+        }
+    }
+
+    /**
+     * Reads the shortcode candidate opened by the colon at <code>open</code>
+     *
+     * @return The offset to continue scanning from
+     */
+    private int scanShortcode(String text, int open, EmojiHandler handler) {
+        int length = text.length();
+        int state = EmojiTrie.ROOT;
+        int i = open + 1;
+        while (i < length) {
+            char ch = text.charAt(i);
+            if (ch == ':' || isSeparator(ch) || ch >= 0x80) {
+                break;
+            }
+            if (emojiTrie != null && state != EmojiTrie.NO_STATE) {
+                state = emojiTrie.next(state, ch);
+            }
+            i++;
+        }
+        if (i >= length) {
+            return length;
+        }
+
+        char last = text.charAt(i);
+        if (last != ':') {
+            // separators can't open a new candidate but unicode characters may be emojis
+            return last >= 0x80 ? i : i + 1;
+        }
+
+        String name = null;
+        if (i > open + 1 && emojiTrie == null) {
+            name = text.substring(open + 1, i);
+        } else if (i > open + 1 && state != EmojiTrie.NO_STATE) {
+            name = emojiTrie.getName(state);
+        }
+        if (name == null) {
+            return i;
+        }
+        handler.onEmoji(name, open, i + 1);
+        return i + 1;
+    }
+
+    /**
+     * Finds the longest unicode emoji starting at <code>start</code>
+     *
+     * @return The offset to continue scanning from
+     */
+    private int scanUnicode(String text, int start, EmojiHandler handler) {
+        int length = text.length();
+        int state = EmojiTrie.ROOT;
+        String matchName = null;
+        int matchEnd = start;
+        int i = start;
+        while (i < length) {
+            int codePoint = text.codePointAt(i);
+            if (codePoint == EmojiTrie.VARIATION_SELECTOR_16 && i > start) {
+                i += Character.charCount(codePoint);
+                if (matchName != null && matchEnd == i - 1) {
+                    matchEnd = i;
+                }
+                continue;
+            }
+            state = unicodeEmojiTrie.next(state, codePoint);
+            if (state == EmojiTrie.NO_STATE) {
+                break;
+            }
+            i += Character.charCount(codePoint);
+            String name = unicodeEmojiTrie.getName(state);
+            if (name != null) {
+                matchName = name;
+                matchEnd = i;
+            }
+        }
+
+        if (matchName == null) {
+            return start + Character.charCount(text.codePointAt(start));
+        }
+        handler.onEmoji(matchName, start, matchEnd);
+        return matchEnd;
+    }
+
+    /**
+     * Unicode emojis are outside of the ASCII range except for keycaps, which start with an ASCII
+     * character followed by a variation selector or a combining keycap
+     */
+    private static boolean mayStartUnicodeEmoji(String text, int index) {
+        char ch = text.charAt(index);
+        if (ch >= 0x80) {
+            return ch != ZERO_WIDTH_JOINER && ch != EmojiTrie.VARIATION_SELECTOR_16;
+        }
+        if (index + 1 >= text.length()) {
+            return false;
+        }
+        char next = text.charAt(index + 1);
+        return next == EmojiTrie.VARIATION_SELECTOR_16 || next == COMBINING_KEYCAP;
+    }
+
+    private static boolean isSeparator(char ch) {
+        return Character.isWhitespace(ch) || ch == ',' || ch == '{' || ch == '}' || ch == '/'
+            || ch == '\\';
+    }
+
+    public EmojiTrie getEmojiTrie() {
+        return emojiTrie;
+    }
+
+    public EmojiTrie getUnicodeEmojiTrie() {
+        return unicodeEmojiTrie;
+    }
+}
@@ -0,0 +1,153 @@
+package com.chatalytics.core.emoji;
+
+import com.chatalytics.core.util.FlatTrie;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact, immutable trie of emojis backed by a {@link FlatTrie}, so an emoji can be walked one key
+ * at a time without allocating. This lets a scanner validate a candidate emoji while it reads it
+ * instead of first copying it out of the message.
+ * <p/>
+ * Keys are ints so the same trie can hold the characters of emoji names, see
+ * {@link #compile(Collection)}, or the code points of unicode emoji sequences, see
+ * {@link #compileUnicode(Map)}. Either way the value at the end of a path is the emoji name.
+ */
+public class EmojiTrie {
+
+    /**
+     * The state before any key is read
+     */
+    public static final int ROOT = FlatTrie.ROOT;
+
+    /**
+     * Returned by {@link #next(int, int)} when no emoji continues with the given key
+     */
+    public static final int NO_STATE = FlatTrie.NO_STATE;
+
+    /**
+     * Variation selector that asks for the emoji presentation of the previous code point. It's
+     * optional in practice so it's left out of unicode keys and skipped when matching
+     */
+    public static final int VARIATION_SELECTOR_16 = 0xFE0F;
+
+    private final List<String> names;
+    private final FlatTrie trie;
+
+    private EmojiTrie(List<String> names, FlatTrie trie) {
+        this.names = names;
+        this.trie = trie;
+    }
+
+    /**
+     * Builds a trie out of emoji names. Names are matched case sensitively, without the
+     * surrounding colons. Empty and duplicate names are ignored.
+     *
+     * @param emojiNames
+     *            The names to add
+     * @return The trie
+     */
+    public static EmojiTrie compile(Collection<String> emojiNames) {
+        Builder builder = new Builder();
+        for (String name : emojiNames) {
+            if (name == null || name.isEmpty()) {
+                continue;
+            }
+            int[] keys = new int[name.length()];
+            for (int i = 0; i < keys.length; i++) {
+                keys[i] = name.charAt(i);
+            }
+            builder.add(keys, name);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Builds a trie keyed by the code points of unicode emojis, such as the ones returned by
+     * {@link LocalEmojiUtils#getUnicodeEmojis}. {@link #VARIATION_SELECTOR_16} is left out of the
+     * keys. When more than one name maps to the same emoji the first one is kept.
+     *
+     * @param namesToUnicode
+     *            A map of emoji names to their unicode representation
+     * @return The trie
+     */
+    public static EmojiTrie compileUnicode(Map<String, String> namesToUnicode) {
+        Builder builder = new Builder();
+        for (Map.Entry<String, String> entry : namesToUnicode.entrySet()) {
+            String unicode = entry.getValue();
+            if (unicode == null) {
+                continue;
+            }
+            int[] keys = unicode.codePoints()
+                                .filter(codePoint -> codePoint != VARIATION_SELECTOR_16)
+                                .toArray();
+            if (keys.length > 0) {
+                builder.add(keys, entry.getKey());
+            }
+        }
+        return builder.build();
+    }
+
+    private static class Builder {
+
+        private final FlatTrie.Builder trie = new FlatTrie.Builder();
+        private final List<String> names = Lists.newArrayList();
+
+        private void add(int[] keys, String name) {
+            if (trie.add(keys, names.size())) {
+                names.add(name);
+            }
+        }
+
+        private EmojiTrie build() {
+            return new EmojiTrie(ImmutableList.copyOf(names), trie.build());
+        }
+    }
+
+    /**
+     * @param state
+     *            The current state
+     * @param key
+     *            The next character or code point of the emoji
+     * @return The state after reading <code>key</code> or {@link #NO_STATE} if no emoji continues
+     *         with it
+     */
+    public int next(int state, int key) {
+        return trie.next(state, key);
+    }
+
+    /**
+     * @param state
+     *            A state returned by {@link #next(int, int)}
+     * @return The name that ends at <code>state</code> or null if no name ends there
+     */
+    public String getName(int state) {
+        int nameIndex = trie.getValue(state);
+        return nameIndex == FlatTrie.NO_VALUE ? null : names.get(nameIndex);
+    }
+
+    /**
+     * @param name
+     *            The emoji name without the surrounding colons
+     * @return True if the trie contains the name. Only meaningful for tries built with
+     *         {@link #compile(Collection)}
+     */
+    public boolean contains(String name) {
+        int state = ROOT;
+        for (int i = 0; i < name.length() && state != NO_STATE; i++) {
+            state = next(state, name.charAt(i));
+        }
+        return state != NO_STATE && trie.getValue(state) != FlatTrie.NO_VALUE;
+    }
+
+    /**
+     * @return The number of names in the trie
+     */
+    public int size() {
+        return names.size();
+    }
+}
@@ -0,0 +1,15 @@
+package com.chatalytics.core.model.data;
+
+import java.util.List;
+
+import lombok.Data;
+
+/**
+ * A frame of {@link ChatAlyticsEvent}s that are sent together through a socket
+ */
+@Data
+public class ChatAlyticsEventBatch {
+
+    private final List<ChatAlyticsEvent> events;
+
+}
@@ -0,0 +1,40 @@
+package com.chatalytics.core.model.data;
+
+import java.util.Set;
+
+import lombok.Data;
+
+/**
+ * What a realtime subscriber wants to receive. Subscribers send one after connecting and can
+ * replace it at any time. Sets that are null or empty match everything, so a new subscription
+ * matches every event until it's narrowed down
+ */
+@Data
+public class EventSubscription {
+
+    /**
+     * Event types, such as <code>emoji_entity</code>
+     */
+    private Set<String> types;
+
+    /**
+     * Room names
+     */
+    private Set<String> rooms;
+
+    /**
+     * Usernames
+     */
+    private Set<String> users;
+
+    /**
+     * Whether events of bots are received
+     */
+    private boolean includeBots = true;
+
+    /**
+     * Fraction of the matching events that are received, in (0, 1]
+     */
+    private double sampleRate = 1;
+
+}
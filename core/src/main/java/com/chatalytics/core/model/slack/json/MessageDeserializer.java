@@ -5,16 +5,17 @@ import com.chatalytics.core.model.data.MessageType;
 import com.chatalytics.core.model.json.JsonChatDeserializer;
 import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.core.ObjectCodec;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.DeserializationContext;
-import com.fasterxml.jackson.databind.JsonNode;
 
 import org.joda.time.DateTime;
 
 import java.io.IOException;
 
 /**
- * Deserializes slack {@link Message}s
+ * Deserializes slack {@link Message}s. Messages are bound straight from the parser tokens without
+ * building a tree first. Fields that are not needed, like user profiles or attachment fields, are
+ * skipped without being bound.
  *
  * @author giannis
  *
@@ -25,87 +26,185 @@ public class MessageDeserializer extends JsonChatDeserializer<Message> {
     public Message deserialize(JsonParser jp, DeserializationContext ctxt) throws IOException,
             JsonProcessingException {
 
-        ObjectCodec oc = jp.getCodec();
-        JsonNode node = oc.readTree(jp);
-
-        String channelId = getAsTextOrNull(node.get("channel"));
-        if (channelId != null && channelId.equals("C0G1JEKRU")) {
-            System.out.println("here");
+        MessageFields fields = readFields(jp, true);
+        if (fields.ts == null) {
+            throw ctxt.mappingException("Slack message has no ts");
         }
-        String timestampStr = node.get("ts").asText();
-        String[] timestampElementsArr = timestampStr.split("\\.");
+
+        String[] timestampElementsArr = fields.ts.split("\\.");
         long seconds = Long.parseLong(timestampElementsArr[0]);
         long nanos = Long.parseLong(timestampElementsArr[1]);
         long timeInMillis = seconds * 1000 + nanos / 1000;
         DateTime date = new DateTime(timeInMillis);
-        String fromName = getAsTextOrNull(node.get("username"));
 
-        MessageType messageType = getMessageType(node);
-        JsonNode fromUserIdNode = null;
+        MessageType messageType = getMessageType(fields.type, fields.subtype);
+        // the type can show up after the changed message so both are read and picked from here
+        MessageFields contentFields = fields;
+        if (messageType == MessageType.MESSAGE_CHANGED && fields.changedMessage != null) {
+            contentFields = fields.changedMessage;
+        }
 
-        if (messageType == MessageType.MESSAGE_CHANGED) {
-            node = node.get("message");
-        } else if (messageType == MessageType.BOT_MESSAGE) {
-            fromUserIdNode = node.get("bot_id");
+        if (messageType == MessageType.MESSAGE && contentFields.isShare) {
+            messageType = MessageType.MESSAGE_SHARE;
         }
 
-        JsonNode attachmentNode = node.get("attachments");
-        boolean isShare = false;
-        if (attachmentNode != null) {
-            // just get the first one
-            attachmentNode = attachmentNode.iterator().next();
-            JsonNode isShareNode = attachmentNode.get("is_share");
-            if (isShareNode != null) {
-                isShare = isShareNode.asBoolean();
-            }
+        String fromUserId;
+        if (messageType == MessageType.BOT_MESSAGE) {
+            fromUserId = fields.botId;
+        } else {
+            fromUserId = contentFields.user;
+        }
+        if (fromUserId == null) {
+            fromUserId = fields.username;
         }
 
-        if (messageType != MessageType.BOT_MESSAGE) {
-            fromUserIdNode = node.get("user");
+        String message = contentFields.text;
+        if ((message == null || message.isEmpty()) && contentFields.hasAttachment) {
+            message = contentFields.pretext;
+        }
+        if ((message == null || message.isEmpty()) && contentFields.hasAttachment) {
+            message = contentFields.fallback;
         }
 
-        if (messageType == MessageType.MESSAGE && isShare) {
-            messageType = MessageType.MESSAGE_SHARE;
+        return new Message(date, fields.username, fromUserId, message, fields.channel,
+                           messageType);
+    }
+
+    /**
+     * Reads the fields of a message object. The parser may point at the start of the object or at
+     * its first field and is left at the end of the object.
+     *
+     * @param jp
+     *            The parser
+     * @param topLevel
+     *            True if this is the event itself and false if it's a changed message
+     * @return The fields of the message
+     */
+    private MessageFields readFields(JsonParser jp, boolean topLevel) throws IOException {
+        MessageFields fields = new MessageFields();
+        JsonToken token = jp.getCurrentToken();
+        if (token == JsonToken.START_OBJECT) {
+            token = jp.nextToken();
         }
+        for (; token == JsonToken.FIELD_NAME; token = jp.nextToken()) {
+            String fieldName = jp.getCurrentName();
+            token = jp.nextToken();
+            switch (fieldName) {
+                case "user":
+                    fields.user = getValueAsText(jp);
+                    break;
+                case "text":
+                    fields.text = getValueAsText(jp);
+                    break;
+                case "attachments":
+                    readFirstAttachment(jp, fields);
+                    break;
+                case "ts":
+                    fields.ts = topLevel ? getValueAsText(jp) : skipValue(jp);
+                    break;
+                case "type":
+                    fields.type = topLevel ? getValueAsText(jp) : skipValue(jp);
+                    break;
+                case "subtype":
+                    fields.subtype = topLevel ? getValueAsText(jp) : skipValue(jp);
+                    break;
+                case "channel":
+                    fields.channel = topLevel ? getValueAsText(jp) : skipValue(jp);
+                    break;
+                case "username":
+                    fields.username = topLevel ? getValueAsText(jp) : skipValue(jp);
+                    break;
+                case "bot_id":
+                    fields.botId = topLevel ? getValueAsText(jp) : skipValue(jp);
+                    break;
+                case "message":
+                    if (topLevel && token == JsonToken.START_OBJECT) {
+                        fields.changedMessage = readFields(jp, false);
+                    } else {
+                        jp.skipChildren();
+                    }
+                    break;
+                default:
+                    jp.skipChildren();
+                    break;
+            }
+        }
+        return fields;
+    }
 
-        String fromUserId;
-        if (fromUserIdNode == null) {
-            fromUserId = fromName;
+    /**
+     * Reads the share flag and the texts of the first attachment and skips the rest
+     */
+    private void readFirstAttachment(JsonParser jp, MessageFields fields) throws IOException {
+        if (jp.getCurrentToken() != JsonToken.START_ARRAY) {
+            jp.skipChildren();
+            return;
+        }
+        if (jp.nextToken() == JsonToken.END_ARRAY) {
+            return;
+        }
+        if (jp.getCurrentToken() == JsonToken.START_OBJECT) {
+            fields.hasAttachment = true;
+            while (jp.nextToken() == JsonToken.FIELD_NAME) {
+                String fieldName = jp.getCurrentName();
+                jp.nextToken();
+                switch (fieldName) {
+                    case "is_share":
+                        fields.isShare = jp.getValueAsBoolean();
+                        break;
+                    case "pretext":
+                        fields.pretext = getValueAsText(jp);
+                        break;
+                    case "fallback":
+                        fields.fallback = getValueAsText(jp);
+                        break;
+                    default:
+                        jp.skipChildren();
+                        break;
+                }
+            }
         } else {
-            fromUserId = fromUserIdNode.asText();
+            jp.skipChildren();
         }
-
-        String message = getAsTextOrNull(node.get("text"));
-
-        if ((message == null || message.isEmpty()) && attachmentNode != null) {
-            message = getAsTextOrNull(attachmentNode.get("pretext"));
+        // skip the other attachments
+        while (jp.nextToken() != JsonToken.END_ARRAY) {
+            jp.skipChildren();
         }
-        if ((message == null || message.isEmpty()) && attachmentNode != null) {
-            message = getAsTextOrNull(attachmentNode.get("fallback"));
+    }
+
+    /**
+     * @return The value the parser points at as text, the same way {@link #getAsTextOrNull} reads
+     *         a node that's present. Objects and arrays are skipped and read as an empty string.
+     */
+    private String getValueAsText(JsonParser jp) throws IOException {
+        JsonToken token = jp.getCurrentToken();
+        if (token == JsonToken.START_OBJECT || token == JsonToken.START_ARRAY) {
+            jp.skipChildren();
+            return "";
+        } else if (token == JsonToken.VALUE_NULL) {
+            return "null";
         }
+        return jp.getValueAsString();
+    }
 
-        return new Message(date, fromName, fromUserId, message, channelId, messageType);
+    private String skipValue(JsonParser jp) throws IOException {
+        jp.skipChildren();
+        return null;
     }
 
     /**
      * Tries to identify the {@link MessageType} by starting from subtype and moving to type. If it
      * can't be identified it returns {@link MessageType#UNKNOWN}.
      *
-     * @param node
-     *            The node which may contain type and/or subtype
+     * @param type
+     *            The type of the event, may be null
+     * @param subtype
+     *            The subtype of the event, may be null
      * @return A {@link MessageType}
      */
-    private MessageType getMessageType(JsonNode node) {
-
-        String type = getAsTextOrNull(node.get("type"));
-        String subtype = getAsTextOrNull(node.get("subtype"));
-
+    private MessageType getMessageType(String type, String subtype) {
         if (subtype != null) {
-            try {
-                return MessageType.fromType(subtype);
-            } catch (IllegalArgumentException e) {
-                    return MessageType.fromTypeOrUnknown(subtype);
-            }
+            return MessageType.fromTypeOrUnknown(subtype);
         } else if (type != null) {
             return MessageType.fromTypeOrUnknown(type);
         } else {
@@ -113,4 +212,23 @@ public class MessageDeserializer extends JsonChatDeserializer<Message> {
         }
     }
 
+    /**
+     * The fields of a message event that are needed to build a {@link Message}
+     */
+    private static class MessageFields {
+        private String ts;
+        private String type;
+        private String subtype;
+        private String channel;
+        private String username;
+        private String botId;
+        private String user;
+        private String text;
+        private boolean hasAttachment;
+        private boolean isShare;
+        private String pretext;
+        private String fallback;
+        private MessageFields changedMessage;
+    }
+
 }
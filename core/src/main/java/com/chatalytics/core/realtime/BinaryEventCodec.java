@@ -0,0 +1,284 @@
+package com.chatalytics.core.realtime;
+
+import com.chatalytics.core.json.JsonObjectMapperFactory;
+import com.chatalytics.core.model.data.ChatAlyticsEvent;
+import com.chatalytics.core.model.data.ChatEntity;
+import com.chatalytics.core.model.data.EmojiEntity;
+import com.chatalytics.core.model.data.IMentionable;
+import com.chatalytics.core.model.data.MessageSummary;
+import com.chatalytics.core.model.data.MessageType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Compact binary encoding of {@link ChatAlyticsEvent}s for the realtime links between compute and
+ * web. A frame starts with a version byte and the number of events. Every event starts with a small
+ * integer tag for the type of the event and its time in epoch millis, followed by the fields of the
+ * event. Integers are varints, so small values take a single byte, times are zigzag varints and
+ * strings are UTF-8 bytes prefixed by their length plus one, with 0 meaning null.
+ * <p/>
+ * {@link MessageSummary}s, {@link EmojiEntity}s and {@link ChatEntity}s are encoded field by field.
+ * Their database IDs are not sent and the {@link MessageType} of a summary is sent as its ordinal,
+ * so the order of its constants is part of the format. Events whose type isn't the one of their
+ * class are sent as JSON together with their type and class name. Only the classes in the
+ * {@link EventTypeRegistry} can be encoded or decoded.
+ * <p/>
+ * The tags and the field order can't change without bumping {@link #VERSION} and
+ * {@link RealtimeWireFormat#BINARY_SUBPROTOCOL}. This class is thread safe.
+ */
+public class BinaryEventCodec {
+
+    static final byte VERSION = 1;
+
+    private static final int JSON_TAG = 0;
+    private static final int MESSAGE_SUMMARY_TAG = 1;
+    private static final int EMOJI_ENTITY_TAG = 2;
+    private static final int CHAT_ENTITY_TAG = 3;
+
+    /**
+     * Classes of the events with their own tags, indexed by tag
+     */
+    private static final List<Class<?>> TAGGED_CLASSES =
+        Arrays.asList(null, MessageSummary.class, EmojiEntity.class, ChatEntity.class);
+
+    /**
+     * Event types of the tagged classes
+     */
+    private static final List<String> TAGGED_TYPES = Lists.newArrayList(
+        Lists.transform(TAGGED_CLASSES,
+                        clazz -> clazz == null ? null : EventTypeRegistry.getType(clazz)));
+
+    private static final int INITIAL_FRAME_BYTES = 256;
+    private static final int MAX_VARINT_BYTES = 10;
+
+    private final ObjectMapper objectMapper;
+
+    public BinaryEventCodec() {
+        this.objectMapper = JsonObjectMapperFactory.createObjectMapper();
+    }
+
+    /**
+     * Encodes events to a frame
+     *
+     * @param events
+     *            The events to encode
+     * @return A buffer positioned at the start of the frame
+     * @throws IOException
+     *             If an event isn't registered or can't be encoded to JSON
+     */
+    public ByteBuffer encode(List<ChatAlyticsEvent> events) throws IOException {
+        FrameWriter writer = new FrameWriter(INITIAL_FRAME_BYTES * events.size());
+        writer.writeByte(VERSION);
+        writer.writeVarLong(events.size());
+        for (ChatAlyticsEvent event : events) {
+            encodeEvent(event, writer);
+        }
+        return writer.toByteBuffer();
+    }
+
+    private void encodeEvent(ChatAlyticsEvent event, FrameWriter writer) throws IOException {
+        if (!EventTypeRegistry.isRegistered(event.getEvent().getClass())) {
+            throw new IOException("Unregistered event class " + event.getEvent().getClass());
+        }
+        int tag = getTag(event);
+        writer.writeVarLong(tag);
+        writer.writeZigZagVarLong(event.getEventTime().getMillis());
+        if (tag == JSON_TAG) {
+            writer.writeString(event.getType());
+            writer.writeString(event.getEvent().getClass().getName());
+            writer.writeBytes(objectMapper.writeValueAsBytes(event.getEvent()));
+            return;
+        }
+        IMentionable<?> mentionable = (IMentionable<?>) event.getEvent();
+        writer.writeString(mentionable.getUsername());
+        writer.writeString(mentionable.getRoomName());
+        writer.writeZigZagVarLong(mentionable.getMentionTime().getMillis());
+        if (tag == MESSAGE_SUMMARY_TAG) {
+            writer.writeVarLong(((MessageSummary) mentionable).getValue().ordinal());
+        } else {
+            writer.writeString((String) mentionable.getValue());
+        }
+        writer.writeVarLong(mentionable.getOccurrences());
+        writer.writeByte((byte) (mentionable.isBot() ? 1 : 0));
+    }
+
+    /**
+     * @return The tag of the event's class, or {@link #JSON_TAG} if it has no tag or its type isn't
+     *         the one the tag stands for
+     */
+    private int getTag(ChatAlyticsEvent event) {
+        int tag = TAGGED_CLASSES.indexOf(event.getEvent().getClass());
+        if (tag < 0 || !TAGGED_TYPES.get(tag).equals(event.getType())) {
+            return JSON_TAG;
+        }
+        return tag;
+    }
+
+    /**
+     * Decodes the events of a frame
+     *
+     * @param frame
+     *            The frame to decode, from its position to its limit
+     * @return The decoded events
+     * @throws IOException
+     *             If the frame is malformed
+     */
+    public List<ChatAlyticsEvent> decode(ByteBuffer frame) throws IOException {
+        try {
+            byte version = frame.get();
+            if (version != VERSION) {
+                throw new IOException("Unsupported frame version " + version);
+            }
+            int numEvents = (int) readVarLong(frame);
+            if (numEvents < 0 || numEvents > frame.remaining()) {
+                throw new IOException("Bad number of events " + numEvents);
+            }
+            ImmutableList.Builder<ChatAlyticsEvent> events = ImmutableList.builder();
+            for (int i = 0; i < numEvents; i++) {
+                events.add(decodeEvent(frame));
+            }
+            return events.build();
+        } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+            throw new IOException("Malformed frame", e);
+        }
+    }
+
+    private ChatAlyticsEvent decodeEvent(ByteBuffer frame) throws IOException {
+        int tag = (int) readVarLong(frame);
+        DateTime eventTime = new DateTime(readZigZagVarLong(frame), DateTimeZone.UTC);
+        if (tag == JSON_TAG) {
+            String type = readString(frame);
+            String classStr = readString(frame);
+            byte[] json = readBytes(frame);
+            Class<?> clazz = EventTypeRegistry.getEventClass(type, classStr);
+            if (clazz == null) {
+                throw new IOException("Unknown event type " + type + " of class " + classStr);
+            }
+            return new ChatAlyticsEvent(eventTime, type, objectMapper.readValue(json, clazz));
+        }
+        String username = readString(frame);
+        String roomName = readString(frame);
+        DateTime mentionTime = new DateTime(readZigZagVarLong(frame), DateTimeZone.UTC);
+        Object event;
+        switch (tag) {
+            case MESSAGE_SUMMARY_TAG:
+                MessageType value = MessageType.values()[(int) readVarLong(frame)];
+                event = new MessageSummary(username, roomName, mentionTime, value,
+                                           (int) readVarLong(frame), frame.get() != 0);
+                break;
+            case EMOJI_ENTITY_TAG:
+                event = new EmojiEntity(username, roomName, mentionTime, readString(frame),
+                                        (int) readVarLong(frame), frame.get() != 0);
+                break;
+            case CHAT_ENTITY_TAG:
+                event = new ChatEntity(username, roomName, mentionTime, readString(frame),
+                                       (int) readVarLong(frame), frame.get() != 0);
+                break;
+            default:
+                throw new IOException("Unknown tag " + tag);
+        }
+        return new ChatAlyticsEvent(eventTime, TAGGED_TYPES.get(tag), event);
+    }
+
+    private static long readVarLong(ByteBuffer frame) throws IOException {
+        long value = 0;
+        for (int i = 0; i < MAX_VARINT_BYTES; i++) {
+            byte b = frame.get();
+            value |= (long) (b & 0x7F) << (7 * i);
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IOException("Varint is too long");
+    }
+
+    private static long readZigZagVarLong(ByteBuffer frame) throws IOException {
+        long value = readVarLong(frame);
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static String readString(ByteBuffer frame) throws IOException {
+        byte[] bytes = readBytes(frame);
+        return bytes == null ? null : new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static byte[] readBytes(ByteBuffer frame) throws IOException {
+        long length = readVarLong(frame) - 1;
+        if (length < 0) {
+            return null;
+        }
+        if (length > frame.remaining()) {
+            throw new IOException("Bad length " + length);
+        }
+        byte[] bytes = new byte[(int) length];
+        frame.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * Writes a frame to a byte array that grows as needed
+     */
+    private static class FrameWriter {
+
+        private byte[] bytes;
+        private int size;
+
+        FrameWriter(int initialBytes) {
+            this.bytes = new byte[Math.max(initialBytes, INITIAL_FRAME_BYTES)];
+        }
+
+        void writeByte(byte b) {
+            ensureCapacity(1);
+            bytes[size++] = b;
+        }
+
+        void writeVarLong(long value) {
+            ensureCapacity(MAX_VARINT_BYTES);
+            while ((value & ~0x7FL) != 0) {
+                bytes[size++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            bytes[size++] = (byte) value;
+        }
+
+        void writeZigZagVarLong(long value) {
+            writeVarLong((value << 1) ^ (value >> 63));
+        }
+
+        void writeString(String str) {
+            writeBytes(str == null ? null : str.getBytes(StandardCharsets.UTF_8));
+        }
+
+        void writeBytes(byte[] value) {
+            if (value == null) {
+                writeVarLong(0);
+                return;
+            }
+            writeVarLong(value.length + 1);
+            ensureCapacity(value.length);
+            System.arraycopy(value, 0, bytes, size, value.length);
+            size += value.length;
+        }
+
+        private void ensureCapacity(int extraBytes) {
+            if (size + extraBytes > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + extraBytes));
+            }
+        }
+
+        ByteBuffer toByteBuffer() {
+            return ByteBuffer.wrap(bytes, 0, size);
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.chatalytics.core.realtime;
+
+import com.chatalytics.core.json.JsonObjectMapperFactory;
+import com.chatalytics.core.model.data.ChatAlyticsEvent;
+import com.chatalytics.core.model.data.ChatAlyticsEventBatch;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+
+import java.io.IOException;
+import java.util.List;
+
+import javax.websocket.DecodeException;
+import javax.websocket.Decoder;
+import javax.websocket.EncodeException;
+import javax.websocket.Encoder;
+import javax.websocket.EndpointConfig;
+
+/**
+ * {@link Encoder} and {@link Decoder} for sending {@link ChatAlyticsEventBatch}es through sockets.
+ * A batch is a JSON array of events. A single event that's not in an array is decoded to a batch
+ * of one, so that publishers sending one event at a time still work
+ */
+public class ChatAlyticsEventBatchEncoderDecoder implements Encoder.Text<ChatAlyticsEventBatch>,
+                                                            Decoder.Text<ChatAlyticsEventBatch> {
+
+    private final ObjectMapper objectMapper;
+    private final JavaType eventListType;
+
+    public ChatAlyticsEventBatchEncoderDecoder() {
+        objectMapper = JsonObjectMapperFactory.createObjectMapper();
+        eventListType = objectMapper.getTypeFactory()
+                                    .constructCollectionType(List.class, ChatAlyticsEvent.class);
+    }
+
+    @Override
+    public void init(EndpointConfig config) {}
+
+    @Override
+    public void destroy() {}
+
+    @Override
+    public String encode(ChatAlyticsEventBatch batch) throws EncodeException {
+        try {
+            return objectMapper.writeValueAsString(batch.getEvents());
+        } catch (JsonProcessingException e) {
+            throw new EncodeException(batch, "Can't encode batch. Reason: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public ChatAlyticsEventBatch decode(String str) throws DecodeException {
+        try {
+            if (str.trim().startsWith("[")) {
+                List<ChatAlyticsEvent> events = objectMapper.readValue(str, eventListType);
+                return new ChatAlyticsEventBatch(events);
+            }
+            ChatAlyticsEvent event = objectMapper.readValue(str, ChatAlyticsEvent.class);
+            return new ChatAlyticsEventBatch(ImmutableList.of(event));
+        } catch (IOException e) {
+            throw new DecodeException(str, "Could not decode batch", e);
+        }
+    }
+
+    @Override
+    public boolean willDecode(String str) {
+        return !Strings.isNullOrEmpty(str);
+    }
+}
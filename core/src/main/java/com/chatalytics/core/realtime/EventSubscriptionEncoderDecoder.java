@@ -0,0 +1,64 @@
+package com.chatalytics.core.realtime;
+
+import com.chatalytics.core.json.JsonObjectMapperFactory;
+import com.chatalytics.core.model.data.EventSubscription;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Strings;
+
+import java.io.IOException;
+
+import javax.websocket.DecodeException;
+import javax.websocket.Decoder;
+import javax.websocket.EncodeException;
+import javax.websocket.Encoder;
+import javax.websocket.EndpointConfig;
+
+/**
+ * {@link Encoder} and {@link Decoder} for sending {@link EventSubscription}s through sockets as
+ * JSON. A sample rate outside of (0, 1] can't be decoded
+ */
+public class EventSubscriptionEncoderDecoder implements Encoder.Text<EventSubscription>,
+                                                        Decoder.Text<EventSubscription> {
+
+    private final ObjectMapper objectMapper;
+
+    public EventSubscriptionEncoderDecoder() {
+        objectMapper = JsonObjectMapperFactory.createObjectMapper();
+    }
+
+    @Override
+    public void init(EndpointConfig config) {}
+
+    @Override
+    public void destroy() {}
+
+    @Override
+    public String encode(EventSubscription subscription) throws EncodeException {
+        try {
+            return objectMapper.writeValueAsString(subscription);
+        } catch (JsonProcessingException e) {
+            throw new EncodeException(subscription,
+                                      "Can't encode subscription. Reason: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public EventSubscription decode(String str) throws DecodeException {
+        EventSubscription subscription;
+        try {
+            subscription = objectMapper.readValue(str, EventSubscription.class);
+        } catch (IOException e) {
+            throw new DecodeException(str, "Could not decode subscription", e);
+        }
+        if (!(subscription.getSampleRate() > 0 && subscription.getSampleRate() <= 1)) {
+            throw new DecodeException(str, "Bad sample rate " + subscription.getSampleRate());
+        }
+        return subscription;
+    }
+
+    @Override
+    public boolean willDecode(String str) {
+        return !Strings.isNullOrEmpty(str);
+    }
+}
@@ -0,0 +1,80 @@
+package com.chatalytics.core.realtime;
+
+import com.chatalytics.core.model.data.ChatAlyticsEvent;
+import com.chatalytics.core.model.data.ChatEntity;
+import com.chatalytics.core.model.data.EmojiEntity;
+import com.chatalytics.core.model.data.MessageSummary;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+import java.util.List;
+import java.util.Map;
+
+import static com.google.common.base.CaseFormat.LOWER_UNDERSCORE;
+import static com.google.common.base.CaseFormat.UPPER_CAMEL;
+
+/**
+ * The closed set of payloads that {@link ChatAlyticsEvent}s can carry through the realtime sockets,
+ * keyed by their event type. Decoders only create payloads of these classes, so class names coming
+ * from the wire are never loaded.
+ */
+public final class EventTypeRegistry {
+
+    private static final List<Class<?>> EVENT_CLASSES =
+        ImmutableList.of(MessageSummary.class, EmojiEntity.class, ChatEntity.class);
+
+    private static final Map<String, Class<?>> CLASSES_BY_TYPE;
+    private static final Map<String, Class<?>> CLASSES_BY_NAME;
+
+    static {
+        ImmutableMap.Builder<String, Class<?>> classesByType = ImmutableMap.builder();
+        ImmutableMap.Builder<String, Class<?>> classesByName = ImmutableMap.builder();
+        for (Class<?> clazz : EVENT_CLASSES) {
+            classesByType.put(getType(clazz), clazz);
+            classesByName.put(clazz.getName(), clazz);
+        }
+        CLASSES_BY_TYPE = classesByType.build();
+        CLASSES_BY_NAME = classesByName.build();
+    }
+
+    private EventTypeRegistry() {}
+
+    /**
+     * @return The event type of a payload class, which is its simple name in lower underscore case
+     */
+    public static String getType(Class<?> clazz) {
+        return UPPER_CAMEL.to(LOWER_UNDERSCORE, clazz.getSimpleName());
+    }
+
+    /**
+     * @return All the payload classes
+     */
+    public static List<Class<?>> getEventClasses() {
+        return EVENT_CLASSES;
+    }
+
+    /**
+     * @return True if events can carry payloads of this class
+     */
+    public static boolean isRegistered(Class<?> clazz) {
+        return CLASSES_BY_NAME.get(clazz.getName()) == clazz;
+    }
+
+    /**
+     * Finds the payload class of an event by its type, or by the name of its class if the type is
+     * not a registered one
+     *
+     * @param type
+     *            The event type. Can be null
+     * @param className
+     *            The fully qualified name of the payload class. Can be null
+     * @return The payload class or null if neither the type nor the class name are registered
+     */
+    public static Class<?> getEventClass(String type, String className) {
+        Class<?> clazz = type == null ? null : CLASSES_BY_TYPE.get(type);
+        if (clazz == null && className != null) {
+            clazz = CLASSES_BY_NAME.get(className);
+        }
+        return clazz;
+    }
+}
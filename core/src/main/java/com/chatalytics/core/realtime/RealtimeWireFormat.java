@@ -0,0 +1,25 @@
+package com.chatalytics.core.realtime;
+
+import javax.websocket.Session;
+
+/**
+ * The websocket subprotocols that the realtime compute server and its clients negotiate to pick
+ * the format of the events. Clients that don't ask for a subprotocol, such as browsers, get JSON
+ * text frames. Clients that negotiate {@link #BINARY_SUBPROTOCOL} get binary frames encoded with
+ * {@link BinaryEventCodec}.
+ */
+public final class RealtimeWireFormat {
+
+    public static final String BINARY_SUBPROTOCOL = "chatalytics-binary-v1";
+
+    public static final String JSON_SUBPROTOCOL = "chatalytics-json";
+
+    private RealtimeWireFormat() {}
+
+    /**
+     * @return True if the session negotiated binary frames
+     */
+    public static boolean isBinary(Session session) {
+        return BINARY_SUBPROTOCOL.equals(session.getNegotiatedSubprotocol());
+    }
+}
@@ -0,0 +1,250 @@
+package com.chatalytics.core.realtime;
+
+import com.chatalytics.core.SlowConsumerPolicy;
+import com.chatalytics.core.model.data.ChatAlyticsEvent;
+import com.chatalytics.core.model.data.IMentionable;
+import com.google.common.base.Preconditions;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.websocket.RemoteEndpoint;
+import javax.websocket.SendHandler;
+import javax.websocket.SendResult;
+import javax.websocket.Session;
+
+/**
+ * Writes messages to a websocket session one at a time without making the caller wait. Messages
+ * wait in a bounded queue while the previous one is being written, and the
+ * {@link SlowConsumerPolicy} decides what happens when the queue is full, so a slow client can
+ * never hold up the rest. {@link ByteBuffer}s are written as binary frames, strings as text frames
+ * and anything else with the encoders of the session. The sender also remembers whether the
+ * session negotiated binary frames of events.
+ * <p/>
+ * A sender that's disconnected by its {@link SlowConsumerPolicy} drops everything sent to it. The
+ * owner of the sender is expected to close its session.
+ */
+public class SessionSender implements SendHandler {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SessionSender.class);
+
+    private final Session session;
+    private final boolean binary;
+    private final int queueSize;
+    private final SlowConsumerPolicy policy;
+    private final Deque<QueuedMessage> queue;
+
+    private final AtomicLong droppedMessages;
+    private final AtomicLong failedMessages;
+
+    // guarded by this
+    private QueuedMessage inFlight;
+    private boolean draining;
+    private boolean disconnected;
+
+    /**
+     * @param session
+     *            The session to write to
+     * @param binary
+     *            True if the session negotiated binary frames of events
+     * @param queueSize
+     *            Number of messages that can wait to be written
+     * @param policy
+     *            What happens when the queue is full
+     */
+    public SessionSender(Session session, boolean binary, int queueSize,
+                         SlowConsumerPolicy policy) {
+        Preconditions.checkArgument(queueSize > 0, "The queue size has to be positive");
+        this.session = session;
+        this.binary = binary;
+        this.queueSize = queueSize;
+        this.policy = policy;
+        this.queue = new ArrayDeque<>();
+        this.droppedMessages = new AtomicLong();
+        this.failedMessages = new AtomicLong();
+    }
+
+    /**
+     * Queues a message to be written. This never waits for the socket
+     *
+     * @param message
+     *            The message to write
+     * @param coalesceKey
+     *            Messages with equal keys can replace each other under
+     *            {@link SlowConsumerPolicy#COALESCE}. Can be null
+     */
+    public void send(Object message, Object coalesceKey) {
+        synchronized (this) {
+            if (disconnected) {
+                droppedMessages.incrementAndGet();
+                return;
+            }
+            if (queue.size() >= queueSize && !makeRoom(message, coalesceKey)) {
+                return;
+            }
+            queue.add(new QueuedMessage(message, coalesceKey, System.nanoTime()));
+            if (inFlight != null || draining) {
+                return;
+            }
+            draining = true;
+        }
+        drain();
+    }
+
+    /**
+     * Applies the {@link SlowConsumerPolicy} to a full queue
+     *
+     * @return True if the message should still be queued
+     */
+    private boolean makeRoom(Object message, Object coalesceKey) {
+        droppedMessages.incrementAndGet();
+        if (policy == SlowConsumerPolicy.DISCONNECT) {
+            droppedMessages.addAndGet(queue.size());
+            queue.clear();
+            disconnected = true;
+            LOG.warn("Session {} fell {} messages behind. Disconnecting it", session.getId(),
+                     queueSize);
+            return false;
+        }
+        if (policy == SlowConsumerPolicy.COALESCE && coalesceKey != null) {
+            Iterator<QueuedMessage> it = queue.descendingIterator();
+            while (it.hasNext()) {
+                QueuedMessage queued = it.next();
+                if (coalesceKey.equals(queued.coalesceKey)) {
+                    queued.message = message;
+                    return false;
+                }
+            }
+        }
+        queue.poll();
+        return true;
+    }
+
+    /**
+     * Writes queued messages until one is in flight or the queue is empty. Writes that complete
+     * right away are picked up by the loop instead of recursing from {@link #onResult(SendResult)}
+     */
+    private void drain() {
+        while (true) {
+            QueuedMessage next;
+            synchronized (this) {
+                if (inFlight != null || queue.isEmpty()) {
+                    draining = false;
+                    return;
+                }
+                next = queue.poll();
+                inFlight = next;
+            }
+            write(next.message);
+        }
+    }
+
+    private void write(Object message) {
+        try {
+            RemoteEndpoint.Async remote = session.getAsyncRemote();
+            if (message instanceof ByteBuffer) {
+                remote.sendBinary(((ByteBuffer) message).duplicate(), this);
+            } else if (message instanceof String) {
+                remote.sendText((String) message, this);
+            } else {
+                remote.sendObject(message, this);
+            }
+        } catch (RuntimeException e) {
+            onResult(new SendResult(e));
+        }
+    }
+
+    @Override
+    public void onResult(SendResult result) {
+        if (!result.isOK()) {
+            failedMessages.incrementAndGet();
+            LOG.debug("Can't write to session {}", session.getId(), result.getException());
+        }
+        synchronized (this) {
+            inFlight = null;
+            if (draining) {
+                return;
+            }
+            draining = true;
+        }
+        drain();
+    }
+
+    /**
+     * @return How long, in milliseconds, the oldest message that's not written yet has waited
+     */
+    public synchronized long getLagMillis() {
+        QueuedMessage oldest = inFlight != null ? inFlight : queue.peek();
+        if (oldest == null) {
+            return 0;
+        }
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - oldest.enqueuedNanos);
+    }
+
+    /**
+     * @return The number of messages waiting to be written
+     */
+    public synchronized int getQueuedMessages() {
+        return queue.size();
+    }
+
+    public long getAndResetDroppedMessages() {
+        return droppedMessages.getAndSet(0);
+    }
+
+    public long getAndResetFailedMessages() {
+        return failedMessages.getAndSet(0);
+    }
+
+    /**
+     * @return True if the {@link SlowConsumerPolicy} disconnected this sender
+     */
+    public synchronized boolean isDisconnected() {
+        return disconnected;
+    }
+
+    public Session getSession() {
+        return session;
+    }
+
+    /**
+     * @return True if the session negotiated binary frames of events
+     */
+    public boolean isBinary() {
+        return binary;
+    }
+
+    /**
+     * @return The key of an event for {@link SlowConsumerPolicy#COALESCE}, made of its type, room,
+     *         user and value, or null if the event is not a mention
+     */
+    public static Object getCoalesceKey(ChatAlyticsEvent event) {
+        if (!(event.getEvent() instanceof IMentionable)) {
+            return null;
+        }
+        IMentionable<?> mentionable = (IMentionable<?>) event.getEvent();
+        return Arrays.asList(event.getType(), mentionable.getRoomName(), mentionable.getUsername(),
+                             mentionable.getValue());
+    }
+
+    private static class QueuedMessage {
+
+        private Object message;
+        private final Object coalesceKey;
+        private final long enqueuedNanos;
+
+        private QueuedMessage(Object message, Object coalesceKey, long enqueuedNanos) {
+            this.message = message;
+            this.coalesceKey = coalesceKey;
+            this.enqueuedNanos = enqueuedNanos;
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package com.chatalytics.core.realtime;
+
+import com.chatalytics.core.SlowConsumerPolicy;
+import com.chatalytics.core.model.data.ChatAlyticsEvent;
+import com.chatalytics.core.model.data.EventSubscription;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.websocket.CloseReason;
+import javax.websocket.CloseReason.CloseCodes;
+import javax.websocket.Session;
+
+/**
+ * The subscriber sessions of a realtime endpoint. Every session gets a {@link SessionSender} with
+ * its own bounded queue and is routed events by a {@link SubscriptionIndex}. A reaper periodically
+ * collects the sessions that closed, closes the ones that their {@link SlowConsumerPolicy}
+ * disconnected and logs the lag and the drops of the ones that fall behind.
+ */
+public class SubscriberSessions implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SubscriberSessions.class);
+
+    /**
+     * Sessions that are further behind than this are logged by the reaper even if they didn't drop
+     * any messages
+     */
+    private static final long LAGGING_MS = 1000;
+
+    private final Map<Session, SessionSender> senders;
+    private final SubscriptionIndex<SessionSender> subscriptions;
+    private final int queueSize;
+    private final SlowConsumerPolicy policy;
+    private final ScheduledExecutorService reaper;
+
+    /**
+     * @param queueSize
+     *            Number of messages that can wait to be written to each session
+     * @param policy
+     *            What happens when a session's queue is full
+     * @param reapSecs
+     *            How often the reaper runs. The reaper doesn't run if this isn't positive
+     * @param name
+     *            The name of the endpoint, used to name the reaper thread
+     */
+    public SubscriberSessions(int queueSize, SlowConsumerPolicy policy, int reapSecs,
+                              String name) {
+        this.senders = new ConcurrentHashMap<>();
+        this.subscriptions = new SubscriptionIndex<>();
+        this.queueSize = queueSize;
+        this.policy = policy;
+        this.reaper = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setDaemon(true)
+                                      .setNameFormat(name + "-session-reaper-%d")
+                                      .build());
+        if (reapSecs > 0) {
+            reaper.scheduleWithFixedDelay(this::reap, reapSecs, reapSecs, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Adds a session that receives every event until it subscribes
+     *
+     * @param session
+     *            The session to add
+     * @param binary
+     *            True if the session negotiated binary frames of events
+     */
+    public void add(Session session, boolean binary) {
+        SessionSender sender = new SessionSender(session, binary, queueSize, policy);
+        senders.put(session, sender);
+        subscriptions.subscribe(sender);
+    }
+
+    /**
+     * Replaces the subscription of a session
+     *
+     * @param session
+     *            The session
+     * @param subscription
+     *            The events the session wants to receive
+     * @return False if the session isn't one of the subscriber sessions
+     */
+    public boolean subscribe(Session session, EventSubscription subscription) {
+        SessionSender sender = senders.get(session);
+        if (sender == null) {
+            return false;
+        }
+        subscriptions.subscribe(sender, subscription);
+        return true;
+    }
+
+    /**
+     * Removes a session
+     *
+     * @param session
+     *            The session to remove
+     */
+    public void remove(Session session) {
+        SessionSender sender = senders.remove(session);
+        if (sender != null) {
+            subscriptions.unsubscribe(sender);
+        }
+    }
+
+    /**
+     * @return The senders of the sessions that should receive an event
+     */
+    public List<SessionSender> getSenders(ChatAlyticsEvent event) {
+        return subscriptions.getSubscribers(event);
+    }
+
+    /**
+     * @return True if the session is one of the subscriber sessions
+     */
+    public boolean contains(Session session) {
+        return senders.containsKey(session);
+    }
+
+    /**
+     * @return A live view of the subscriber sessions
+     */
+    public Set<Session> getSessions() {
+        return Collections.unmodifiableSet(senders.keySet());
+    }
+
+    public int size() {
+        return senders.size();
+    }
+
+    /**
+     * Removes the sessions that closed, closes the sessions that were disconnected for falling
+     * behind and logs the sessions that dropped messages or are lagging
+     */
+    @VisibleForTesting
+    protected void reap() {
+        int numClosed = 0;
+        for (SessionSender sender : senders.values()) {
+            Session session = sender.getSession();
+            if (!session.isOpen()) {
+                remove(session);
+                numClosed++;
+                continue;
+            }
+            if (sender.isDisconnected()) {
+                remove(session);
+                numClosed++;
+                try {
+                    session.close(new CloseReason(CloseCodes.TRY_AGAIN_LATER,
+                                                  "Fell too far behind"));
+                } catch (IOException e) {
+                    LOG.warn("Couldn't close {}. Reason {}", session.getId(), e.getMessage());
+                }
+                continue;
+            }
+            long lagMs = sender.getLagMillis();
+            long dropped = sender.getAndResetDroppedMessages();
+            long failed = sender.getAndResetFailedMessages();
+            if (dropped > 0 || failed > 0 || lagMs > LAGGING_MS) {
+                LOG.warn("Session {} is {}ms behind with {} queued messages. Dropped {} and failed"
+                             + " to write {} messages", session.getId(), lagMs,
+                         sender.getQueuedMessages(), dropped, failed);
+            }
+        }
+        if (numClosed > 0) {
+            LOG.info("Collected {} sessions. Active sessions {}", numClosed, senders.size());
+        }
+    }
+
+    /**
+     * Stops the reaper
+     */
+    @Override
+    public void close() {
+        reaper.shutdownNow();
+    }
+}
@@ -0,0 +1,232 @@
+package com.chatalytics.core.realtime;
+
+import com.chatalytics.core.model.data.ChatAlyticsEvent;
+import com.chatalytics.core.model.data.EventSubscription;
+import com.chatalytics.core.model.data.IMentionable;
+import com.google.common.base.Predicates;
+import com.google.common.collect.FluentIterable;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Routes {@link ChatAlyticsEvent}s to the subscribers whose {@link EventSubscription} they match.
+ * Every subscriber is indexed under the keys of its most selective filter: its rooms if it has
+ * any, otherwise its users, otherwise its types. Subscribers without filters are kept aside. An
+ * event only looks at the subscribers indexed under its own room, user and type and at the ones
+ * without filters, so the cost of routing it grows with the number of matching subscribers and
+ * not with the number of all subscribers.
+ * <p/>
+ * Routing is thread safe and lock free. Subscribing and unsubscribing are serialized.
+ *
+ * @param <T>
+ *            The type of the subscribers, such as a websocket session
+ */
+public class SubscriptionIndex<T> {
+
+    private static final EventSubscription ALL_EVENTS = new EventSubscription();
+
+    private final Map<T, EventSubscription> subscriptions;
+    private final Map<String, Set<T>> byRoom;
+    private final Map<String, Set<T>> byUser;
+    private final Map<String, Set<T>> byType;
+    private final Set<T> unfiltered;
+
+    public SubscriptionIndex() {
+        this.subscriptions = new ConcurrentHashMap<>();
+        this.byRoom = new ConcurrentHashMap<>();
+        this.byUser = new ConcurrentHashMap<>();
+        this.byType = new ConcurrentHashMap<>();
+        this.unfiltered = Sets.newConcurrentHashSet();
+    }
+
+    /**
+     * Adds a subscriber that receives every event
+     *
+     * @param subscriber
+     *            The subscriber to add
+     */
+    public void subscribe(T subscriber) {
+        subscribe(subscriber, ALL_EVENTS);
+    }
+
+    /**
+     * Adds a subscriber or replaces its subscription. The subscription is copied, so changing it
+     * afterwards has no effect
+     *
+     * @param subscriber
+     *            The subscriber
+     * @param subscription
+     *            The events the subscriber wants to receive
+     */
+    public synchronized void subscribe(T subscriber, EventSubscription subscription) {
+        subscription = copyOf(subscription);
+        removeFromIndex(subscriber);
+        subscriptions.put(subscriber, subscription);
+        if (!isEmpty(subscription.getRooms())) {
+            addToIndex(byRoom, subscription.getRooms(), subscriber);
+        } else if (!isEmpty(subscription.getUsers())) {
+            addToIndex(byUser, subscription.getUsers(), subscriber);
+        } else if (!isEmpty(subscription.getTypes())) {
+            addToIndex(byType, subscription.getTypes(), subscriber);
+        } else {
+            unfiltered.add(subscriber);
+        }
+    }
+
+    /**
+     * Removes a subscriber
+     *
+     * @param subscriber
+     *            The subscriber to remove
+     */
+    public synchronized void unsubscribe(T subscriber) {
+        removeFromIndex(subscriber);
+        subscriptions.remove(subscriber);
+    }
+
+    /**
+     * Removes subscribers
+     *
+     * @param subscribers
+     *            The subscribers to remove
+     */
+    public synchronized void unsubscribeAll(Collection<T> subscribers) {
+        for (T subscriber : subscribers) {
+            unsubscribe(subscriber);
+        }
+    }
+
+    /**
+     * Finds the subscribers that should receive an event. Subscribers with a sample rate below 1
+     * are only returned for that fraction of the events they match
+     *
+     * @param event
+     *            The event to route
+     * @return The subscribers that should receive the event
+     */
+    public List<T> getSubscribers(ChatAlyticsEvent event) {
+        String type = event.getType();
+        String room = null;
+        String user = null;
+        boolean bot = false;
+        if (event.getEvent() instanceof IMentionable) {
+            IMentionable<?> mentionable = (IMentionable<?>) event.getEvent();
+            room = mentionable.getRoomName();
+            user = mentionable.getUsername();
+            bot = mentionable.isBot();
+        }
+
+        List<T> matches = Lists.newArrayList();
+        addMatches(unfiltered, type, room, user, bot, matches);
+        addMatches(get(byRoom, room), type, room, user, bot, matches);
+        addMatches(get(byUser, user), type, room, user, bot, matches);
+        addMatches(get(byType, type), type, room, user, bot, matches);
+        return matches;
+    }
+
+    /**
+     * @return A live view of all the subscribers
+     */
+    public Set<T> getSubscribers() {
+        return Collections.unmodifiableSet(subscriptions.keySet());
+    }
+
+    public int size() {
+        return subscriptions.size();
+    }
+
+    private void addMatches(Set<T> candidates, String type, String room, String user, boolean bot,
+                            List<T> matches) {
+        for (T candidate : candidates) {
+            EventSubscription subscription = subscriptions.get(candidate);
+            if (subscription != null && matches(subscription, type, room, user, bot)) {
+                matches.add(candidate);
+            }
+        }
+    }
+
+    private static boolean matches(EventSubscription subscription, String type, String room,
+                                   String user, boolean bot) {
+        if (bot && !subscription.isIncludeBots()) {
+            return false;
+        }
+        if (!matches(subscription.getRooms(), room)
+                || !matches(subscription.getUsers(), user)
+                || !matches(subscription.getTypes(), type)) {
+            return false;
+        }
+        double sampleRate = subscription.getSampleRate();
+        return sampleRate >= 1 || ThreadLocalRandom.current().nextDouble() < sampleRate;
+    }
+
+    private static EventSubscription copyOf(EventSubscription subscription) {
+        EventSubscription copy = new EventSubscription();
+        copy.setTypes(copyOf(subscription.getTypes()));
+        copy.setRooms(copyOf(subscription.getRooms()));
+        copy.setUsers(copyOf(subscription.getUsers()));
+        copy.setIncludeBots(subscription.isIncludeBots());
+        copy.setSampleRate(subscription.getSampleRate());
+        return copy;
+    }
+
+    private static Set<String> copyOf(Set<String> values) {
+        return values == null ? null
+                              : FluentIterable.from(values).filter(Predicates.notNull()).toSet();
+    }
+
+    private static boolean matches(Set<String> allowed, String value) {
+        return isEmpty(allowed) || allowed.contains(value);
+    }
+
+    private static boolean isEmpty(Set<String> values) {
+        return values == null || values.isEmpty();
+    }
+
+    private Set<T> get(Map<String, Set<T>> index, String key) {
+        if (key == null) {
+            return Collections.emptySet();
+        }
+        Set<T> subscribers = index.get(key);
+        return subscribers == null ? Collections.emptySet() : subscribers;
+    }
+
+    private void addToIndex(Map<String, Set<T>> index, Set<String> keys, T subscriber) {
+        for (String key : keys) {
+            index.computeIfAbsent(key, k -> Sets.newConcurrentHashSet()).add(subscriber);
+        }
+    }
+
+    private void removeFromIndex(T subscriber) {
+        EventSubscription subscription = subscriptions.get(subscriber);
+        if (subscription == null) {
+            return;
+        }
+        unfiltered.remove(subscriber);
+        removeFromIndex(byRoom, subscription.getRooms(), subscriber);
+        removeFromIndex(byUser, subscription.getUsers(), subscriber);
+        removeFromIndex(byType, subscription.getTypes(), subscriber);
+    }
+
+    private void removeFromIndex(Map<String, Set<T>> index, Set<String> keys, T subscriber) {
+        if (keys == null) {
+            return;
+        }
+        for (String key : keys) {
+            Set<T> subscribers = index.get(key);
+            if (subscribers != null) {
+                subscribers.remove(subscriber);
+                if (subscribers.isEmpty()) {
+                    index.remove(key);
+                }
+            }
+        }
+    }
+}
@@ -1,48 +1,110 @@
 package com.chatalytics.core.realtime.json;
 
 import com.chatalytics.core.model.data.ChatAlyticsEvent;
+import com.chatalytics.core.realtime.EventTypeRegistry;
 import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.core.ObjectCodec;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.DeserializationContext;
 import com.fasterxml.jackson.databind.JsonDeserializer;
-import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.deser.ResolvableDeserializer;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+import com.google.common.collect.ImmutableMap;
 
 import org.joda.time.DateTime;
 
 import java.io.IOException;
+import java.util.Map;
 
 /**
  * Deserializer specific to {@link ChatAlyticsEvent}s. This exists because it understands how to
- * deserialize arbitrary event types based on a helper class type field
+ * deserialize the different event types. The payload class is looked up in the
+ * {@link EventTypeRegistry} by the type field, or by the class field if the type isn't registered,
+ * and its deserializer is resolved once up front. Events are bound in a single pass over the
+ * fields. The payload only gets buffered if it comes before the type and class fields.
  *
  * @author giannis
  *
  */
-public class ChatAlyticsEventDeserializer extends JsonDeserializer<ChatAlyticsEvent> {
+public class ChatAlyticsEventDeserializer extends JsonDeserializer<ChatAlyticsEvent>
+        implements ResolvableDeserializer {
+
+    private JsonDeserializer<Object> eventTimeDeserializer;
+    private Map<Class<?>, JsonDeserializer<Object>> eventDeserializers;
+
+    @Override
+    public void resolve(DeserializationContext ctxt) throws JsonMappingException {
+        eventTimeDeserializer = ctxt.findRootValueDeserializer(ctxt.constructType(DateTime.class));
+        ImmutableMap.Builder<Class<?>, JsonDeserializer<Object>> eventDeserializers =
+            ImmutableMap.builder();
+        for (Class<?> clazz : EventTypeRegistry.getEventClasses()) {
+            eventDeserializers.put(clazz,
+                                   ctxt.findRootValueDeserializer(ctxt.constructType(clazz)));
+        }
+        this.eventDeserializers = eventDeserializers.build();
+    }
 
     @Override
     public ChatAlyticsEvent deserialize(JsonParser jp, DeserializationContext ctxt)
             throws IOException, JsonProcessingException {
 
-        ObjectCodec oc = jp.getCodec();
-        JsonNode node = oc.readTree(jp);
-
-        JsonParser eventTimeParser = node.get("event_time").traverse();
-        DateTime eventTime = oc.readValue(eventTimeParser, DateTime.class);
+        JsonToken token = jp.getCurrentToken();
+        if (token == JsonToken.START_OBJECT) {
+            token = jp.nextToken();
+        }
 
-        String type = node.get("type").asText();
+        DateTime eventTime = null;
+        String type = null;
+        String classStr = null;
+        Object event = null;
+        TokenBuffer bufferedEvent = null;
 
-        Class<?> clazz;
-        String classStr = node.get("clazz").asText();
-        try {
-            clazz = Class.forName(classStr);
-        } catch (ClassNotFoundException e) {
-            throw new IOException("Can't load class for " + classStr, e);
+        for (; token == JsonToken.FIELD_NAME; token = jp.nextToken()) {
+            String fieldName = jp.getCurrentName();
+            JsonToken valueToken = jp.nextToken();
+            if (valueToken == JsonToken.VALUE_NULL) {
+                continue;
+            }
+            switch (fieldName) {
+                case "event_time":
+                    eventTime = (DateTime) eventTimeDeserializer.deserialize(jp, ctxt);
+                    break;
+                case "type":
+                    type = jp.getValueAsString();
+                    break;
+                case "clazz":
+                    classStr = jp.getValueAsString();
+                    break;
+                case "event":
+                    JsonDeserializer<Object> eventDeserializer =
+                        eventDeserializers.get(EventTypeRegistry.getEventClass(type, classStr));
+                    if (eventDeserializer != null) {
+                        event = eventDeserializer.deserialize(jp, ctxt);
+                    } else {
+                        bufferedEvent = new TokenBuffer(jp);
+                        bufferedEvent.copyCurrentStructure(jp);
+                    }
+                    break;
+                default:
+                    jp.skipChildren();
+                    break;
+            }
         }
 
-        JsonParser eventParser = node.get("event").traverse();
-        Object event = oc.readValue(eventParser, clazz);
+        if (event == null && bufferedEvent != null) {
+            Class<?> clazz = EventTypeRegistry.getEventClass(type, classStr);
+            if (clazz == null) {
+                throw JsonMappingException.from(jp, String.format(
+                    "Unknown event type %s of class %s", type, classStr));
+            }
+            JsonParser eventParser = bufferedEvent.asParser(jp.getCodec());
+            eventParser.nextToken();
+            event = eventDeserializers.get(clazz).deserialize(eventParser, ctxt);
+        }
+        if (event == null) {
+            throw JsonMappingException.from(jp, "Event of type " + type + " has no payload");
+        }
 
         return new ChatAlyticsEvent(eventTime, type, event);
     }
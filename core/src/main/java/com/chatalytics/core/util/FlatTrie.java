@@ -0,0 +1,167 @@
+package com.chatalytics.core.util;
+
+import com.google.common.collect.Lists;
+
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Compact, immutable trie keyed by ints. States are plain ints and the outgoing edges of every
+ * state are stored sorted by key in flat arrays, so following an edge is a binary search over a
+ * small range and walking the trie doesn't allocate. Every state can hold an int value, such as
+ * the index of the term that ends there.
+ * <p/>
+ * States are numbered in the order they were created, so the root is always {@link #ROOT} and a
+ * state is always created before its children.
+ */
+public class FlatTrie {
+
+    /**
+     * The state before any key is read
+     */
+    public static final int ROOT = 0;
+
+    /**
+     * Returned by {@link #next(int, int)} when there's no edge for the given key
+     */
+    public static final int NO_STATE = -1;
+
+    /**
+     * Returned by {@link #getValue(int)} for states that don't hold a value
+     */
+    public static final int NO_VALUE = -1;
+
+    // edges of state s are edgeKeys/edgeTargets[edgeStart[s], edgeStart[s + 1])
+    private final int[] edgeStart;
+    private final int[] edgeKeys;
+    private final int[] edgeTargets;
+    private final int[] stateValue;
+
+    private FlatTrie(int[] edgeStart, int[] edgeKeys, int[] edgeTargets, int[] stateValue) {
+        this.edgeStart = edgeStart;
+        this.edgeKeys = edgeKeys;
+        this.edgeTargets = edgeTargets;
+        this.stateValue = stateValue;
+    }
+
+    /**
+     * @param state
+     *            The current state
+     * @param key
+     *            The next key
+     * @return The state after reading <code>key</code> or {@link #NO_STATE} if there's no such edge
+     */
+    public int next(int state, int key) {
+        int low = edgeStart[state];
+        int high = edgeStart[state + 1] - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int midKey = edgeKeys[mid];
+            if (midKey < key) {
+                low = mid + 1;
+            } else if (midKey > key) {
+                high = mid - 1;
+            } else {
+                return edgeTargets[mid];
+            }
+        }
+        return NO_STATE;
+    }
+
+    /**
+     * @return The value held by <code>state</code> or {@link #NO_VALUE}
+     */
+    public int getValue(int state) {
+        return stateValue[state];
+    }
+
+    /**
+     * @return The first edge of <code>state</code>. Its edges are the ones from this, inclusive,
+     *         up to {@link #edgesEnd(int)}, exclusive
+     */
+    public int edgesStart(int state) {
+        return edgeStart[state];
+    }
+
+    /**
+     * @return The edge after the last edge of <code>state</code>
+     */
+    public int edgesEnd(int state) {
+        return edgeStart[state + 1];
+    }
+
+    public int getEdgeKey(int edge) {
+        return edgeKeys[edge];
+    }
+
+    public int getEdgeTarget(int edge) {
+        return edgeTargets[edge];
+    }
+
+    public int numStates() {
+        return stateValue.length;
+    }
+
+    /**
+     * Builds a {@link FlatTrie} one key sequence at a time
+     */
+    public static class Builder {
+
+        private final List<TreeMap<Integer, Integer>> gotoFn = Lists.newArrayList();
+        private final List<Integer> valueAtState = Lists.newArrayList();
+
+        public Builder() {
+            gotoFn.add(new TreeMap<>());
+            valueAtState.add(NO_VALUE);
+        }
+
+        /**
+         * Adds a sequence of keys. If the sequence was already added it keeps its first value.
+         *
+         * @param keys
+         *            The keys of the path
+         * @param value
+         *            The value of the state at the end of the path. Can't be negative
+         * @return True if the value was set, false if the path already had one
+         */
+        public boolean add(int[] keys, int value) {
+            int state = ROOT;
+            for (int key : keys) {
+                Integer next = gotoFn.get(state).get(key);
+                if (next == null) {
+                    next = gotoFn.size();
+                    gotoFn.add(new TreeMap<>());
+                    valueAtState.add(NO_VALUE);
+                    gotoFn.get(state).put(key, next);
+                }
+                state = next;
+            }
+            if (valueAtState.get(state) != NO_VALUE) {
+                return false;
+            }
+            valueAtState.set(state, value);
+            return true;
+        }
+
+        public FlatTrie build() {
+            int numStates = gotoFn.size();
+            int[] edgeStart = new int[numStates + 1];
+            int[] edgeKeys = new int[numStates - 1];
+            int[] edgeTargets = new int[numStates - 1];
+            int[] stateValue = new int[numStates];
+            int edge = 0;
+            for (int state = 0; state < numStates; state++) {
+                edgeStart[state] = edge;
+                stateValue[state] = valueAtState.get(state);
+                for (Map.Entry<Integer, Integer> entry : gotoFn.get(state).entrySet()) {
+                    edgeKeys[edge] = entry.getKey();
+                    edgeTargets[edge] = entry.getValue();
+                    edge++;
+                }
+            }
+            edgeStart[numStates] = edge;
+            return new FlatTrie(edgeStart, edgeKeys, edgeTargets, stateValue);
+        }
+    }
+}
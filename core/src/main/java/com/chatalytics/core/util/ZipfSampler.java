@@ -0,0 +1,65 @@
+package com.chatalytics.core.util;
+
+import com.google.common.base.Preconditions;
+
+import java.util.Arrays;
+
+/**
+ * Samples ranks from a Zipf distribution, where rank <code>k</code> of <code>n</code> is picked
+ * with a probability proportional to <code>1 / (k + 1)^exponent</code>. An exponent of 0 picks
+ * every rank with the same probability and the higher the exponent the more the first ranks are
+ * picked. The cumulative probabilities are computed once, so a sample is a binary search that
+ * doesn't allocate.
+ */
+public class ZipfSampler {
+
+    private final double[] cumulativeProbabilities;
+
+    /**
+     * @param numRanks
+     *            The number of ranks to pick from
+     * @param exponent
+     *            The skew of the distribution. Can't be negative
+     */
+    public ZipfSampler(int numRanks, double exponent) {
+        Preconditions.checkArgument(numRanks > 0, "Need at least one rank");
+        Preconditions.checkArgument(exponent >= 0, "The exponent can't be negative");
+        this.cumulativeProbabilities = new double[numRanks];
+        double sum = 0;
+        for (int rank = 0; rank < numRanks; rank++) {
+            sum += 1 / Math.pow(rank + 1, exponent);
+            cumulativeProbabilities[rank] = sum;
+        }
+        for (int rank = 0; rank < numRanks; rank++) {
+            cumulativeProbabilities[rank] /= sum;
+        }
+    }
+
+    /**
+     * @param uniform
+     *            A uniformly distributed number in [0, 1)
+     * @return The rank the number falls in, from 0 to <code>numRanks - 1</code>
+     */
+    public int sample(double uniform) {
+        int index = Arrays.binarySearch(cumulativeProbabilities, uniform);
+        if (index >= 0) {
+            // the number is exactly on the upper bound of the rank, which belongs to the next one
+            index++;
+        } else {
+            index = -index - 1;
+        }
+        return Math.min(index, cumulativeProbabilities.length - 1);
+    }
+
+    /**
+     * @return The probability a rank is picked with
+     */
+    public double getProbability(int rank) {
+        double previous = rank == 0 ? 0 : cumulativeProbabilities[rank - 1];
+        return cumulativeProbabilities[rank] - previous;
+    }
+
+    public int getNumRanks() {
+        return cumulativeProbabilities.length;
+    }
+}
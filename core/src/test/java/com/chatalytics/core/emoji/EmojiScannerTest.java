@@ -0,0 +1,226 @@
+package com.chatalytics.core.emoji;
+
+import com.chatalytics.core.json.JsonObjectMapperFactory;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.Map;
+import java.util.PrimitiveIterator.OfInt;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests {@link EmojiScanner} and {@link EmojiTrie}
+ */
+public class EmojiScannerTest {
+
+    private static final Logger LOG = LoggerFactory.getLogger(EmojiScannerTest.class);
+
+    private EmojiScanner underTest;
+
+    @Before
+    public void setUp() {
+        EmojiTrie emojiTrie = EmojiTrie.compile(ImmutableList.of("smile", "smiley", "+1", "30",
+                                                                 "skin-tone-2", "smile", ""));
+        underTest = new EmojiScanner(emojiTrie);
+    }
+
+    @Test
+    public void testEmojiTrie() {
+        EmojiTrie emojiTrie = underTest.getEmojiTrie();
+        assertEquals(5, emojiTrie.size());
+        assertTrue(emojiTrie.contains("smile"));
+        assertTrue(emojiTrie.contains("smiley"));
+        assertFalse(emojiTrie.contains("smil"));
+        assertFalse(emojiTrie.contains("smileys"));
+        assertFalse(emojiTrie.contains("Smile"));
+        assertFalse(emojiTrie.contains(""));
+    }
+
+    @Test
+    public void testScan() {
+        assertEquals(ImmutableList.of("smile[5, 12)", "+1[13, 17)"),
+                     scan("nice :smile: :+1: :unknown:"));
+        assertEquals(ImmutableList.of("smiley[0, 8)", "smile[8, 15)", "skin-tone-2[15, 28)"),
+                     scan(":smiley::smile::skin-tone-2:"));
+    }
+
+    @Test
+    public void testScan_colonsInText() {
+        // the closing colon of a failed candidate opens the next one
+        assertEquals(ImmutableList.of("smile[8, 15)"), scan("at 10:45:smile:"));
+        assertEquals(ImmutableList.of("30[2, 6)"), scan("10:30:45"));
+        assertEquals(ImmutableList.of("smile[1, 8)"), scan("::smile:"));
+        assertTrue(scan("see http://smile: and :smile").isEmpty());
+        assertTrue(scan("{'a':smile, 'b':'c'}").isEmpty());
+        assertTrue(scan("").isEmpty());
+        assertTrue(scan(":::").isEmpty());
+    }
+
+    @Test
+    public void testScan_canonicalNames() {
+        List<String> names = Lists.newArrayList();
+        underTest.scan("a :smile: b", (name, start, end) -> names.add(name));
+        assertEquals(1, names.size());
+        assertSame(underTest.getEmojiTrie().getName(stateOf("smile")), names.get(0));
+    }
+
+    @Test
+    public void testScan_emptyTrie() {
+        underTest = new EmojiScanner(EmojiTrie.compile(ImmutableSet.of()));
+        assertTrue(scan(":smile:").isEmpty());
+    }
+
+    @Test
+    public void testScan_unicode() {
+        Map<String, String> unicodeEmojis =
+            LocalEmojiUtils.getUnicodeEmojis(JsonObjectMapperFactory.createObjectMapper());
+        underTest = new EmojiScanner(underTest.getEmojiTrie(),
+                                     EmojiTrie.compileUnicode(unicodeEmojis));
+
+        // plain code point and a shortcode next to each other
+        assertEquals(ImmutableList.of("100[3, 5)", "smile[5, 12)"),
+                     scan("ok \uD83D\uDCAF:smile:"));
+        // variation selector is optional and belongs to the emoji
+        assertEquals(ImmutableList.of("sunny[0, 2)", "sunny[3, 4)"), scan("\u2600\uFE0F \u2600"));
+        // keycap
+        assertEquals(ImmutableList.of("one[5, 8)"), scan("pick 1\uFE0F\u20E3 or 1"));
+        // skin tone modifiers are reported after the emoji they modify
+        assertEquals(ImmutableList.of("+1[0, 2)", "skin-tone-3[2, 4)"),
+                     scan("\uD83D\uDC4D\uD83C\uDFFC"));
+        // ZWJ sequences match longest first
+        String family =
+            "\uD83D\uDC68\u200D\uD83D\uDC69\u200D\uD83D\uDC67\u200D\uD83D\uDC67";
+        assertEquals(ImmutableList.of("man-woman-girl-girl[0, 11)"), scan(family));
+        // partial ZWJ sequences fall back to their parts
+        assertEquals(ImmutableList.of("man[0, 2)", "computer[3, 5)"),
+                     scan("\uD83D\uDC68\u200D\uD83D\uDCBB"));
+        // non emoji unicode text
+        assertTrue(scan("caf\u00E9 \u4E2D\u6587").isEmpty());
+    }
+
+    /**
+     * Makes sure that a scanner without a vocabulary reports every well formed shortcode
+     */
+    @Test
+    public void testScan_noVocabulary() {
+        underTest = new EmojiScanner(null);
+        assertEquals(ImmutableList.of("partyparrot[0, 13)", "smile[13, 20)"),
+                     scan(":partyparrot::smile: :not an emoji: http://example.com"));
+        assertTrue(scan("{'a':true, 'b':'c'}").isEmpty());
+    }
+
+    /**
+     * Compares the throughput of the scanner with the per character <code>StringBuilder</code>
+     * capture it replaced. Only runs when the <code>chatalytics.benchmark</code> system property is
+     * set to true.
+     */
+    @Test
+    public void benchmarkScan() {
+        Assume.assumeTrue(Boolean.getBoolean("chatalytics.benchmark"));
+        Map<String, String> unicodeEmojis =
+            LocalEmojiUtils.getUnicodeEmojis(JsonObjectMapperFactory.createObjectMapper());
+        underTest = new EmojiScanner(EmojiTrie.compile(unicodeEmojis.keySet()),
+                                     EmojiTrie.compileUnicode(unicodeEmojis));
+        List<String> messages = ImmutableList.of(
+            "sounds good :+1: see you at 10:30:45 in the usual room",
+            ":smile::smiley: great job on the release :tada: :tada:",
+            "check http://example.com/a:b:c and C:\\src\\main before merging",
+            "no emojis in this one, just a regular sentence about the weather",
+            "{'json':true,'value':'hello'} \uD83D\uDC4D\uD83C\uDFFC :skin-tone-3:");
+        int iterations = 500_000;
+
+        // warm up
+        runScanner(messages, iterations / 10);
+        runStringBuilderCapture(messages, iterations / 10);
+
+        long startNanos = System.nanoTime();
+        long numEmojis = runScanner(messages, iterations);
+        logThroughput("scanner", (long) iterations * messages.size(), numEmojis, startNanos);
+
+        startNanos = System.nanoTime();
+        numEmojis = runStringBuilderCapture(messages, iterations);
+        logThroughput("StringBuilder capture", (long) iterations * messages.size(), numEmojis,
+                      startNanos);
+    }
+
+    private long runScanner(List<String> messages, int iterations) {
+        long[] numEmojis = new long[1];
+        for (int i = 0; i < iterations; i++) {
+            for (String message : messages) {
+                underTest.scan(message, (name, start, end) -> numEmojis[0]++);
+            }
+        }
+        return numEmojis[0];
+    }
+
+    /**
+     * The way emojis were captured before the scanner: every candidate is copied into a new
+     * <code>StringBuilder</code> and checked against the vocabulary once it's complete
+     */
+    private long runStringBuilderCapture(List<String> messages, int iterations) {
+        EmojiTrie emojiTrie = underTest.getEmojiTrie();
+        long numEmojis = 0;
+        for (int i = 0; i < iterations; i++) {
+            for (String message : messages) {
+                boolean capturing = false;
+                StringBuilder candidate = new StringBuilder();
+                OfInt chars = message.chars().iterator();
+                while (chars.hasNext()) {
+                    char ch = (char) chars.nextInt();
+                    if (ch == ':') {
+                        if (capturing && candidate.length() > 0
+                                && emojiTrie.contains(candidate.toString())) {
+                            numEmojis++;
+                        }
+                        candidate = new StringBuilder();
+                        capturing = !capturing;
+                    } else if (capturing && (Character.isWhitespace(ch) || ch == ','
+                        || ch == '{' || ch == '}' || ch == '/' || ch == '\\')) {
+                        capturing = false;
+                        candidate = new StringBuilder();
+                    } else if (capturing) {
+                        candidate.append(ch);
+                    }
+                }
+            }
+        }
+        return numEmojis;
+    }
+
+    private void logThroughput(String name, long numMessages, long numEmojis, long startNanos) {
+        long elapsedNanos = System.nanoTime() - startNanos;
+        LOG.info("{}: scanned {} messages and found {} emojis in {}ms: {} messages/s", name,
+                 numMessages, numEmojis, TimeUnit.NANOSECONDS.toMillis(elapsedNanos),
+                 numMessages * TimeUnit.SECONDS.toNanos(1) / elapsedNanos);
+    }
+
+    private int stateOf(String name) {
+        EmojiTrie emojiTrie = underTest.getEmojiTrie();
+        int state = EmojiTrie.ROOT;
+        for (int i = 0; i < name.length(); i++) {
+            state = emojiTrie.next(state, name.charAt(i));
+        }
+        return state;
+    }
+
+    private List<String> scan(String text) {
+        List<String> emojis = Lists.newArrayList();
+        underTest.scan(text, (name, start, end) -> {
+            emojis.add(String.format("%s[%d, %d)", name, start, end));
+        });
+        return emojis;
+    }
+}
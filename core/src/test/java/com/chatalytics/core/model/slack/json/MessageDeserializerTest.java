@@ -2,6 +2,7 @@ package com.chatalytics.core.model.slack.json;
 
 import com.chatalytics.core.model.data.Message;
 import com.chatalytics.core.model.data.MessageType;
+import com.fasterxml.jackson.databind.JsonMappingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
 import org.joda.time.DateTime;
@@ -125,6 +126,34 @@ public class MessageDeserializerTest {
         assertEquals(MessageType.UNKNOWN, msg.getType());
     }
 
+    /**
+     * Makes sure that only the first attachment is read and that an empty list of attachments is
+     * ignored
+     */
+    @Test
+    public void testDeserialize_withAttachmentLists() throws Exception {
+        String multipleStr = "{\"type\": \"message\", \"text\": \"\", \"user\": \"U1\"," +
+                             "\"attachments\": [{\"fallback\": \"first\"}," +
+                             "{\"fallback\": \"second\"}]," +
+                             "\"ts\": \"1431708451.000186\"}";
+        Message msg = objMapper.readValue(multipleStr, Message.class);
+        assertEquals("first", msg.getMessage());
+
+        String emptyStr = "{\"type\": \"message\", \"text\": \"\", \"user\": \"U1\"," +
+                          "\"attachments\": [], \"ts\": \"1431708451.000186\"}";
+        msg = objMapper.readValue(emptyStr, Message.class);
+        assertEquals("", msg.getMessage());
+        assertEquals(MessageType.MESSAGE, msg.getType());
+    }
+
+    /**
+     * Makes sure that a message without a timestamp can't be deserialized
+     */
+    @Test(expected = JsonMappingException.class)
+    public void testDeserialize_withoutTimestamp() throws Exception {
+        objMapper.readValue("{\"type\": \"message\", \"user\": \"U1\"}", Message.class);
+    }
+
     private final String messageJsonStr = "{" +
                                               "\"type\": \"message\"," +
                                               "\"user\": \"U023BECGF\"," +
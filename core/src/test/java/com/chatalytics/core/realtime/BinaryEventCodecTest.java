@@ -0,0 +1,195 @@
+package com.chatalytics.core.realtime;
+
+import com.chatalytics.core.model.data.ChatAlyticsEvent;
+import com.chatalytics.core.model.data.ChatEntity;
+import com.chatalytics.core.model.data.EmojiEntity;
+import com.chatalytics.core.model.data.MessageSummary;
+import com.chatalytics.core.model.data.MessageType;
+import com.google.common.collect.ImmutableList;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests {@link BinaryEventCodec}
+ */
+public class BinaryEventCodecTest {
+
+    private static final Logger LOG = LoggerFactory.getLogger(BinaryEventCodecTest.class);
+    private static final DateTime TIME = new DateTime(1451606400123L, DateTimeZone.UTC);
+
+    private BinaryEventCodec underTest;
+
+    @Before
+    public void setUp() {
+        underTest = new BinaryEventCodec();
+    }
+
+    @Test
+    public void testEncodeDecode() throws Exception {
+        List<ChatAlyticsEvent> events = createEvents();
+        assertEquals(events, underTest.decode(underTest.encode(events)));
+    }
+
+    /**
+     * Makes sure that events with a type other than the one of their tag are sent as JSON and
+     * decoded as they were
+     */
+    @Test
+    public void testEncodeDecode_json() throws Exception {
+        List<ChatAlyticsEvent> events = ImmutableList.of(
+            new ChatAlyticsEvent(TIME, "renamed", new EmojiEntity("user", "room", TIME, "smile", 1,
+                                                                  false)));
+        assertEquals(events, underTest.decode(underTest.encode(events)));
+    }
+
+    @Test(expected = IOException.class)
+    public void testEncode_unregisteredClass() throws Exception {
+        underTest.encode(ImmutableList.of(new ChatAlyticsEvent(TIME, "string", "some event")));
+    }
+
+    /**
+     * Makes sure that a JSON event naming a class that isn't registered is not decoded, even if the
+     * class exists. The class name is swapped for one of the same length in the encoded frame
+     */
+    @Test(expected = IOException.class)
+    public void testDecode_unregisteredClass() throws Exception {
+        ChatAlyticsEvent event = new ChatAlyticsEvent(TIME, "renamed",
+                                                      new EmojiEntity("user", "room", TIME,
+                                                                      "smile", 1, false));
+        ByteBuffer frame = underTest.encode(ImmutableList.of(event));
+        String unregistered = AtomicReference.class.getName();
+        assertEquals(EmojiEntity.class.getName().length(), unregistered.length());
+        byte[] bytes = new String(frame.array(), frame.position(), frame.remaining(),
+                                  StandardCharsets.ISO_8859_1)
+            .replace(EmojiEntity.class.getName(), unregistered)
+            .getBytes(StandardCharsets.ISO_8859_1);
+        underTest.decode(ByteBuffer.wrap(bytes));
+    }
+
+    @Test
+    public void testEncodeDecode_nullAndNegativeValues() throws Exception {
+        DateTime beforeEpoch = new DateTime(-1000, DateTimeZone.UTC);
+        List<ChatAlyticsEvent> events = ImmutableList.of(
+            new ChatAlyticsEvent(beforeEpoch, "chat_entity",
+                                 new ChatEntity(null, "rööm", beforeEpoch, "Boston",
+                                                Integer.MAX_VALUE, true)));
+        assertEquals(events, underTest.decode(underTest.encode(events)));
+    }
+
+    /**
+     * Makes sure that the binary frame is a lot smaller than the JSON the events used to be sent as
+     */
+    @Test
+    public void testEncode_size() throws Exception {
+        List<ChatAlyticsEvent> events = createEvents();
+        int jsonBytes = 0;
+        ChatAlyticsEventEncoder jsonEncoder = new ChatAlyticsEventEncoder();
+        for (ChatAlyticsEvent event : events) {
+            jsonBytes += jsonEncoder.encode(event).getBytes(StandardCharsets.UTF_8).length;
+        }
+        int binaryBytes = underTest.encode(events).remaining();
+        assertTrue(binaryBytes * 4 < jsonBytes);
+    }
+
+    @Test(expected = IOException.class)
+    public void testDecode_badVersion() throws Exception {
+        ByteBuffer frame = underTest.encode(createEvents());
+        frame.put(0, (byte) (BinaryEventCodec.VERSION + 1));
+        underTest.decode(frame);
+    }
+
+    @Test(expected = IOException.class)
+    public void testDecode_truncated() throws Exception {
+        ByteBuffer frame = underTest.encode(createEvents());
+        frame.limit(frame.limit() - 3);
+        underTest.decode(frame);
+    }
+
+    @Test(expected = IOException.class)
+    public void testDecode_unknownTag() throws Exception {
+        underTest.decode(ByteBuffer.wrap(new byte[] { BinaryEventCodec.VERSION, 1, 100, 0, 0, 0,
+                                                      0, 0, 0, 0 }));
+    }
+
+    /**
+     * Compares the encode and decode throughput of the binary and the JSON formats. Only runs when
+     * the <code>chatalytics.benchmark</code> system property is set to true.
+     */
+    @Test
+    public void benchmarkCodec() throws Exception {
+        Assume.assumeTrue(Boolean.getBoolean("chatalytics.benchmark"));
+        int iterations = 200_000;
+        List<ChatAlyticsEvent> events = createEvents();
+        ChatAlyticsEventEncoder jsonEncoder = new ChatAlyticsEventEncoder();
+        ChatAlyticsEventDecoder jsonDecoder = new ChatAlyticsEventDecoder();
+
+        // warm up
+        runBinary(events, iterations / 10);
+        runJson(events, jsonEncoder, jsonDecoder, iterations / 10);
+
+        long startNanos = System.nanoTime();
+        long binaryBytes = runBinary(events, iterations);
+        logThroughput("binary", iterations * events.size(), binaryBytes, startNanos);
+
+        startNanos = System.nanoTime();
+        long jsonBytes = runJson(events, jsonEncoder, jsonDecoder, iterations);
+        logThroughput("JSON", iterations * events.size(), jsonBytes, startNanos);
+    }
+
+    private long runBinary(List<ChatAlyticsEvent> events, int iterations) throws Exception {
+        long bytes = 0;
+        for (int i = 0; i < iterations; i++) {
+            ByteBuffer frame = underTest.encode(events);
+            bytes += frame.remaining();
+            underTest.decode(frame);
+        }
+        return bytes;
+    }
+
+    private long runJson(List<ChatAlyticsEvent> events, ChatAlyticsEventEncoder encoder,
+                         ChatAlyticsEventDecoder decoder, int iterations) throws Exception {
+        long bytes = 0;
+        for (int i = 0; i < iterations; i++) {
+            for (ChatAlyticsEvent event : events) {
+                String json = encoder.encode(event);
+                bytes += json.length();
+                decoder.decode(json);
+            }
+        }
+        return bytes;
+    }
+
+    private void logThroughput(String format, long numEvents, long bytes, long startNanos) {
+        long elapsedNanos = System.nanoTime() - startNanos;
+        LOG.info("{}: encoded and decoded {} events in {}ms: {} events/s, {} bytes/event", format,
+                 numEvents, TimeUnit.NANOSECONDS.toMillis(elapsedNanos),
+                 numEvents * TimeUnit.SECONDS.toNanos(1) / elapsedNanos, bytes / numEvents);
+    }
+
+    private List<ChatAlyticsEvent> createEvents() {
+        return ImmutableList.of(
+            new ChatAlyticsEvent(TIME, "message_summary",
+                                 new MessageSummary("jane", "general", TIME, MessageType.MESSAGE, 1,
+                                                    false)),
+            new ChatAlyticsEvent(TIME, "emoji_entity",
+                                 new EmojiEntity("jane", "general", TIME, "smile", 2, false)),
+            new ChatAlyticsEvent(TIME, "chat_entity",
+                                 new ChatEntity("bot", "random", TIME, "Boston", 1, true)));
+    }
+}
@@ -0,0 +1,77 @@
+package com.chatalytics.core.realtime;
+
+import com.chatalytics.core.model.data.ChatAlyticsEvent;
+import com.chatalytics.core.model.data.ChatAlyticsEventBatch;
+import com.chatalytics.core.model.data.MessageSummary;
+import com.chatalytics.core.model.data.MessageType;
+import com.google.common.collect.ImmutableList;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.websocket.DecodeException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests {@link ChatAlyticsEventBatchEncoderDecoder}
+ */
+public class ChatAlyticsEventBatchEncoderDecoderTest {
+
+    private ChatAlyticsEventBatchEncoderDecoder underTest;
+
+    @Before
+    public void setUp() {
+        underTest = new ChatAlyticsEventBatchEncoderDecoder();
+    }
+
+    @Test
+    public void testEncodeDecode() throws Exception {
+        ChatAlyticsEventBatch batch = new ChatAlyticsEventBatch(ImmutableList.of(createEvent("a"),
+                                                                                 createEvent("b")));
+        String jsonStr = underTest.encode(batch);
+        assertTrue(jsonStr.startsWith("["));
+        assertEquals(batch, underTest.decode(jsonStr));
+    }
+
+    /**
+     * Makes sure that a single event is decoded to a batch of one
+     */
+    @Test
+    public void testDecode_singleEvent() throws Exception {
+        ChatAlyticsEvent event = createEvent("a");
+        String jsonStr = new ChatAlyticsEventEncoder().encode(event);
+        assertEquals(new ChatAlyticsEventBatch(ImmutableList.of(event)),
+                     underTest.decode(jsonStr));
+    }
+
+    @Test(expected = DecodeException.class)
+    public void testDecode_withBadJson() throws Exception {
+        underTest.decode("[bad json");
+    }
+
+    @Test
+    public void testWillDecode() {
+        assertFalse(underTest.willDecode(null));
+        assertFalse(underTest.willDecode(""));
+        assertTrue(underTest.willDecode("[]"));
+    }
+
+    private ChatAlyticsEvent createEvent(String username) {
+        MessageSummary msgSummary = new MessageSummary(username, "room",
+                                                       DateTime.now(DateTimeZone.UTC),
+                                                       MessageType.MESSAGE, 1, false);
+        return new ChatAlyticsEvent(DateTime.now(DateTimeZone.UTC),
+                                    msgSummary.getClass().getName(), msgSummary);
+    }
+
+    @After
+    public void tearDown() {
+        underTest.destroy();
+    }
+}
@@ -0,0 +1,67 @@
+package com.chatalytics.core.realtime;
+
+import com.chatalytics.core.model.data.EventSubscription;
+import com.google.common.collect.ImmutableSet;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.websocket.DecodeException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests {@link EventSubscriptionEncoderDecoder}
+ */
+public class EventSubscriptionEncoderDecoderTest {
+
+    private EventSubscriptionEncoderDecoder underTest;
+
+    @Before
+    public void setUp() {
+        underTest = new EventSubscriptionEncoderDecoder();
+    }
+
+    @Test
+    public void testEncodeDecode() throws Exception {
+        EventSubscription subscription = new EventSubscription();
+        subscription.setTypes(ImmutableSet.of("emoji_entity"));
+        subscription.setRooms(ImmutableSet.of("general"));
+        subscription.setIncludeBots(false);
+        subscription.setSampleRate(0.5);
+        assertEquals(subscription, underTest.decode(underTest.encode(subscription)));
+    }
+
+    /**
+     * Makes sure that the fields that are left out match everything
+     */
+    @Test
+    public void testDecode_defaults() throws Exception {
+        EventSubscription subscription = underTest.decode("{\"rooms\":[\"general\"]}");
+        assertEquals(ImmutableSet.of("general"), subscription.getRooms());
+        assertNull(subscription.getUsers());
+        assertNull(subscription.getTypes());
+        assertTrue(subscription.isIncludeBots());
+        assertEquals(1, subscription.getSampleRate(), 0);
+    }
+
+    @Test(expected = DecodeException.class)
+    public void testDecode_badSampleRate() throws Exception {
+        underTest.decode("{\"sample_rate\":0}");
+    }
+
+    @Test(expected = DecodeException.class)
+    public void testDecode_badJson() throws Exception {
+        underTest.decode("bad json");
+    }
+
+    @Test
+    public void testWillDecode() {
+        assertFalse(underTest.willDecode(null));
+        assertFalse(underTest.willDecode(""));
+        assertTrue(underTest.willDecode("{}"));
+    }
+}
@@ -0,0 +1,43 @@
+package com.chatalytics.core.realtime;
+
+import com.chatalytics.core.model.data.ChatEntity;
+import com.chatalytics.core.model.data.EmojiEntity;
+import com.chatalytics.core.model.data.MessageSummary;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests {@link EventTypeRegistry}
+ */
+public class EventTypeRegistryTest {
+
+    @Test
+    public void testGetType() {
+        assertEquals("message_summary", EventTypeRegistry.getType(MessageSummary.class));
+        assertEquals("emoji_entity", EventTypeRegistry.getType(EmojiEntity.class));
+        assertEquals("chat_entity", EventTypeRegistry.getType(ChatEntity.class));
+    }
+
+    @Test
+    public void testGetEventClass() {
+        assertEquals(MessageSummary.class,
+                     EventTypeRegistry.getEventClass("message_summary", null));
+        assertEquals(ChatEntity.class,
+                     EventTypeRegistry.getEventClass("chat_entity", String.class.getName()));
+        assertEquals(EmojiEntity.class,
+                     EventTypeRegistry.getEventClass("renamed", EmojiEntity.class.getName()));
+        assertNull(EventTypeRegistry.getEventClass("string", String.class.getName()));
+        assertNull(EventTypeRegistry.getEventClass(null, null));
+    }
+
+    @Test
+    public void testIsRegistered() {
+        assertTrue(EventTypeRegistry.isRegistered(EmojiEntity.class));
+        assertFalse(EventTypeRegistry.isRegistered(String.class));
+    }
+}
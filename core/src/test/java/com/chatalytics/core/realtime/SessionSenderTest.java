@@ -0,0 +1,212 @@
+package com.chatalytics.core.realtime;
+
+import com.chatalytics.core.SlowConsumerPolicy;
+import com.chatalytics.core.model.data.ChatAlyticsEvent;
+import com.chatalytics.core.model.data.EmojiEntity;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import javax.websocket.RemoteEndpoint.Async;
+import javax.websocket.SendHandler;
+import javax.websocket.SendResult;
+import javax.websocket.Session;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests {@link SessionSender}
+ */
+public class SessionSenderTest {
+
+    private Session session;
+    private Async remote;
+    private List<String> writes;
+
+    @Before
+    public void setUp() {
+        session = mock(Session.class);
+        remote = mock(Async.class);
+        writes = Lists.newArrayList();
+        doAnswer(invocation -> writes.add((String) invocation.getArguments()[0]))
+            .when(remote).sendText(any(String.class), any(SendHandler.class));
+        when(session.getAsyncRemote()).thenReturn(remote);
+    }
+
+    /**
+     * Makes sure that only one message is in flight at a time and that the rest are written in
+     * order as the previous ones complete
+     */
+    @Test
+    public void testSend_oneInFlight() {
+        SessionSender underTest = new SessionSender(session, false, 10,
+                                                    SlowConsumerPolicy.DROP_OLDEST);
+        underTest.send("a", null);
+        underTest.send("b", null);
+        underTest.send("c", null);
+        verify(remote).sendText(eq("a"), any(SendHandler.class));
+        verifyNoMoreInteractions(remote);
+        assertEquals(2, underTest.getQueuedMessages());
+
+        underTest.onResult(new SendResult());
+        verify(remote).sendText(eq("b"), any(SendHandler.class));
+        underTest.onResult(new SendResult());
+        verify(remote).sendText(eq("c"), any(SendHandler.class));
+        underTest.onResult(new SendResult());
+        verifyNoMoreInteractions(remote);
+        assertEquals(0, underTest.getQueuedMessages());
+        assertEquals(0, underTest.getLagMillis());
+    }
+
+    /**
+     * Makes sure that writes that complete right away drain the whole queue
+     */
+    @Test
+    public void testSend_completesRightAway() {
+        completeWrites();
+        SessionSender underTest = new SessionSender(session, false, 10,
+                                                    SlowConsumerPolicy.DROP_OLDEST);
+        for (int i = 0; i < 5_000; i++) {
+            underTest.send(ByteBuffer.wrap(new byte[] { 1 }), null);
+        }
+        verify(remote, times(5_000)).sendBinary(any(ByteBuffer.class), any(SendHandler.class));
+        assertEquals(0, underTest.getQueuedMessages());
+        assertEquals(0, underTest.getAndResetDroppedMessages());
+    }
+
+    @Test
+    public void testSend_dropOldest() {
+        SessionSender underTest = new SessionSender(session, false, 2,
+                                                    SlowConsumerPolicy.DROP_OLDEST);
+        underTest.send("inFlight", null);
+        underTest.send("a", null);
+        underTest.send("b", null);
+        underTest.send("c", null);
+        assertEquals(2, underTest.getQueuedMessages());
+        assertEquals(1, underTest.getAndResetDroppedMessages());
+        assertEquals(0, underTest.getAndResetDroppedMessages());
+
+        assertEquals(ImmutableList.of("inFlight", "b", "c"), drain(underTest));
+    }
+
+    @Test
+    public void testSend_coalesce() {
+        SessionSender underTest = new SessionSender(session, false, 2,
+                                                    SlowConsumerPolicy.COALESCE);
+        underTest.send("inFlight", null);
+        underTest.send("a1", "a");
+        underTest.send("b1", "b");
+        underTest.send("a2", "a");
+        assertEquals(2, underTest.getQueuedMessages());
+        assertEquals(1, underTest.getAndResetDroppedMessages());
+
+        assertEquals(ImmutableList.of("inFlight", "a2", "b1"), drain(underTest));
+    }
+
+    @Test
+    public void testSend_disconnect() {
+        SessionSender underTest = new SessionSender(session, false, 2,
+                                                    SlowConsumerPolicy.DISCONNECT);
+        underTest.send("inFlight", null);
+        underTest.send("a", null);
+        underTest.send("b", null);
+        assertFalse(underTest.isDisconnected());
+        underTest.send("c", null);
+        assertTrue(underTest.isDisconnected());
+        underTest.send("d", null);
+        assertEquals(0, underTest.getQueuedMessages());
+        assertEquals(4, underTest.getAndResetDroppedMessages());
+
+        assertEquals(ImmutableList.of("inFlight"), drain(underTest));
+    }
+
+    /**
+     * Makes sure that failed writes are counted and don't stop the queue
+     */
+    @Test
+    public void testSend_failures() {
+        doAnswer(invocation -> {
+            ((SendHandler) invocation.getArguments()[1])
+                .onResult(new SendResult(new RuntimeException("broken pipe")));
+            return null;
+        }).when(remote).sendObject(any(), any(SendHandler.class));
+        SessionSender underTest = new SessionSender(session, false, 2,
+                                                    SlowConsumerPolicy.DROP_OLDEST);
+        underTest.send(1, null);
+        underTest.send(2, null);
+        verify(remote).sendObject(eq(1), any(SendHandler.class));
+        verify(remote).sendObject(eq(2), any(SendHandler.class));
+        assertEquals(2, underTest.getAndResetFailedMessages());
+    }
+
+    @Test
+    public void testGetLagMillis() throws Exception {
+        SessionSender underTest = new SessionSender(session, false, 2,
+                                                    SlowConsumerPolicy.DROP_OLDEST);
+        underTest.send("a", null);
+        Thread.sleep(20);
+        assertTrue(underTest.getLagMillis() >= 20);
+        underTest.onResult(new SendResult());
+        assertEquals(0, underTest.getLagMillis());
+    }
+
+    @Test
+    public void testGetCoalesceKey() {
+        DateTime time = new DateTime(0, DateTimeZone.UTC);
+        ChatAlyticsEvent event = new ChatAlyticsEvent(time, "emoji_entity",
+                                                      new EmojiEntity("jane", "general", time,
+                                                                      "smile", 1, false));
+        ChatAlyticsEvent sameKey = new ChatAlyticsEvent(time.plusMinutes(1), "emoji_entity",
+                                                        new EmojiEntity("jane", "general", time,
+                                                                        "smile", 3, false));
+        ChatAlyticsEvent otherKey = new ChatAlyticsEvent(time, "emoji_entity",
+                                                         new EmojiEntity("jane", "random", time,
+                                                                         "smile", 1, false));
+        assertEquals(SessionSender.getCoalesceKey(event), SessionSender.getCoalesceKey(sameKey));
+        assertFalse(SessionSender.getCoalesceKey(event)
+                                 .equals(SessionSender.getCoalesceKey(otherKey)));
+        assertNull(SessionSender.getCoalesceKey(new ChatAlyticsEvent(time, "type", "value")));
+    }
+
+    /**
+     * Completes every write of the remote right away
+     */
+    private void completeWrites() {
+        doAnswer(invocation -> {
+            ((SendHandler) invocation.getArguments()[1]).onResult(new SendResult());
+            return null;
+        }).when(remote).sendBinary(any(ByteBuffer.class), any(SendHandler.class));
+    }
+
+    /**
+     * Completes the writes of a sender one by one
+     *
+     * @return The messages that were written, in order
+     */
+    private List<String> drain(SessionSender underTest) {
+        int numWrites;
+        do {
+            numWrites = writes.size();
+            underTest.onResult(new SendResult());
+        } while (writes.size() > numWrites);
+        return writes;
+    }
+}
@@ -0,0 +1,120 @@
+package com.chatalytics.core.realtime;
+
+import com.chatalytics.core.SlowConsumerPolicy;
+import com.chatalytics.core.model.data.ChatAlyticsEvent;
+import com.chatalytics.core.model.data.EmojiEntity;
+import com.chatalytics.core.model.data.EventSubscription;
+import com.google.common.collect.ImmutableSet;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+
+import javax.websocket.CloseReason;
+import javax.websocket.RemoteEndpoint.Async;
+import javax.websocket.Session;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests {@link SubscriberSessions}
+ */
+public class SubscriberSessionsTest {
+
+    private static final DateTime TIME = new DateTime(0, DateTimeZone.UTC);
+
+    private SubscriberSessions underTest;
+
+    @Before
+    public void setUp() {
+        underTest = new SubscriberSessions(1, SlowConsumerPolicy.DISCONNECT, 0, "test");
+    }
+
+    @After
+    public void tearDown() {
+        underTest.close();
+    }
+
+    @Test
+    public void testSubscribe() {
+        Session all = openSession();
+        Session general = openSession();
+        underTest.add(all, false);
+        underTest.add(general, true);
+        EventSubscription subscription = new EventSubscription();
+        subscription.setRooms(ImmutableSet.of("general"));
+        assertTrue(underTest.subscribe(general, subscription));
+        assertFalse(underTest.subscribe(openSession(), subscription));
+
+        assertEquals(ImmutableSet.of(all), sessions(underTest.getSenders(emoji("random"))));
+        List<SessionSender> senders = underTest.getSenders(emoji("general"));
+        assertEquals(ImmutableSet.of(all, general), sessions(senders));
+        for (SessionSender sender : senders) {
+            assertEquals(sender.getSession() == general, sender.isBinary());
+        }
+
+        underTest.remove(general);
+        assertFalse(underTest.contains(general));
+        assertTrue(underTest.contains(all));
+        assertEquals(ImmutableSet.of(all), sessions(underTest.getSenders(emoji("general"))));
+        assertEquals(1, underTest.size());
+    }
+
+    /**
+     * Makes sure that the reaper collects closed sessions, closes the sessions that fell behind and
+     * keeps the rest
+     */
+    @Test
+    public void testReap() throws Exception {
+        Session open = openSession();
+        Session closed = openSession();
+        Session slow = openSession();
+        underTest.add(open, false);
+        underTest.add(closed, false);
+        underTest.add(slow, false);
+        when(closed.isOpen()).thenReturn(false);
+        // the remotes never complete, so a third event overflows the queue of the slow session
+        List<SessionSender> senders = underTest.getSenders(emoji("general"));
+        for (SessionSender sender : senders) {
+            if (sender.getSession() == slow) {
+                sender.send("a", null);
+                sender.send("b", null);
+                sender.send("c", null);
+                assertTrue(sender.isDisconnected());
+            }
+        }
+
+        underTest.reap();
+        assertEquals(ImmutableSet.of(open), underTest.getSessions());
+        verify(slow).close(any(CloseReason.class));
+        verify(open, never()).close(any(CloseReason.class));
+        verify(closed, never()).close(any(CloseReason.class));
+    }
+
+    private static Session openSession() {
+        Session session = mock(Session.class);
+        when(session.isOpen()).thenReturn(true);
+        when(session.getAsyncRemote()).thenReturn(mock(Async.class));
+        return session;
+    }
+
+    private static ImmutableSet<Session> sessions(List<SessionSender> senders) {
+        return ImmutableSet.copyOf(senders.stream().map(SessionSender::getSession).iterator());
+    }
+
+    private static ChatAlyticsEvent emoji(String room) {
+        return new ChatAlyticsEvent(TIME, "emoji_entity",
+                                    new EmojiEntity("jane", room, TIME, "smile", 1, false));
+    }
+}
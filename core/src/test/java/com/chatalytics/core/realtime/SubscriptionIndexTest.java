@@ -0,0 +1,139 @@
+package com.chatalytics.core.realtime;
+
+import com.chatalytics.core.model.data.ChatAlyticsEvent;
+import com.chatalytics.core.model.data.EmojiEntity;
+import com.chatalytics.core.model.data.EventSubscription;
+import com.chatalytics.core.model.data.MessageSummary;
+import com.chatalytics.core.model.data.MessageType;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Sets;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests {@link SubscriptionIndex}
+ */
+public class SubscriptionIndexTest {
+
+    private static final DateTime TIME = new DateTime(0, DateTimeZone.UTC);
+
+    private SubscriptionIndex<String> underTest;
+
+    @Before
+    public void setUp() {
+        underTest = new SubscriptionIndex<>();
+    }
+
+    @Test
+    public void testGetSubscribers() {
+        underTest.subscribe("all");
+        underTest.subscribe("general", subscription(null, ImmutableSet.of("general", "random"),
+                                                    null));
+        underTest.subscribe("jane", subscription(null, null, ImmutableSet.of("jane")));
+        underTest.subscribe("emojis", subscription(ImmutableSet.of("emoji_entity"), null, null));
+        underTest.subscribe("jane-general-emojis",
+                            subscription(ImmutableSet.of("emoji_entity"),
+                                         ImmutableSet.of("general"), ImmutableSet.of("jane")));
+
+        assertEquals(ImmutableSet.of("all", "general", "jane", "emojis", "jane-general-emojis"),
+                     matches(emoji("jane", "general", false)));
+        assertEquals(ImmutableSet.of("all", "general", "jane"),
+                     matches(summary("jane", "random", false)));
+        assertEquals(ImmutableSet.of("all", "emojis"), matches(emoji("bob", "dev", false)));
+        assertEquals(ImmutableSet.of("all"), matches(summary("bob", "dev", false)));
+    }
+
+    /**
+     * Makes sure that no subscriber is returned more than once
+     */
+    @Test
+    public void testGetSubscribers_noDuplicates() {
+        underTest.subscribe("a", subscription(ImmutableSet.of("emoji_entity"),
+                                              ImmutableSet.of("general"), ImmutableSet.of("jane")));
+        assertEquals(ImmutableList.of("a"), underTest.getSubscribers(emoji("jane", "general",
+                                                                           false)));
+    }
+
+    @Test
+    public void testGetSubscribers_bots() {
+        EventSubscription noBots = new EventSubscription();
+        noBots.setIncludeBots(false);
+        underTest.subscribe("people", noBots);
+        underTest.subscribe("all");
+        assertEquals(ImmutableSet.of("all"), matches(emoji("bot", "general", true)));
+        assertEquals(ImmutableSet.of("all", "people"), matches(emoji("jane", "general", false)));
+    }
+
+    @Test
+    public void testGetSubscribers_sampling() {
+        EventSubscription sampled = new EventSubscription();
+        sampled.setSampleRate(0.25);
+        underTest.subscribe("sampled", sampled);
+        int numEvents = 20_000;
+        int received = 0;
+        for (int i = 0; i < numEvents; i++) {
+            received += underTest.getSubscribers(emoji("jane", "general", false)).size();
+        }
+        assertEquals(numEvents / 4, received, numEvents / 20);
+    }
+
+    /**
+     * Makes sure that a new subscription replaces the previous one and that changing a subscription
+     * after subscribing with it has no effect
+     */
+    @Test
+    public void testSubscribe_replace() {
+        EventSubscription subscription =
+            subscription(null, Sets.newHashSet("general"), null);
+        underTest.subscribe("a", subscription);
+        subscription.getRooms().add("random");
+        assertTrue(matches(emoji("jane", "random", false)).isEmpty());
+
+        underTest.subscribe("a", subscription(null, ImmutableSet.of("random"), null));
+        assertEquals(ImmutableSet.of("a"), matches(emoji("jane", "random", false)));
+        assertTrue(matches(emoji("jane", "general", false)).isEmpty());
+        assertEquals(1, underTest.size());
+    }
+
+    @Test
+    public void testUnsubscribe() {
+        underTest.subscribe("a", subscription(null, ImmutableSet.of("general"), null));
+        underTest.subscribe("b");
+        underTest.unsubscribeAll(ImmutableList.of("a", "b"));
+        assertTrue(matches(emoji("jane", "general", false)).isEmpty());
+        assertTrue(underTest.getSubscribers().isEmpty());
+    }
+
+    private Set<String> matches(ChatAlyticsEvent event) {
+        return ImmutableSet.copyOf(underTest.getSubscribers(event));
+    }
+
+    private static EventSubscription subscription(Set<String> types, Set<String> rooms,
+                                                  Set<String> users) {
+        EventSubscription subscription = new EventSubscription();
+        subscription.setTypes(types);
+        subscription.setRooms(rooms);
+        subscription.setUsers(users);
+        return subscription;
+    }
+
+    private static ChatAlyticsEvent emoji(String user, String room, boolean bot) {
+        return new ChatAlyticsEvent(TIME, "emoji_entity",
+                                    new EmojiEntity(user, room, TIME, "smile", 1, bot));
+    }
+
+    private static ChatAlyticsEvent summary(String user, String room, boolean bot) {
+        return new ChatAlyticsEvent(TIME, "message_summary",
+                                    new MessageSummary(user, room, TIME, MessageType.MESSAGE, 1,
+                                                       bot));
+    }
+}
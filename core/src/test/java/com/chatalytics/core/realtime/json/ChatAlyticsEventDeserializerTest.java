@@ -0,0 +1,96 @@
+package com.chatalytics.core.realtime.json;
+
+import com.chatalytics.core.json.JsonObjectMapperFactory;
+import com.chatalytics.core.model.data.ChatAlyticsEvent;
+import com.chatalytics.core.model.data.ChatEntity;
+import com.chatalytics.core.model.data.EmojiEntity;
+import com.chatalytics.core.model.data.MessageSummary;
+import com.chatalytics.core.model.data.MessageType;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests {@link ChatAlyticsEventDeserializer}
+ */
+public class ChatAlyticsEventDeserializerTest {
+
+    private static final DateTime TIME = new DateTime(1451606400123L, DateTimeZone.UTC);
+
+    private ObjectMapper objectMapper;
+
+    @Before
+    public void setUp() {
+        objectMapper = JsonObjectMapperFactory.createObjectMapper();
+    }
+
+    @Test
+    public void testDeserialize() throws Exception {
+        assertRoundTrip(new ChatAlyticsEvent(TIME, "message_summary",
+                                             new MessageSummary("jane", "general", TIME,
+                                                                MessageType.MESSAGE, 1, false)));
+        assertRoundTrip(new ChatAlyticsEvent(TIME, "emoji_entity",
+                                             new EmojiEntity("jane", "general", TIME, "smile", 2,
+                                                             false)));
+        assertRoundTrip(new ChatAlyticsEvent(TIME, "chat_entity",
+                                             new ChatEntity("bot", "random", TIME, "Boston", 1,
+                                                            true)));
+    }
+
+    /**
+     * Makes sure that an event whose type isn't registered is still decoded by its class
+     */
+    @Test
+    public void testDeserialize_byClass() throws Exception {
+        assertRoundTrip(new ChatAlyticsEvent(TIME, "renamed",
+                                             new EmojiEntity("jane", "general", TIME, "smile", 2,
+                                                             false)));
+    }
+
+    /**
+     * Makes sure that the event can come before its type, and that the class field is optional
+     */
+    @Test
+    public void testDeserialize_eventBeforeType() throws Exception {
+        String json = "{\"event\":{\"username\":\"jane\",\"room_name\":\"general\","
+            + "\"mention_time\":1451606400123,\"value\":\"smile\",\"occurrences\":2,"
+            + "\"bot\":false},\"event_time\":1451606400123,\"type\":\"emoji_entity\"}";
+        ChatAlyticsEvent event = objectMapper.readValue(json, ChatAlyticsEvent.class);
+        assertEquals("emoji_entity", event.getType());
+        assertEquals(TIME.getMillis(), event.getEventTime().getMillis());
+        EmojiEntity emoji = (EmojiEntity) event.getEvent();
+        assertEquals("smile", emoji.getValue());
+        assertEquals(2, emoji.getOccurrences());
+    }
+
+    /**
+     * Makes sure that class names that aren't registered are never loaded
+     */
+    @Test(expected = JsonMappingException.class)
+    public void testDeserialize_unregisteredClass() throws Exception {
+        String json = "{\"event_time\":1451606400123,\"type\":\"string\","
+            + "\"event\":\"some event\",\"clazz\":\"java.lang.String\"}";
+        objectMapper.readValue(json, ChatAlyticsEvent.class);
+    }
+
+    @Test(expected = JsonMappingException.class)
+    public void testDeserialize_noEvent() throws Exception {
+        String json = "{\"event_time\":1451606400123,\"type\":\"emoji_entity\"}";
+        objectMapper.readValue(json, ChatAlyticsEvent.class);
+    }
+
+    private void assertRoundTrip(ChatAlyticsEvent event) throws Exception {
+        String json = objectMapper.writeValueAsString(event);
+        ChatAlyticsEvent decoded = objectMapper.readValue(json, ChatAlyticsEvent.class);
+        assertEquals(event.getType(), decoded.getType());
+        assertEquals(event.getEventTime().getMillis(), decoded.getEventTime().getMillis());
+        assertEquals(event.getEvent().getClass(), decoded.getEvent().getClass());
+        assertEquals(event.getClazz(), decoded.getClazz());
+    }
+}
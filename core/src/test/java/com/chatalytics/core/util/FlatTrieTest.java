@@ -0,0 +1,51 @@
+package com.chatalytics.core.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests {@link FlatTrie}
+ */
+public class FlatTrieTest {
+
+    @Test
+    public void testNext() {
+        FlatTrie.Builder builder = new FlatTrie.Builder();
+        assertTrue(builder.add(new int[] { 3, 1 }, 0));
+        assertTrue(builder.add(new int[] { 3 }, 1));
+        assertTrue(builder.add(new int[] { 3, 2 }, 2));
+        assertFalse(builder.add(new int[] { 3, 1 }, 3));
+        FlatTrie underTest = builder.build();
+
+        assertEquals(4, underTest.numStates());
+        int state = underTest.next(FlatTrie.ROOT, 3);
+        assertEquals(1, underTest.getValue(state));
+        assertEquals(0, underTest.getValue(underTest.next(state, 1)));
+        assertEquals(2, underTest.getValue(underTest.next(state, 2)));
+        assertEquals(FlatTrie.NO_STATE, underTest.next(state, 4));
+        assertEquals(FlatTrie.NO_STATE, underTest.next(FlatTrie.ROOT, 1));
+        assertEquals(FlatTrie.NO_VALUE, underTest.getValue(FlatTrie.ROOT));
+    }
+
+    /**
+     * Makes sure that the edges of a state are sorted by key
+     */
+    @Test
+    public void testEdges() {
+        FlatTrie.Builder builder = new FlatTrie.Builder();
+        builder.add(new int[] { 9 }, 0);
+        builder.add(new int[] { 2 }, 1);
+        builder.add(new int[] { 5 }, 2);
+        FlatTrie underTest = builder.build();
+
+        int edge = underTest.edgesStart(FlatTrie.ROOT);
+        assertEquals(3, underTest.edgesEnd(FlatTrie.ROOT) - edge);
+        assertEquals(2, underTest.getEdgeKey(edge));
+        assertEquals(5, underTest.getEdgeKey(edge + 1));
+        assertEquals(9, underTest.getEdgeKey(edge + 2));
+        assertEquals(1, underTest.getValue(underTest.getEdgeTarget(edge)));
+    }
+}
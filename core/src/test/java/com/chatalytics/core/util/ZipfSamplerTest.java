@@ -0,0 +1,71 @@
+package com.chatalytics.core.util;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests {@link ZipfSampler}
+ */
+public class ZipfSamplerTest {
+
+    @Test
+    public void testGetProbability() {
+        ZipfSampler underTest = new ZipfSampler(3, 1);
+        assertEquals(3, underTest.getNumRanks());
+        // 1, 1/2 and 1/3 normalized
+        assertEquals(6.0 / 11, underTest.getProbability(0), 1e-9);
+        assertEquals(3.0 / 11, underTest.getProbability(1), 1e-9);
+        assertEquals(2.0 / 11, underTest.getProbability(2), 1e-9);
+    }
+
+    @Test
+    public void testGetProbability_uniform() {
+        ZipfSampler underTest = new ZipfSampler(4, 0);
+        for (int rank = 0; rank < 4; rank++) {
+            assertEquals(0.25, underTest.getProbability(rank), 1e-9);
+        }
+    }
+
+    @Test
+    public void testSample() {
+        ZipfSampler underTest = new ZipfSampler(4, 0);
+        assertEquals(0, underTest.sample(0));
+        assertEquals(0, underTest.sample(0.2));
+        assertEquals(1, underTest.sample(0.25));
+        assertEquals(3, underTest.sample(0.99));
+        assertEquals(3, underTest.sample(1));
+    }
+
+    /**
+     * Makes sure that the sampled ranks follow the distribution
+     */
+    @Test
+    public void testSample_distribution() {
+        ZipfSampler underTest = new ZipfSampler(10000, 1.2);
+        Random rand = new Random(0);
+        int numSamples = 100000;
+        int[] counts = new int[underTest.getNumRanks()];
+        for (int i = 0; i < numSamples; i++) {
+            counts[underTest.sample(rand.nextDouble())]++;
+        }
+        for (int rank = 0; rank < 3; rank++) {
+            double expected = underTest.getProbability(rank) * numSamples;
+            assertEquals(expected, counts[rank], expected * 0.05);
+        }
+        assertTrue(counts[0] > counts[1] && counts[1] > counts[2]);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testConstructor_noRanks() {
+        new ZipfSampler(0, 1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testConstructor_negativeExponent() {
+        new ZipfSampler(10, -1);
+    }
+}
@@ -1,5 +1,7 @@
 package com.chatalytics.web;
 
+import com.chatalytics.compute.chat.dao.CachingChatApiDAO;
+import com.chatalytics.compute.chat.dao.ChatAPIFactory;
 import com.chatalytics.compute.db.dao.ChatAlyticsDAOFactory;
 import com.chatalytics.core.CommonCLIBuilder;
 import com.chatalytics.core.config.ChatAlyticsConfig;
@@ -85,7 +87,7 @@ public class ServerMain extends Application {
         LOG.info("Loading config {}", configName);
         ChatAlyticsConfig config = YamlUtils.readChatAlyticsConfig(configName);
 
-        EventsResource eventResource = new EventsResource();
+        EventsResource eventResource = new EventsResource(config.webConfig);
         RealtimeComputeClient computeClient = new RealtimeComputeClient(config, eventResource);
         ServerMain serverMain = new ServerMain(config, computeClient);
 
@@ -118,7 +120,7 @@ public class ServerMain extends Application {
         server.setHandler(handlers);
         setWebSocketEndpoints(context, eventResource);
 
-        addShutdownHook(computeClient);
+        addShutdownHook(computeClient, eventResource);
 
         LOG.info("Starting web server");
         server.start();
@@ -131,10 +133,13 @@ public class ServerMain extends Application {
         JacksonJaxbJsonProvider jsonProvider = new JacksonJaxbJsonProvider();
         jsonProvider.setMapper(JsonObjectMapperFactory.createObjectMapper(config.inputType));
 
+        // the resources share the cached users, rooms and emojis
+        CachingChatApiDAO chatApiDao = ChatAPIFactory.getCachingChatApiDao(config);
+
         return Sets.newHashSet(new EntitiesResource(config),
-                               new EmojisResource(config),
-                               new UsersResource(config),
-                               new RoomsResource(config),
+                               new EmojisResource(config, chatApiDao),
+                               new UsersResource(chatApiDao),
+                               new RoomsResource(chatApiDao),
                                new MessageSummaryResource(config),
                                new StatusResource(),
                                new ApiListingResource(),
@@ -181,12 +186,15 @@ public class ServerMain extends Application {
      * Closes all open resources
      *
      * @param computeClient The compute client to close
+     * @param eventResource The websocket endpoint to close
      */
-    private static void addShutdownHook(RealtimeComputeClient computeClient) {
+    private static void addShutdownHook(RealtimeComputeClient computeClient,
+                                        EventsResource eventResource) {
         Runtime.getRuntime().addShutdownHook(new Thread() {
             @Override
             public void run() {
                 computeClient.stopAsync().awaitTerminated();
+                eventResource.close();
                 ChatAlyticsDAOFactory.closeEntityManagerFactory();
             }
         });
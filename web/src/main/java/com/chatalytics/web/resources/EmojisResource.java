@@ -18,7 +18,6 @@ import com.chatalytics.web.utils.ResourceUtils;
 import com.fasterxml.jackson.core.JsonGenerationException;
 import com.fasterxml.jackson.databind.JsonMappingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Optional;
 
 import org.joda.time.DateTimeZone;
@@ -67,11 +66,10 @@ public class EmojisResource {
     private final Map<String, String> unicodeEmojis;
 
     public EmojisResource(ChatAlyticsConfig config) {
-        this(config, ChatAPIFactory.getChatApiDao(config));
+        this(config, ChatAPIFactory.getCachingChatApiDao(config));
     }
 
-    @VisibleForTesting
-    protected EmojisResource(ChatAlyticsConfig config, IChatApiDAO chatApiDao) {
+    public EmojisResource(ChatAlyticsConfig config, IChatApiDAO chatApiDao) {
         emojiDao = ChatAlyticsDAOFactory.createEmojiDAO(config);
         this.chatApiDao = chatApiDao;
         dtz = DateTimeZone.forID(config.timeZone);
@@ -1,22 +1,33 @@
 package com.chatalytics.web.resources;
 
+import com.chatalytics.core.config.WebConfig;
 import com.chatalytics.core.model.data.ChatAlyticsEvent;
+import com.chatalytics.core.model.data.EventSubscription;
+import com.chatalytics.core.realtime.BinaryEventCodec;
 import com.chatalytics.core.realtime.ChatAlyticsEventDecoder;
 import com.chatalytics.core.realtime.ChatAlyticsEventEncoder;
 import com.chatalytics.core.realtime.ConnectionTypeEncoderDecoder;
+import com.chatalytics.core.realtime.EventSubscriptionEncoderDecoder;
+import com.chatalytics.core.realtime.RealtimeWireFormat;
+import com.chatalytics.core.realtime.SessionSender;
+import com.chatalytics.core.realtime.SubscriberSessions;
+import com.chatalytics.core.realtime.SubscriptionIndex;
 import com.chatalytics.web.constant.WebConstants;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Throwables;
 
-import org.apache.storm.shade.com.google.common.collect.Sets;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.Closeable;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.Set;
 
 import javax.websocket.ClientEndpoint;
 import javax.websocket.CloseReason;
+import javax.websocket.DecodeException;
+import javax.websocket.EncodeException;
 import javax.websocket.OnClose;
 import javax.websocket.OnError;
 import javax.websocket.OnMessage;
@@ -27,31 +38,48 @@ import javax.websocket.server.ServerEndpoint;
 /**
  * This resource will pipe {@link ChatAlyticsEvent}s received from the compute server to any clients
  * listening for realtime events using sockets. The compute client and this resource clients are
- * sharing a set of all the open client sessions
+ * sharing a set of all the open client sessions. The compute server sends binary frames, which are
+ * sent on to the clients as JSON.
+ * <p/>
+ * Clients receive every event until they send an {@link EventSubscription} as a text message, and
+ * from then on only the events that match it. A {@link SubscriptionIndex} routes every event to
+ * the matching clients only. Every client has its own bounded queue in a {@link SessionSender}, so
+ * a slow client only ever loses its own events.
  *
  * @author giannis
  */
 @ServerEndpoint(value = EventsResource.RT_EVENT_ENDPOINT,
-                decoders = { ChatAlyticsEventDecoder.class },
                 encoders = { ChatAlyticsEventEncoder.class })
-@ClientEndpoint(decoders = { ChatAlyticsEventDecoder.class, ConnectionTypeEncoderDecoder.class })
-public class EventsResource {
+@ClientEndpoint(subprotocols = { RealtimeWireFormat.BINARY_SUBPROTOCOL,
+                                 RealtimeWireFormat.JSON_SUBPROTOCOL },
+                decoders = { ConnectionTypeEncoderDecoder.class })
+public class EventsResource implements Closeable {
 
     public static final String RT_EVENT_ENDPOINT = WebConstants.API_PATH + "events";
     private static final Logger LOG = LoggerFactory.getLogger(EventsResource.class);
 
-    private final Set<Session> sessions;
+    private final SubscriberSessions subscribers;
+    private final BinaryEventCodec binaryCodec;
+    private final ChatAlyticsEventEncoder eventEncoder;
+    private final ChatAlyticsEventDecoder eventDecoder;
+    private final EventSubscriptionEncoderDecoder subscriptionDecoder;
     private boolean connectedToCompute;
 
-    public EventsResource() {
-        this.sessions = Sets.newConcurrentHashSet();
+    public EventsResource(WebConfig config) {
+        this.subscribers = new SubscriberSessions(config.rtSessionQueueSize,
+                                                  config.rtSlowConsumerPolicy,
+                                                  config.rtSessionReapSecs, "rt-events");
+        this.binaryCodec = new BinaryEventCodec();
+        this.eventEncoder = new ChatAlyticsEventEncoder();
+        this.eventDecoder = new ChatAlyticsEventDecoder();
+        this.subscriptionDecoder = new EventSubscriptionEncoderDecoder();
         connectedToCompute = false;
     }
 
     @OnOpen
     public void onOpen(Session session) {
         session.setMaxIdleTimeout(0);
-        if (session.getRequestURI().getPath().startsWith(RT_EVENT_ENDPOINT)) {
+        if (isClientSession(session)) {
             LOG.info("Got a new web subscription connection request with ID {}", session.getId());
             if (!connectedToCompute) {
                 try {
@@ -62,16 +90,7 @@ public class EventsResource {
                 }
                 return;
             }
-            // cleanup sessions
-            Set<Session> closedSessions = Sets.newHashSet();
-            for (Session existingSession : sessions) {
-                if (!existingSession.isOpen()) {
-                    closedSessions.add(existingSession);
-                }
-            }
-            sessions.removeAll(closedSessions);
-
-            sessions.add(session);
+            subscribers.add(session, false);
         } else {
             LOG.info("Handshaked with compute server...");
             connectedToCompute = true;
@@ -88,10 +107,10 @@ public class EventsResource {
      */
     @OnClose
     public void close(Session session, CloseReason reason) {
-        if (session.getRequestURI().getPath().startsWith(RT_EVENT_ENDPOINT)) {
+        if (isClientSession(session)) {
             LOG.info("Closing session {}. Reason {}", session.getId(), reason);
             try {
-                sessions.remove(session);
+                subscribers.remove(session);
                 session.close();
             } catch (IOException e) {
                 LOG.warn("Couldn't close {}", session.getId());
@@ -102,12 +121,38 @@ public class EventsResource {
     }
 
     /**
-     * Called whenever a new event is received from the compute socket
+     * Called whenever a text message is received. Messages from clients are
+     * {@link EventSubscription}s and messages from the compute socket are events
+     *
+     * @param message
+     *            The message
+     * @param session
+     *            The session that sent the message
+     */
+    @OnMessage
+    public void onTextMessage(String message, Session session) {
+        try {
+            if (isClientSession(session)) {
+                EventSubscription subscription = subscriptionDecoder.decode(message);
+                LOG.info("Session {} subscribed to {}", session.getId(), subscription);
+                subscribers.subscribe(session, subscription);
+            } else {
+                onMessage(eventDecoder.decode(message));
+            }
+        } catch (DecodeException e) {
+            LOG.warn("Can't decode message from session {}. Reason {}", session.getId(),
+                     e.getMessage());
+        }
+    }
+
+    /**
+     * Called whenever a new event is received from the compute socket. The event is only queued for
+     * the clients that subscribed to it. It's encoded once and the same text frame is shared by all
+     * of them. Closed sessions are skipped and left for the reaper to collect
      *
      * @param event
      *            The triggering event
      */
-    @OnMessage
     public void onMessage(ChatAlyticsEvent event) {
 
         LOG.debug("Got realtime event: {}", event);
@@ -115,17 +160,39 @@ public class EventsResource {
         // don't expose package info to client
         event.setClazz(null);
 
-        Set<Session> closedSessions = Sets.newHashSet();
-        for (Session clientSession : sessions) {
-            if (!clientSession.isOpen()) {
-                closedSessions.add(clientSession);
+        String frame = null;
+        Object coalesceKey = SessionSender.getCoalesceKey(event);
+        for (SessionSender sender : subscribers.getSenders(event)) {
+            if (!sender.getSession().isOpen()) {
                 continue;
             }
-
-            clientSession.getAsyncRemote().sendObject(event);
+            if (frame == null) {
+                try {
+                    frame = eventEncoder.encode(event);
+                } catch (EncodeException e) {
+                    LOG.error("Can't encode {}. Dropping it", event, e);
+                    return;
+                }
+            }
+            sender.send(frame, coalesceKey);
         }
+    }
 
-        sessions.removeAll(closedSessions);
+    /**
+     * Called whenever a binary frame of events is received from the compute socket
+     *
+     * @param frame
+     *            The events encoded with {@link BinaryEventCodec}
+     */
+    @OnMessage
+    public void onBinaryMessage(ByteBuffer frame) {
+        try {
+            for (ChatAlyticsEvent event : binaryCodec.decode(frame)) {
+                onMessage(event);
+            }
+        } catch (IOException e) {
+            LOG.error("Can't decode binary frame from compute. Dropping it", e);
+        }
     }
 
     /**
@@ -141,10 +208,25 @@ public class EventsResource {
 
     @VisibleForTesting
     protected Set<Session> getSessions() {
-        return sessions;
+        return subscribers.getSessions();
+    }
+
+    /**
+     * @return True if the session is of a client and not of the compute socket
+     */
+    private boolean isClientSession(Session session) {
+        return session.getRequestURI().getPath().startsWith(RT_EVENT_ENDPOINT);
     }
 
     protected boolean isConnectedToCompute() {
         return connectedToCompute;
     }
+
+    /**
+     * Stops collecting closed sessions
+     */
+    @Override
+    public void close() {
+        subscribers.close();
+    }
 }
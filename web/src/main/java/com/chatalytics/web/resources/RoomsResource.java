@@ -1,18 +1,15 @@
 package com.chatalytics.web.resources;
 
+import com.chatalytics.compute.chat.dao.CachingChatApiDAO;
 import com.chatalytics.compute.chat.dao.ChatAPIFactory;
-import com.chatalytics.compute.chat.dao.IChatApiDAO;
 import com.chatalytics.core.config.ChatAlyticsConfig;
 import com.chatalytics.core.model.data.Room;
 import com.chatalytics.web.constant.WebConstants;
-import com.google.common.annotations.VisibleForTesting;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.Map;
-import java.util.function.Function;
-import java.util.stream.Collectors;
 
 import javax.ws.rs.GET;
 import javax.ws.rs.Path;
@@ -31,14 +28,13 @@ public class RoomsResource {
     public static final String ROOM_ENDPOINT = WebConstants.API_PATH + "rooms";
     private static final Logger LOG = LoggerFactory.getLogger(RoomsResource.class);
 
-    private final IChatApiDAO chatApiDao;
+    private final CachingChatApiDAO chatApiDao;
 
     public RoomsResource(ChatAlyticsConfig config) {
-        this(ChatAPIFactory.getChatApiDao(config));
+        this(ChatAPIFactory.getCachingChatApiDao(config));
     }
 
-    @VisibleForTesting
-    protected RoomsResource(IChatApiDAO chatApiDao) {
+    public RoomsResource(CachingChatApiDAO chatApiDao) {
         this.chatApiDao = chatApiDao;
     }
 
@@ -49,9 +45,7 @@ public class RoomsResource {
     @Produces(MediaType.APPLICATION_JSON)
     public Map<String, Room> getRooms() {
         LOG.debug("Got a call to get rooms");
-        return chatApiDao.getRooms().values().stream()
-                         .collect(Collectors.toMap(Room::getName,
-                                                   Function.identity()));
+        return chatApiDao.getRoomsByName();
     }
 
     /**
@@ -65,8 +59,7 @@ public class RoomsResource {
     @Path("room")
     @Produces(MediaType.APPLICATION_JSON)
     public Room getRoom(@QueryParam(ROOM) String roomName) {
-        Map<String, Room> rooms = getRooms();
-        return rooms.get(roomName);
+        return chatApiDao.getRoomByName(roomName);
     }
 
 }
@@ -1,17 +1,15 @@
 package com.chatalytics.web.resources;
 
+import com.chatalytics.compute.chat.dao.CachingChatApiDAO;
 import com.chatalytics.compute.chat.dao.ChatAPIFactory;
-import com.chatalytics.compute.chat.dao.IChatApiDAO;
 import com.chatalytics.core.config.ChatAlyticsConfig;
 import com.chatalytics.core.model.data.User;
 import com.chatalytics.web.constant.WebConstants;
-import com.google.common.annotations.VisibleForTesting;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.Map;
-import java.util.function.Function;
 import java.util.stream.Collectors;
 
 import javax.ws.rs.GET;
@@ -31,14 +29,13 @@ public class UsersResource {
     public static final String USER_ENDPOINT = WebConstants.API_PATH + "users";
     private static final Logger LOG = LoggerFactory.getLogger(UsersResource.class);
 
-    private final IChatApiDAO chatApiDao;
+    private final CachingChatApiDAO chatApiDao;
 
     public UsersResource(ChatAlyticsConfig config) {
-        this(ChatAPIFactory.getChatApiDao(config));
+        this(ChatAPIFactory.getCachingChatApiDao(config));
     }
 
-    @VisibleForTesting
-    protected UsersResource(IChatApiDAO chatApiDao) {
+    public UsersResource(CachingChatApiDAO chatApiDao) {
         this.chatApiDao = chatApiDao;
     }
 
@@ -49,9 +46,7 @@ public class UsersResource {
     @Produces(MediaType.APPLICATION_JSON)
     public Map<String, User> getUsers() {
         LOG.debug("Got a call to get users");
-        return chatApiDao.getUsers().values().stream()
-                                             .collect(Collectors.toMap(User::getMentionName,
-                                                                       Function.identity()));
+        return chatApiDao.getUsersByMentionName();
     }
 
     /**
@@ -65,8 +60,7 @@ public class UsersResource {
     @Path("user")
     @Produces(MediaType.APPLICATION_JSON)
     public User getUser(@QueryParam(USER) String username) {
-        Map<String, User> users = getUsers();
-        return users.get(username);
+        return chatApiDao.getUserByMentionName(username);
     }
 
     /**
@@ -77,10 +71,9 @@ public class UsersResource {
     @Produces(MediaType.APPLICATION_JSON)
     public Map<String, String> getUserPhotoURLs() {
         LOG.debug("Got a call to get user photo URLs");
-        return chatApiDao.getUsers().values().stream()
-                                             .filter(u -> u.getMentionName() != null
-                                                          && u.getPhotoUrl() != null)
-                                             .collect(Collectors.toMap(User::getMentionName,
-                                                                       User::getPhotoUrl));
+        return chatApiDao.getUsersByMentionName().values().stream()
+                                                 .filter(u -> u.getPhotoUrl() != null)
+                                                 .collect(Collectors.toMap(User::getMentionName,
+                                                                           User::getPhotoUrl));
     }
 }
@@ -1,24 +1,46 @@
 package com.chatalytics.web.resources;
 
+import com.chatalytics.core.config.WebConfig;
 import com.chatalytics.core.model.data.ChatAlyticsEvent;
-
+import com.chatalytics.core.model.data.ChatEntity;
+import com.chatalytics.core.model.data.EmojiEntity;
+import com.chatalytics.core.model.data.EventSubscription;
+import com.chatalytics.core.realtime.BinaryEventCodec;
+import com.chatalytics.core.realtime.ChatAlyticsEventEncoder;
+import com.chatalytics.core.realtime.EventSubscriptionEncoderDecoder;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.stubbing.Answer;
 
 import java.io.IOException;
 import java.net.URI;
+import java.nio.ByteBuffer;
 import java.util.Set;
 
 import javax.websocket.CloseReason;
+import javax.websocket.EncodeException;
 import javax.websocket.RemoteEndpoint.Async;
+import javax.websocket.SendHandler;
+import javax.websocket.SendResult;
 import javax.websocket.Session;
 
 import static com.chatalytics.compute.web.realtime.RealtimeResource.RT_COMPUTE_ENDPOINT;
 import static com.chatalytics.web.resources.EventsResource.RT_EVENT_ENDPOINT;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
@@ -38,7 +60,7 @@ public class EventsResourceTest {
 
     @Before
     public void setUp() {
-        underTest = new EventsResource();
+        underTest = new EventsResource(new WebConfig());
     }
 
     /**
@@ -97,7 +119,7 @@ public class EventsResourceTest {
         assertEquals(1, underTest.getSessions().size());
         assertEquals(firstClientSession, underTest.getSessions().iterator().next());
 
-        // close the first session
+        // close the first session. Closed sessions are collected by the reaper, not on open
         when(firstClientSession.isOpen()).thenReturn(false);
         // open second client session
         Session secondClientSession = mock(Session.class);
@@ -107,23 +129,21 @@ public class EventsResourceTest {
         verify(secondClientSession).getId();
         verify(secondClientSession).setMaxIdleTimeout(0);
         verifyNoMoreInteractions(secondClientSession);
-        assertEquals(1, underTest.getSessions().size());
-        assertEquals(secondClientSession, underTest.getSessions().iterator().next());
+        verifyNoMoreInteractions(firstClientSession);
+        assertEquals(2, underTest.getSessions().size());
 
         // add a third session
-        when(secondClientSession.isOpen()).thenReturn(true);
         Session thirdClientSession = mock(Session.class);
         when(thirdClientSession.getRequestURI()).thenReturn(resourceURI);
         underTest.onOpen(thirdClientSession);
-        verify(secondClientSession).isOpen();
-        verifyNoMoreInteractions(secondClientSession);
         verify(thirdClientSession).getRequestURI();
         verify(thirdClientSession).getId();
         verify(thirdClientSession).setMaxIdleTimeout(0);
         verifyNoMoreInteractions(thirdClientSession);
-        assertEquals(2, underTest.getSessions().size());
+        assertEquals(3, underTest.getSessions().size());
 
         Set<Session> sessions = underTest.getSessions();
+        assertTrue(sessions.contains(firstClientSession));
         assertTrue(sessions.contains(secondClientSession));
         assertTrue(sessions.contains(thirdClientSession));
     }
@@ -225,11 +245,10 @@ public class EventsResourceTest {
 
     /**
      * Given an open and a closed session, this test makes sure that the event is only sent to the
-     * open session. It also makes sure that the closed session gets removed from the list of open
-     * sessions
+     * open session. The closed session is left for the reaper to collect
      */
     @Test
-    public void testOnMessage() {
+    public void testOnMessage() throws Exception {
         // open the compute connection
         Session computeSession = mock(Session.class);
         URI computeURI = URI.create("http://fake" + RT_COMPUTE_ENDPOINT);
@@ -242,7 +261,7 @@ public class EventsResourceTest {
         assertTrue(underTest.isConnectedToCompute());
 
         // add two sessions, one closed and one open
-        Async asyncRemote = mock(Async.class);
+        Async asyncRemote = mockRemote();
 
         // open first client session
         Session firstClientSession = mock(Session.class);
@@ -271,14 +290,111 @@ public class EventsResourceTest {
 
         // close the first session
         when(firstClientSession.isOpen()).thenReturn(false);
-        ChatAlyticsEvent event = mock(ChatAlyticsEvent.class);
+        DateTime time = DateTime.now(DateTimeZone.UTC);
+        ChatAlyticsEvent event = new ChatAlyticsEvent(time, "emoji_entity",
+                                                      new EmojiEntity("user", "room", time,
+                                                                      "smile", 1, false));
         underTest.onMessage(event);
 
-        verify(event).setClazz(null);
+        assertNull(event.getClazz());
         verify(firstClientSession, never()).getAsyncRemote();
         verify(secondClientSession).getAsyncRemote();
-        verify(asyncRemote).sendObject(event);
-        assertEquals(1, underTest.getSessions().size());
+        verify(asyncRemote).sendText(eq(json(event)), any(SendHandler.class));
+        assertEquals(2, underTest.getSessions().size());
+    }
+
+    /**
+     * Makes sure that every event of a binary frame from compute is sent on to the clients
+     */
+    @Test
+    public void testOnBinaryMessage() throws Exception {
+        Session computeSession = mock(Session.class);
+        when(computeSession.getRequestURI()).thenReturn(URI.create("http://fake"
+                                                                   + RT_COMPUTE_ENDPOINT));
+        underTest.onOpen(computeSession);
+        Session clientSession = mock(Session.class);
+        Async asyncRemote = mockRemote();
+        when(clientSession.getRequestURI()).thenReturn(URI.create("http://fake"
+                                                                  + RT_EVENT_ENDPOINT));
+        when(clientSession.isOpen()).thenReturn(true);
+        when(clientSession.getAsyncRemote()).thenReturn(asyncRemote);
+        underTest.onOpen(clientSession);
+
+        DateTime time = DateTime.now(DateTimeZone.UTC);
+        ChatAlyticsEvent event1 = new ChatAlyticsEvent(time, "emoji_entity",
+                                                       new EmojiEntity("user", "room", time,
+                                                                       "smile", 1, false));
+        ChatAlyticsEvent event2 = new ChatAlyticsEvent(time, "chat_entity",
+                                                       new ChatEntity("user", "room", time,
+                                                                      "Boston", 2, false));
+        underTest.onBinaryMessage(new BinaryEventCodec().encode(ImmutableList.of(event1, event2)));
+        event1.setClazz(null);
+        event2.setClazz(null);
+        verify(asyncRemote).sendText(eq(json(event1)), any(SendHandler.class));
+        verify(asyncRemote).sendText(eq(json(event2)), any(SendHandler.class));
+    }
+
+    /**
+     * Makes sure that clients only receive the events they subscribed to and that text events from
+     * compute are sent on to the clients
+     */
+    @Test
+    public void testOnTextMessage() throws Exception {
+        Session computeSession = mock(Session.class);
+        when(computeSession.getRequestURI()).thenReturn(URI.create("http://fake"
+                                                                   + RT_COMPUTE_ENDPOINT));
+        underTest.onOpen(computeSession);
+        URI resourceURI = URI.create("http://fake" + RT_EVENT_ENDPOINT);
+        Session generalSession = mock(Session.class);
+        Async generalRemote = mockRemote();
+        when(generalSession.getRequestURI()).thenReturn(resourceURI);
+        when(generalSession.isOpen()).thenReturn(true);
+        when(generalSession.getAsyncRemote()).thenReturn(generalRemote);
+        underTest.onOpen(generalSession);
+        Session allSession = mock(Session.class);
+        Async allRemote = mockRemote();
+        when(allSession.getRequestURI()).thenReturn(resourceURI);
+        when(allSession.isOpen()).thenReturn(true);
+        when(allSession.getAsyncRemote()).thenReturn(allRemote);
+        underTest.onOpen(allSession);
+
+        EventSubscription subscription = new EventSubscription();
+        subscription.setRooms(ImmutableSet.of("general"));
+        underTest.onTextMessage(new EventSubscriptionEncoderDecoder().encode(subscription),
+                                generalSession);
+        // malformed subscriptions are ignored
+        underTest.onTextMessage("bad json", generalSession);
+
+        DateTime time = DateTime.now(DateTimeZone.UTC);
+        ChatAlyticsEvent randomEvent =
+            new ChatAlyticsEvent(time, "emoji_entity",
+                                 new EmojiEntity("user", "random", time, "smile", 1, false));
+        ChatAlyticsEvent generalEvent =
+            new ChatAlyticsEvent(time, "emoji_entity",
+                                 new EmojiEntity("user", "general", time, "smile", 1, false));
+        ChatAlyticsEventEncoder encoder = new ChatAlyticsEventEncoder();
+        underTest.onTextMessage(encoder.encode(randomEvent), computeSession);
+        underTest.onTextMessage(encoder.encode(generalEvent), computeSession);
+        randomEvent.setClazz(null);
+        generalEvent.setClazz(null);
+
+        verify(allRemote).sendText(eq(json(randomEvent)), any(SendHandler.class));
+        ArgumentCaptor<String> allFrame = ArgumentCaptor.forClass(String.class);
+        ArgumentCaptor<String> generalFrame = ArgumentCaptor.forClass(String.class);
+        verify(allRemote, times(2)).sendText(allFrame.capture(), any(SendHandler.class));
+        verify(generalRemote).sendText(generalFrame.capture(), any(SendHandler.class));
+        assertEquals(json(generalEvent), generalFrame.getValue());
+        // the event is encoded once for all the clients
+        assertSame(generalFrame.getValue(), allFrame.getAllValues().get(1));
+        verifyNoMoreInteractions(allRemote, generalRemote);
+    }
+
+    /**
+     * Makes sure that a malformed binary frame is dropped without an exception
+     */
+    @Test
+    public void testOnBinaryMessage_malformed() {
+        underTest.onBinaryMessage(ByteBuffer.wrap(new byte[] { 42 }));
     }
 
     /**
@@ -288,4 +404,28 @@ public class EventsResourceTest {
     public void testOnError() {
         underTest.onError(new RuntimeException());
     }
+
+    @After
+    public void tearDown() {
+        underTest.close();
+    }
+
+    /**
+     * @return A remote that completes every write right away
+     */
+    private static String json(ChatAlyticsEvent event) throws EncodeException {
+        return new ChatAlyticsEventEncoder().encode(event);
+    }
+
+    private Async mockRemote() {
+        Async remote = mock(Async.class);
+        Answer<Void> complete = invocation -> {
+            ((SendHandler) invocation.getArguments()[1]).onResult(new SendResult());
+            return null;
+        };
+        doAnswer(complete).when(remote).sendObject(any(), any(SendHandler.class));
+        doAnswer(complete).when(remote).sendBinary(any(ByteBuffer.class), any(SendHandler.class));
+        doAnswer(complete).when(remote).sendText(any(String.class), any(SendHandler.class));
+        return remote;
+    }
 }
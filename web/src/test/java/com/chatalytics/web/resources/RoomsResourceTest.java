@@ -1,6 +1,8 @@
 package com.chatalytics.web.resources;
 
+import com.chatalytics.compute.chat.dao.CachingChatApiDAO;
 import com.chatalytics.compute.chat.dao.IChatApiDAO;
+import com.chatalytics.core.config.WebConfig;
 import com.chatalytics.core.model.data.Room;
 import com.google.common.collect.ImmutableMap;
 
@@ -26,7 +28,7 @@ public class RoomsResourceTest {
     @Before
     public void setUp() {
         chatApiDao = mock(IChatApiDAO.class);
-        underTest = new RoomsResource(chatApiDao);
+        underTest = new RoomsResource(new CachingChatApiDAO(chatApiDao, new WebConfig()));
     }
 
     @Test
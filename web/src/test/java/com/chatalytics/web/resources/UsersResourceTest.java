@@ -1,6 +1,8 @@
 package com.chatalytics.web.resources;
 
+import com.chatalytics.compute.chat.dao.CachingChatApiDAO;
 import com.chatalytics.compute.chat.dao.IChatApiDAO;
+import com.chatalytics.core.config.WebConfig;
 import com.chatalytics.core.model.data.User;
 import com.google.common.collect.ImmutableMap;
 
@@ -27,7 +29,7 @@ public class UsersResourceTest {
     @Before
     public void setUp() {
         chatApiDao = mock(IChatApiDAO.class);
-        underTest = new UsersResource(chatApiDao);
+        underTest = new UsersResource(new CachingChatApiDAO(chatApiDao, new WebConfig()));
     }
 
     @Test